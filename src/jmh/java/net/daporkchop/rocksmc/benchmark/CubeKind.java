@@ -0,0 +1,140 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2021-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package net.daporkchop.rocksmc.benchmark;
+
+import lombok.RequiredArgsConstructor;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagList;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * The different kinds of synthetic cube NBT data used by the benchmarks.
+ * <p>
+ * The data is laid out the same way as Cubic Chunks' cube NBT.
+ *
+ * @author DaPorkchop_
+ */
+@RequiredArgsConstructor
+public enum CubeKind {
+    /**
+     * A cube which contains nothing but air, such as most cubes in the sky.
+     */
+    EMPTY(false, 0, 0),
+    /**
+     * A cube containing terrain, with a few tile entities and entities.
+     */
+    TYPICAL(true, 2, 1),
+    /**
+     * A cube containing terrain, with lots of tile entities and entities (e.g. a storage room).
+     */
+    DENSE(true, 64, 16);
+
+    protected final boolean section;
+    protected final int tileEntities;
+    protected final int entities;
+
+    /**
+     * Creates a new synthetic cube NBT tag.
+     *
+     * @param x      the cube's X coordinate
+     * @param y      the cube's Y coordinate
+     * @param z      the cube's Z coordinate
+     * @param random the {@link Random} to use for generating the cube's contents
+     * @return the cube NBT
+     */
+    public NBTTagCompound create(int x, int y, int z, Random random) {
+        NBTTagCompound level = new NBTTagCompound();
+        level.setInteger("v", 1);
+        level.setInteger("x", x);
+        level.setInteger("y", y);
+        level.setInteger("z", z);
+        level.setBoolean("populated", true);
+        level.setBoolean("fullyPopulated", true);
+        level.setBoolean("isSurfaceTracked", true);
+        level.setBoolean("initLightDone", true);
+
+        NBTTagList sections = new NBTTagList();
+        if (this.section) {
+            //terrain consists of long runs of the same block, which is what makes it compressible
+            byte[] blocks = new byte[4096];
+            for (int i = 0; i < blocks.length; ) {
+                byte block = (byte) random.nextInt(16);
+                for (int run = 1 + random.nextInt(64); run > 0 && i < blocks.length; run--) {
+                    blocks[i++] = block;
+                }
+            }
+
+            NBTTagCompound section = new NBTTagCompound();
+            section.setByteArray("Blocks", blocks);
+            section.setByteArray("Data", new byte[2048]);
+            section.setByteArray("BlockLight", new byte[2048]);
+            byte[] skyLight = new byte[2048];
+            Arrays.fill(skyLight, (byte) 0xFF);
+            section.setByteArray("SkyLight", skyLight);
+            sections.appendTag(section);
+        }
+        level.setTag("Sections", sections);
+
+        NBTTagList tileEntities = new NBTTagList();
+        for (int i = 0; i < this.tileEntities; i++) {
+            NBTTagCompound tileEntity = new NBTTagCompound();
+            tileEntity.setString("id", "minecraft:chest");
+            tileEntity.setInteger("x", (x << 4) + random.nextInt(16));
+            tileEntity.setInteger("y", (y << 4) + random.nextInt(16));
+            tileEntity.setInteger("z", (z << 4) + random.nextInt(16));
+
+            NBTTagList items = new NBTTagList();
+            for (int slot = 0; slot < 27; slot++) {
+                NBTTagCompound item = new NBTTagCompound();
+                item.setByte("Slot", (byte) slot);
+                item.setString("id", "minecraft:cobblestone");
+                item.setByte("Count", (byte) (1 + random.nextInt(64)));
+                item.setShort("Damage", (short) 0);
+                items.appendTag(item);
+            }
+            tileEntity.setTag("Items", items);
+            tileEntities.appendTag(tileEntity);
+        }
+        level.setTag("TileEntities", tileEntities);
+
+        NBTTagList entities = new NBTTagList();
+        for (int i = 0; i < this.entities; i++) {
+            NBTTagCompound entity = new NBTTagCompound();
+            entity.setString("id", "minecraft:cow");
+            entity.setLong("UUIDMost", random.nextLong());
+            entity.setLong("UUIDLeast", random.nextLong());
+            entity.setFloat("Health", 10.0f);
+            entity.setShort("Air", (short) 300);
+            entity.setBoolean("OnGround", true);
+            entities.appendTag(entity);
+        }
+        level.setTag("Entities", entities);
+
+        level.setTag("TileTicks", new NBTTagList());
+        level.setIntArray("LightingInfo", new int[256]);
+
+        NBTTagCompound root = new NBTTagCompound();
+        root.setTag("Level", level);
+        return root;
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2021-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package net.daporkchop.rocksmc.benchmark;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.buffer.Unpooled;
+import net.daporkchop.rocksmc.storage.local.LocalStorageImpl;
+import net.daporkchop.rocksmc.util.NBTSerializerUtils;
+import net.daporkchop.rocksmc.util.nbt.LazyNBTCompound;
+import net.minecraft.nbt.CompressedStreamTools;
+import net.minecraft.nbt.NBTSizeTracker;
+import net.minecraft.nbt.NBTTagCompound;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.rocksdb.RocksDB;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for encoding and decoding cube NBT data using {@link NBTSerializerUtils}.
+ *
+ * @author DaPorkchop_
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class NBTBenchmark {
+    @Param({ "EMPTY", "TYPICAL", "DENSE" })
+    public CubeKind cubeKind;
+
+    protected NBTTagCompound nbt;
+    protected ByteBuf encoded;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        RocksDB.loadLibrary(); //the buffer pools are in LocalStorageImpl, whose static initializer needs the native library
+
+        this.nbt = this.cubeKind.create(0, 0, 0, new Random(1337L));
+        this.encoded = Unpooled.directBuffer();
+        NBTSerializerUtils.writeNBT(this.encoded, this.nbt);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.encoded.release();
+    }
+
+    @Benchmark
+    public int encode() {
+        ByteBuf buf = LocalStorageImpl.CUBE_BUFFERS.allocate();
+        try {
+            NBTSerializerUtils.writeNBT(buf, this.nbt);
+            return buf.readableBytes();
+        } finally {
+            LocalStorageImpl.CUBE_BUFFERS.recycle(buf);
+        }
+    }
+
+    @Benchmark
+    public NBTTagCompound decode() {
+        return NBTSerializerUtils.readNBT(this.encoded.duplicate());
+    }
+
+    /**
+     * Reads a few values using a {@link LazyNBTCompound}, which is what tools that scan a whole world would typically do.
+     */
+    @Benchmark
+    public int decodeLazy() throws IOException {
+        LazyNBTCompound level = LazyNBTCompound.of(this.encoded).getCompoundTag("Level");
+        return level.getBoolean("populated") ? level.getTagListSize("TileEntities") + level.getTagListSize("Entities") : -1;
+    }
+
+    /**
+     * Encodes the data using vanilla's stream-based serialization, for comparison with {@link #encode()}.
+     */
+    @Benchmark
+    public int encodeVanilla() throws IOException {
+        ByteBuf buf = LocalStorageImpl.CUBE_BUFFERS.allocate();
+        try {
+            CompressedStreamTools.write(this.nbt, new ByteBufOutputStream(buf));
+            return buf.readableBytes();
+        } finally {
+            LocalStorageImpl.CUBE_BUFFERS.recycle(buf);
+        }
+    }
+
+    /**
+     * Decodes the data using vanilla's stream-based serialization, for comparison with {@link #decode()}.
+     */
+    @Benchmark
+    public NBTTagCompound decodeVanilla() throws IOException {
+        return CompressedStreamTools.read(new ByteBufInputStream(this.encoded.duplicate()), NBTSizeTracker.INFINITE);
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2021-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package net.daporkchop.rocksmc.benchmark;
+
+import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
+import io.github.opencubicchunks.cubicchunks.api.world.storage.ICubicStorage;
+import net.minecraft.nbt.NBTTagCompound;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for the individual operations of {@link net.daporkchop.rocksmc.storage.local.LocalStorageImpl}, executed from a single thread.
+ *
+ * @author DaPorkchop_
+ * @see ConcurrentStorageBenchmark
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@Threads(1)
+public class StorageBenchmark {
+    @Benchmark
+    public NBTTagCompound readCube(StorageState state) throws IOException {
+        return state.storage.readCube(state.randomCube());
+    }
+
+    @Benchmark
+    public ICubicStorage.NBTBatch readBatch(StorageState state) throws IOException {
+        return state.storage.readBatch(state.randomPosBatch());
+    }
+
+    @Benchmark
+    public boolean cubeExistsHit(StorageState state) throws IOException {
+        return state.storage.cubeExists(state.randomCube());
+    }
+
+    @Benchmark
+    public boolean cubeExistsMiss(StorageState state) throws IOException {
+        return state.storage.cubeExists(state.randomMissingCube());
+    }
+
+    @Benchmark
+    public void writeCube(StorageState state) throws IOException {
+        CubePos pos = state.randomCube();
+        state.storage.writeCube(pos, state.cubes.get(pos));
+    }
+
+    @Benchmark
+    public void writeBatch(StorageState state) throws IOException {
+        state.storage.writeBatch(state.randomNBTBatch());
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void forEachCube(StorageState state, Blackhole blackhole) throws IOException {
+        state.storage.forEachCube(blackhole::consume);
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2021-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package net.daporkchop.rocksmc.benchmark;
+
+import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
+import io.github.opencubicchunks.cubicchunks.api.world.storage.ICubicStorage;
+import net.daporkchop.rocksmc.RocksMC;
+import net.daporkchop.rocksmc.RocksMCConfig;
+import net.daporkchop.rocksmc.storage.local.KeyLayout;
+import net.daporkchop.rocksmc.storage.local.LocalStorageImpl;
+import net.minecraft.nbt.NBTTagCompound;
+import org.apache.logging.log4j.LogManager;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.rocksdb.RocksDB;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * A {@link LocalStorageImpl} in a temporary directory, populated with synthetic cubes.
+ * <p>
+ * The most important {@link RocksMCConfig} options are exposed as parameters, so that they're included in the benchmark results. They can be changed using JMH's
+ * {@code -p} option, e.g. {@code -p keyLayout=MORTON,COLUMN_MAJOR}.
+ *
+ * @author DaPorkchop_
+ */
+@State(Scope.Benchmark)
+public class StorageState {
+    /**
+     * The size of the populated area along the horizontal axes (in cubes).
+     */
+    public static final int SIZE_XZ = 32;
+    /**
+     * The size of the populated area along the vertical axis (in cubes).
+     */
+    public static final int SIZE_Y = 8;
+
+    @Param({ "EMPTY", "TYPICAL", "DENSE" })
+    public CubeKind cubeKind;
+
+    @Param({ "64" })
+    public int batchSize;
+
+    @Param({ "MORTON" })
+    public KeyLayout keyLayout;
+
+    @Param({ "0" })
+    public int cacheSize;
+
+    @Param({ "10" })
+    public int bloomFilterBitsPerKey;
+
+    public Path directory;
+    public LocalStorageImpl storage;
+
+    /**
+     * The NBT data of every populated cube.
+     */
+    public Map<CubePos, NBTTagCompound> cubes;
+    public CubePos[] positions;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        if (RocksMC.LOGGER == null) {
+            RocksMC.LOGGER = LogManager.getLogger(RocksMC.MODID);
+        }
+        RocksDB.loadLibrary();
+
+        RocksMCConfig.database.keyLayout = this.keyLayout;
+        RocksMCConfig.database.bloomFilterBitsPerKey = this.bloomFilterBitsPerKey;
+        RocksMCConfig.cache.size = this.cacheSize;
+        RocksMCConfig.notifyChanged();
+
+        this.directory = Files.createTempDirectory("rocksmc-benchmark");
+        this.storage = new LocalStorageImpl(null, this.directory);
+
+        //populate the storage in column-sized batches
+        Random random = new Random(1337L);
+        this.cubes = new HashMap<>();
+        for (int x = 0; x < SIZE_XZ; x++) {
+            for (int z = 0; z < SIZE_XZ; z++) {
+                Map<CubePos, NBTTagCompound> column = new HashMap<>();
+                for (int y = 0; y < SIZE_Y; y++) {
+                    column.put(new CubePos(x, y, z), this.cubeKind.create(x, y, z, random));
+                }
+                this.storage.writeBatch(new ICubicStorage.NBTBatch(Collections.emptyMap(), column));
+                this.cubes.putAll(column);
+            }
+        }
+        this.storage.flush();
+        this.positions = this.cubes.keySet().toArray(new CubePos[0]);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        this.storage.close();
+
+        try (Stream<Path> stream = Files.walk(this.directory)) {
+            for (Path path : stream.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    /**
+     * @return the position of a random cube which exists
+     */
+    public CubePos randomCube() {
+        return this.positions[ThreadLocalRandom.current().nextInt(this.positions.length)];
+    }
+
+    /**
+     * @return the position of a random cube which doesn't exist
+     */
+    public CubePos randomMissingCube() {
+        CubePos pos = this.randomCube();
+        return new CubePos(pos.getX(), pos.getY() + SIZE_Y, pos.getZ());
+    }
+
+    /**
+     * @return a batch of {@link #batchSize} random cubes which exist
+     */
+    public ICubicStorage.PosBatch randomPosBatch() {
+        Set<CubePos> positions = IntStream.range(0, this.batchSize).mapToObj(i -> this.randomCube()).collect(Collectors.toSet());
+        return new ICubicStorage.PosBatch(Collections.emptySet(), positions);
+    }
+
+    /**
+     * @return a batch containing the NBT data of {@link #batchSize} random cubes which exist
+     */
+    public ICubicStorage.NBTBatch randomNBTBatch() {
+        Map<CubePos, NBTTagCompound> cubes = new HashMap<>();
+        for (int i = 0; i < this.batchSize; i++) {
+            CubePos pos = this.randomCube();
+            cubes.put(pos, this.cubes.get(pos));
+        }
+        return new ICubicStorage.NBTBatch(Collections.emptyMap(), cubes);
+    }
+}
@@ -22,8 +22,10 @@ package net.daporkchop.rocksmc;
 
 import io.github.opencubicchunks.cubicchunks.api.world.storage.StorageFormatProviderBase;
 import net.daporkchop.rocksmc.command.CommandRoot;
+import net.daporkchop.rocksmc.storage.local.GlobalStorageProvider;
 import net.daporkchop.rocksmc.storage.local.LocalStorageImpl;
 import net.daporkchop.rocksmc.storage.local.LocalStorageProvider;
+import net.daporkchop.rocksmc.util.RocksMCExecutors;
 import net.minecraft.world.World;
 import net.minecraftforge.common.MinecraftForge;
 import net.minecraftforge.event.RegistryEvent;
@@ -54,6 +56,11 @@ public class RocksMC {
     public static final Map<World, LocalStorageImpl> STORAGES_BY_WORLD = Collections.synchronizedMap(new IdentityHashMap<>());
     public static Logger LOGGER;
 
+    /**
+     * The thread which the server is running on, or {@code null} if no server is running.
+     */
+    public static volatile Thread SERVER_THREAD;
+
     @Mod.EventHandler
     public void construction(FMLConstructionEvent event) {
         RocksDB.loadLibrary(); //ensure native lib is loaded
@@ -69,24 +76,32 @@ public class RocksMC {
     @SubscribeEvent
     public void registerStorageFormats(RegistryEvent.Register<StorageFormatProviderBase> event) {
         event.getRegistry().register(new LocalStorageProvider());
+        event.getRegistry().register(new GlobalStorageProvider());
     }
 
     @Mod.EventHandler
     public void serverStarting(FMLServerStartingEvent event) {
+        SERVER_THREAD = Thread.currentThread(); //this event is fired on the server thread
+
         event.registerServerCommand(new CommandRoot());
     }
 
     @Mod.EventHandler
     public void serverStopped(FMLServerStoppedEvent event) {
+        SERVER_THREAD = null;
+
         //close all storages that might have been left open
         STORAGES_BY_WORLD.values().removeIf(storage -> {
-            LOGGER.warn("RocksMC storage in \"{}\" wasn't closed!", storage.path());
+            LOGGER.warn("RocksMC storage in \"{}\" wasn't closed!", storage);
             try {
                 storage.close();
             } catch (IOException e) {
-                LOGGER.error("Exception while closing storage in " + storage.path(), e);
+                LOGGER.error("Exception while closing storage in " + storage, e);
             }
             return true; //remove everything lol
         });
+
+        //all storages are closed, so the I/O threads aren't needed any more. they'll be started again if another world is loaded
+        RocksMCExecutors.shutdownIoScheduler();
     }
 }
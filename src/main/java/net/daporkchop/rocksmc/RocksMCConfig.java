@@ -20,18 +20,37 @@
 
 package net.daporkchop.rocksmc;
 
-import net.minecraft.util.Tuple;
+import lombok.NonNull;
+import net.daporkchop.rocksmc.storage.local.KeyLayout;
+import net.daporkchop.rocksmc.storage.local.StorageStatistics;
+import net.daporkchop.rocksmc.storage.local.WriteVerifier;
+import net.daporkchop.rocksmc.util.RocksOptions;
 import net.minecraftforge.common.config.Config;
 import net.minecraftforge.common.config.ConfigManager;
 import net.minecraftforge.fml.client.event.ConfigChangedEvent;
 import net.minecraftforge.fml.common.Mod;
 import net.minecraftforge.fml.common.eventhandler.SubscribeEvent;
 import org.rocksdb.BlockBasedTableConfig;
+import org.rocksdb.BloomFilter;
 import org.rocksdb.ColumnFamilyOptions;
+import org.rocksdb.CompactionStyle;
+import org.rocksdb.CompressionOptions;
 import org.rocksdb.CompressionType;
 import org.rocksdb.DBOptions;
+import org.rocksdb.DataBlockIndexType;
 import org.rocksdb.Env;
+import org.rocksdb.IndexType;
 import org.rocksdb.LRUCache;
+import org.rocksdb.StatsLevel;
+import org.rocksdb.WriteBufferManager;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import static java.lang.Math.*;
 
 /**
  * RocksCC configuration.
@@ -53,6 +72,42 @@ public class RocksMCConfig {
     @Config.RequiresWorldRestart
     public static DB database = new DB();
 
+    @Config.Comment("Configuration options for the pools of direct memory buffers used for storage I/O.")
+    public static Buffers buffers = new Buffers();
+
+    @Config.Comment("Configuration options for decoding NBT data.")
+    public static Decoding decoding = new Decoding();
+
+    @Config.Comment("Configuration options for combining concurrent asynchronous reads into batches.")
+    public static Batching batching = new Batching();
+
+    @Config.Comment("Configuration options for the scheduler which executes asynchronous storage I/O.")
+    public static Scheduler scheduler = new Scheduler();
+
+    @Config.Comment("Configuration options for the in-memory cache of recently used cube and column data.")
+    public static Cache cache = new Cache();
+
+    @Config.Comment("Configuration options for the queue which collects cube and column saves in memory and writes them to the database in large batches.")
+    public static WriteBehind writeBehind = new WriteBehind();
+
+    @Config.Comment("Configuration options for verifying that written data can be read back from the database.")
+    public static Verification verification = new Verification();
+
+    @Config.Comment("Configuration options for collecting and exporting storage statistics.")
+    public static Stats statistics = new Stats();
+
+    @Config.Comment("Configuration options for measuring the latency of storage operations.")
+    public static Metrics metrics = new Metrics();
+
+    @Config.Comment("Configuration options for manual compactions started using \"/rocksmc compact\".")
+    public static Compaction compaction = new Compaction();
+
+    @Config.Comment("Configuration options for snapshots created using \"/rocksmc snapshot\", and for exporting them as backups.")
+    public static Snapshots snapshots = new Snapshots();
+
+    @Config.Comment("Configuration options for read-only secondary instances, which are used by external tools to read a world while the server is running.")
+    public static Secondary secondary = new Secondary();
+
     @SubscribeEvent
     public static void onConfigChanged(ConfigChangedEvent.OnConfigChangedEvent event) {
         if (RocksMC.MODID.equals(event.getModID())) {
@@ -69,6 +124,444 @@ public class RocksMCConfig {
         database.notifyChanged();
     }
 
+    /**
+     * Options used for pooling I/O buffers.
+     *
+     * @author DaPorkchop_
+     */
+    public static class Buffers {
+        @Config.Comment({
+                "The maximum number of buffers of each type that may be cached.",
+                "Cached buffers are shared by all threads.",
+                "Default: 64"
+        })
+        @Config.RangeInt(min = 0)
+        public int maxCached = 64;
+
+        @Config.Comment({
+                "The maximum capacity of a buffer that may be cached (in KiB).",
+                "Buffers which have grown larger than this will be freed once they are no longer needed.",
+                "Default: 1MiB (1024KiB)"
+        })
+        @Config.RangeInt(min = 1)
+        public int maxCachedCapacity = 1024;
+    }
+
+    /**
+     * Options used for decoding NBT data.
+     *
+     * @author DaPorkchop_
+     */
+    public static class Decoding {
+        @Config.Comment({
+                "The maximum number of threads to use for decoding the NBT data of batch reads in parallel.",
+                "Default: CPU count"
+        })
+        @Config.RangeInt(min = 1)
+        @Config.RequiresMcRestart
+        public int threads = Runtime.getRuntime().availableProcessors();
+
+        @Config.Comment({
+                "The minimum total size of the data in a batch read before it will be decoded in parallel (in KiB).",
+                "Smaller batches will be decoded on the thread which requested them, as the overhead of distributing the work would outweigh the benefits.",
+                "Default: 64KiB"
+        })
+        @Config.RangeInt(min = 0)
+        public int parallelThreshold = 64;
+    }
+
+    /**
+     * Options used for batching asynchronous reads.
+     *
+     * @author DaPorkchop_
+     */
+    public static class Batching {
+        @Config.Comment({
+                "The maximum amount of time that an asynchronous read may wait for other reads to be added to its batch (in microseconds).",
+                "Default: 500"
+        })
+        @Config.RangeInt(min = 0)
+        public int window = 500;
+
+        @Config.Comment({
+                "The maximum number of columns and cubes in a single batch.",
+                "Once this many reads are waiting, the batch will be executed immediately.",
+                "Default: 256"
+        })
+        @Config.RangeInt(min = 1)
+        public int maxBatchSize = 256;
+    }
+
+    /**
+     * Options used for scheduling asynchronous I/O.
+     *
+     * @author DaPorkchop_
+     */
+    public static class Scheduler {
+        @Config.Comment({
+                "The number of threads to use for executing asynchronous storage I/O.",
+                "Default: CPU count"
+        })
+        @Config.RangeInt(min = 1)
+        @Config.RequiresMcRestart
+        public int threads = Runtime.getRuntime().availableProcessors();
+
+        @Config.Comment({
+                "The deadline for loading cubes/columns which are needed by players (in milliseconds).",
+                "Once a request's deadline has passed, it will be executed before any other requests which aren't yet overdue.",
+                "Default: 50"
+        })
+        @Config.RangeInt(min = 0)
+        public int playerDeadline = 50;
+
+        @Config.Comment({
+                "The deadline for loading cubes/columns which are needed for world generation (in milliseconds).",
+                "Default: 500"
+        })
+        @Config.RangeInt(min = 0)
+        public int worldGenDeadline = 500;
+
+        @Config.Comment({
+                "The deadline for background work such as saving (in milliseconds).",
+                "Default: 10000"
+        })
+        @Config.RangeInt(min = 0)
+        public int backgroundDeadline = 10000;
+    }
+
+    /**
+     * Options used for caching cube and column data.
+     *
+     * @author DaPorkchop_
+     */
+    public static class Cache {
+        @Config.Comment({
+                "The maximum total size of the serialized data in each dimension's cache (in MiB).",
+                "Cached cubes and columns can be loaded again without accessing the database.",
+                "If 0, the cache will be disabled.",
+                "Default: 0"
+        })
+        @Config.RangeInt(min = 0)
+        @Config.RequiresWorldRestart
+        public int size = 0;
+    }
+
+    /**
+     * Options used for the write-behind queue.
+     *
+     * @author DaPorkchop_
+     */
+    public static class WriteBehind {
+        @Config.Comment({
+                "Whether or not saved cubes and columns should be collected in memory and written to the database in batches.",
+                "If a cube or column is saved again before it has been written, only the most recent version will be written.",
+                "Data which hasn't been written yet will be lost if the game crashes.",
+                "Default: false"
+        })
+        @Config.RequiresWorldRestart
+        public boolean enabled = false;
+
+        @Config.Comment({
+                "The total size of the queued data at which the queue will be written to the database (in KiB).",
+                "Default: 4MiB (4096KiB)"
+        })
+        @Config.RangeInt(min = 1)
+        public int batchSize = 4096;
+
+        @Config.Comment({
+                "The maximum total size of the queued data (in MiB).",
+                "Once the queue is this large, saving cubes and columns will block until the queue has been written to the database.",
+                "Default: 64"
+        })
+        @Config.RangeInt(min = 1)
+        public int maxPending = 64;
+
+        @Config.Comment({
+                "The maximum amount of time that saved data may be queued for before it is written to the database (in milliseconds).",
+                "Default: 1000"
+        })
+        @Config.RangeInt(min = 1)
+        public int flushInterval = 1000;
+    }
+
+    /**
+     * Options used for verifying writes.
+     *
+     * @author DaPorkchop_
+     */
+    public static class Verification {
+        @Config.Comment({
+                "How to verify that written cubes and columns can be read back from the database.",
+                "OFF: writes are not verified.",
+                "SAMPLED: a random fraction of writes is read back and checksummed in the background. Failures are logged.",
+                "FULL: every write is read back and checksummed before the write completes. Failures cause the write to fail. Very slow, only useful for debugging.",
+                "Default: OFF"
+        })
+        public WriteVerifier.Mode mode = WriteVerifier.Mode.OFF;
+
+        @Config.Comment({
+                "The fraction of writes to verify when mode is SAMPLED.",
+                "Default: 0.01"
+        })
+        @Config.RangeDouble(min = 0.0d, max = 1.0d)
+        public double sampleRate = 0.01d;
+    }
+
+    /**
+     * Options used for collecting and exporting storage statistics.
+     *
+     * @author DaPorkchop_
+     */
+    public static class Stats {
+        @Config.Comment({
+                "Whether or not to collect RocksDB statistics (cache hits, bytes read and written, write stalls, etc.) for every database.",
+                "Database properties such as SST sizes and compaction debt are always available, even if this is disabled.",
+                "Default: true"
+        })
+        public boolean enabled = true;
+
+        @Config.Comment({
+                "How detailed the collected RocksDB statistics should be. More detailed statistics are more expensive to collect.",
+                "EXCEPT_DETAILED_TIMERS: collect everything except timers which would require additional system calls.",
+                "EXCEPT_TIME_FOR_MUTEX: also collect detailed timers, except for time spent waiting on mutexes.",
+                "ALL: collect everything.",
+                "Default: EXCEPT_DETAILED_TIMERS"
+        })
+        public StatsLevel level = StatsLevel.EXCEPT_DETAILED_TIMERS;
+
+        @Config.Comment({
+                "The interval at which to append the statistics of each open database to a log file in the database directory (in seconds).",
+                "If 0, statistics will not be exported.",
+                "Default: 0"
+        })
+        @Config.RangeInt(min = 0)
+        public int exportInterval = 0;
+
+        @Config.Comment({
+                "The format to export statistics in.",
+                "CSV: one line of comma-separated values per export, with a header line at the start of the file.",
+                "JSON: one JSON object per line.",
+                "Default: CSV"
+        })
+        public StorageStatistics.Format exportFormat = StorageStatistics.Format.CSV;
+
+        @Config.Comment({
+                "Whether or not to register a JMX MBean for every open database, which exposes the same values as the exported statistics.",
+                "Default: true"
+        })
+        public boolean jmx = true;
+    }
+
+    /**
+     * Options used for measuring the latency of storage operations.
+     *
+     * @author DaPorkchop_
+     */
+    public static class Metrics {
+        @Config.Comment({
+                "Whether or not to record latency histograms for every storage operation, as well as the sizes of values and batches.",
+                "The recorded values are included in the exported statistics, and can be viewed using \"/rocksmc latency\".",
+                "Default: true"
+        })
+        public boolean enabled = true;
+
+        @Config.Comment({
+                "The duration (in milliseconds) after which a storage operation executed on the server thread is considered to be blocking the server.",
+                "If 0, slow calls will not be detected.",
+                "Default: 50"
+        })
+        @Config.RangeInt(min = 0)
+        public int slowCallThreshold = 50;
+
+        @Config.Comment({
+                "The minimum interval (in seconds) between capturing the stack trace of the server thread when a slow call is detected.",
+                "Capturing a stack trace is expensive, so only a sample of slow calls will include one.",
+                "Default: 10"
+        })
+        @Config.RangeInt(min = 0)
+        public int stackSampleInterval = 10;
+
+        @Config.Comment({
+                "Whether or not to log a warning when a slow call is detected and its stack trace is captured.",
+                "Default: true"
+        })
+        public boolean logSlowCalls = true;
+    }
+
+    /**
+     * Options used for manual compactions.
+     *
+     * @author DaPorkchop_
+     */
+    public static class Compaction {
+        @Config.Comment({
+                "The maximum average rate at which a manual compaction may write to disk (in MiB/s).",
+                "The compaction pauses between key ranges to stay below this rate. Automatic flushes and compactions are never throttled.",
+                "If 0, manual compactions will not be throttled.",
+                "Default: 32"
+        })
+        @Config.RangeInt(min = 0)
+        public int rateLimit = 32;
+
+        @Config.Comment({
+                "The number of key ranges a manual compaction is split into.",
+                "Progress is reported and cancellation is checked after each range is compacted, but more ranges add some overhead.",
+                "Default: 32"
+        })
+        @Config.RangeInt(min = 1, max = 4096)
+        public int slices = 32;
+    }
+
+    /**
+     * Options used for snapshots and backups.
+     *
+     * @author DaPorkchop_
+     */
+    public static class Snapshots {
+        @Config.Comment({
+                "The maximum number of snapshots to keep for each database. Once exceeded, the oldest snapshots are deleted whenever a new one is created.",
+                "If 0, snapshots will not be deleted because of their number.",
+                "Default: 5"
+        })
+        @Config.RangeInt(min = 0)
+        public int maxCount = 5;
+
+        @Config.Comment({
+                "The maximum age of a snapshot (in hours). Older snapshots are deleted whenever a new one is created.",
+                "The most recent snapshot is never deleted.",
+                "If 0, snapshots will not be deleted because of their age.",
+                "Default: 0"
+        })
+        @Config.RangeInt(min = 0)
+        public int maxAge = 0;
+
+        @Config.Comment({
+                "The directory to export snapshots to using \"/rocksmc snapshot <world> <save> backup\". Should be on a different disk than the world.",
+                "Backups are incremental: SST files which were already exported by a previous backup of the same database are not copied again.",
+                "If empty, backups are disabled.",
+                "Default: \"\""
+        })
+        public String backupDirectory = "";
+
+        @Config.Comment({
+                "The maximum rate at which backups are written (in MiB/s).",
+                "If 0, backups will not be throttled.",
+                "Default: 16"
+        })
+        @Config.RangeInt(min = 0)
+        public int backupRateLimit = 16;
+
+        @Config.Comment({
+                "The maximum number of backups to keep for each database. Once exceeded, the oldest backups are deleted.",
+                "If 0, backups will never be deleted.",
+                "Default: 10"
+        })
+        @Config.RangeInt(min = 0)
+        public int backupCount = 10;
+    }
+
+    /**
+     * Options used for secondary instances.
+     *
+     * @author DaPorkchop_
+     */
+    public static class Secondary {
+        @Config.Comment({
+                "The interval at which secondary instances catch up with the writes made by the server (in milliseconds).",
+                "If 0, secondary instances will only see new writes when explicitly told to catch up.",
+                "Default: 1000"
+        })
+        @Config.RangeInt(min = 0)
+        public int catchUpInterval = 1000;
+    }
+
+    /**
+     * Options used for a single column family containing column or cube data.
+     *
+     * @author DaPorkchop_
+     */
+    public static class Family {
+        @Config.Comment({
+                "The target size for uncompressed data blocks (in KiB).",
+                "Column and cube records are almost exclusively accessed by point lookups, for which smaller blocks mean less data has to be read and",
+                "decompressed per access. Larger blocks yield a better data compression ratio. Values of 4 for columns and 16 for cubes work well",
+                "for most worlds.",
+                "If 0, dataBlockSize will be used.",
+                "Default: 0"
+        })
+        @Config.RangeInt(min = 0)
+        public int blockSize = 0;
+
+        @Config.Comment({
+                "The fraction of the block cache to reserve exclusively for this family.",
+                "This prevents bulk accesses to one family from evicting the other family's data from the cache.",
+                "If 0, this family will share the remainder of the block cache with all other families which don't have a reserved share.",
+                "Default: 0.0"
+        })
+        @Config.RangeDouble(min = 0.0d, max = 1.0d)
+        public double cacheShare = 0.0d;
+
+        @Config.Comment({
+                "The compression algorithm to use for each level of the LSM tree, starting at level 0. Levels beyond the end of the list use the last",
+                "algorithm in the list.",
+                "For example, [NO_COMPRESSION, LZ4_COMPRESSION, ZSTD_COMPRESSION] will leave freshly flushed data uncompressed, use the cheap LZ4",
+                "algorithm for level 1 and compress all older data using ZSTD.",
+                "Valid values are the same as for 'compression'. If empty, 'compression' will be used for all levels.",
+                "Default: []"
+        })
+        public String[] compressionPerLevel = {};
+
+        @Config.Comment({
+                "The size of a single write buffer (in KiB).",
+                "Larger write buffers mean fewer, larger L0 files, at the cost of more memory.",
+                "If 0, RocksDB's default will be used.",
+                "Default: 0"
+        })
+        @Config.RangeInt(min = 0)
+        public int writeBufferSize = 0;
+
+        @Config.Comment({
+                "The compaction style to use.",
+                "LEVEL: data is gradually moved through a number of increasingly large levels. Minimizes space usage and read amplification.",
+                "UNIVERSAL: SSTs of similar size are merged together. Minimizes write amplification, at the cost of requiring up to twice as much disk space",
+                "during compactions.",
+                "FIFO and NONE are not supported, and will be replaced with LEVEL.",
+                "Default: LEVEL"
+        })
+        public CompactionStyle compactionStyle = CompactionStyle.LEVEL;
+
+        /**
+         * @param fallback the block size to use if none is configured for this family (in KiB)
+         * @return the configured block size (in KiB)
+         */
+        public int blockSize(int fallback) {
+            return this.blockSize != 0 ? this.blockSize : fallback;
+        }
+
+        /**
+         * @return the configured compression algorithm for each level, or an empty list if the same algorithm should be used for all levels
+         */
+        public List<CompressionType> compressionPerLevel() {
+            List<CompressionType> list = new ArrayList<>(this.compressionPerLevel.length);
+            for (String name : this.compressionPerLevel) {
+                try {
+                    list.add(CompressionType.valueOf(name.trim()));
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException("invalid compression algorithm in compressionPerLevel: " + name, e);
+                }
+            }
+            return list;
+        }
+
+        /**
+         * @param fallback the compression algorithm to use if this family doesn't configure one per level
+         * @return the compression algorithm used for the bottommost level
+         */
+        public CompressionType bottommostCompression(@NonNull CompressionType fallback) {
+            return this.compressionPerLevel.length != 0 ? CompressionType.valueOf(this.compressionPerLevel[this.compressionPerLevel.length - 1].trim()) : fallback;
+        }
+    }
+
     /**
      * Options used for opening the database.
      *
@@ -191,6 +684,27 @@ public class RocksMCConfig {
         })
         public CompressionType compression = CompressionType.ZSTD_COMPRESSION;
 
+        @Config.Comment({
+                "The maximum size of the ZSTD compression dictionary used for column and cube data (in KiB).",
+                "Column and cube data is small and extremely repetitive, so a dictionary trained from a sample of the data itself greatly improves the",
+                "compression ratio, especially with small data blocks. A dictionary is trained whenever data is compacted into the bottommost level, and is",
+                "stored alongside the data it was trained on.",
+                "Only has an effect if compression is ZSTD_COMPRESSION. Existing data will only be compressed using a dictionary once it has been rewritten,",
+                "which may be forced using '/rocksmc dictionary <dimension>'.",
+                "If 0, dictionary compression will be disabled.",
+                "Default: 16"
+        })
+        @Config.RangeInt(min = 0, max = 1 << 20)
+        public int compressionDictionarySize = 16;
+
+        @Config.Comment({
+                "The maximum amount of data to sample when training a ZSTD compression dictionary (in KiB).",
+                "If 0, 100 times the value of 'compressionDictionarySize' will be used.",
+                "Default: 0"
+        })
+        @Config.RangeInt(min = 0, max = Integer.MAX_VALUE >> 10)
+        public int compressionDictionaryTrainingSize = 0;
+
         @Config.Comment({
                 "The target size for level-1 SST files (in KiB).",
                 "Default: 64MiB (65536KiB)"
@@ -201,11 +715,80 @@ public class RocksMCConfig {
         @Config.Comment({
                 "The target size for uncompressed data blocks (in KiB).",
                 "Larger values will yield a better data compression ratio at the cost of increased memory requirements for the cache.",
+                "This can be overridden for the column and cube families using their blockSize option.",
                 "Default: 1MiB (1024 KiB)"
         })
         @Config.RangeInt(min = 1)
         public int dataBlockSize = 1024;
 
+        @Config.Comment("Options for the column family containing column data.")
+        public Family columns = new Family();
+
+        @Config.Comment({
+                "Options for the column family containing cube data.",
+                "These are also used for the COLUMN_MAJOR key layout's family, which stores both columns and cubes."
+        })
+        public Family cubes = new Family();
+
+        @Config.Comment({
+                "The key layout to store cubes and columns in.",
+                "MORTON: cubes which are near each other in all three dimensions are stored close together. Works best for worlds which are explored in all",
+                "directions, such as tall build worlds.",
+                "COLUMN_MAJOR: each column is stored together with all of its cubes, so that an entire column can be loaded using a single scan. Works best for",
+                "worlds where entire columns are usually loaded at once, such as flat survival worlds.",
+                "This only affects new worlds, unless keyLayoutMigration is enabled.",
+                "Default: MORTON"
+        })
+        public KeyLayout keyLayout = KeyLayout.MORTON;
+
+        @Config.Comment({
+                "How to migrate existing worlds whose key layout is different from keyLayout.",
+                "NEVER: existing worlds keep their current layout.",
+                "ON_OPEN: worlds are migrated while they're being loaded. This may take a long time for large worlds.",
+                "BACKGROUND: worlds are migrated in the background while they're running.",
+                "Migrations which are interrupted (e.g. by the world being unloaded) are resumed the next time the world is loaded.",
+                "Default: NEVER"
+        })
+        public KeyLayout.Migration keyLayoutMigration = KeyLayout.Migration.NEVER;
+
+        @Config.Comment({
+                "The number of bits per key to use for the bloom filters in each SST.",
+                "Bloom filters allow lookups of keys which don't exist (e.g. checking whether or not a cube exists before generating it) to be answered",
+                "without reading any data blocks. 10 bits per key gives a false positive rate of ~1%.",
+                "If 0, bloom filters will be disabled.",
+                "Default: 10"
+        })
+        @Config.RangeInt(min = 0)
+        public int bloomFilterBitsPerKey = 10;
+
+        @Config.Comment({
+                "Whether or not to partition the bloom filters and indices into smaller blocks.",
+                "This reduces the memory needed to keep the top-level index and filter of huge worlds cached, at the cost of an additional lookup.",
+                "Default: false"
+        })
+        public boolean partitionedFilters = false;
+
+        @Config.Comment({
+                "Whether or not to add a hash index to each data block.",
+                "This speeds up point lookups within a data block, at the cost of slightly more space.",
+                "Default: true"
+        })
+        public boolean dataBlockHashIndex = true;
+
+        @Config.Comment({
+                "Whether or not to store index and filter blocks in the block cache.",
+                "If false, they are kept in memory outside of the cache for as long as the SST is open.",
+                "Default: true"
+        })
+        public boolean cacheIndexAndFilterBlocks = true;
+
+        @Config.Comment({
+                "Whether or not to pin the index and filter blocks of level-0 SSTs, as well as the top-level index of partitioned filters, in the block cache.",
+                "Only has an effect if cacheIndexAndFilterBlocks=true.",
+                "Default: true"
+        })
+        public boolean pinIndexAndFilterBlocks = true;
+
         @Config.Comment({
                 "The size of the uncompressed data cache (in MiB).",
                 "If 0, this will be determined automatically.",
@@ -214,6 +797,28 @@ public class RocksMCConfig {
         @Config.RangeInt(min = 0)
         public int cacheSize = 0;
 
+        @Config.Comment({
+                "The maximum amount of native memory to be used by all open databases combined (in MiB).",
+                "If set, the memtables, index and filter blocks and cached data blocks of every loaded dimension are all charged to a single block cache of",
+                "this size, so that RocksMC's memory usage stays the same no matter how many dimensions are loaded. cacheSize and writeBufferSize (but not",
+                "the per-family writeBufferSize) are ignored, and cacheIndexAndFilterBlocks is always enabled.",
+                "This is a soft limit: blocks which are currently in use and memtables which are still being flushed may temporarily exceed it.",
+                "Use '/rocksmc memory' to see how much memory is currently being used.",
+                "If 0, no limit will be enforced, and each database's memtables will only be limited by writeBufferSize.",
+                "Default: 0"
+        })
+        @Config.RangeInt(min = 0)
+        public int memoryLimit = 0;
+
+        @Config.Comment({
+                "The fraction of memoryLimit which may be used by the memtables of all open databases combined.",
+                "Once exceeded, the largest memtables will be flushed to disk.",
+                "Only has an effect if memoryLimit is set.",
+                "Default: 0.25"
+        })
+        @Config.RangeDouble(min = 0.05d, max = 0.9d)
+        public double memtableShare = 0.25d;
+
         @Config.Comment({
                 "log2() of the number of entries to split the uncompressed data cache into.",
                 "Decreasing this will reduce the cache size (if the cache size is automatic), but may hurt performance.",
@@ -248,17 +853,43 @@ public class RocksMCConfig {
         public int minWriteBufferNumberToMerge = 0;
 
         @Config.Ignore
-        protected transient volatile Tuple<DBOptions, ColumnFamilyOptions> options;
+        protected transient volatile RocksOptions options;
 
         /**
          * @return the currently configured RocksDB database open options
          */
-        public synchronized Tuple<DBOptions, ColumnFamilyOptions> rocksOptions() {
-            Tuple<DBOptions, ColumnFamilyOptions> options = this.options;
+        public synchronized RocksOptions rocksOptions() {
+            RocksOptions options = this.options;
             if (options == null) {
+                long cacheSize;
+                if (this.memoryLimit > 0) {
+                    cacheSize = (long) this.memoryLimit << 20L;
+                } else {
+                    cacheSize = this.cacheSize == 0 ? ((long) this.dataBlockSize << 11L) * (1L << this.cacheShardBits) : (long) this.cacheSize << 20L;
+                }
+
+                //families with a cache share get a dedicated cache, all others share whatever is left over
+                LRUCache columnCache = this.familyCache(this.columns, cacheSize);
+                LRUCache cubeCache = this.familyCache(this.cubes, cacheSize);
+                long dedicatedSize = (long) (cacheSize * min(this.columns.cacheShare + this.cubes.cacheShare, 1.0d));
+                LRUCache blockCache = this.cache(max(cacheSize - dedicatedSize, cacheSize >> 4L));
+
+                Set<org.rocksdb.Cache> caches = Collections.newSetFromMap(new IdentityHashMap<>());
+                caches.add(blockCache);
+                if (columnCache != null) {
+                    caches.add(columnCache);
+                }
+                if (cubeCache != null) {
+                    caches.add(cubeCache);
+                }
+
+                //the options are shared by every database, so memtables of all open databases are charged to the same cache
+                WriteBufferManager writeBufferManager = this.memoryLimit > 0
+                        ? new WriteBufferManager((long) (cacheSize * this.memtableShare), blockCache)
+                        : null;
+
                 //TODO: there are a LOT more options
-                this.options = options = new Tuple<>(
-                        new DBOptions()
+                DBOptions dbOptions = new DBOptions()
                                 .setCreateIfMissing(true)
                                 .setCreateMissingColumnFamilies(true)
                                 .setEnv(Env.getDefault().setBackgroundThreads(this.parallelism))
@@ -277,22 +908,134 @@ public class RocksMCConfig {
                                 .setSkipStatsUpdateOnDbOpen(this.skipStatsUpdateOnDbOpen)
                                 .setManualWalFlush(this.manualWalFlush)
                                 .setMaxBackgroundJobs(this.maxBackgroundJobs == 0 ? this.parallelism : this.maxBackgroundJobs)
-                                .setMaxOpenFiles(this.maxOpenFiles),
-                        new ColumnFamilyOptions()
-                                .setMaxWriteBufferNumber(this.maxWriteBufferNumber == 0 ? this.parallelism : this.maxWriteBufferNumber)
-                                .setMinWriteBufferNumberToMerge(this.minWriteBufferNumberToMerge == 0 ? this.parallelism : this.minWriteBufferNumberToMerge)
-                                .setCompressionType(this.compression)
-                                .setTargetFileSizeBase((long) this.tableSizeBase << 10L)
-                                .setTableFormatConfig(new BlockBasedTableConfig()
-                                        .setBlockSize((long) this.dataBlockSize << 10L)
-                                        .setBlockCache(new LRUCache(
-                                                this.cacheSize == 0 ? ((long) this.dataBlockSize << 11L) * (1L << this.cacheShardBits) : (long) this.cacheSize << 20L,
-                                                this.cacheShardBits)))
-                                .setTargetFileSizeMultiplier(this.tableSizeMultiplier));
+                                .setMaxOpenFiles(this.maxOpenFiles);
+                if (writeBufferManager != null) {
+                    dbOptions.setWriteBufferManager(writeBufferManager);
+                }
+
+                this.options = options = new RocksOptions(
+                        dbOptions,
+                        this.columnFamilyOptions(blockCache, this.dataBlockSize, null),
+                        this.columnFamilyOptions(columnCache != null ? columnCache : blockCache, this.columns.blockSize(this.dataBlockSize), this.columns),
+                        this.columnFamilyOptions(cubeCache != null ? cubeCache : blockCache, this.cubes.blockSize(this.dataBlockSize), this.cubes),
+                        blockCache,
+                        caches,
+                        writeBufferManager);
+            }
+            return options;
+        }
+
+        protected LRUCache cache(long capacity) {
+            //index and filter blocks are inserted into the cache's high-priority pool, so that they aren't evicted by regular data blocks
+            return new LRUCache(capacity, this.cacheShardBits, false, this.chargeIndexAndFilterBlocks() ? 0.25d : 0.0d);
+        }
+
+        /**
+         * @return whether or not index and filter blocks should be stored in the block cache
+         */
+        protected boolean chargeIndexAndFilterBlocks() {
+            return this.cacheIndexAndFilterBlocks || this.memoryLimit > 0;
+        }
+
+        protected LRUCache familyCache(@NonNull Family family, long cacheSize) {
+            return family.cacheShare > 0.0d ? this.cache((long) (cacheSize * family.cacheShare)) : null;
+        }
+
+        protected ColumnFamilyOptions columnFamilyOptions(@NonNull LRUCache blockCache, int blockSize, Family family) {
+            BlockBasedTableConfig tableConfig = new BlockBasedTableConfig()
+                    .setBlockSize((long) blockSize << 10L)
+                    .setBlockCache(blockCache)
+                    .setFormatVersion(5) //required for the faster and more accurate bloom filter implementation
+                    .setCacheIndexAndFilterBlocks(this.chargeIndexAndFilterBlocks())
+                    .setCacheIndexAndFilterBlocksWithHighPriority(true)
+                    .setPinL0FilterAndIndexBlocksInCache(this.pinIndexAndFilterBlocks)
+                    .setPinTopLevelIndexAndFilter(this.pinIndexAndFilterBlocks);
+
+            if (this.bloomFilterBitsPerKey > 0) {
+                tableConfig.setFilterPolicy(new BloomFilter(this.bloomFilterBitsPerKey, false))
+                        .setWholeKeyFiltering(true);
+
+                if (this.partitionedFilters) { //partitioned filters require a partitioned index
+                    tableConfig.setPartitionFilters(true)
+                            .setIndexType(IndexType.kTwoLevelIndexSearch)
+                            .setMetadataBlockSize(4096L);
+                }
+            }
+
+            if (this.dataBlockHashIndex) {
+                tableConfig.setDataBlockIndexType(DataBlockIndexType.kDataBlockBinaryAndHash)
+                        .setDataBlockHashTableUtilRatio(0.75d);
+            }
+
+            ColumnFamilyOptions options = new ColumnFamilyOptions()
+                    .setMaxWriteBufferNumber(this.maxWriteBufferNumber == 0 ? this.parallelism : this.maxWriteBufferNumber)
+                    .setMinWriteBufferNumberToMerge(this.minWriteBufferNumberToMerge == 0 ? this.parallelism : this.minWriteBufferNumberToMerge)
+                    .setCompressionType(this.compression)
+                    .setTargetFileSizeBase((long) this.tableSizeBase << 10L)
+                    .setTableFormatConfig(tableConfig)
+                    .setTargetFileSizeMultiplier(this.tableSizeMultiplier);
+
+            if (family == null) { //the default family only contains a handful of metadata entries, there's nothing to tune
+                return options;
+            }
+
+            List<CompressionType> compressionPerLevel = family.compressionPerLevel();
+            if (!compressionPerLevel.isEmpty()) {
+                options.setCompressionPerLevel(compressionPerLevel);
+            }
+            if (family.writeBufferSize > 0) {
+                options.setWriteBufferSize((long) family.writeBufferSize << 10L);
+            }
+
+            switch (family.compactionStyle) {
+                case LEVEL:
+                case UNIVERSAL:
+                    options.setCompactionStyle(family.compactionStyle);
+                    break;
+                default: //FIFO compaction deletes old data, and NONE would let the number of L0 files grow forever
+                    RocksMC.LOGGER.warn("Unsupported compaction style {}, using LEVEL instead", family.compactionStyle);
+                    options.setCompactionStyle(CompactionStyle.LEVEL);
+            }
+
+            CompressionType bottommostCompression = family.bottommostCompression(this.compression);
+            if (this.compressionDictionaryEnabled(bottommostCompression)) {
+                //dictionaries are only trained for the bottommost level, since that's where nearly all of the data ends up and training a dictionary for
+                //  every short-lived upper level SST would make flushes and compactions considerably more expensive
+                options.setBottommostCompressionType(bottommostCompression)
+                        .setBottommostCompressionOptions(new CompressionOptions()
+                                .setEnabled(true)
+                                .setMaxDictBytes(this.compressionDictionarySize << 10)
+                                .setZStdMaxTrainBytes((int) min(this.compressionDictionaryTrainingSize == 0
+                                        ? ((long) this.compressionDictionarySize << 10L) * 100L
+                                        : (long) this.compressionDictionaryTrainingSize << 10L, Integer.MAX_VALUE)));
             }
             return options;
         }
 
+        /**
+         * @param bottommostCompression the compression algorithm used for a family's bottommost level
+         * @return whether or not the bottommost level should be compressed using trained ZSTD dictionaries
+         */
+        public boolean compressionDictionaryEnabled(@NonNull CompressionType bottommostCompression) {
+            return bottommostCompression == CompressionType.ZSTD_COMPRESSION && this.compressionDictionarySize > 0;
+        }
+
+        /**
+         * @return a string describing the current compression dictionary settings, used to detect changes to the settings between runs
+         */
+        public String compressionDictionarySettings() {
+            CompressionType columnCompression = this.columns.bottommostCompression(this.compression);
+            CompressionType cubeCompression = this.cubes.bottommostCompression(this.compression);
+            if (!this.compressionDictionaryEnabled(columnCompression) && !this.compressionDictionaryEnabled(cubeCompression)) {
+                return "none";
+            }
+
+            //this is the same format used before compression could be configured per family, so that existing markers don't suddenly become outdated
+            return columnCompression == cubeCompression
+                    ? columnCompression.name() + ':' + this.compressionDictionarySize + ':' + this.compressionDictionaryTrainingSize
+                    : columnCompression.name() + ',' + cubeCompression.name() + ':' + this.compressionDictionarySize + ':' + this.compressionDictionaryTrainingSize;
+        }
+
         /**
          * Notifies the configuration that it has changed.
          */
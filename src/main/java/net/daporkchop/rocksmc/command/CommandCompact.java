@@ -0,0 +1,113 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2021-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package net.daporkchop.rocksmc.command;
+
+import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
+import net.daporkchop.rocksmc.RocksMC;
+import net.daporkchop.rocksmc.storage.local.LocalStorageImpl;
+import net.daporkchop.rocksmc.storage.local.ManualCompaction;
+import net.minecraft.command.CommandException;
+import net.minecraft.command.ICommandSender;
+import net.minecraft.command.WrongUsageException;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.util.text.TextComponentString;
+
+import java.io.IOException;
+
+import static net.daporkchop.rocksmc.util.RocksMCUtils.*;
+
+/**
+ * Compacts all data in a dimension, or only the data in a given region, in the background.
+ *
+ * @author DaPorkchop_
+ */
+public class CommandCompact extends AbstractRocksCommand {
+    @Override
+    public String getName() {
+        return "compact";
+    }
+
+    @Override
+    public String getUsage(ICommandSender sender) {
+        return "/rocksmc compact <dimension> [<x1> <y1> <z1> <x2> <y2> <z2>] | status | cancel";
+    }
+
+    @Override
+    public void execute(MinecraftServer server, ICommandSender sender, String[] args) throws CommandException {
+        if (args.length == 1 && ("status".equals(args[0]) || "cancel".equals(args[0]))) {
+            ManualCompaction compaction = ManualCompaction.active();
+            if (compaction == null) {
+                sender.sendMessage(new TextComponentString("No compaction is running"));
+            } else if ("status".equals(args[0])) {
+                sender.sendMessage(new TextComponentString(String.format("Compacting %s: %.1f%% (%d/%d slices)",
+                        compaction, compaction.progress() * 100.0d, compaction.compactedSlices(), compaction.totalSlices())));
+            } else {
+                compaction.cancel();
+                sender.sendMessage(new TextComponentString("Cancelling compaction of " + compaction + " after the current slice..."));
+            }
+            return;
+        } else if (args.length != 1 && args.length != 7) {
+            throw new WrongUsageException(this.getUsage(sender));
+        }
+
+        LocalStorageImpl storage = this.getStorage(server, args[0]);
+        CubePos min = null;
+        CubePos max = null;
+        if (args.length == 7) { //convert the block coordinates to cube coordinates
+            min = new CubePos(parseInt(args[1]) >> 4, parseInt(args[2]) >> 4, parseInt(args[3]) >> 4);
+            max = new CubePos(parseInt(args[4]) >> 4, parseInt(args[5]) >> 4, parseInt(args[6]) >> 4);
+        }
+
+        if (ManualCompaction.active() != null) {
+            throw new CommandException("A compaction is already running, use '/rocksmc compact status' to check its progress");
+        }
+
+        ManualCompaction compaction = new ManualCompaction(storage, min, max);
+        sender.sendMessage(new TextComponentString("Compacting " + compaction + " in the background, use '/rocksmc compact status' to check its progress"));
+
+        //compactions can take a very long time, don't block the server thread. the storage will stop the job if it's closed
+        storage.startBackgroundJob("RocksMC Compaction Thread", () -> {
+            String message;
+            try {
+                long startTime = System.nanoTime();
+                int[] lastReported = { 0 };
+                boolean completed = compaction.run(() -> { //report progress in steps of 10%
+                    int percent = (int) (compaction.progress() * 10.0d) * 10;
+                    if (percent > lastReported[0] && percent < 100) {
+                        lastReported[0] = percent;
+                        server.addScheduledTask(() -> sender.sendMessage(new TextComponentString("Compacting " + compaction + ": " + percent + "%")));
+                    }
+                });
+
+                message = completed
+                        ? String.format("Compacted %s in %.1fs: %s -> %s (reclaimed %s)", compaction, (System.nanoTime() - startTime) / 1_000_000_000.0d,
+                        formatSize(compaction.sizeBefore()), formatSize(compaction.sizeAfter()), formatSize(compaction.sizeBefore() - compaction.sizeAfter()))
+                        : "Cancelled compaction of " + compaction;
+            } catch (IOException | RuntimeException e) {
+                RocksMC.LOGGER.error("Unable to compact " + compaction, e);
+                message = "Unable to compact " + compaction + ", check the server log for details";
+            }
+
+            String finalMessage = message;
+            server.addScheduledTask(() -> sender.sendMessage(new TextComponentString(finalMessage)));
+        });
+    }
+}
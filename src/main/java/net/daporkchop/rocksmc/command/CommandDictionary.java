@@ -0,0 +1,81 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2021-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package net.daporkchop.rocksmc.command;
+
+import net.daporkchop.rocksmc.RocksMC;
+import net.daporkchop.rocksmc.storage.local.LocalStorageImpl;
+import net.minecraft.command.CommandException;
+import net.minecraft.command.ICommandSender;
+import net.minecraft.command.WrongUsageException;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.util.text.TextComponentString;
+
+import java.io.IOException;
+
+/**
+ * Rewrites all data in a dimension, training new compression dictionaries in the process.
+ *
+ * @author DaPorkchop_
+ */
+public class CommandDictionary extends AbstractRocksCommand {
+    @Override
+    public String getName() {
+        return "dictionary";
+    }
+
+    @Override
+    public String getUsage(ICommandSender sender) {
+        return "/rocksmc dictionary <dimension>";
+    }
+
+    @Override
+    public void execute(MinecraftServer server, ICommandSender sender, String[] args) throws CommandException {
+        if (args.length != 1) {
+            throw new WrongUsageException(this.getUsage(sender));
+        }
+
+        String dim = args[0];
+        LocalStorageImpl storage = this.getStorage(server, dim);
+        sender.sendMessage(new TextComponentString("Rewriting data in dimension " + dim + ", this may take a while..."));
+
+        //compacting the entire database can take a very long time, don't block the server thread. the storage will stop the job if it's closed
+        storage.startBackgroundJob("RocksMC Dictionary Thread", () -> {
+            String message;
+            try {
+                long sizeBefore = storage.dataSize();
+                long startTime = System.nanoTime();
+                if (storage.rewriteCompressionDictionaries()) {
+                    long sizeAfter = storage.dataSize();
+                    message = String.format("Rewrote data in dimension %s in %.1fs: %.2f MiB -> %.2f MiB",
+                            dim, (System.nanoTime() - startTime) / 1_000_000_000.0d, sizeBefore / (double) (1 << 20), sizeAfter / (double) (1 << 20));
+                } else {
+                    message = "Stopped rewriting data in dimension " + dim + " because it was unloaded";
+                }
+            } catch (IOException e) {
+                RocksMC.LOGGER.error("Unable to rewrite data in dimension " + dim, e);
+                message = "Unable to rewrite data in dimension " + dim + ", check the server log for details";
+            }
+
+            String finalMessage = message;
+            server.addScheduledTask(() -> sender.sendMessage(new TextComponentString(finalMessage)));
+        });
+    }
+}
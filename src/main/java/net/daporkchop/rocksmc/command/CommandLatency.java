@@ -0,0 +1,103 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2021-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package net.daporkchop.rocksmc.command;
+
+import net.daporkchop.rocksmc.storage.local.LocalStorageImpl;
+import net.daporkchop.rocksmc.storage.local.StorageMetrics;
+import net.daporkchop.rocksmc.util.Histogram;
+import net.minecraft.command.CommandException;
+import net.minecraft.command.ICommandSender;
+import net.minecraft.command.WrongUsageException;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.util.text.TextComponentString;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+import static net.daporkchop.rocksmc.util.RocksMCUtils.*;
+
+/**
+ * Prints the latency of every operation on a dimension's storage, as well as the blocking calls on the server thread which were detected.
+ *
+ * @author DaPorkchop_
+ */
+public class CommandLatency extends AbstractRocksCommand {
+    protected static String formatNanos(long nanos) {
+        return nanos >= 1_000_000L ? String.format("%.1fms", nanos / 1_000_000.0d) : String.format("%.1fus", nanos / 1_000.0d);
+    }
+
+    @Override
+    public String getName() {
+        return "latency";
+    }
+
+    @Override
+    public String getUsage(ICommandSender sender) {
+        return "/rocksmc latency <dimension> [reset]";
+    }
+
+    @Override
+    public void execute(MinecraftServer server, ICommandSender sender, String[] args) throws CommandException {
+        if (args.length != 1 && (args.length != 2 || !"reset".equals(args[1]))) {
+            throw new WrongUsageException(this.getUsage(sender));
+        }
+
+        LocalStorageImpl storage = this.getStorage(server, args[0]);
+        StorageMetrics metrics = storage.metrics();
+        if (!metrics.enabled()) {
+            sender.sendMessage(new TextComponentString("Latency metrics are disabled in the config"));
+            return;
+        } else if (args.length == 2) {
+            metrics.reset();
+            sender.sendMessage(new TextComponentString("Reset latency metrics for " + storage));
+            return;
+        }
+
+        sender.sendMessage(new TextComponentString("Latency for " + storage + " (count, p50, p99, p99.9, max):"));
+        for (StorageMetrics.Operation operation : StorageMetrics.Operation.values()) {
+            Histogram histogram = metrics.latency(operation);
+            if (histogram.count() != 0L) {
+                sender.sendMessage(new TextComponentString(String.format("%s: %d, %s, %s, %s, %s", operation.metricName(), histogram.count(),
+                        formatNanos(histogram.percentile(0.5d)), formatNanos(histogram.percentile(0.99d)), formatNanos(histogram.percentile(0.999d)),
+                        formatNanos(histogram.max()))));
+            }
+        }
+
+        sender.sendMessage(new TextComponentString("Value sizes (p50, p99, max):"));
+        sender.sendMessage(new TextComponentString("read: " + formatSize(metrics.readValueSizes().percentile(0.5d)) + ", "
+                                                   + formatSize(metrics.readValueSizes().percentile(0.99d)) + ", " + formatSize(metrics.readValueSizes().max())));
+        sender.sendMessage(new TextComponentString("written: " + formatSize(metrics.writtenValueSizes().percentile(0.5d)) + ", "
+                                                   + formatSize(metrics.writtenValueSizes().percentile(0.99d)) + ", " + formatSize(metrics.writtenValueSizes().max())));
+
+        sender.sendMessage(new TextComponentString("Batch sizes (p50, p99, max):"));
+        sender.sendMessage(new TextComponentString("read: " + metrics.readBatchSizes().percentile(0.5d) + ", "
+                                                   + metrics.readBatchSizes().percentile(0.99d) + ", " + metrics.readBatchSizes().max()));
+        sender.sendMessage(new TextComponentString("written: " + metrics.writtenBatchSizes().percentile(0.5d) + ", "
+                                                   + metrics.writtenBatchSizes().percentile(0.99d) + ", " + metrics.writtenBatchSizes().max()));
+
+        sender.sendMessage(new TextComponentString(metrics.slowCalls() + " call(s) blocked the server thread, most recent:"));
+        SimpleDateFormat timeFormat = new SimpleDateFormat("HH:mm:ss");
+        for (StorageMetrics.SlowCall call : metrics.recentSlowCalls()) {
+            sender.sendMessage(new TextComponentString(String.format("[%s] %s took %s (%s)%s", timeFormat.format(new Date(call.time())), call.operation().metricName(),
+                    formatNanos(call.durationNanos()), call.position(), call.stackTrace() != null ? ", stack trace sampled" : "")));
+        }
+    }
+}
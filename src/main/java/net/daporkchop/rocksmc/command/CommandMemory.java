@@ -0,0 +1,81 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2021-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package net.daporkchop.rocksmc.command;
+
+import net.daporkchop.rocksmc.RocksMC;
+import net.daporkchop.rocksmc.RocksMCConfig;
+import net.daporkchop.rocksmc.storage.local.LocalStorageImpl;
+import net.minecraft.command.CommandException;
+import net.minecraft.command.ICommandSender;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.util.text.TextComponentString;
+import net.minecraft.world.World;
+import org.rocksdb.MemoryUsageType;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static net.daporkchop.rocksmc.util.RocksMCUtils.*;
+
+/**
+ * Reports the native memory used by each open database, as well as the total for all of them.
+ *
+ * @author DaPorkchop_
+ */
+public class CommandMemory extends AbstractRocksCommand {
+    @Override
+    public String getName() {
+        return "memory";
+    }
+
+    @Override
+    public String getUsage(ICommandSender sender) {
+        return "/rocksmc memory";
+    }
+
+    @Override
+    public void execute(MinecraftServer server, ICommandSender sender, String[] args) throws CommandException {
+        List<LocalStorageImpl> storages;
+        List<String> lines = new ArrayList<>();
+        synchronized (RocksMC.STORAGES_BY_WORLD) {
+            storages = new ArrayList<>(RocksMC.STORAGES_BY_WORLD.values());
+            for (Map.Entry<World, LocalStorageImpl> entry : RocksMC.STORAGES_BY_WORLD.entrySet()) {
+                Map<MemoryUsageType, Long> usage = entry.getValue().memoryUsage();
+                lines.add(String.format("DIM%d: memtables %s, table readers %s",
+                        entry.getKey().provider.getDimension(),
+                        formatSize(usage.getOrDefault(MemoryUsageType.kMemTableTotal, 0L)),
+                        formatSize(usage.getOrDefault(MemoryUsageType.kTableReadersTotal, 0L))));
+            }
+        }
+
+        Map<MemoryUsageType, Long> total = LocalStorageImpl.totalMemoryUsage(storages);
+        long memtables = total.getOrDefault(MemoryUsageType.kMemTableTotal, 0L);
+        long tableReaders = total.getOrDefault(MemoryUsageType.kTableReadersTotal, 0L);
+        long cache = total.getOrDefault(MemoryUsageType.kCacheTotal, 0L);
+        int limit = RocksMCConfig.database.memoryLimit;
+        lines.add(String.format("Total: %s (block cache %s, memtables %s, table readers %s), limit: %s",
+                formatSize(memtables + tableReaders + cache), formatSize(cache), formatSize(memtables), formatSize(tableReaders),
+                limit > 0 ? formatSize((long) limit << 20L) : "none"));
+
+        lines.forEach(line -> sender.sendMessage(new TextComponentString(line)));
+    }
+}
@@ -39,7 +39,7 @@ public class CommandRoot extends AbstractRocksCommand {
     public static final String PERMISSION_ROOT = RocksMC.MODID + ".command";
 
     public CommandRoot() {
-        super(new CommandConverter());
+        super(new CommandCompact(), new CommandConverter(), new CommandDictionary(), new CommandLatency(), new CommandMemory(), new CommandSnapshot(), new CommandStats());
 
         PermissionAPI.registerNode(PERMISSION_ROOT, DefaultPermissionLevel.OP, "Allows access to all /rocksmc subcommands");
     }
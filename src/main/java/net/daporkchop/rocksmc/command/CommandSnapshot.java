@@ -0,0 +1,193 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2021-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package net.daporkchop.rocksmc.command;
+
+import net.daporkchop.rocksmc.RocksMC;
+import net.daporkchop.rocksmc.RocksMCConfig;
+import net.daporkchop.rocksmc.storage.Save;
+import net.daporkchop.rocksmc.storage.Snapshot;
+import net.daporkchop.rocksmc.storage.World;
+import net.daporkchop.rocksmc.util.RocksMCExecutors;
+import net.minecraft.command.CommandException;
+import net.minecraft.command.ICommandSender;
+import net.minecraft.command.WrongUsageException;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.text.TextComponentString;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.text.DateFormat;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import static net.daporkchop.rocksmc.util.RocksMCUtils.*;
+import static net.daporkchop.rocksmc.util.TranslationKeys.*;
+
+/**
+ * Creates, lists, deletes and backs up snapshots of a world's databases.
+ *
+ * @author DaPorkchop_
+ */
+public class CommandSnapshot extends AbstractRocksCommand {
+    @Override
+    public String getName() {
+        return "snapshot";
+    }
+
+    @Override
+    public String getUsage(ICommandSender sender) {
+        return "/rocksmc snapshot <world> <save> create | list | prune | delete <id> | backup [<id>]";
+    }
+
+    @Override
+    public void execute(MinecraftServer server, ICommandSender sender, String[] args) throws CommandException {
+        if (args.length < 3) {
+            throw new WrongUsageException(this.getUsage(sender));
+        }
+
+        Save save = World.findWorld(sender, args[0]).findSave(sender, args[1]);
+        switch (args[2]) {
+            case "create":
+                this.checkArgs(sender, args, 3);
+                this.runInBackground(server, sender, "Unable to create snapshot of " + save, () -> {
+                    Snapshot snapshot = save.createSnapshot();
+                    return "Created snapshot " + snapshot + " of " + save;
+                });
+                break;
+            case "list": {
+                this.checkArgs(sender, args, 3);
+                List<Snapshot> snapshots = save.snapshots();
+                sender.sendMessage(new TextComponentString(snapshots.size() + " snapshot(s) of " + save + ':'));
+                for (Snapshot snapshot : snapshots) {
+                    try {
+                        sender.sendMessage(new TextComponentString(snapshot + ": " + DateFormat.getDateTimeInstance().format(new Date(snapshot.time()))
+                                                                   + ", " + formatSize(snapshot.size())));
+                    } catch (IOException e) {
+                        RocksMC.LOGGER.error("Unable to read snapshot " + snapshot + " of " + save, e);
+                        sender.sendMessage(new TextComponentString(snapshot + ": <unreadable>"));
+                    }
+                }
+                break;
+            }
+            case "prune":
+                this.checkArgs(sender, args, 3);
+                this.runInBackground(server, sender, "Unable to prune snapshots of " + save, () -> {
+                    List<Snapshot> deleted = save.pruneSnapshots();
+                    return "Deleted " + deleted.size() + " old snapshot(s) of " + save;
+                });
+                break;
+            case "delete": {
+                this.checkArgs(sender, args, 4);
+                Snapshot snapshot = this.getSnapshot(save, args[3]);
+                this.runInBackground(server, sender, "Unable to delete snapshot " + snapshot + " of " + save, () -> {
+                    snapshot.delete();
+                    return "Deleted snapshot " + snapshot + " of " + save;
+                });
+                break;
+            }
+            case "backup": {
+                if (args.length != 3) {
+                    this.checkArgs(sender, args, 4);
+                }
+                if (RocksMCConfig.snapshots.backupDirectory.isEmpty()) {
+                    throw new CommandException("No backup directory is configured, set 'snapshots.backupDirectory' in the RocksMC config");
+                }
+
+                Snapshot existing = args.length == 4 ? this.getSnapshot(save, args[3]) : null;
+                this.runInBackground(server, sender, "Unable to back up " + save, () -> {
+                    Snapshot snapshot = existing != null ? existing : save.createSnapshot();
+                    int backupId = snapshot.backup();
+                    return "Backed up snapshot " + snapshot + " of " + save + " as backup #" + backupId;
+                });
+                break;
+            }
+            default:
+                throw new WrongUsageException(this.getUsage(sender));
+        }
+    }
+
+    protected void checkArgs(ICommandSender sender, String[] args, int count) throws CommandException {
+        if (args.length != count) {
+            throw new WrongUsageException(this.getUsage(sender));
+        }
+    }
+
+    protected Snapshot getSnapshot(Save save, String id) throws CommandException {
+        Snapshot snapshot = save.findSnapshot(id);
+        if (snapshot == null) {
+            throw new CommandException(ERROR_CANNOT_FIND_SNAPSHOT, id);
+        }
+        return snapshot;
+    }
+
+    protected void runInBackground(MinecraftServer server, ICommandSender sender, String errorMessage, BackgroundAction action) {
+        //backups and deleting large snapshots can take a while, don't block the server thread
+        RocksMCExecutors.daemonThreadFactory("RocksMC Snapshot Thread").newThread(() -> {
+            String message;
+            try {
+                message = action.run();
+            } catch (IOException | RuntimeException e) {
+                RocksMC.LOGGER.error(errorMessage, e);
+                message = errorMessage + ", check the server log for details";
+            }
+
+            String finalMessage = message;
+            server.addScheduledTask(() -> sender.sendMessage(new TextComponentString(finalMessage)));
+        }).start();
+    }
+
+    @Override
+    public List<String> getTabCompletions(MinecraftServer server, ICommandSender sender, String[] args, @Nullable BlockPos targetPos) {
+        try {
+            switch (args.length) {
+                case 1:
+                    return getListOfStringsMatchingLastWord(args, "@");
+                case 2:
+                    return World.findWorld(sender, args[0]).listSaveIds(args[1]);
+                case 3:
+                    return getListOfStringsMatchingLastWord(args, "create", "list", "prune", "delete", "backup");
+                case 4:
+                    if ("delete".equals(args[2]) || "backup".equals(args[2])) {
+                        return World.findWorld(sender, args[0]).findSave(sender, args[1]).listSnapshotIds(args[3]);
+                    }
+            }
+        } catch (CommandException | UncheckedIOException e) {
+            //invalid world or save, there's nothing to complete
+        }
+        return Collections.emptyList();
+    }
+
+    /**
+     * An action which is run in the background.
+     *
+     * @author DaPorkchop_
+     */
+    @FunctionalInterface
+    protected interface BackgroundAction {
+        /**
+         * @return the message to send to the command sender
+         */
+        String run() throws IOException;
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2021-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package net.daporkchop.rocksmc.command;
+
+import net.daporkchop.rocksmc.RocksMC;
+import net.daporkchop.rocksmc.storage.local.LocalStorageImpl;
+import net.minecraft.command.CommandException;
+import net.minecraft.command.ICommandSender;
+import net.minecraft.command.WrongUsageException;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.util.text.TextComponentString;
+
+import java.io.IOException;
+import java.util.Map;
+
+import static net.daporkchop.rocksmc.util.RocksMCUtils.*;
+
+/**
+ * Prints the current statistics of a dimension's storage.
+ *
+ * @author DaPorkchop_
+ */
+public class CommandStats extends AbstractRocksCommand {
+    protected static boolean isSize(String name) {
+        return name.endsWith("_bytes") || name.endsWith("_size") || name.endsWith("_usage") || name.endsWith("_mem") || name.endsWith("_mem_tables")
+               || name.startsWith("bytes_");
+    }
+
+    @Override
+    public String getName() {
+        return "stats";
+    }
+
+    @Override
+    public String getUsage(ICommandSender sender) {
+        return "/rocksmc stats <dimension>";
+    }
+
+    @Override
+    public void execute(MinecraftServer server, ICommandSender sender, String[] args) throws CommandException {
+        if (args.length != 1) {
+            throw new WrongUsageException(this.getUsage(sender));
+        }
+
+        LocalStorageImpl storage = this.getStorage(server, args[0]);
+        Map<String, Long> snapshot;
+        try {
+            snapshot = storage.statistics().snapshot();
+        } catch (IOException e) {
+            RocksMC.LOGGER.error("Unable to collect statistics for " + storage, e);
+            sender.sendMessage(new TextComponentString("Unable to collect statistics, check the server log for details"));
+            return;
+        }
+
+        sender.sendMessage(new TextComponentString("Statistics for " + storage + ':'));
+        snapshot.forEach((name, value) -> sender.sendMessage(new TextComponentString(name + ": " + (isSize(name) ? formatSize(value) : String.valueOf(value)))));
+
+        Long hits = snapshot.get("block_cache_hit");
+        Long misses = snapshot.get("block_cache_miss");
+        if (hits != null && misses != null && hits + misses != 0L) {
+            sender.sendMessage(new TextComponentString(String.format("block cache hit rate: %.2f%%", hits * 100.0d / (hits + misses))));
+        }
+    }
+}
@@ -26,26 +26,21 @@ import cubicchunks.converter.lib.util.UncheckedInterruptedException;
 import cubicchunks.converter.lib.util.Utils;
 import cubicchunks.regionlib.impl.EntryLocation2D;
 import cubicchunks.regionlib.util.CheckedFunction;
-import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
-import io.github.opencubicchunks.cubicchunks.api.world.storage.ICubicStorage;
-import it.unimi.dsi.fastutil.ints.IntArrayList;
-import it.unimi.dsi.fastutil.ints.IntList;
-import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import io.netty.buffer.ByteBuf;
 import lombok.NonNull;
 import net.daporkchop.rocksmc.converter.data.RocksLocalCubicColumnData;
 import net.daporkchop.rocksmc.storage.IBinaryCubeStorage;
 import net.daporkchop.rocksmc.storage.local.LocalStorageImpl;
+import net.daporkchop.rocksmc.storage.local.SnapshotView;
 import net.daporkchop.rocksmc.util.NBTSerializerUtils;
 import net.minecraft.util.math.ChunkPos;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutionException;
 import java.util.function.Consumer;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
@@ -61,81 +56,92 @@ public class RocksLocalCubicReader extends BaseMinecraftReader<RocksLocalCubicCo
         return worldDir;
     }
 
-    private final CompletableFuture<Map<Dimension, Map<ChunkPos, IntList>>> chunkList = new CompletableFuture<>();
+    /**
+     * The maximum number of cubes which will be buffered while grouping them by column.
+     */
+    private static final int MAX_BUFFERED_CUBES = 1 << 16;
+
     private final Thread loadThread = Thread.currentThread();
 
+    //guarded by synchronizing on this instance
+    private final Map<Dimension, SnapshotView> views = new HashMap<>();
+
     public RocksLocalCubicReader(@NonNull Path srcDir) {
-        super(srcDir, (dim, path) -> Files.exists(getDimensionPath(dim, path))
-                ? Utils.propagateExceptions((CheckedFunction<Path, IBinaryCubeStorage, IOException>) p -> new LocalStorageImpl(null, p)).apply(getDimensionPath(dim, path))
+        //open the databases as secondary instances, so that worlds can be converted while a server is still running them
+        super(srcDir, (dim, path) -> Files.exists(getDimensionPath(dim, path).resolve("rocksmc_local").resolve("db"))
+                ? Utils.propagateExceptions((CheckedFunction<Path, IBinaryCubeStorage, IOException>) LocalStorageImpl::openSecondary).apply(getDimensionPath(dim, path))
                 : null);
     }
 
+    /**
+     * Gets the snapshot of the given dimension, opening it if necessary.
+     * <p>
+     * Counting and loading use the same snapshot, so that the number of columns which are counted is exactly the number of columns which are loaded, even if
+     * the world is being modified by a running server.
+     */
+    private synchronized SnapshotView view(@NonNull Dimension dim) throws IOException {
+        SnapshotView view = this.views.get(dim);
+        if (view == null) {
+            this.views.put(dim, view = ((LocalStorageImpl) this.saves.get(dim)).openSnapshotView());
+        }
+        return view;
+    }
+
     @Override
     public void countInputChunks(@NonNull Runnable increment) throws IOException, InterruptedException {
-        //adapted from CubicChunkReader
         try {
-            Map<Dimension, Map<ChunkPos, IntList>> dimensions = new Object2ObjectOpenHashMap<>();
-
-            for (Map.Entry<Dimension, IBinaryCubeStorage> entry : this.saves.entrySet()) {
-                Map<ChunkPos, IntList> chunksMap = new HashMap<>();
-                dimensions.put(entry.getKey(), chunksMap);
-
-                entry.getValue().forEachCube(cubePos -> chunksMap.computeIfAbsent(cubePos.chunkPos(), chunkPos -> {
-                    increment.run();
-                    return new IntArrayList();
-                }).add(cubePos.getY()));
+            //this runs exactly the same scan as loadChunks, but without reading any values
+            for (Dimension dim : this.saves.keySet()) {
+                this.view(dim).countColumnsWithCubes(MAX_BUFFERED_CUBES, increment);
             }
-            this.chunkList.complete(dimensions);
-        } catch (UncheckedInterruptedException ignored) {
-            this.chunkList.complete(null);
+        } catch (InterruptedIOException | UncheckedInterruptedException ignored) {
+            // interrupted, do nothing
         }
     }
 
     @Override
     public void loadChunks(@NonNull Consumer<? super RocksLocalCubicColumnData> consumer, @NonNull Predicate<Throwable> errorHandler) throws IOException, InterruptedException {
-        try {
-            Map<Dimension, Map<ChunkPos, IntList>> chunksByDimension = this.chunkList.get();
-            if (chunksByDimension == null) {
-                return; //counting interrupted
-            }
-
-            for (Map.Entry<Dimension, Map<ChunkPos, IntList>> dimEntry : chunksByDimension.entrySet()) {
-                if (Thread.interrupted()) {
-                    return;
-                }
-
-                Dimension dim = dimEntry.getKey();
-                IBinaryCubeStorage storage = this.saves.get(dim);
-                dimEntry.getValue().entrySet().parallelStream().forEach(chunkEntry -> {
-                    if (Thread.interrupted()) {
-                        return;
-                    }
-
-                    ChunkPos chunkPos = chunkEntry.getKey();
-                    IntList cubes = chunkEntry.getValue();
-
-                    IBinaryCubeStorage.BinaryBatch batch;
+        for (Dimension dim : this.saves.keySet()) {
+            //stream the columns out of a snapshot, so that a running server's writes don't result in a mix of old and new cubes
+            try {
+                this.view(dim).forEachColumnWithCubes(MAX_BUFFERED_CUBES, batch -> {
+                    Map.Entry<ChunkPos, ByteBuf> column = batch.columns.entrySet().iterator().next();
+                    ChunkPos chunkPos = column.getKey();
+
+                    RocksLocalCubicColumnData data;
                     try {
-                        batch = storage.readBinaryBatch(new ICubicStorage.PosBatch(
-                                Collections.singleton(chunkPos),
-                                cubes.stream().map(y -> new CubePos(chunkPos.x, y, chunkPos.z)).collect(Collectors.toSet())));
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                        return; //interrupted?
+                        data = new RocksLocalCubicColumnData(dim, new EntryLocation2D(chunkPos.x, chunkPos.z),
+                                NBTSerializerUtils.toHeapNioBuffer(column.getValue()),
+                                batch.cubes.entrySet().stream().collect(Collectors.toMap(e -> e.getKey().getY(), e -> NBTSerializerUtils.toHeapNioBuffer(e.getValue()))));
+                    } catch (RuntimeException e) {
+                        if (errorHandler.test(e)) { //the error handler decides whether the conversion should be aborted or the column should be skipped
+                            throw e;
+                        }
+                        return;
                     }
-
-                    consumer.accept(new RocksLocalCubicColumnData(dim, new EntryLocation2D(chunkPos.x, chunkPos.z),
-                            NBTSerializerUtils.toHeapNioBuffer(batch.columns.values().iterator().next()),
-                            batch.cubes.entrySet().stream().collect(Collectors.toMap(e -> e.getKey().getY(), e -> NBTSerializerUtils.toHeapNioBuffer(e.getValue())))));
+                    consumer.accept(data);
                 });
+            } catch (InterruptedIOException | UncheckedInterruptedException e) {
+                return; //interrupted by stop()
+            } catch (IOException e) {
+                if (errorHandler.test(e)) {
+                    throw e;
+                }
             }
-        } catch (UncheckedInterruptedException ex) {
-            // interrupted, do nothing
-        } catch (ExecutionException e) {
-            throw new RuntimeException(e);
         }
     }
 
+    @Override
+    public void close() throws Exception {
+        synchronized (this) { //the snapshots have to be released before the storages are closed
+            for (SnapshotView view : this.views.values()) {
+                view.close();
+            }
+            this.views.clear();
+        }
+        super.close();
+    }
+
     @Override
     public void stop() {
         this.loadThread.interrupt();
@@ -23,25 +23,119 @@ package net.daporkchop.rocksmc.storage;
 import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
 import io.github.opencubicchunks.cubicchunks.api.world.storage.ICubicStorage;
 import io.netty.buffer.ByteBuf;
+import io.netty.util.ReferenceCountUtil;
+import net.daporkchop.rocksmc.storage.io.IOPriority;
+import net.daporkchop.rocksmc.util.nbt.LazyNBTCompound;
+import net.minecraft.nbt.NBTTagCompound;
 import net.minecraft.util.math.ChunkPos;
 
 import java.io.Closeable;
 import java.io.IOException;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
 
 /**
  * @author DaPorkchop_
  */
 public interface IBinaryCubeStorage extends ICubicStorage, Closeable {
+    /**
+     * Asynchronously reads the NBT data for a single column.
+     * <p>
+     * Concurrent asynchronous reads may be combined into a single batch read.
+     *
+     * @param pos      the position of the column
+     * @param priority the priority of the read
+     * @return a future which will be completed with the column's NBT data, or with {@code null} if the column couldn't be found
+     */
+    CompletableFuture<NBTTagCompound> readColumnAsync(ChunkPos pos, IOPriority priority);
+
+    /**
+     * Asynchronously reads the NBT data for a single column with {@link IOPriority#PLAYER} priority.
+     *
+     * @see #readColumnAsync(ChunkPos, IOPriority)
+     */
+    default CompletableFuture<NBTTagCompound> readColumnAsync(ChunkPos pos) {
+        return this.readColumnAsync(pos, IOPriority.PLAYER);
+    }
+
+    /**
+     * Asynchronously reads the NBT data for a single cube.
+     * <p>
+     * Concurrent asynchronous reads may be combined into a single batch read.
+     *
+     * @param pos      the position of the cube
+     * @param priority the priority of the read
+     * @return a future which will be completed with the cube's NBT data, or with {@code null} if the cube couldn't be found
+     */
+    CompletableFuture<NBTTagCompound> readCubeAsync(CubePos pos, IOPriority priority);
+
+    /**
+     * Asynchronously reads the NBT data for a single cube with {@link IOPriority#PLAYER} priority.
+     *
+     * @see #readCubeAsync(CubePos, IOPriority)
+     */
+    default CompletableFuture<NBTTagCompound> readCubeAsync(CubePos pos) {
+        return this.readCubeAsync(pos, IOPriority.PLAYER);
+    }
+
+    /**
+     * Asynchronously reads the NBT data for multiple cubes+columns at once.
+     *
+     * @param positions a {@link PosBatch} containing the positions of all the cubes+columns to read
+     * @param priority  the priority of the read
+     * @return a future which will be completed with the result of {@link #readBatch(PosBatch)}
+     */
+    CompletableFuture<NBTBatch> readBatchAsync(PosBatch positions, IOPriority priority);
+
+    /**
+     * Asynchronously writes the NBT data for multiple cubes+columns at once.
+     *
+     * @param batch    a {@link NBTBatch} containing the cube+column positions and the NBT data to write to each
+     * @param priority the priority of the write
+     * @return a future which will be completed once the data has been written
+     */
+    CompletableFuture<Void> writeBatchAsync(NBTBatch batch, IOPriority priority);
+
     /**
      * Reads the raw binary data for multiple cubes+columns at once.
+     * <p>
+     * The caller takes ownership of the returned buffers, and should {@link ByteBuf#release() release} each of them once it's no longer needed. Implementations
+     * may return pooled or direct buffers, which would otherwise be leaked.
      *
      * @param positions a {@link PosBatch} containing the positions of all the cubes+columns to read
      * @return a {@link BinaryBatch} containing all the given cube+column positions mapped to their corresponding NBT data, or {@code null} for cubes/columns that can't be found
      */
     BinaryBatch readBinaryBatch(PosBatch positions) throws IOException;
 
+    /**
+     * Reads multiple cubes+columns at once, and passes a lazily decoded view of each one's NBT data to the given callbacks.
+     * <p>
+     * This is much cheaper than {@link #readBatch(PosBatch)} for callers which only need a few values from each cube/column, as only the values which are
+     * actually accessed are decoded.
+     * <p>
+     * The views are backed by the buffers returned by {@link #readBinaryBatch(PosBatch)}, and must not be used after the callback returns.
+     *
+     * @param positions      a {@link PosBatch} containing the positions of all the cubes+columns to read
+     * @param columnCallback a callback which will be called with each column position and a view of its NBT data, or {@code null} if it couldn't be found
+     * @param cubeCallback   a callback which will be called with each cube position and a view of its NBT data, or {@code null} if it couldn't be found
+     */
+    default void readLazyBatch(PosBatch positions, BiConsumer<ChunkPos, LazyNBTCompound> columnCallback, BiConsumer<CubePos, LazyNBTCompound> cubeCallback) throws IOException {
+        BinaryBatch batch = this.readBinaryBatch(positions);
+        try {
+            for (Map.Entry<ChunkPos, ByteBuf> entry : batch.columns.entrySet()) {
+                columnCallback.accept(entry.getKey(), entry.getValue() != null ? LazyNBTCompound.of(entry.getValue()) : null);
+            }
+            for (Map.Entry<CubePos, ByteBuf> entry : batch.cubes.entrySet()) {
+                cubeCallback.accept(entry.getKey(), entry.getValue() != null ? LazyNBTCompound.of(entry.getValue()) : null);
+            }
+        } finally {
+            batch.columns.values().forEach(ReferenceCountUtil::release);
+            batch.cubes.values().forEach(ReferenceCountUtil::release);
+        }
+    }
+
     /**
      * Writes the raw binary data for multiple cubes+columns at once.
      *
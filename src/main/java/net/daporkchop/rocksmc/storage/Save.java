@@ -20,26 +20,277 @@
 
 package net.daporkchop.rocksmc.storage;
 
+import lombok.Getter;
 import lombok.NonNull;
+import net.daporkchop.rocksmc.RocksMC;
+import net.daporkchop.rocksmc.RocksMCConfig;
+import net.daporkchop.rocksmc.storage.local.LocalStorageImpl;
+import org.rocksdb.Checkpoint;
+import org.rocksdb.ColumnFamilyDescriptor;
+import org.rocksdb.ColumnFamilyHandle;
+import org.rocksdb.ColumnFamilyOptions;
+import org.rocksdb.DBOptions;
+import org.rocksdb.Options;
+import org.rocksdb.RocksDB;
+import org.rocksdb.RocksDBException;
 
-import java.util.Collections;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
+ * A single RocksMC database in a {@link World}, along with its {@link Snapshot}s.
+ * <p>
+ * The database itself is stored in a subdirectory named {@code db}, and snapshots are stored in a subdirectory named {@code snapshots}. As both are on the
+ * same file system, snapshots can hard-link the database's SST files rather than copying them.
+ *
  * @author DaPorkchop_
  */
+@Getter
 public abstract class Save {
+    protected static final String SNAPSHOTS_DIRECTORY = "snapshots";
+
+    /**
+     * Opens the database in the given directory in read-only mode, and passes it to the given action.
+     * <p>
+     * Every column family is opened with the default options, which is sufficient for reading.
+     *
+     * @param dbPath the directory containing the database
+     * @param action the action to run
+     */
+    protected static void withReadOnly(@NonNull Path dbPath, @NonNull ReadOnlyAction action) throws IOException {
+        if (!Files.exists(dbPath.resolve("CURRENT"))) {
+            throw new NoSuchFileException(dbPath.toString());
+        }
+
+        try (DBOptions options = new DBOptions();
+             ColumnFamilyOptions cfOptions = new ColumnFamilyOptions()) {
+            List<byte[]> names;
+            try (Options listOptions = new Options()) {
+                names = RocksDB.listColumnFamilies(listOptions, dbPath.toString());
+            }
+
+            List<ColumnFamilyDescriptor> cfDescriptors = names.stream().map(name -> new ColumnFamilyDescriptor(name, cfOptions)).collect(Collectors.toList());
+            List<ColumnFamilyHandle> cfHandles = new ArrayList<>(cfDescriptors.size());
+            try (RocksDB db = RocksDB.openReadOnly(options, dbPath.toString(), cfDescriptors, cfHandles)) {
+                try {
+                    action.accept(db);
+                } finally {
+                    cfHandles.forEach(ColumnFamilyHandle::close); //close column families before db
+                }
+            }
+        } catch (RocksDBException e) {
+            throw new IOException(e); //rethrow
+        }
+    }
+
+    @NonNull
+    protected final World world;
+    /**
+     * The ID of this database in its world.
+     *
+     * @see World#listSaveIds(String)
+     */
+    @NonNull
+    protected final String id;
+    /**
+     * The directory containing the database and its snapshots.
+     */
+    @NonNull
+    protected final Path path;
+
+    protected Save(@NonNull World world, @NonNull String id, @NonNull Path path) {
+        this.world = world;
+        this.id = id;
+        this.path = path.toAbsolutePath().normalize();
+    }
+
+    /**
+     * Creates a new snapshot of this database's current contents, then deletes old snapshots according to the configured retention policy.
+     * <p>
+     * If the database is currently open, the snapshot is created from the running database, and includes all data written before this method was called.
+     * Otherwise, the database is temporarily opened in read-only mode.
+     *
+     * @return the new snapshot
+     */
+    public Snapshot createSnapshot() throws IOException {
+        Path snapshotsDir = this.path.resolve(SNAPSHOTS_DIRECTORY);
+        Files.createDirectories(snapshotsDir);
+
+        //snapshot IDs are ordered by their creation time
+        String baseId = Snapshot.ID_FORMAT.format(LocalDateTime.now());
+        String id = baseId;
+        for (int i = 1; Files.exists(snapshotsDir.resolve(id)); i++) {
+            id = baseId + '-' + i;
+        }
+
+        Path dst = snapshotsDir.resolve(id);
+        long startTime = System.nanoTime();
+        if (!this.checkpointOpen(dst)) {
+            Path src = this.path.resolve("db");
+            withReadOnly(src, db -> {
+                try (Checkpoint checkpoint = Checkpoint.create(db)) {
+                    checkpoint.createCheckpoint(dst.toString());
+                }
+            });
+
+            //a read-only database can't flush its memtables, so the checkpoint doesn't include any data which is still only in the WAL
+            try (Stream<Path> stream = Files.list(src)) {
+                for (Path log : (Iterable<Path>) stream.filter(file -> file.getFileName().toString().endsWith(".log"))::iterator) {
+                    if (!Files.exists(dst.resolve(log.getFileName()))) {
+                        Files.copy(log, dst.resolve(log.getFileName()));
+                    }
+                }
+            }
+        }
+
+        Snapshot snapshot = new Snapshot(this, id, dst);
+        RocksMC.LOGGER.info("Created snapshot {} of {} in {}ms", id, this, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+
+        this.pruneSnapshots();
+        return snapshot;
+    }
+
+    /**
+     * Creates a checkpoint of this database if it's currently open.
+     *
+     * @return whether or not the database was open
+     */
+    protected boolean checkpointOpen(@NonNull Path dst) throws IOException {
+        List<LocalStorageImpl> storages;
+        synchronized (RocksMC.STORAGES_BY_WORLD) {
+            storages = new ArrayList<>(RocksMC.STORAGES_BY_WORLD.values());
+        }
+
+        for (LocalStorageImpl storage : storages) {
+            if (storage.path().toAbsolutePath().normalize().equals(this.path) && storage.createCheckpoint(dst)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Deletes old snapshots according to the configured retention policy.
+     * <p>
+     * The most recent snapshot is never deleted.
+     *
+     * @return the snapshots which were deleted
+     */
+    public List<Snapshot> pruneSnapshots() throws IOException {
+        int maxCount = RocksMCConfig.snapshots.maxCount;
+        long maxAge = TimeUnit.HOURS.toMillis(RocksMCConfig.snapshots.maxAge);
+        long now = System.currentTimeMillis();
+
+        List<Snapshot> snapshots = this.snapshots();
+        List<Snapshot> deleted = new ArrayList<>();
+        for (int i = 0; i < snapshots.size() - 1; i++) {
+            Snapshot snapshot = snapshots.get(i);
+            int newer = snapshots.size() - 1 - i;
+            if ((maxCount > 0 && newer >= maxCount) || (maxAge > 0L && now - snapshot.time() > maxAge)) {
+                snapshot.delete();
+                deleted.add(snapshot);
+            }
+        }
+
+        if (!deleted.isEmpty()) {
+            RocksMC.LOGGER.info("Deleted {} old snapshot(s) of {}", deleted.size(), this);
+        }
+        return deleted;
+    }
+
+    /**
+     * @return all snapshots of this database, oldest first
+     */
+    public List<Snapshot> snapshots() {
+        return this.listSnapshotIds(null).stream().map(this::findSnapshot).collect(Collectors.toList());
+    }
+
+    /**
+     * Finds a snapshot of this database.
+     *
+     * @param id the ID of the snapshot
+     * @return the snapshot, or {@code null} if it couldn't be found
+     */
     public Snapshot findSnapshot(@NonNull String id) {
-        return null;
+        Path path = this.path.resolve(SNAPSHOTS_DIRECTORY).resolve(id).normalize();
+        return path.getParent().equals(this.path.resolve(SNAPSHOTS_DIRECTORY)) && !id.endsWith(".tmp") && Files.exists(path.resolve("CURRENT"))
+                ? new Snapshot(this, id, path)
+                : null;
     }
 
+    /**
+     * Lists the IDs of all snapshots of this database.
+     *
+     * @param searchPrefix if non-null, only IDs starting with this prefix will be returned
+     * @return the IDs, oldest first
+     */
     public List<String> listSnapshotIds(String searchPrefix) {
-        return Collections.emptyList();
+        Path snapshotsDir = this.path.resolve(SNAPSHOTS_DIRECTORY);
+        if (!Files.isDirectory(snapshotsDir)) {
+            return new ArrayList<>();
+        }
+
+        //checkpoints are created in a temporary directory with the ".tmp" suffix, and renamed once they're complete
+        try (Stream<Path> stream = Files.list(snapshotsDir)) {
+            return stream.filter(dir -> Files.exists(dir.resolve("CURRENT")))
+                    .map(dir -> dir.getFileName().toString())
+                    .filter(id -> !id.endsWith(".tmp"))
+                    .filter(id -> searchPrefix == null || id.startsWith(searchPrefix))
+                    .sorted()
+                    .collect(Collectors.toList());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return this.world + " (" + this.id + ')';
     }
 
+    /**
+     * An action which is run on a database opened using {@link #withReadOnly(Path, ReadOnlyAction)}.
+     *
+     * @author DaPorkchop_
+     */
+    @FunctionalInterface
+    protected interface ReadOnlyAction {
+        void accept(@NonNull RocksDB db) throws RocksDBException, IOException;
+    }
+
+    /**
+     * A standalone database, which stores the data of a single dimension.
+     *
+     * @author DaPorkchop_
+     */
     public static class Local extends Save {
+        public Local(@NonNull World world, @NonNull String id, @NonNull Path path) {
+            super(world, id, path);
+        }
     }
 
+    /**
+     * A shared database, which stores the data of every dimension in the world.
+     *
+     * @author DaPorkchop_
+     */
     public static class Global extends Save {
+        /**
+         * The ID of the shared database in every world.
+         */
+        public static final String ID = "global";
+
+        public Global(@NonNull World world, @NonNull Path path) {
+            super(world, ID, path);
+        }
     }
 }
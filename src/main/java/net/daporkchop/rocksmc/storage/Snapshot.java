@@ -20,8 +20,133 @@
 
 package net.daporkchop.rocksmc.storage;
 
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import net.daporkchop.rocksmc.RocksMC;
+import net.daporkchop.rocksmc.RocksMCConfig;
+import net.daporkchop.rocksmc.util.RocksMCUtils;
+import org.rocksdb.BackupEngine;
+import org.rocksdb.BackupInfo;
+import org.rocksdb.BackupableDBOptions;
+import org.rocksdb.Env;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
 /**
+ * A point-in-time copy of a {@link Save}'s database.
+ * <p>
+ * Snapshots are RocksDB checkpoints: immutable SST files are hard-linked rather than copied, so creating a snapshot takes roughly constant time and
+ * initially uses almost no additional disk space. Each snapshot is a complete database, and can be opened directly in place of the original.
+ *
  * @author DaPorkchop_
  */
+@RequiredArgsConstructor
+@Getter
 public class Snapshot {
+    /**
+     * The format used for snapshot IDs.
+     */
+    public static final DateTimeFormatter ID_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+
+    @NonNull
+    protected final Save save;
+    @NonNull
+    protected final String id;
+    /**
+     * The directory containing the snapshot's database.
+     */
+    @NonNull
+    protected final Path path;
+
+    /**
+     * @return the time at which this snapshot was created, in milliseconds since the epoch
+     */
+    public long time() throws IOException {
+        try { //the ID may have a suffix if multiple snapshots were created in the same second
+            return LocalDateTime.parse(this.id.substring(0, Math.min(this.id.length(), 15)), ID_FORMAT).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return Files.getLastModifiedTime(this.path).toMillis();
+        }
+    }
+
+    /**
+     * Gets the total size of this snapshot's files.
+     * <p>
+     * Note that most of these files are likely to be shared with the live database and other snapshots, so deleting this snapshot will usually free much less space.
+     *
+     * @return the total size of this snapshot's files, in bytes
+     */
+    public long size() throws IOException {
+        try (Stream<Path> stream = Files.list(this.path)) {
+            long size = 0L;
+            for (Path file : (Iterable<Path>) stream::iterator) {
+                size += Files.size(file);
+            }
+            return size;
+        }
+    }
+
+    /**
+     * Deletes this snapshot.
+     */
+    public void delete() throws IOException {
+        RocksMCUtils.deleteRecursive(this.path);
+    }
+
+    /**
+     * Copies this snapshot to the configured backup directory.
+     * <p>
+     * Backups are incremental: SST files which were already backed up by a previous backup of the same {@link Save} are not copied again. Backup I/O is limited
+     * to the configured rate, to avoid starving the running server of disk bandwidth.
+     *
+     * @return the ID of the new backup
+     * @throws IllegalStateException if no backup directory is configured
+     */
+    public int backup() throws IOException {
+        String backupDirectory = RocksMCConfig.snapshots.backupDirectory;
+        if (backupDirectory == null || backupDirectory.isEmpty()) {
+            throw new IllegalStateException("no backup directory configured");
+        }
+
+        Path dst = Paths.get(backupDirectory).resolve(this.save.world().path().getFileName().toString()).resolve(this.save.id());
+        Files.createDirectories(dst);
+
+        int[] backupId = new int[1];
+        long startTime = System.nanoTime();
+        Save.withReadOnly(this.path, db -> {
+            try (BackupableDBOptions options = new BackupableDBOptions(dst.toString())
+                    .setShareTableFiles(true)
+                    .setShareFilesWithChecksum(true)
+                    .setBackupRateLimit(RocksMCConfig.snapshots.backupRateLimit > 0 ? (long) RocksMCConfig.snapshots.backupRateLimit << 20L : 0L);
+                 BackupEngine engine = BackupEngine.open(Env.getDefault(), options)) {
+                engine.createNewBackupWithMetadata(db, "snapshot " + this.id, false);
+
+                List<BackupInfo> infos = engine.getBackupInfo();
+                backupId[0] = infos.get(infos.size() - 1).backupId();
+
+                if (RocksMCConfig.snapshots.backupCount > 0) {
+                    engine.purgeOldBackups(RocksMCConfig.snapshots.backupCount);
+                }
+            }
+        });
+
+        RocksMC.LOGGER.info("Backed up snapshot {} of {} to {} in {}ms", this.id, this.save, dst, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+        return backupId[0];
+    }
+
+    @Override
+    public String toString() {
+        return this.id;
+    }
 }
@@ -20,53 +20,141 @@
 
 package net.daporkchop.rocksmc.storage;
 
+import lombok.Getter;
 import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
 import net.daporkchop.rocksmc.util.InputUtils;
 import net.minecraft.command.CommandException;
 import net.minecraft.command.ICommandSender;
+import net.minecraft.server.MinecraftServer;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.Collections;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static net.daporkchop.rocksmc.util.TranslationKeys.*;
 
 /**
+ * A Minecraft save directory, which may contain any number of RocksMC databases.
+ *
  * @author DaPorkchop_
  */
+@RequiredArgsConstructor
+@Getter
 public class World {
     protected static final Pattern WORLD_PATTERN = Pattern.compile("(?<current>@)"
                                                                    + "|\\$(?:(?<path>[^\\\\\\\". \\n]+)|\\\"(?<qpath>(?>\\\\?[^\\n])+)\\\")"
                                                                    + "|(?:(?<name>[^\\\\\\\". \\n]+)|\\\"(?<qname>(?>\\\\?[^\\n])+)\\\")");
 
+    /**
+     * The ID of the overworld's standalone database, whose dimension directory is the save directory itself.
+     */
+    protected static final String OVERWORLD_ID = "DIM0";
+
     public static World findWorld(@NonNull ICommandSender sender, @NonNull String id) throws CommandException {
         Matcher matcher = WORLD_PATTERN.matcher(id);
         if (!matcher.matches()) { //ensure that id is valid
             throw new CommandException(ERROR_CANNOT_PARSE_WORLD, id);
         }
 
-        Path path;
+        Path path = null;
         String s;
         if ((s = matcher.group("current")) != null) { //sender's current world
-            //TODO
+            if (sender.getEntityWorld() != null) {
+                path = sender.getEntityWorld().getSaveHandler().getWorldDirectory().toPath();
+            }
         } else if ((s = matcher.group("name")) != null || (s = matcher.group("qname")) != null) { //get world by name
             s = InputUtils.unescapeQuotedString(s);
-            //TODO
+            MinecraftServer server = sender.getServer();
+            if (server != null) {
+                path = server.getActiveAnvilConverter().getFile(s, "level.dat").getParentFile().toPath();
+            }
         } else if ((s = matcher.group("path")) != null || (s = matcher.group("qpath")) != null) { //absolute world path
             path = Paths.get(InputUtils.unescapeQuotedString(s));
         }
 
-        return null; //TODO: get world instance from Path
+        if (path == null || !Files.isDirectory(path)) {
+            throw new CommandException(ERROR_CANNOT_FIND_WORLD, id);
+        }
+        return new World(path.toAbsolutePath().normalize());
     }
 
+    /**
+     * The save directory.
+     */
+    @NonNull
+    protected final Path path;
+
+    /**
+     * Finds a database in this world.
+     *
+     * @param sender the command sender who requested the database
+     * @param id     the ID of the database, as returned by {@link #listSaveIds(String)}
+     * @return the database
+     * @throws CommandException if the database couldn't be found
+     */
     public Save findSave(@NonNull ICommandSender sender, @NonNull String id) throws CommandException {
-        return null;
+        Path path = this.savePath(id);
+        if (path == null || !Files.isDirectory(path.resolve("db"))) {
+            throw new CommandException(ERROR_CANNOT_FIND_SAVE, id);
+        }
+
+        return Save.Global.ID.equals(id) ? new Save.Global(this, path) : new Save.Local(this, id, path);
     }
 
+    /**
+     * Lists the IDs of all databases in this world.
+     * <p>
+     * The shared database (if any) has the ID {@link Save.Global#ID}, standalone databases are identified by the name of their dimension's directory.
+     *
+     * @param searchPrefix if non-null, only IDs starting with this prefix will be returned
+     * @return the IDs, in sorted order
+     */
     public List<String> listSaveIds(String searchPrefix) {
-        return Collections.emptyList();
+        List<String> ids = new ArrayList<>();
+        ids.add(Save.Global.ID);
+        ids.add(OVERWORLD_ID);
+        try (Stream<Path> stream = Files.list(this.path)) {
+            stream.filter(Files::isDirectory).map(dir -> dir.getFileName().toString()).forEach(ids::add);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        return ids.stream()
+                .filter(id -> searchPrefix == null || id.startsWith(searchPrefix))
+                .filter(id -> {
+                    Path path = this.savePath(id);
+                    return path != null && Files.isDirectory(path.resolve("db"));
+                })
+                .distinct().sorted()
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * @return the directory containing the database with the given ID, or {@code null} if the ID is invalid
+     */
+    protected Path savePath(@NonNull String id) {
+        if (Save.Global.ID.equals(id)) {
+            return this.path.resolve("rocksmc_global");
+        } else if (OVERWORLD_ID.equals(id)) {
+            return this.path.resolve("rocksmc_local");
+        } else if (id.isEmpty() || id.startsWith(".") || id.indexOf('/') >= 0 || id.indexOf('\\') >= 0) { //don't allow escaping from the save directory
+            return null;
+        } else {
+            return this.path.resolve(id).resolve("rocksmc_local");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return this.path.toString();
     }
 }
@@ -0,0 +1,67 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2021-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package net.daporkchop.rocksmc.storage.io;
+
+import net.daporkchop.rocksmc.RocksMCConfig;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The priority classes used by the {@link IOScheduler}.
+ * <p>
+ * Classes are listed from most to least urgent.
+ *
+ * @author DaPorkchop_
+ */
+public enum IOPriority {
+    /**
+     * Loads of cubes/columns which are needed by a player right now.
+     */
+    PLAYER {
+        @Override
+        public long defaultDeadlineNanos() {
+            return TimeUnit.MILLISECONDS.toNanos(RocksMCConfig.scheduler.playerDeadline);
+        }
+    },
+    /**
+     * Loads of cubes/columns which are needed for world generation.
+     */
+    WORLDGEN {
+        @Override
+        public long defaultDeadlineNanos() {
+            return TimeUnit.MILLISECONDS.toNanos(RocksMCConfig.scheduler.worldGenDeadline);
+        }
+    },
+    /**
+     * Background work, such as saving dirty cubes/columns.
+     */
+    BACKGROUND {
+        @Override
+        public long defaultDeadlineNanos() {
+            return TimeUnit.MILLISECONDS.toNanos(RocksMCConfig.scheduler.backgroundDeadline);
+        }
+    };
+
+    /**
+     * @return the amount of time (in nanoseconds) after which a request of this class will be considered overdue, unless a different deadline is given
+     */
+    public abstract long defaultDeadlineNanos();
+}
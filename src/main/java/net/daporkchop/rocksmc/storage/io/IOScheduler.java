@@ -0,0 +1,280 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2021-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package net.daporkchop.rocksmc.storage.io;
+
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import net.daporkchop.rocksmc.RocksMC;
+import net.daporkchop.rocksmc.util.RocksMCExecutors;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Executes storage I/O requests on a bounded pool of worker threads, ordered by {@link IOPriority priority class} and deadline.
+ * <p>
+ * Workers always pick the request with the earliest deadline among all requests which are already overdue. If no requests are overdue, the most urgent
+ * non-empty priority class is served first, in order of deadline. This way, urgent reads will overtake queued bulk writes, but bulk writes can't be starved
+ * forever.
+ *
+ * @author DaPorkchop_
+ */
+public class IOScheduler {
+    protected static final IOPriority[] PRIORITIES = IOPriority.values();
+
+    protected final Lock lock = new ReentrantLock();
+    protected final Condition notEmpty = this.lock.newCondition();
+    protected final List<PriorityQueue<Task<?>>> queues = new ArrayList<>(PRIORITIES.length);
+    protected long sequence;
+    protected boolean shutdown;
+
+    protected final Thread[] workers;
+
+    protected final LongAdder[] completed = new LongAdder[PRIORITIES.length];
+    protected final LongAdder[] overdue = new LongAdder[PRIORITIES.length];
+    protected final LongAdder[] totalWaitNanos = new LongAdder[PRIORITIES.length];
+    protected final AtomicLong[] maxWaitNanos = new AtomicLong[PRIORITIES.length];
+
+    public IOScheduler(int threads) {
+        for (int i = 0; i < PRIORITIES.length; i++) {
+            this.queues.add(new PriorityQueue<>(Comparator.<Task<?>>comparingLong(task -> task.deadline).thenComparingLong(task -> task.sequence)));
+            this.completed[i] = new LongAdder();
+            this.overdue[i] = new LongAdder();
+            this.totalWaitNanos[i] = new LongAdder();
+            this.maxWaitNanos[i] = new AtomicLong();
+        }
+
+        ThreadFactory threadFactory = RocksMCExecutors.daemonThreadFactory("RocksMC I/O Thread");
+        this.workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            (this.workers[i] = threadFactory.newThread(this::workerLoop)).start();
+        }
+    }
+
+    /**
+     * Submits a request using the default deadline for its priority class.
+     *
+     * @see #submit(IOPriority, long, Callable)
+     */
+    public <T> CompletableFuture<T> submit(@NonNull IOPriority priority, @NonNull Callable<T> action) {
+        return this.submit(priority, priority.defaultDeadlineNanos(), action);
+    }
+
+    /**
+     * Submits a request.
+     *
+     * @param priority      the request's priority class
+     * @param deadlineNanos the amount of time (in nanoseconds) after which the request will be considered overdue
+     * @param action        the action to run
+     * @return a future which will be completed with the action's result
+     */
+    public <T> CompletableFuture<T> submit(@NonNull IOPriority priority, long deadlineNanos, @NonNull Callable<T> action) {
+        long now = System.nanoTime();
+        Task<T> task = new Task<>(priority, action, now, now + deadlineNanos);
+
+        this.lock.lock();
+        try {
+            if (this.shutdown) {
+                throw new IllegalStateException("I/O scheduler has been shut down!");
+            }
+
+            task.sequence = this.sequence++;
+            this.queues.get(priority.ordinal()).add(task);
+            this.notEmpty.signal();
+        } finally {
+            this.lock.unlock();
+        }
+        return task.future;
+    }
+
+    protected void workerLoop() {
+        while (true) {
+            Task<?> task;
+            this.lock.lock();
+            try {
+                while ((task = this.poll()) == null) {
+                    if (this.shutdown) {
+                        return;
+                    }
+                    this.notEmpty.awaitUninterruptibly();
+                }
+            } finally {
+                this.lock.unlock();
+            }
+
+            try {
+                task.run();
+            } catch (Throwable t) {
+                RocksMC.LOGGER.error("Uncaught exception in I/O worker", t);
+            }
+        }
+    }
+
+    /**
+     * Removes the next task to be executed from the queues.
+     * <p>
+     * Must be called while holding the lock.
+     *
+     * @return the next task, or {@code null} if there are no queued tasks
+     */
+    protected Task<?> poll() {
+        long now = System.nanoTime();
+
+        //find the overdue task with the earliest deadline
+        PriorityQueue<Task<?>> best = null;
+        for (PriorityQueue<Task<?>> queue : this.queues) {
+            Task<?> head = queue.peek();
+            if (head != null && head.deadline - now <= 0L && (best == null || head.deadline - best.peek().deadline < 0L)) {
+                best = queue;
+            }
+        }
+
+        if (best == null) { //no tasks are overdue, use the most urgent non-empty class
+            for (PriorityQueue<Task<?>> queue : this.queues) {
+                if (!queue.isEmpty()) {
+                    best = queue;
+                    break;
+                }
+            }
+        }
+
+        return best != null ? best.poll() : null;
+    }
+
+    /**
+     * @return the number of requests of the given class which are currently waiting to be executed
+     */
+    public int queueDepth(@NonNull IOPriority priority) {
+        this.lock.lock();
+        try {
+            return this.queues.get(priority.ordinal()).size();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of requests of the given class which have been executed
+     */
+    public long completed(@NonNull IOPriority priority) {
+        return this.completed[priority.ordinal()].sum();
+    }
+
+    /**
+     * @return the number of requests of the given class which were started after their deadline had passed
+     */
+    public long overdue(@NonNull IOPriority priority) {
+        return this.overdue[priority.ordinal()].sum();
+    }
+
+    /**
+     * @return the average amount of time (in nanoseconds) that requests of the given class spent waiting in the queue
+     */
+    public long averageWaitNanos(@NonNull IOPriority priority) {
+        long completed = this.completed(priority);
+        return completed != 0L ? this.totalWaitNanos[priority.ordinal()].sum() / completed : 0L;
+    }
+
+    /**
+     * @return the longest amount of time (in nanoseconds) that a request of the given class spent waiting in the queue
+     */
+    public long maxWaitNanos(@NonNull IOPriority priority) {
+        return this.maxWaitNanos[priority.ordinal()].get();
+    }
+
+    /**
+     * Adds this scheduler's statistics to the given map.
+     *
+     * @param values the map to add the statistics to
+     */
+    public void snapshot(@NonNull Map<String, Long> values) {
+        for (IOPriority priority : PRIORITIES) {
+            String prefix = "io_" + priority.name().toLowerCase(Locale.ROOT) + '_';
+            values.put(prefix + "queue_depth", (long) this.queueDepth(priority));
+            values.put(prefix + "completed", this.completed(priority));
+            values.put(prefix + "overdue", this.overdue(priority));
+            values.put(prefix + "average_wait_nanos", this.averageWaitNanos(priority));
+            values.put(prefix + "max_wait_nanos", this.maxWaitNanos(priority));
+        }
+    }
+
+    /**
+     * Shuts down this scheduler.
+     * <p>
+     * Requests which have already been submitted will still be executed.
+     */
+    public void shutdown() {
+        this.lock.lock();
+        try {
+            this.shutdown = true;
+            this.notEmpty.signalAll();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * A single queued request.
+     *
+     * @author DaPorkchop_
+     */
+    @RequiredArgsConstructor
+    protected class Task<T> {
+        @NonNull
+        protected final IOPriority priority;
+        @NonNull
+        protected final Callable<T> action;
+        protected final long submitted;
+        protected final long deadline;
+        protected final CompletableFuture<T> future = new CompletableFuture<>();
+        protected long sequence;
+
+        protected void run() {
+            long now = System.nanoTime();
+            int i = this.priority.ordinal();
+            if (this.deadline - now < 0L) {
+                IOScheduler.this.overdue[i].increment();
+            }
+            IOScheduler.this.totalWaitNanos[i].add(now - this.submitted);
+            IOScheduler.this.maxWaitNanos[i].accumulateAndGet(now - this.submitted, Math::max);
+
+            try {
+                this.future.complete(this.action.call());
+            } catch (Throwable t) {
+                this.future.completeExceptionally(t);
+            } finally {
+                IOScheduler.this.completed[i].increment();
+            }
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2021-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package net.daporkchop.rocksmc.storage.local;
+
+import io.github.opencubicchunks.cubicchunks.api.world.storage.ICubicStorage;
+import io.github.opencubicchunks.cubicchunks.api.world.storage.StorageFormatProviderBase;
+import lombok.NonNull;
+import net.minecraft.util.ResourceLocation;
+import net.minecraft.world.World;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import static net.daporkchop.rocksmc.RocksMC.*;
+
+/**
+ * Stores all dimensions of a save in a single {@link SharedDatabase}.
+ * <p>
+ * Dimensions which were previously stored using {@link LocalStorageProvider} are imported automatically when they are first opened.
+ *
+ * @author DaPorkchop_
+ */
+public class GlobalStorageProvider extends StorageFormatProviderBase {
+    public GlobalStorageProvider() {
+        this.setRegistryName(new ResourceLocation(MODID, "global"));
+    }
+
+    @Override
+    public ICubicStorage provideStorage(@NonNull World world, Path path) throws IOException {
+        Path saveDir = world.getSaveHandler().getWorldDirectory().toPath();
+        String dimension = "DIM" + world.provider.getDimension();
+
+        SharedDatabase shared = SharedDatabase.acquire(saveDir.resolve("rocksmc_global"));
+        try {
+            shared.importStandalone(dimension, path.resolve("rocksmc_local"), LocalStorageImpl.familyDescriptors(shared.options()));
+            return new LocalStorageImpl(world, shared, dimension);
+        } catch (Throwable t) {
+            shared.release();
+            throw t;
+        }
+    }
+
+    @Override
+    public boolean canBeDefault() {
+        return false; //only used if explicitly selected
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2021-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package net.daporkchop.rocksmc.storage.local;
+
+import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
+import io.netty.buffer.ByteBuf;
+import lombok.Getter;
+import lombok.NonNull;
+import net.daporkchop.rocksmc.util.PositionSerializerUtils;
+import net.minecraft.util.math.ChunkPos;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static net.daporkchop.rocksmc.util.PositionSerializerUtils.*;
+
+/**
+ * The different ways in which the positions of columns and cubes can be mapped to database keys.
+ * <p>
+ * Every world records the layout it's stored in, and can be migrated to a different layout (see {@link LayoutMigrator}).
+ *
+ * @author DaPorkchop_
+ */
+@Getter
+public enum KeyLayout {
+    /**
+     * Columns and cubes are stored in separate column families, keyed by the Morton code of their position.
+     * <p>
+     * Cubes which are near each other in all three dimensions are stored close together, which works best for worlds that are explored in all directions (e.g.
+     * tall build worlds).
+     */
+    MORTON("columns", "cubes", SIZE_COLUMN_POS, SIZE_CUBE_POS) {
+        @Override
+        public void writeColumnKey(@NonNull ByteBuf dst, @NonNull ChunkPos pos) {
+            PositionSerializerUtils.writeColumnPos(dst, pos);
+        }
+
+        @Override
+        public void writeCubeKey(@NonNull ByteBuf dst, @NonNull CubePos pos) {
+            PositionSerializerUtils.writeCubePos(dst, pos);
+        }
+
+        @Override
+        public ChunkPos readColumnKey(@NonNull ByteBuf src) {
+            return PositionSerializerUtils.readColumnPos(src);
+        }
+
+        @Override
+        public CubePos readCubeKey(@NonNull ByteBuf src) {
+            return PositionSerializerUtils.readCubePos(src);
+        }
+
+        @Override
+        public long columnKeyPrefix(int x, int z) {
+            return PositionSerializerUtils.encodeColumn(x, z);
+        }
+
+        @Override
+        public long cubeKeyPrefix(int x, int y, int z) {
+            //the high 32 bits of the Morton code are written first, followed by the low 64 bits
+            return ((long) PositionSerializerUtils.encodeCubeHigh(x, y, z) << 32L) | (PositionSerializerUtils.encodeCubeLow(x, y, z) >>> 32L);
+        }
+    },
+    /**
+     * Columns and cubes are stored in a single column family. Each column is keyed by the Morton code of its position, and each cube is keyed by the key of the
+     * column it's in followed by its Y coordinate.
+     * <p>
+     * A column and all of its cubes are therefore stored contiguously, and can be loaded together with a single prefix scan. This works best for worlds where
+     * entire columns are usually loaded at once (e.g. flat survival worlds).
+     */
+    COLUMN_MAJOR("column_major", "column_major", SIZE_COLUMN_POS, SIZE_COLUMN_POS + Integer.BYTES) {
+        @Override
+        public void writeColumnKey(@NonNull ByteBuf dst, @NonNull ChunkPos pos) {
+            PositionSerializerUtils.writeColumnPos(dst, pos);
+        }
+
+        @Override
+        public void writeCubeKey(@NonNull ByteBuf dst, @NonNull CubePos pos) {
+            PositionSerializerUtils.writeColumnPos(dst, pos.getX(), pos.getZ());
+            dst.writeInt(pos.getY() ^ Integer.MIN_VALUE); //flip the sign bit so that cubes are sorted by their Y coordinate
+        }
+
+        @Override
+        public ChunkPos readColumnKey(@NonNull ByteBuf src) {
+            return PositionSerializerUtils.readColumnPos(src);
+        }
+
+        @Override
+        public CubePos readCubeKey(@NonNull ByteBuf src) {
+            long columnKey = src.readLong();
+            return new CubePos(PositionSerializerUtils.decodeColumnX(columnKey), src.readInt() ^ Integer.MIN_VALUE, PositionSerializerUtils.decodeColumnZ(columnKey));
+        }
+
+        @Override
+        public long columnKeyPrefix(int x, int z) {
+            return PositionSerializerUtils.encodeColumn(x, z);
+        }
+
+        @Override
+        public long cubeKeyPrefix(int x, int y, int z) {
+            return PositionSerializerUtils.encodeColumn(x, z);
+        }
+    };
+
+    /**
+     * The name of the column family which column data is stored in.
+     */
+    protected final byte[] columnFamily;
+    /**
+     * The name of the column family which cube data is stored in.
+     */
+    protected final byte[] cubeFamily;
+
+    /**
+     * The size of a column key (in bytes).
+     */
+    protected final int columnKeySize;
+    /**
+     * The size of a cube key (in bytes).
+     */
+    protected final int cubeKeySize;
+
+    KeyLayout(@NonNull String columnFamily, @NonNull String cubeFamily, int columnKeySize, int cubeKeySize) {
+        this.columnFamily = columnFamily.getBytes(StandardCharsets.UTF_8);
+        this.cubeFamily = cubeFamily.getBytes(StandardCharsets.UTF_8);
+        this.columnKeySize = columnKeySize;
+        this.cubeKeySize = cubeKeySize;
+    }
+
+    /**
+     * @return whether or not columns and cubes are stored in the same column family, in which case they can only be distinguished by the size of their keys
+     */
+    public boolean sharedFamily() {
+        return Arrays.equals(this.columnFamily, this.cubeFamily);
+    }
+
+    /**
+     * @return whether or not the key of a column is a prefix of the keys of all of its cubes
+     */
+    public boolean contiguousColumns() {
+        return this == COLUMN_MAJOR;
+    }
+
+    /**
+     * Writes the key of the given position, which must be either a {@link ChunkPos} or a {@link CubePos}.
+     */
+    public void writeKey(@NonNull ByteBuf dst, @NonNull Object pos) {
+        if (pos instanceof ChunkPos) {
+            this.writeColumnKey(dst, (ChunkPos) pos);
+        } else {
+            this.writeCubeKey(dst, (CubePos) pos);
+        }
+    }
+
+    public abstract void writeColumnKey(@NonNull ByteBuf dst, @NonNull ChunkPos pos);
+
+    public abstract void writeCubeKey(@NonNull ByteBuf dst, @NonNull CubePos pos);
+
+    public abstract ChunkPos readColumnKey(@NonNull ByteBuf src);
+
+    public abstract CubePos readCubeKey(@NonNull ByteBuf src);
+
+    /**
+     * Gets the first 8 bytes of the key of the given column, as a big-endian {@code long}.
+     * <p>
+     * If the coordinates are treated as unsigned, the prefix (compared as an unsigned {@code long}) never decreases when any of the coordinates is increased.
+     * All columns in a box therefore have keys between the prefixes of the box's minimum and maximum corners.
+     */
+    public abstract long columnKeyPrefix(int x, int z);
+
+    /**
+     * Gets the first 8 bytes of the key of the given cube, as a big-endian {@code long}.
+     *
+     * @see #columnKeyPrefix(int, int)
+     */
+    public abstract long cubeKeyPrefix(int x, int y, int z);
+
+    /**
+     * The different ways in which a world may be migrated to a different key layout.
+     *
+     * @author DaPorkchop_
+     */
+    public enum Migration {
+        /**
+         * Worlds are never migrated, and continue to use the layout they were created with.
+         */
+        NEVER,
+        /**
+         * Worlds are migrated while they're being opened. The world won't finish loading until the migration is complete.
+         */
+        ON_OPEN,
+        /**
+         * Worlds are migrated in the background while the world is running.
+         */
+        BACKGROUND;
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2021-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package net.daporkchop.rocksmc.storage.local;
+
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import net.daporkchop.rocksmc.RocksMC;
+import net.daporkchop.rocksmc.util.RocksMCExecutors;
+import org.rocksdb.ColumnFamilyHandle;
+import org.rocksdb.RocksDBException;
+import org.rocksdb.RocksIterator;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Moves all of the data in a {@link LocalStorageImpl} from its legacy key layout to its current one.
+ * <p>
+ * Data is moved in small batches. The storage's layout lock is held exclusively while each batch is being moved, so concurrent accesses will always find every
+ * position in exactly one of the two layouts. If the migration is cancelled, it will be resumed the next time the storage is opened.
+ *
+ * @author DaPorkchop_
+ */
+@RequiredArgsConstructor
+public class LayoutMigrator implements Runnable {
+    protected static final int BATCH_SIZE = 1024;
+
+    @NonNull
+    protected final LocalStorageImpl storage;
+
+    protected Thread thread;
+    protected volatile boolean cancelled;
+
+    /**
+     * Runs the migration on a new background thread.
+     */
+    public synchronized void start() {
+        if (this.thread == null) {
+            this.thread = RocksMCExecutors.daemonThreadFactory("RocksMC layout migration").newThread(this);
+            this.thread.start();
+        }
+    }
+
+    /**
+     * Stops the migration, and waits for the background thread to exit.
+     */
+    public synchronized void cancel() {
+        this.cancelled = true;
+
+        if (this.thread != null) {
+            boolean interrupted = false;
+            while (this.thread.isAlive()) {
+                try {
+                    this.thread.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        KeyLayout from = this.storage.legacyLayout;
+        KeyLayout to = this.storage.layout;
+        RocksMC.LOGGER.info("Migrating {} from the {} key layout to the {} key layout...", this.storage.path, from, to);
+
+        try {
+            long count = this.migrate(this.storage.columnFamilies.get(from));
+            if (!from.sharedFamily()) {
+                count += this.migrate(this.storage.cubeFamilies.get(from));
+            }
+
+            if (this.cancelled) {
+                RocksMC.LOGGER.info("Paused migration of {} after moving {} values, it will be resumed the next time the world is loaded.", this.storage.path, count);
+                return;
+            }
+
+            this.storage.completeMigration();
+            RocksMC.LOGGER.info("Migrated {} values in {} to the {} key layout.", count, this.storage.path, to);
+        } catch (Exception e) {
+            RocksMC.LOGGER.error("Migration of " + this.storage.path + " failed, it will be retried the next time the world is loaded.", e);
+        }
+    }
+
+    /**
+     * Moves all of the values in the given legacy column family.
+     *
+     * @return the number of values which were moved
+     */
+    protected long migrate(@NonNull ColumnFamilyHandle cf) throws RocksDBException {
+        long count = 0L;
+        List<byte[]> keys = new ArrayList<>(BATCH_SIZE);
+        byte[] resumeKey = null;
+        do {
+            keys.clear();
+
+            //a new iterator is created for every batch, so that the values which have already been moved can be compacted away
+            try (RocksIterator itr = this.storage.db.newIterator(cf)) {
+                if (resumeKey == null) {
+                    itr.seekToFirst();
+                } else {
+                    itr.seek(resumeKey);
+                }
+
+                for (; itr.isValid() && keys.size() < BATCH_SIZE; itr.next()) {
+                    keys.add(itr.key());
+                }
+            }
+
+            if (!keys.isEmpty()) {
+                resumeKey = keys.get(keys.size() - 1);
+                count += this.storage.migrateKeys(cf, keys);
+            }
+        } while (!this.cancelled && keys.size() == BATCH_SIZE);
+        return count;
+    }
+}
@@ -24,9 +24,12 @@ import cubicchunks.regionlib.util.Utils;
 import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
 import io.github.opencubicchunks.cubicchunks.api.world.storage.ICubicStorage;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
 import io.netty.buffer.Unpooled;
-import io.netty.buffer.UnpooledByteBufAllocator;
-import io.netty.util.ReferenceCountUtil;
+import it.unimi.dsi.fastutil.ints.AbstractIntComparator;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import it.unimi.dsi.fastutil.ints.IntList;
 import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
 import lombok.Getter;
 import lombok.NonNull;
@@ -34,39 +37,70 @@ import lombok.SneakyThrows;
 import net.daporkchop.rocksmc.RocksMC;
 import net.daporkchop.rocksmc.RocksMCConfig;
 import net.daporkchop.rocksmc.storage.IBinaryCubeStorage;
+import net.daporkchop.rocksmc.storage.io.IOPriority;
+import net.daporkchop.rocksmc.util.BufferPool;
 import net.daporkchop.rocksmc.util.IOFunction;
 import net.daporkchop.rocksmc.util.NBTSerializerUtils;
-import net.daporkchop.rocksmc.util.PositionSerializerUtils;
+import net.daporkchop.rocksmc.util.RocksMCExecutors;
 import net.daporkchop.rocksmc.util.RocksMCUtils;
+import net.daporkchop.rocksmc.util.RocksOptions;
 import net.minecraft.nbt.NBTTagCompound;
-import net.minecraft.util.Tuple;
 import net.minecraft.util.math.ChunkPos;
 import net.minecraft.world.World;
 import org.rocksdb.ColumnFamilyDescriptor;
+import org.rocksdb.Cache;
+import org.rocksdb.Checkpoint;
 import org.rocksdb.ColumnFamilyHandle;
-import org.rocksdb.ColumnFamilyOptions;
+import org.rocksdb.CompactRangeOptions;
 import org.rocksdb.DBOptions;
+import org.rocksdb.MemoryUsageType;
+import org.rocksdb.MemoryUtil;
+import org.rocksdb.Options;
 import org.rocksdb.ReadOptions;
 import org.rocksdb.RocksDB;
 import org.rocksdb.RocksDBException;
 import org.rocksdb.RocksIterator;
+import org.rocksdb.Statistics;
 import org.rocksdb.WriteBatch;
 import org.rocksdb.WriteOptions;
 
 import javax.annotation.Nonnull;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.function.BiConsumer;
 import java.util.function.BiFunction;
 import java.util.function.Consumer;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
 
 import static com.google.common.base.Preconditions.*;
+import static java.lang.Math.*;
 import static net.daporkchop.rocksmc.util.PositionSerializerUtils.*;
 
 /**
@@ -75,261 +109,1560 @@ import static net.daporkchop.rocksmc.util.PositionSerializerUtils.*;
  * @author DaPorkchop_
  */
 public class LocalStorageImpl implements IBinaryCubeStorage {
-    protected static final byte[] COLUMN_NAME_COLUMNS = "columns".getBytes(StandardCharsets.UTF_8);
-    protected static final byte[] COLUMN_NAME_CUBES = "cubes".getBytes(StandardCharsets.UTF_8);
-
-    protected static final int INITIAL_BUFFER_SIZE = 1 << 16;
-
-    protected static final ByteBuffer EMPTY_DIRECT_BYTEBUFFER = ByteBuffer.allocateDirect(0);
+    protected static final byte[] KEY_LAYOUT = "key_layout".getBytes(StandardCharsets.UTF_8);
+    protected static final byte[] KEY_LEGACY_LAYOUT = "key_layout_migrating_from".getBytes(StandardCharsets.UTF_8);
+    protected static final byte[] KEY_COMPRESSION_DICTIONARY = "compression_dictionary".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * Pool for buffers which only contain a single encoded position.
+     */
+    public static final BufferPool KEY_BUFFERS = new BufferPool("keys", max(SIZE_COLUMN_POS, SIZE_CUBE_POS));
+    /**
+     * Pool for buffers containing encoded column data.
+     */
+    public static final BufferPool COLUMN_BUFFERS = new BufferPool("columns", 1 << 12);
+    /**
+     * Pool for buffers containing encoded cube data.
+     */
+    public static final BufferPool CUBE_BUFFERS = new BufferPool("cubes", 1 << 14);
+
+    protected static final byte[] EMPTY_BYTE_ARRAY = new byte[0];
+
+    /**
+     * Buffers for encoding the keys of existence checks. This version of RocksJava only accepts heap arrays for {@link RocksDB#keyMayExist}, so the keys are encoded
+     * straight into a heap buffer rather than being copied out of a direct one. The buffers are tiny and on the heap, so they can simply be kept per-thread.
+     */
+    protected static final ThreadLocal<ByteBuf> EXISTS_KEY_BUFFERS = ThreadLocal.withInitial(() -> Unpooled.buffer(max(SIZE_COLUMN_POS, SIZE_CUBE_POS)));
 
     protected static final ReadOptions READ_OPTIONS = new ReadOptions();
+    /**
+     * Used for reads made by secondary instances, which are usually bulk scans that would just evict everything else from the block cache.
+     */
+    protected static final ReadOptions SECONDARY_READ_OPTIONS = new ReadOptions().setFillCache(false);
     protected static final WriteOptions WRITE_OPTIONS = new WriteOptions();
 
-    protected static ByteBuf read(@NonNull RocksDB db, @NonNull ColumnFamilyHandle cf, @NonNull ByteBuf key) throws RocksDBException {
-        ByteBuf value = UnpooledByteBufAllocator.DEFAULT.directBuffer(64 << 10);
-        int size;
-        while ((size = db.get(cf, READ_OPTIONS, key.nioBuffer(), value.nioBuffer(value.writerIndex(), value.writableBytes()))) > value.writableBytes()) {
-            value.ensureWritable(size);
+    /**
+     * Reads a single value from the database into a buffer obtained from the given {@link BufferPool}.
+     * <p>
+     * The returned buffer must be returned to the pool using {@link BufferPool#recycle(ByteBuf)}.
+     *
+     * @return the value, or {@code null} if the key couldn't be found
+     */
+    protected static ByteBuf read(@NonNull RocksDB db, @NonNull ColumnFamilyHandle cf, @NonNull ReadOptions options, @NonNull ByteBuf key, @NonNull BufferPool pool) throws RocksDBException {
+        ByteBuf value = pool.allocate();
+        try {
+            int size;
+            while ((size = db.get(cf, options, key.nioBuffer(), value.nioBuffer(value.writerIndex(), value.writableBytes()))) > value.writableBytes()) {
+                pool.ensureWritable(value, size);
+            }
+            if (size >= 0) {
+                pool.learn(size);
+                value.writerIndex(value.writerIndex() + size);
+                ByteBuf result = value;
+                value = null;
+                return result;
+            } else { //not found
+                return null;
+            }
+        } finally {
+            pool.recycle(value);
         }
-        if (size >= 0) {
-            value.writerIndex(value.writerIndex() + size);
-            return value;
-        } else { //not found
-            value.release();
-            return null;
+    }
+
+    protected static void unlock(Lock lock) {
+        if (lock != null) {
+            lock.unlock();
+        }
+    }
+
+    protected static boolean startsWith(@NonNull byte[] key, @NonNull byte[] prefix) {
+        if (key.length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (key[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compares two keys of the same size in unsigned lexicographic order, which is the order used by RocksDB.
+     */
+    protected static int compareKeys(@NonNull byte[] a, @NonNull byte[] b) {
+        for (int i = 0; i < a.length; i++) {
+            int d = (a[i] & 0xFF) - (b[i] & 0xFF);
+            if (d != 0) {
+                return d;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Applies the given mapper to every {@code groupCount}th value, starting at the value with index {@code group}.
+     */
+    protected static <T> void mapGroup(@NonNull IOFunction<ByteBuf, T> mapper, @NonNull byte[][] values, @NonNull Object[] results, int group, int groupCount) throws IOException {
+        for (int i = group; i < results.length; i += groupCount) {
+            results[i] = mapper.apply(values[i] != null ? Unpooled.wrappedBuffer(values[i]) : null);
+        }
+    }
+
+    /**
+     * Applies the given mapper to every value, distributing the work between the calling thread and the {@link RocksMCExecutors#decodeExecutor() decode pool}.
+     */
+    protected static <T> void mapParallel(@NonNull IOFunction<ByteBuf, T> mapper, @NonNull byte[][] values, @NonNull Object[] results) throws IOException {
+        int groupCount = min(RocksMCConfig.decoding.threads + 1, results.length);
+
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[groupCount - 1];
+        for (int group = 1; group < groupCount; group++) {
+            int _group = group;
+            futures[group - 1] = CompletableFuture.runAsync(() -> {
+                try {
+                    mapGroup(mapper, values, results, _group, groupCount);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, RocksMCExecutors.decodeExecutor());
+        }
+
+        try { //the calling thread takes care of the first group
+            mapGroup(mapper, values, results, 0, groupCount);
+        } finally { //wait for all the other groups to complete, even if this one failed, so that none of them are still running once the batch is returned
+            try {
+                CompletableFuture.allOf(futures).join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof UncheckedIOException) {
+                    throw ((UncheckedIOException) e.getCause()).getCause();
+                }
+                throw e;
+            }
         }
     }
 
     protected final World world;
+    /**
+     * The directory containing the database.
+     */
     @Getter
     protected final Path path;
+    /**
+     * The name of the dimension in the shared database, or {@code null} if the database is used exclusively by this storage.
+     */
+    @Getter
+    protected final String dimension;
+
+    /**
+     * The database, which is only ever replaced if this is a secondary instance, see {@link #reopenSecondary()}.
+     */
+    protected RocksDB db;
+    protected final SharedDatabase shared;
+    /**
+     * The directory containing the files of the secondary instance, or {@code null} if this storage is the primary instance.
+     */
+    protected final Path secondaryPath;
+    protected final ScheduledFuture<?> catchUpTask;
+    protected final ReadOptions readOptions;
+    /**
+     * The options the database was opened with, if they had to be copied from the shared {@link RocksOptions} in order to enable statistics.
+     */
+    protected final DBOptions ownDbOptions;
+    protected final RocksOptions options;
+
+    protected List<ColumnFamilyHandle> cfHandles;
+    protected ColumnFamilyHandle cfHandleDefault;
+    /**
+     * The column families of each key layout, which are {@code null} if a secondary instance couldn't open them because they didn't exist yet.
+     */
+    protected final Map<KeyLayout, ColumnFamilyHandle> columnFamilies = new EnumMap<>(KeyLayout.class);
+    protected final Map<KeyLayout, ColumnFamilyHandle> cubeFamilies = new EnumMap<>(KeyLayout.class);
+
+    /**
+     * The key layout which data is stored in.
+     */
+    @Getter
+    protected final KeyLayout layout;
+    /**
+     * The key layout which data is currently being migrated away from, or {@code null} if no migration is in progress.
+     * <p>
+     * Once this has been set to {@code null}, it will never change again, unless this is a secondary instance and the primary instance begins a migration.
+     * Secondary instances only ever use layouts whose column families they've opened.
+     */
+    protected volatile KeyLayout legacyLayout;
+    /**
+     * Held exclusively by the {@link LayoutMigrator} while moving data between layouts, and shared by all other accesses while a migration is in progress.
+     * <p>
+     * Secondary instances always share it, as {@link #catchUp()} holds it exclusively while changing the legacy layout or reopening the database.
+     */
+    protected final ReadWriteLock layoutLock = new ReentrantReadWriteLock();
+    protected final LayoutMigrator migrator;
+
+    @Getter
+    protected final ReadBatcher readBatcher = new ReadBatcher(this);
 
-    protected final RocksDB db;
+    /**
+     * The cache of recently accessed cube/column data, or {@code null} if caching is disabled.
+     */
+    @Getter
+    protected final StorageCache cache;
+
+    /**
+     * The queue of writes which haven't been written to the database yet, or {@code null} if writes are executed immediately.
+     */
+    @Getter
+    protected final WriteBehindQueue writeBehind;
 
-    protected final List<ColumnFamilyHandle> cfHandles;
-    protected final ColumnFamilyHandle cfHandleColumns;
-    protected final ColumnFamilyHandle cfHandleCubes;
+    @Getter
+    protected final WriteVerifier verifier = new WriteVerifier(this);
 
+    @Getter
+    protected final StorageStatistics statistics;
+
+    @Getter
+    protected final StorageMetrics metrics = new StorageMetrics(this);
+
+    protected boolean closed; //guarded by this
+    /**
+     * Set as soon as this storage starts being closed. Long-running background jobs check this so that they can stop early.
+     */
+    protected volatile boolean closing;
+    /**
+     * The threads running long-running background jobs which access the database, which have to exit before the database can be closed.
+     */
+    protected final Set<Thread> backgroundJobs = new HashSet<>(); //guarded by this
+    /**
+     * The snapshot views of this storage which haven't been closed yet.
+     */
+    protected final Set<SnapshotView> views = new HashSet<>(); //guarded by this
+    /**
+     * The number of tasks submitted to the I/O scheduler using {@link #submit(IOPriority, Callable)} which haven't completed yet.
+     */
+    protected int tasks; //guarded by this
+
+    /**
+     * The batches submitted using {@link #writeBatchAsync(NBTBatch, IOPriority)} which haven't been written yet, by the positions they contain.
+     * <p>
+     * The I/O scheduler may execute a read before a write which was submitted earlier, so reads are served from these first. Only the most recently submitted
+     * batch is kept for each position, and the values of older batches are skipped when they're finally executed.
+     */
+    protected final Map<Object, NBTBatch> asyncWrites = new ConcurrentHashMap<>();
+    /**
+     * Held by async writes while writing, and by synchronous writes while removing the positions they overwrite from {@link #asyncWrites}, so that an async
+     * write can't overwrite a newer value.
+     */
+    protected final Lock asyncWriteLock = new ReentrantLock();
+
+    /**
+     * Opens the standalone database in the given dimension directory.
+     *
+     * @param world the world, or {@code null} if not opened by a world
+     * @param path  the dimension directory
+     */
     public LocalStorageImpl(World world, @NonNull Path path) throws IOException {
-        this.world = world;
-        this.path = path.resolve("rocksmc_local");
+        this(world, path.resolve("rocksmc_local"), null, null, null);
+    }
+
+    /**
+     * Opens the column families of a single dimension in a database shared by all dimensions of a save.
+     * <p>
+     * The storage takes over the caller's reference to the shared database, which will be released once the storage is closed.
+     *
+     * @param world     the world, or {@code null} if not opened by a world
+     * @param shared    the shared database
+     * @param dimension the name of the dimension in the shared database
+     */
+    public LocalStorageImpl(World world, @NonNull SharedDatabase shared, @NonNull String dimension) throws IOException {
+        this(world, shared.path(), shared, dimension, null);
+    }
 
+    /**
+     * Opens the standalone database in the given dimension directory as a read-only secondary instance.
+     * <p>
+     * Unlike the primary instance, a secondary instance doesn't lock the database, so it can be opened by external tools while the server is running.
+     * It follows the primary instance by periodically catching up with its MANIFEST and WAL, see {@link RocksMCConfig.Secondary#catchUpInterval}.
+     * <p>
+     * Secondary instances never write to the database, and reads made through them don't fill the block cache.
+     *
+     * @param path the dimension directory
+     */
+    public static LocalStorageImpl openSecondary(@NonNull Path path) throws IOException {
+        //the secondary instance's info log is written to its own directory, which is only needed while it's open
+        Path secondaryPath = Files.createTempDirectory("rocksmc-secondary-");
         try {
-            Tuple<DBOptions, ColumnFamilyOptions> options = RocksMCConfig.database.rocksOptions();
+            return new LocalStorageImpl(null, path.resolve("rocksmc_local"), null, null, secondaryPath);
+        } catch (Throwable t) {
+            RocksMCUtils.deleteRecursive(secondaryPath);
+            throw t;
+        }
+    }
 
-            List<ColumnFamilyDescriptor> cfDescriptors = Arrays.asList(
-                    new ColumnFamilyDescriptor(RocksDB.DEFAULT_COLUMN_FAMILY, options.getSecond()),
-                    new ColumnFamilyDescriptor(COLUMN_NAME_COLUMNS, options.getSecond()),
-                    new ColumnFamilyDescriptor(COLUMN_NAME_CUBES, options.getSecond()));
-            List<ColumnFamilyHandle> cfHandles = new ArrayList<>(cfDescriptors.size());
+    protected LocalStorageImpl(World world, @NonNull Path path, SharedDatabase shared, String dimension, Path secondaryPath) throws IOException {
+        checkArgument(shared == null || secondaryPath == null, "shared databases can't be opened as a secondary instance");
+
+        this.world = world;
+        this.path = path;
+        this.shared = shared;
+        this.dimension = dimension;
+        this.secondaryPath = secondaryPath;
+        this.readOptions = secondaryPath != null ? SECONDARY_READ_OPTIONS : READ_OPTIONS;
 
-            Path currentDir = this.path.resolve("db");
-            Utils.createDirectories(currentDir);
+        //the cache would become stale when the primary instance writes to the database, and a secondary instance doesn't write at all
+        this.cache = RocksMCConfig.cache.size > 0 && secondaryPath == null ? new StorageCache((long) RocksMCConfig.cache.size << 20L) : null;
+        this.writeBehind = RocksMCConfig.writeBehind.enabled && secondaryPath == null ? new WriteBehindQueue(this) : null;
 
-            this.db = RocksDB.open(options.getFirst(), currentDir.toString(), cfDescriptors, cfHandles);
+        Statistics rocksStatistics;
+        try {
+            RocksOptions options = this.options = shared != null ? shared.options() : RocksMCConfig.database.rocksOptions();
+
+            List<ColumnFamilyDescriptor> cfDescriptors = new ArrayList<>(familyDescriptors(options));
+            List<ColumnFamilyHandle> cfHandles;
+            if (shared != null) {
+                cfHandles = shared.families(dimension, cfDescriptors);
+                rocksStatistics = shared.statistics();
+                this.db = shared.db();
+                this.ownDbOptions = null;
+            } else {
+                cfHandles = new ArrayList<>(cfDescriptors.size());
+                rocksStatistics = StorageStatistics.createStatistics();
+                DBOptions dbOptions = StorageStatistics.dbOptions(options.dbOptions(), rocksStatistics);
+                if (secondaryPath != null) { //secondary instances have to keep every SST open, as the primary instance may delete them at any time
+                    dbOptions = (dbOptions != options.dbOptions() ? dbOptions : new DBOptions(dbOptions)).setMaxOpenFiles(-1);
+                }
+                this.ownDbOptions = dbOptions != options.dbOptions() ? dbOptions : null;
+
+                Path currentDir = this.path.resolve("db");
+                if (secondaryPath != null) {
+                    this.db = openAsSecondary(dbOptions, currentDir, secondaryPath, cfDescriptors, cfHandles);
+                } else {
+                    Utils.createDirectories(currentDir);
+                    this.db = RocksDB.open(dbOptions, currentDir.toString(), cfDescriptors, cfHandles);
+                }
+            }
 
-            this.cfHandles = cfHandles;
-            this.cfHandleColumns = cfHandles.get(1);
-            this.cfHandleCubes = cfHandles.get(2);
+            this.setFamilies(cfDescriptors, cfHandles);
+
+            KeyLayout layout = this.readLayoutMarker(KEY_LAYOUT);
+            if (layout != null && this.columnFamilies.get(layout) == null) {
+                //the primary instance created the layout's families after this secondary instance listed them
+                this.reopenSecondary();
+                layout = this.readLayoutMarker(KEY_LAYOUT);
+            }
+            KeyLayout legacyLayout = this.readLayoutMarker(KEY_LEGACY_LAYOUT);
+            if (legacyLayout != null && this.columnFamilies.get(legacyLayout) == null) { //see catchUp()
+                legacyLayout = null;
+            }
+            if (layout == null) {
+                //databases created before key layouts were introduced don't have a marker, and always use the morton layout. secondary instances of such
+                // databases may not have been able to open the configured layout's families, in which case there's no data in it anyway
+                layout = this.isEmpty() && this.columnFamilies.get(RocksMCConfig.database.keyLayout) != null ? RocksMCConfig.database.keyLayout : KeyLayout.MORTON;
+                if (secondaryPath == null) {
+                    this.db.put(this.cfHandleDefault, WRITE_OPTIONS, KEY_LAYOUT, layout.name().getBytes(StandardCharsets.UTF_8));
+                }
+            }
+
+            KeyLayout targetLayout = RocksMCConfig.database.keyLayout;
+            if (secondaryPath == null && legacyLayout == null && layout != targetLayout) {
+                if (RocksMCConfig.database.keyLayoutMigration == KeyLayout.Migration.NEVER) {
+                    RocksMC.LOGGER.warn("{} uses the {} key layout instead of the configured {} layout, set keyLayoutMigration to migrate it", this, layout, targetLayout);
+                } else { //begin a migration to the configured layout
+                    try (WriteBatch batch = new WriteBatch()) {
+                        batch.put(this.cfHandleDefault, KEY_LAYOUT, targetLayout.name().getBytes(StandardCharsets.UTF_8));
+                        batch.put(this.cfHandleDefault, KEY_LEGACY_LAYOUT, layout.name().getBytes(StandardCharsets.UTF_8));
+                        this.db.write(WRITE_OPTIONS, batch);
+                    }
+                    legacyLayout = layout;
+                    layout = targetLayout;
+                }
+            }
+            this.layout = layout;
+            this.legacyLayout = legacyLayout;
+
+            if (secondaryPath == null) { //secondary instances don't write any data, so the settings don't matter
+                //the trained dictionaries themselves are stored in each SST, the marker only records which settings the existing data was written with
+                byte[] dictionary = this.db.get(this.cfHandleDefault, KEY_COMPRESSION_DICTIONARY);
+                String dictionarySettings = RocksMCConfig.database.compressionDictionarySettings();
+                if (dictionary == null) {
+                    //databases created before dictionary compression was introduced don't have a marker, and don't contain any dictionaries
+                    dictionary = (this.isEmpty() ? dictionarySettings : "none").getBytes(StandardCharsets.UTF_8);
+                    this.db.put(this.cfHandleDefault, WRITE_OPTIONS, KEY_COMPRESSION_DICTIONARY, dictionary);
+                }
+                if (!dictionarySettings.equals(new String(dictionary, StandardCharsets.UTF_8))) {
+                    RocksMC.LOGGER.info("{} was written with different compression dictionary settings ({} instead of {}), existing data will be rewritten gradually. "
+                                        + "Use '/rocksmc dictionary' to rewrite it all at once.",
+                            this, new String(dictionary, StandardCharsets.UTF_8), dictionarySettings);
+                }
+            }
         } catch (RocksDBException e) {
             throw new IOException(e); //rethrow
         }
 
+        if (this.legacyLayout != null && secondaryPath == null) { //the primary instance is responsible for migrating the data
+            this.migrator = new LayoutMigrator(this);
+            if (RocksMCConfig.database.keyLayoutMigration == KeyLayout.Migration.ON_OPEN) {
+                this.migrator.run();
+            } else { //interrupted migrations are always resumed in the background, even if migrations have since been disabled
+                this.migrator.start();
+            }
+        } else {
+            this.migrator = null;
+        }
+
+        this.statistics = new StorageStatistics(this, rocksStatistics);
+
+        if (secondaryPath != null && RocksMCConfig.secondary.catchUpInterval > 0) {
+            //the scheduler thread must never block, so catching up is done by the I/O scheduler
+            this.catchUpTask = RocksMCExecutors.scheduler().scheduleWithFixedDelay(
+                    () -> RocksMCExecutors.ioScheduler().submit(IOPriority.BACKGROUND, () -> {
+                        this.catchUp();
+                        return null;
+                    }),
+                    RocksMCConfig.secondary.catchUpInterval, RocksMCConfig.secondary.catchUpInterval, TimeUnit.MILLISECONDS);
+        } else {
+            this.catchUpTask = null;
+        }
+
         if (world != null) {
             RocksMC.STORAGES_BY_WORLD.put(world, this);
         }
     }
 
-    @Override
-    public boolean columnExists(ChunkPos pos) throws IOException {
-        ByteBuf keyBuf = UnpooledByteBufAllocator.DEFAULT.directBuffer(SIZE_COLUMN_POS, SIZE_COLUMN_POS);
+    /**
+     * Gets the descriptors of the column families in a standalone database, with the default family first.
+     * <p>
+     * The default family contains metadata, the others contain column and cube data.
+     *
+     * @param options the options to use
+     * @return the column family descriptors
+     */
+    public static List<ColumnFamilyDescriptor> familyDescriptors(@NonNull RocksOptions options) {
+        //the column-major family is mostly accessed like the cube family, so it uses the same options
+        return Arrays.asList(
+                new ColumnFamilyDescriptor(RocksDB.DEFAULT_COLUMN_FAMILY, options.defaultOptions()),
+                new ColumnFamilyDescriptor(KeyLayout.MORTON.columnFamily(), options.columnOptions()),
+                new ColumnFamilyDescriptor(KeyLayout.MORTON.cubeFamily(), options.cubeOptions()),
+                new ColumnFamilyDescriptor(KeyLayout.COLUMN_MAJOR.columnFamily(), options.cubeOptions()));
+    }
+
+    /**
+     * Opens the standalone database in the given directory as a secondary instance.
+     * <p>
+     * Secondary instances can't create column families, so only the families which already exist are opened, and the descriptors of all other families are
+     * removed from the given list.
+     */
+    protected static RocksDB openAsSecondary(@NonNull DBOptions dbOptions, @NonNull Path dir, @NonNull Path secondaryPath,
+                                             @NonNull List<ColumnFamilyDescriptor> cfDescriptors, @NonNull List<ColumnFamilyHandle> cfHandles) throws RocksDBException {
+        List<byte[]> names;
+        try (Options options = new Options()) {
+            names = RocksDB.listColumnFamilies(options, dir.toString());
+        }
+        cfDescriptors.removeIf(descriptor -> names.stream().noneMatch(name -> Arrays.equals(name, descriptor.getName())));
+        return RocksDB.openAsSecondary(dbOptions, dir.toString(), secondaryPath.toString(), cfDescriptors, cfHandles);
+    }
+
+    /**
+     * Reopens this secondary instance, so that it can open the column families which the primary instance has created since it was opened.
+     * <p>
+     * Snapshots are bound to the database they were taken from, so this may only be done if there are no open {@link SnapshotView}s.
+     */
+    protected void reopenSecondary() throws RocksDBException {
+        List<ColumnFamilyDescriptor> cfDescriptors = new ArrayList<>(familyDescriptors(this.options));
+        List<ColumnFamilyHandle> cfHandles = new ArrayList<>(cfDescriptors.size());
+        RocksDB db = openAsSecondary(this.ownDbOptions != null ? this.ownDbOptions : this.options.dbOptions(), this.path.resolve("db"), this.secondaryPath, cfDescriptors, cfHandles);
+
+        Lock lock = this.layoutLock.writeLock();
+        lock.lock();
+        try {
+            this.cfHandles.forEach(ColumnFamilyHandle::close); //close column families before db
+            this.db.close();
+
+            this.db = db;
+            this.setFamilies(cfDescriptors, cfHandles);
+        } finally {
+            lock.unlock();
+        }
+        RocksMC.LOGGER.info("Reopened secondary instance {} to follow the column families created by the primary instance", this);
+    }
+
+    protected void setFamilies(@NonNull List<ColumnFamilyDescriptor> cfDescriptors, @NonNull List<ColumnFamilyHandle> cfHandles) {
+        this.cfHandles = cfHandles;
+        this.cfHandleDefault = cfHandles.get(0);
+        for (KeyLayout layout : KeyLayout.values()) {
+            this.columnFamilies.put(layout, familyHandle(cfDescriptors, cfHandles, layout.columnFamily()));
+            this.cubeFamilies.put(layout, familyHandle(cfDescriptors, cfHandles, layout.cubeFamily()));
+        }
+    }
+
+    /**
+     * @return the handle of the column family with the given name, or {@code null} if it wasn't opened
+     */
+    protected static ColumnFamilyHandle familyHandle(@NonNull List<ColumnFamilyDescriptor> cfDescriptors, @NonNull List<ColumnFamilyHandle> cfHandles, @NonNull byte[] name) {
+        for (int i = 0; i < cfDescriptors.size(); i++) {
+            if (Arrays.equals(cfDescriptors.get(i).getName(), name)) {
+                return cfHandles.get(i);
+            }
+        }
+        return null;
+    }
+
+    protected KeyLayout readLayoutMarker(@NonNull byte[] key) throws RocksDBException {
+        byte[] value = this.db.get(this.cfHandleDefault, key);
+        return value != null ? KeyLayout.valueOf(new String(value, StandardCharsets.UTF_8)) : null;
+    }
+
+    /**
+     * @return whether or not the database doesn't contain any columns or cubes
+     */
+    protected boolean isEmpty() {
+        for (ColumnFamilyHandle cf : this.cfHandles) {
+            if (cf == this.cfHandleDefault) {
+                continue;
+            }
+
+            try (RocksIterator itr = this.db.newIterator(cf)) {
+                itr.seekToFirst();
+                if (itr.isValid()) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Must be called before accessing any data, as data may be moved between key layouts concurrently.
+     * <p>
+     * Once the access is complete, the returned lock must be released using {@link #unlock(Lock)}.
+     *
+     * @return the lock which was acquired, or {@code null} if no migration is in progress and this isn't a secondary instance
+     */
+    protected Lock lockLayout() {
+        if (this.legacyLayout == null && this.secondaryPath == null) {
+            return null;
+        }
+
+        Lock lock = this.layoutLock.readLock();
+        lock.lock();
+        return lock;
+    }
+
+    /**
+     * @return the column family which the given position is stored in when using the given key layout
+     */
+    protected ColumnFamilyHandle family(@NonNull KeyLayout layout, @NonNull Object pos) {
+        return (pos instanceof ChunkPos ? this.columnFamilies : this.cubeFamilies).get(layout);
+    }
+
+    /**
+     * Moves the values with the given keys from the legacy key layout to the current one.
+     *
+     * @param cf   the legacy column family which the keys are in
+     * @param keys the keys to move
+     * @return the number of values which were moved
+     * @see LayoutMigrator
+     */
+    protected int migrateKeys(@NonNull ColumnFamilyHandle cf, @NonNull List<byte[]> keys) throws RocksDBException {
+        KeyLayout legacy = this.legacyLayout;
+        Lock lock = this.layoutLock.writeLock();
+        lock.lock();
+        ByteBuf key = KEY_BUFFERS.allocate();
+        try (WriteBatch batch = new WriteBatch()) {
+            int count = 0;
+            for (byte[] legacyKey : keys) {
+                //the value may have been overwritten (and therefore moved) since the key was found, so we need to check again now that nobody else can access it
+                byte[] value = this.db.get(cf, READ_OPTIONS, legacyKey);
+                if (value == null) {
+                    continue;
+                }
+
+                Object pos = legacyKey.length == legacy.columnKeySize()
+                        ? legacy.readColumnKey(Unpooled.wrappedBuffer(legacyKey))
+                        : legacy.readCubeKey(Unpooled.wrappedBuffer(legacyKey));
+                this.layout.writeKey(key.clear(), pos);
+
+                batch.put(this.family(this.layout, pos), ByteBufUtil.getBytes(key), value);
+                batch.delete(cf, legacyKey);
+                count++;
+            }
+
+            this.db.write(WRITE_OPTIONS, batch);
+            return count;
+        } finally {
+            KEY_BUFFERS.recycle(key);
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Marks the migration to the current key layout as complete.
+     *
+     * @see LayoutMigrator
+     */
+    protected void completeMigration() throws RocksDBException {
+        KeyLayout legacy = this.legacyLayout;
+        Lock lock = this.layoutLock.writeLock();
+        lock.lock();
+        try {
+            this.db.delete(this.cfHandleDefault, WRITE_OPTIONS, KEY_LEGACY_LAYOUT);
+            this.legacyLayout = null;
+        } finally {
+            lock.unlock();
+        }
+
+        //get rid of all the tombstones left behind in the legacy column families
+        this.db.compactRange(this.columnFamilies.get(legacy));
+        if (!legacy.sharedFamily()) {
+            this.db.compactRange(this.cubeFamilies.get(legacy));
+        }
+    }
+
+    /**
+     * Checks whether or not the given key exists in the given column family.
+     * <p>
+     * The memtables and the bloom filters of all SSTs are checked first, which allows most keys that don't exist to be ruled out without doing
+     * any disk I/O.
+     *
+     * @param key the key, which must be stored in a heap buffer
+     */
+    protected boolean exists(@NonNull ColumnFamilyHandle cf, @NonNull ReadOptions options, @NonNull ByteBuf key) throws RocksDBException {
+        byte[] array = key.array();
+        int offset = key.arrayOffset() + key.readerIndex();
+        int length = key.readableBytes();
+        if (!this.db.keyMayExist(cf, options, array, offset, length, null)) {
+            return false;
+        }
+
+        //issue a read without actually loading the value
+        return this.db.get(cf, options, array, offset, length, EMPTY_BYTE_ARRAY, 0, 0) != RocksDB.NOT_FOUND;
+    }
+
+    /**
+     * Checks whether or not a value exists for the given column or cube position.
+     */
+    protected boolean exists(@NonNull Object pos) throws IOException {
+        Lock lock = this.lockLayout();
+        try {
+            return this.exists(this.readOptions, this.layout, this.legacyLayout, pos);
+        } finally {
+            unlock(lock);
+        }
+    }
+
+    /**
+     * Checks whether or not a value exists for the given column or cube position, using the given read options and key layouts.
+     *
+     * @param legacy the legacy key layout, or {@code null} if no migration is in progress
+     */
+    protected boolean exists(@NonNull ReadOptions options, @NonNull KeyLayout layout, KeyLayout legacy, @NonNull Object pos) throws IOException {
+        ByteBuf key = EXISTS_KEY_BUFFERS.get().clear();
         try {
             //encode position to bytes
-            PositionSerializerUtils.writeColumnPos(keyBuf, pos);
+            layout.writeKey(key, pos);
+            if (this.exists(this.family(layout, pos), options, key)) {
+                return true;
+            }
 
-            //issue a read without actually loading the value
-            return this.db.get(this.cfHandleColumns, READ_OPTIONS, keyBuf.nioBuffer(), EMPTY_DIRECT_BYTEBUFFER) != RocksDB.NOT_FOUND;
+            if (legacy != null) { //the value may not have been migrated yet
+                legacy.writeKey(key.clear(), pos);
+                return this.exists(this.family(legacy, pos), options, key);
+            }
+            return false;
         } catch (RocksDBException e) {
             throw new IOException(e); //rethrow
+        }
+    }
+
+    /**
+     * Reads the value for the given column or cube position into a buffer obtained from the given {@link BufferPool}.
+     * <p>
+     * The returned buffer must be returned to the pool using {@link BufferPool#recycle(ByteBuf)}.
+     *
+     * @return the value, or {@code null} if it couldn't be found
+     */
+    protected ByteBuf read(@NonNull Object pos, @NonNull BufferPool pool) throws IOException {
+        Lock lock = this.lockLayout();
+        try {
+            return this.read(this.readOptions, this.layout, this.legacyLayout, pos, pool);
         } finally {
-            keyBuf.release();
+            unlock(lock);
         }
     }
 
-    @Override
-    public boolean cubeExists(CubePos pos) throws IOException {
-        ByteBuf keyBuf = UnpooledByteBufAllocator.DEFAULT.directBuffer(SIZE_CUBE_POS, SIZE_CUBE_POS);
+    /**
+     * Reads the value for the given column or cube position into a buffer obtained from the given {@link BufferPool}, using the given read options and key layouts.
+     *
+     * @param legacy the legacy key layout, or {@code null} if no migration is in progress
+     * @see #read(Object, BufferPool)
+     */
+    protected ByteBuf read(@NonNull ReadOptions options, @NonNull KeyLayout layout, KeyLayout legacy, @NonNull Object pos, @NonNull BufferPool pool) throws IOException {
+        ByteBuf key = KEY_BUFFERS.allocate();
         try {
             //encode position to bytes
-            PositionSerializerUtils.writeCubePos(keyBuf, pos);
+            layout.writeKey(key, pos);
+            ByteBuf value = read(this.db, this.family(layout, pos), options, key, pool);
 
-            //issue a read without actually loading the value
-            return this.db.get(this.cfHandleCubes, READ_OPTIONS, keyBuf.nioBuffer(), EMPTY_DIRECT_BYTEBUFFER) != RocksDB.NOT_FOUND;
+            if (value == null && legacy != null) { //the value may not have been migrated yet
+                legacy.writeKey(key.clear(), pos);
+                value = read(this.db, this.family(legacy, pos), options, key, pool);
+            }
+            if (value != null) {
+                this.metrics.readValue(value.readableBytes());
+            }
+            return value;
         } catch (RocksDBException e) {
             throw new IOException(e); //rethrow
         } finally {
-            keyBuf.release();
+            KEY_BUFFERS.recycle(key);
+        }
+    }
+
+    @Override
+    public boolean columnExists(ChunkPos pos) throws IOException {
+        long start = this.metrics.start();
+        try {
+            if (this.asyncWrite(pos) != null || (this.cache != null && this.cache.contains(pos)) || (this.writeBehind != null && this.writeBehind.get(pos) != null)) {
+                return true;
+            }
+
+            return this.exists(pos);
+        } finally {
+            this.metrics.record(StorageMetrics.Operation.COLUMN_EXISTS, start, pos);
+        }
+    }
+
+    @Override
+    public boolean cubeExists(CubePos pos) throws IOException {
+        long start = this.metrics.start();
+        try {
+            if (this.asyncWrite(pos) != null || (this.cache != null && this.cache.contains(pos)) || (this.writeBehind != null && this.writeBehind.get(pos) != null)) {
+                return true;
+            }
+
+            return this.exists(pos);
+        } finally {
+            this.metrics.record(StorageMetrics.Operation.CUBE_EXISTS, start, pos);
         }
     }
 
     @Override
     public NBTTagCompound readColumn(ChunkPos pos) throws IOException {
-        ByteBuf key = UnpooledByteBufAllocator.DEFAULT.directBuffer(SIZE_COLUMN_POS, SIZE_COLUMN_POS);
-        ByteBuf value = null;
+        long start = this.metrics.start();
         try {
-            //encode position to bytes
-            PositionSerializerUtils.writeColumnPos(key, pos);
+            NBTTagCompound written = this.asyncWrite(pos);
+            if (written != null) {
+                return written.copy();
+            }
 
-            //load from db
-            value = read(this.db, this.cfHandleColumns, key);
-            return value != null ? NBTSerializerUtils.readNBT(value) : null;
-        } catch (RocksDBException e) {
-            throw new IOException(e); //rethrow
+            StorageCache.Entry cached;
+            if (this.cache != null && (cached = this.cache.get(pos)) != null) {
+                return cached.nbt();
+            }
+
+            long stamp = this.cache != null ? this.cache.stamp() : 0L;
+            byte[] pending;
+            if (this.writeBehind != null && (pending = this.writeBehind.get(pos)) != null) {
+                return NBTSerializerUtils.readNBT(Unpooled.wrappedBuffer(pending));
+            }
+
+            ByteBuf value = this.read(pos, COLUMN_BUFFERS);
+            if (value == null) {
+                return null;
+            }
+
+            try {
+                if (this.cache != null) {
+                    this.cache.populate(pos, ByteBufUtil.getBytes(value), stamp);
+                }
+                return NBTSerializerUtils.readNBT(value);
+            } finally {
+                COLUMN_BUFFERS.recycle(value);
+            }
         } finally {
-            ReferenceCountUtil.release(key);
-            ReferenceCountUtil.release(value);
+            this.metrics.record(StorageMetrics.Operation.READ_COLUMN, start, pos);
         }
     }
 
     @Override
     public NBTTagCompound readCube(CubePos pos) throws IOException {
-        ByteBuf key = UnpooledByteBufAllocator.DEFAULT.directBuffer(SIZE_CUBE_POS, SIZE_CUBE_POS);
-        ByteBuf value = null;
+        long start = this.metrics.start();
         try {
-            //encode position to bytes
-            PositionSerializerUtils.writeCubePos(key, pos);
+            NBTTagCompound written = this.asyncWrite(pos);
+            if (written != null) {
+                return written.copy();
+            }
 
-            //load from db
-            value = read(this.db, this.cfHandleCubes, key);
-            return value != null ? NBTSerializerUtils.readNBT(value) : null;
-        } catch (RocksDBException e) {
-            throw new IOException(e); //rethrow
+            StorageCache.Entry cached;
+            if (this.cache != null && (cached = this.cache.get(pos)) != null) {
+                return cached.nbt();
+            }
+
+            long stamp = this.cache != null ? this.cache.stamp() : 0L;
+            byte[] pending;
+            if (this.writeBehind != null && (pending = this.writeBehind.get(pos)) != null) {
+                return NBTSerializerUtils.readNBT(Unpooled.wrappedBuffer(pending));
+            }
+
+            ByteBuf value = this.read(pos, CUBE_BUFFERS);
+            if (value == null) {
+                return null;
+            }
+
+            try {
+                if (this.cache != null) {
+                    this.cache.populate(pos, ByteBufUtil.getBytes(value), stamp);
+                }
+                return NBTSerializerUtils.readNBT(value);
+            } finally {
+                CUBE_BUFFERS.recycle(value);
+            }
         } finally {
-            ReferenceCountUtil.release(key);
-            ReferenceCountUtil.release(value);
+            this.metrics.record(StorageMetrics.Operation.READ_CUBE, start, pos);
+        }
+    }
+
+    @Override
+    public CompletableFuture<NBTTagCompound> readColumnAsync(ChunkPos pos, IOPriority priority) {
+        this.checkNotClosing();
+        long start = this.metrics.start();
+        CompletableFuture<NBTTagCompound> future = this.readBatcher.readColumn(pos, priority);
+        future.whenComplete((nbt, cause) -> this.metrics.record(StorageMetrics.Operation.READ_ASYNC, start, pos));
+        return future;
+    }
+
+    @Override
+    public CompletableFuture<NBTTagCompound> readCubeAsync(CubePos pos, IOPriority priority) {
+        this.checkNotClosing();
+        long start = this.metrics.start();
+        CompletableFuture<NBTTagCompound> future = this.readBatcher.readCube(pos, priority);
+        future.whenComplete((nbt, cause) -> this.metrics.record(StorageMetrics.Operation.READ_ASYNC, start, pos));
+        return future;
+    }
+
+    @Override
+    public CompletableFuture<NBTBatch> readBatchAsync(@NonNull PosBatch positions, @NonNull IOPriority priority) {
+        this.checkNotClosing();
+        return this.submit(priority, () -> this.readBatch(positions));
+    }
+
+    /**
+     * Submits a task which accesses the database to the I/O scheduler.
+     * <p>
+     * The database won't be closed until all tasks submitted using this method have completed.
+     *
+     * @throws IllegalStateException if this storage has already been closed
+     * @see net.daporkchop.rocksmc.storage.io.IOScheduler#submit(IOPriority, Callable)
+     */
+    protected <T> CompletableFuture<T> submit(@NonNull IOPriority priority, @NonNull Callable<T> action) {
+        synchronized (this) {
+            checkState(!this.closed, "storage %s has already been closed!", this);
+            this.tasks++;
         }
+
+        try {
+            return RocksMCExecutors.ioScheduler().submit(priority, () -> {
+                try {
+                    return action.call();
+                } finally {
+                    this.taskCompleted();
+                }
+            });
+        } catch (Throwable t) { //the task will never run
+            this.taskCompleted();
+            throw t;
+        }
+    }
+
+    protected synchronized void taskCompleted() {
+        if (--this.tasks == 0) {
+            this.notifyAll();
+        }
+    }
+
+    /**
+     * Waits until all tasks submitted using {@link #submit(IOPriority, Callable)} have completed.
+     * <p>
+     * Must be called while holding this storage's lock.
+     */
+    protected void awaitTasks() {
+        boolean interrupted = false;
+        while (this.tasks > 0) {
+            try {
+                this.wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @throws IllegalStateException if this storage is being closed, in which case no new asynchronous operations may be started
+     */
+    protected void checkNotClosing() {
+        checkState(!this.closing, "storage %s is being closed!", this);
     }
 
     @Nonnull
     @Override
     public NBTBatch readBatch(PosBatch positions) throws IOException {
-        return this.readBaseBatch(positions, data -> data != null ? NBTSerializerUtils.readNBT(Unpooled.wrappedBuffer(data)) : null, NBTBatch::new);
+        return this.readBaseBatch(positions, data -> data != null ? NBTSerializerUtils.readNBT(data) : null, StorageCache.Entry::nbt, true, NBTBatch::new);
     }
 
     @Override
     public BinaryBatch readBinaryBatch(PosBatch positions) throws IOException {
-        return this.readBaseBatch(positions, data -> data != null ? Unpooled.wrappedBuffer(data) : null, BinaryBatch::new);
+        return this.readBaseBatch(positions, data -> data, entry -> Unpooled.wrappedBuffer(entry.data()), false, BinaryBatch::new);
     }
 
-    protected <T, B> B readBaseBatch(@NonNull PosBatch positions, @NonNull IOFunction<byte[], T> mapper, @NonNull BiFunction<Map<ChunkPos, T>, Map<CubePos, T>, B> batchCombiner) throws IOException {
+    /**
+     * Reads multiple columns and cubes at once.
+     * <p>
+     * All keys are looked up in key order using a single MultiGet. The mapper is given an unpooled heap buffer wrapping each value (or {@code null} if the value
+     * couldn't be found), which it may keep without retaining it.
+     * <p>
+     * If {@code parallel} is {@code true} and the batch is large enough, the mapper will be invoked from multiple threads at once.
+     * <p>
+     * Values which are present in the cache won't be read from the database at all, and will be passed to {@code cachedMapper} instead. Values which are
+     * waiting in the write-behind queue or in an async write are passed to the mapper without being read from the database either.
+     */
+    protected <T, B> B readBaseBatch(@NonNull PosBatch positions, @NonNull IOFunction<ByteBuf, T> mapper, @NonNull Function<StorageCache.Entry, T> cachedMapper, boolean parallel, @NonNull BiFunction<Map<ChunkPos, T>, Map<CubePos, T>, B> batchCombiner) throws IOException {
+        long start = this.metrics.start();
         try {
-            //collect positions into lists
-            List<ChunkPos> columns = new ArrayList<>(positions.columns);
-            List<CubePos> cubes = new ArrayList<>(positions.cubes);
+            this.metrics.readBatch(positions.columns.size() + positions.cubes.size());
+
+            Map<ChunkPos, T> columnNbt = new Object2ObjectOpenHashMap<>(positions.columns.size());
+            Map<CubePos, T> cubeNbt = new Object2ObjectOpenHashMap<>(positions.cubes.size());
+
+            //the stamp must be taken before checking the write-behind queue, otherwise a value which is flushed and then overwritten before we read it could be
+            // added to the cache after the newer value
+            long stamp = this.cache != null ? this.cache.stamp() : 0L;
+
+            //collect positions which aren't cached or waiting to be written into lists
+            List<ChunkPos> columns = new ArrayList<>(positions.columns.size());
+            List<CubePos> cubes = new ArrayList<>(positions.cubes.size());
+            if (this.cache != null || this.writeBehind != null || !this.asyncWrites.isEmpty()) {
+                StorageCache.Entry cached;
+                byte[] pending;
+                for (ChunkPos pos : positions.columns) {
+                    if ((pending = this.encodedAsyncWrite(pos)) != null) {
+                        columnNbt.put(pos, mapPending(mapper, pending));
+                    } else if (this.cache != null && (cached = this.cache.get(pos)) != null) {
+                        columnNbt.put(pos, cachedMapper.apply(cached));
+                    } else if (this.writeBehind != null && (pending = this.writeBehind.get(pos)) != null) {
+                        columnNbt.put(pos, mapPending(mapper, pending));
+                    } else {
+                        columns.add(pos);
+                    }
+                }
+                for (CubePos pos : positions.cubes) {
+                    if ((pending = this.encodedAsyncWrite(pos)) != null) {
+                        cubeNbt.put(pos, mapPending(mapper, pending));
+                    } else if (this.cache != null && (cached = this.cache.get(pos)) != null) {
+                        cubeNbt.put(pos, cachedMapper.apply(cached));
+                    } else if (this.writeBehind != null && (pending = this.writeBehind.get(pos)) != null) {
+                        cubeNbt.put(pos, mapPending(mapper, pending));
+                    } else {
+                        cubes.add(pos);
+                    }
+                }
+            } else {
+                columns.addAll(positions.columns);
+                cubes.addAll(positions.cubes);
+            }
+
+            Lock lock = this.lockLayout();
+            try {
+                this.readUncached(this.readOptions, this.layout, this.legacyLayout, columns, cubes, mapper, parallel, this.cache, stamp, columnNbt, cubeNbt);
+            } finally {
+                unlock(lock);
+            }
+            return batchCombiner.apply(columnNbt, cubeNbt);
+        } finally {
+            this.metrics.record(StorageMetrics.Operation.READ_BATCH, start, positions);
+        }
+    }
+
+    /**
+     * Reads the given columns and cubes from the database using the given read options and key layouts, and puts the mapped values into the given maps.
+     * <p>
+     * If {@code cache} is non-null, it will be populated with the values which were read.
+     *
+     * @param legacy the legacy key layout, or {@code null} if no migration is in progress
+     * @see #readBaseBatch(PosBatch, IOFunction, Function, boolean, BiFunction)
+     */
+    protected <T> void readUncached(@NonNull ReadOptions options, @NonNull KeyLayout layout, KeyLayout legacy, @NonNull List<ChunkPos> columns, @NonNull List<CubePos> cubes,
+                                    @NonNull IOFunction<ByteBuf, T> mapper, boolean parallel, StorageCache cache, long stamp,
+                                    @NonNull Map<ChunkPos, T> columnNbt, @NonNull Map<CubePos, T> cubeNbt) throws IOException {
+        int columnCount = columns.size();
+        int totalCount = columnCount + cubes.size();
+
+        try {
+            //encode each position into its own array, which is what RocksJava's MultiGet needs anyway
+            byte[][] keys = new byte[totalCount][];
+            for (int i = 0; i < columnCount; i++) {
+                layout.writeColumnKey(Unpooled.wrappedBuffer(keys[i] = new byte[layout.columnKeySize()]).clear(), columns.get(i));
+            }
+            for (int i = columnCount; i < totalCount; i++) {
+                layout.writeCubeKey(Unpooled.wrappedBuffer(keys[i] = new byte[layout.cubeKeySize()]).clear(), cubes.get(i - columnCount));
+            }
+
+            //sort the positions in each column family by their keys, so that the lookups will walk through the database in order
+            int[] order = new int[totalCount];
+            for (int i = 0; i < totalCount; i++) {
+                order[i] = i;
+            }
+            AbstractIntComparator comparator = new AbstractIntComparator() {
+                @Override
+                public int compare(int a, int b) {
+                    return compareKeys(keys[a], keys[b]);
+                }
+            };
+            IntArrays.quickSort(order, 0, columnCount, comparator);
+            IntArrays.quickSort(order, columnCount, totalCount, comparator);
+
+            //look up all values using a single MultiGet, which lets RocksDB batch the lookups in each family and read the blocks they need in parallel
+            List<ColumnFamilyHandle> families = new ArrayList<>(totalCount);
+            List<byte[]> keyArrays = new ArrayList<>(totalCount);
+            for (int i : order) {
+                families.add((i < columnCount ? this.columnFamilies : this.cubeFamilies).get(layout));
+                keyArrays.add(keys[i]);
+            }
+            byte[][] values = new byte[totalCount][];
+            List<byte[]> lookups = this.db.multiGetAsList(options, families, keyArrays);
+            for (int j = 0; j < totalCount; j++) {
+                values[order[j]] = lookups.get(j);
+            }
 
-            //preallocate lists for column families and encoded keys
-            int totalSize = columns.size() + cubes.size();
-            List<ColumnFamilyHandle> cfHandles = new ArrayList<>(totalSize);
-            List<byte[]> keys = new ArrayList<>(totalSize);
+            if (legacy != null) { //look up any values which couldn't be found in the legacy layout, as they may not have been migrated yet
+                families.clear();
+                keyArrays.clear();
+                IntList missing = new IntArrayList();
+                for (int i : order) {
+                    if (values[i] == null) {
+                        Object pos = i < columnCount ? columns.get(i) : cubes.get(i - columnCount);
+                        byte[] key = new byte[pos instanceof ChunkPos ? legacy.columnKeySize() : legacy.cubeKeySize()];
+                        legacy.writeKey(Unpooled.wrappedBuffer(key).clear(), pos);
+                        missing.add(i);
+                        families.add(this.family(legacy, pos));
+                        keyArrays.add(key);
+                    }
+                }
 
-            //encode positions
-            for (ChunkPos pos : columns) {
-                cfHandles.add(this.cfHandleColumns);
-                keys.add(PositionSerializerUtils.columnPosToBytes(pos));
+                if (!missing.isEmpty()) {
+                    lookups = this.db.multiGetAsList(options, families, keyArrays);
+                    for (int j = 0; j < missing.size(); j++) {
+                        values[missing.getInt(j)] = lookups.get(j);
+                    }
+                }
             }
-            for (CubePos pos : cubes) {
-                cfHandles.add(this.cfHandleCubes);
-                keys.add(PositionSerializerUtils.cubePosToBytes(pos));
+
+            long totalSize = 0L;
+            for (int i = 0; i < totalCount; i++) {
+                if (values[i] != null) {
+                    (i < columnCount ? COLUMN_BUFFERS : CUBE_BUFFERS).learn(values[i].length);
+                    this.metrics.readValue(values[i].length);
+                    totalSize += values[i].length;
+                }
             }
 
-            //get all values at once
-            List<byte[]> values = this.db.multiGetAsList(cfHandles, keys);
+            if (cache != null) {
+                for (int i = 0; i < totalCount; i++) {
+                    if (values[i] != null) {
+                        cache.populate(i < columnCount ? columns.get(i) : cubes.get(i - columnCount), values[i], stamp);
+                    }
+                }
+            }
 
             //parse values
-            //TODO: this part might benefit from being parallel
-            Map<ChunkPos, T> columnNbt = new Object2ObjectOpenHashMap<>(columns.size());
-            Map<CubePos, T> cubeNbt = new Object2ObjectOpenHashMap<>(cubes.size());
-            int i = 0;
-            for (ChunkPos pos : columns) {
-                columnNbt.put(pos, mapper.apply(values.get(i++)));
-            }
-            for (CubePos pos : cubes) {
-                cubeNbt.put(pos, mapper.apply(values.get(i++)));
+            Object[] results = new Object[totalCount];
+            if (parallel && totalCount > 1 && totalSize >= RocksMCConfig.decoding.parallelThreshold << 10) {
+                mapParallel(mapper, values, results);
+            } else {
+                mapGroup(mapper, values, results, 0, 1);
             }
 
-            return batchCombiner.apply(columnNbt, cubeNbt);
+            for (int i = 0; i < totalCount; i++) {
+                @SuppressWarnings("unchecked")
+                T value = (T) results[i];
+                if (i < columnCount) {
+                    columnNbt.put(columns.get(i), value);
+                } else {
+                    cubeNbt.put(cubes.get(i - columnCount), value);
+                }
+            }
         } catch (RocksDBException e) {
             throw new IOException(e); //rethrow
         }
     }
 
+    protected static <T> T mapPending(@NonNull IOFunction<ByteBuf, T> mapper, @NonNull byte[] pending) throws IOException {
+        return mapper.apply(Unpooled.wrappedBuffer(pending));
+    }
+
+    /**
+     * Reads a column along with all of its cubes using a single prefix scan.
+     * <p>
+     * The returned buffers are not pooled, and may simply be discarded once they're no longer needed.
+     *
+     * @param pos the position of the column
+     * @return a batch containing the column and all of its cubes, or {@code null} if the key layout doesn't store columns contiguously, a layout
+     * migration is in progress or there are writes (including async writes) which haven't been written to the database yet
+     */
+    public BinaryBatch readColumnWithCubes(@NonNull ChunkPos pos) throws IOException {
+        long start = this.metrics.start();
+        Lock lock = this.lockLayout();
+        try {
+            KeyLayout layout = this.layout;
+            if (!layout.contiguousColumns() || this.legacyLayout != null || (this.writeBehind != null && !this.writeBehind.isEmpty()) || !this.asyncWrites.isEmpty()) {
+                return null;
+            }
+
+            ByteBuf keyBuf = KEY_BUFFERS.allocate(layout.columnKeySize());
+            try (RocksIterator itr = this.db.newIterator(this.columnFamilies.get(layout), this.readOptions)) {
+                layout.writeColumnKey(keyBuf, pos);
+                byte[] prefix = ByteBufUtil.getBytes(keyBuf);
+
+                Map<ChunkPos, ByteBuf> columns = new Object2ObjectOpenHashMap<>(1);
+                Map<CubePos, ByteBuf> cubes = new Object2ObjectOpenHashMap<>();
+                for (itr.seek(prefix); itr.isValid(); itr.next()) {
+                    byte[] key = itr.key();
+                    if (!startsWith(key, prefix)) {
+                        break; //we've reached the end of the column
+                    }
+
+                    byte[] value = itr.value();
+                    this.metrics.readValue(value.length);
+                    if (key.length == layout.columnKeySize()) {
+                        columns.put(pos, Unpooled.wrappedBuffer(value));
+                    } else {
+                        cubes.put(layout.readCubeKey(Unpooled.wrappedBuffer(key)), Unpooled.wrappedBuffer(value));
+                    }
+                }
+                return new BinaryBatch(columns, cubes);
+            } finally {
+                KEY_BUFFERS.recycle(keyBuf);
+            }
+        } finally {
+            unlock(lock);
+            this.metrics.record(StorageMetrics.Operation.READ_COLUMN_WITH_CUBES, start, pos);
+        }
+    }
+
+    /**
+     * Iterates over every column which contains at least one cube, along with its cubes, using a sequential scan of each key layout's cube family.
+     * <p>
+     * If the key layout stores columns contiguously, each column is passed to the callback exactly once, together with all of its cubes. Otherwise, the cubes
+     * which have been found are grouped by column and buffered until more than {@code maxBufferedCubes} are buffered, at which point the columns which were
+     * found first are passed to the callback. A column's cubes may therefore be spread over multiple batches, each of which contains the column's data.
+     *
+     * @param options          the read options to use. Should be bound to a snapshot, otherwise values which are being migrated between key layouts may be missed
+     * @param legacy           the legacy key layout, or {@code null} if no migration is in progress
+     * @param maxBufferedCubes the maximum number of cubes to buffer if columns aren't stored contiguously
+     * @param readValues       whether or not to read the values. If {@code false}, the batches are identical, except that the column data is always {@code null}
+     *                         and the cubes' data is always empty
+     * @param callback         a callback which will be called with batches containing a single column (whose data is {@code null} if it couldn't be found) and
+     *                         some or all of its cubes
+     * @throws InterruptedIOException if the current thread is interrupted
+     */
+    protected void forEachColumnWithCubes(@NonNull ReadOptions options, @NonNull KeyLayout layout, KeyLayout legacy, int maxBufferedCubes, boolean readValues,
+                                          @NonNull Consumer<BinaryBatch> callback) throws IOException {
+        for (KeyLayout l : legacy != null ? new KeyLayout[]{ layout, legacy } : new KeyLayout[]{ layout }) {
+            int columnKeySize = l.columnKeySize();
+
+            //a column's data is only found during the scan if it's stored in the same family as the cubes, otherwise it's looked up when the column is emitted
+            Map<ChunkPos, byte[]> columns = new Object2ObjectOpenHashMap<>();
+            Map<ChunkPos, Map<CubePos, ByteBuf>> buffered = new LinkedHashMap<>(); //in the order the columns were found
+            int bufferedCubes = 0;
+            try (RocksIterator itr = this.db.newIterator(this.cubeFamilies.get(l), options)) {
+                for (itr.seekToFirst(); itr.isValid(); itr.next()) {
+                    byte[] key = itr.key();
+                    ChunkPos pos;
+                    CubePos cubePos = null;
+                    if (key.length == columnKeySize) { //this can only happen if the family is shared
+                        pos = l.readColumnKey(Unpooled.wrappedBuffer(key));
+                    } else {
+                        cubePos = l.readCubeKey(Unpooled.wrappedBuffer(key));
+                        pos = cubePos.chunkPos();
+                    }
+
+                    if (l.contiguousColumns() && !buffered.isEmpty() && !buffered.containsKey(pos)) { //we've reached the end of the previous column
+                        if (Thread.interrupted()) {
+                            throw new InterruptedIOException();
+                        }
+                        this.emitColumns(options, layout, legacy, columns, buffered, readValues, callback);
+                        bufferedCubes = 0;
+                    }
+
+                    byte[] value = null;
+                    if (readValues) {
+                        value = itr.value();
+                        this.metrics.readValue(value.length);
+                    }
+                    if (cubePos == null) {
+                        if (value != null) {
+                            columns.put(pos, value);
+                        }
+                        buffered.computeIfAbsent(pos, p -> new Object2ObjectOpenHashMap<>());
+                        continue;
+                    }
+                    buffered.computeIfAbsent(pos, p -> new Object2ObjectOpenHashMap<>()).put(cubePos, value != null ? Unpooled.wrappedBuffer(value) : Unpooled.EMPTY_BUFFER);
+
+                    if (++bufferedCubes > maxBufferedCubes && !l.contiguousColumns()) { //emit the oldest columns until we're back under the limit
+                        if (Thread.interrupted()) {
+                            throw new InterruptedIOException();
+                        }
+
+                        Map<ChunkPos, Map<CubePos, ByteBuf>> evicted = new LinkedHashMap<>();
+                        for (Iterator<Map.Entry<ChunkPos, Map<CubePos, ByteBuf>>> iterator = buffered.entrySet().iterator(); bufferedCubes > maxBufferedCubes >> 1; ) {
+                            Map.Entry<ChunkPos, Map<CubePos, ByteBuf>> entry = iterator.next();
+                            evicted.put(entry.getKey(), entry.getValue());
+                            bufferedCubes -= entry.getValue().size();
+                            iterator.remove();
+                        }
+                        this.emitColumns(options, layout, legacy, columns, evicted, readValues, callback);
+                    }
+                }
+            }
+            this.emitColumns(options, layout, legacy, columns, buffered, readValues, callback);
+        }
+    }
+
+    /**
+     * Passes each of the buffered columns to the callback, and then clears the buffer.
+     *
+     * @see #forEachColumnWithCubes(ReadOptions, KeyLayout, KeyLayout, int, boolean, Consumer)
+     */
+    protected void emitColumns(@NonNull ReadOptions options, @NonNull KeyLayout layout, KeyLayout legacy, @NonNull Map<ChunkPos, byte[]> columns,
+                               @NonNull Map<ChunkPos, Map<CubePos, ByteBuf>> buffered, boolean readValues, @NonNull Consumer<BinaryBatch> callback) throws IOException {
+        for (Map.Entry<ChunkPos, Map<CubePos, ByteBuf>> entry : buffered.entrySet()) {
+            ChunkPos pos = entry.getKey();
+            byte[] column = columns.remove(pos);
+            if (entry.getValue().isEmpty()) { //columns without any cubes are skipped
+                continue;
+            }
+
+            ByteBuf columnData;
+            if (column != null) {
+                columnData = Unpooled.wrappedBuffer(column);
+            } else if (!readValues) {
+                columnData = null;
+            } else { //the column is stored in a different family, or not at all
+                ByteBuf value = this.read(options, layout, legacy, pos, COLUMN_BUFFERS);
+                columnData = value != null ? Unpooled.wrappedBuffer(ByteBufUtil.getBytes(value)) : null;
+                COLUMN_BUFFERS.recycle(value);
+            }
+            callback.accept(new BinaryBatch(Collections.singletonMap(pos, columnData), entry.getValue()));
+        }
+        buffered.clear();
+    }
+
     @Override
     public void writeColumn(ChunkPos pos, NBTTagCompound nbt) throws IOException {
-        ByteBuf buf = UnpooledByteBufAllocator.DEFAULT.directBuffer(INITIAL_BUFFER_SIZE);
+        this.checkWritable();
+        long start = this.metrics.start();
         try {
-            //encode position
-            PositionSerializerUtils.writeColumnPos(buf, pos);
+            this.supersedeAsyncWrites(Collections.singleton(pos), Collections.emptySet());
 
-            //encode nbt
-            NBTSerializerUtils.writeNBT(buf, nbt);
+            if (this.legacyLayout != null || this.writeBehind != null) { //the old key needs to be deleted as well or the write needs to be queued
+                this.writeBaseBatch(Collections.singletonMap(pos, nbt), Collections.emptyMap(), NBTSerializerUtils::writeNBT);
+                return;
+            }
 
-            //create buffers
-            ByteBuffer nioKeyBuffer = buf.nioBuffer(0, SIZE_COLUMN_POS);
-            ByteBuffer nioValueBuffer = buf.nioBuffer(buf.readerIndex() + SIZE_COLUMN_POS, buf.readableBytes() - SIZE_COLUMN_POS);
+            int keySize = this.layout.columnKeySize();
+            ByteBuf buf = COLUMN_BUFFERS.allocate();
+            try {
+                //encode position
+                this.layout.writeColumnKey(buf, pos);
 
-            RocksMC.LOGGER.debug("executing single write with 1 column, totalling {}", RocksMCUtils.formatSize(buf.readableBytes()));
+                //encode nbt
+                NBTSerializerUtils.writeNBT(buf, nbt);
 
-            //write to db
-            this.db.put(this.cfHandleColumns, WRITE_OPTIONS, nioKeyBuffer, nioValueBuffer);
-        } catch (RocksDBException e) {
-            throw new IOException(e); //rethrow
+                //create buffers
+                ByteBuffer nioKeyBuffer = buf.nioBuffer(0, keySize);
+                ByteBuffer nioValueBuffer = buf.nioBuffer(buf.readerIndex() + keySize, buf.readableBytes() - keySize);
+                COLUMN_BUFFERS.learn(nioValueBuffer.remaining());
+                this.metrics.writeValue(nioValueBuffer.remaining());
+
+                RocksMC.LOGGER.debug("executing single write with 1 column, totalling {}", RocksMCUtils.formatSize(buf.readableBytes()));
+
+                WriteVerifier.Writes verification = this.verifier.begin();
+                if (verification != null) {
+                    verification.add(pos, buf.slice(buf.readerIndex() + keySize, buf.readableBytes() - keySize));
+                }
+
+                //write to db
+                if (this.cache != null) {
+                    this.cache.beginWrite(pos);
+                }
+                boolean written = false;
+                try {
+                    this.db.put(this.columnFamilies.get(this.layout), WRITE_OPTIONS, nioKeyBuffer, nioValueBuffer);
+                    written = true;
+                } finally {
+                    if (this.cache != null) {
+                        this.cache.endWrite(pos, written ? ByteBufUtil.getBytes(buf, buf.readerIndex() + keySize, buf.readableBytes() - keySize) : null);
+                    }
+                    if (!written && verification != null) { //the value was never written, so there's nothing to verify
+                        verification.abort();
+                    }
+                }
+
+                if (verification != null) {
+                    verification.complete();
+                }
+            } catch (RocksDBException e) {
+                throw new IOException(e); //rethrow
+            } finally {
+                COLUMN_BUFFERS.recycle(buf);
+            }
         } finally {
-            buf.release();
+            this.metrics.record(StorageMetrics.Operation.WRITE_COLUMN, start, pos);
         }
     }
 
     @Override
     public void writeCube(CubePos pos, NBTTagCompound nbt) throws IOException {
-        ByteBuf buf = UnpooledByteBufAllocator.DEFAULT.directBuffer(INITIAL_BUFFER_SIZE);
+        this.checkWritable();
+        long start = this.metrics.start();
         try {
-            //encode position
-            PositionSerializerUtils.writeCubePos(buf, pos);
+            this.supersedeAsyncWrites(Collections.emptySet(), Collections.singleton(pos));
 
-            //encode nbt
-            NBTSerializerUtils.writeNBT(buf, nbt);
+            if (this.legacyLayout != null || this.writeBehind != null) { //the old key needs to be deleted as well or the write needs to be queued
+                this.writeBaseBatch(Collections.emptyMap(), Collections.singletonMap(pos, nbt), NBTSerializerUtils::writeNBT);
+                return;
+            }
 
-            //create buffers
-            ByteBuffer nioKeyBuffer = buf.nioBuffer(0, SIZE_CUBE_POS);
-            ByteBuffer nioValueBuffer = buf.nioBuffer(buf.readerIndex() + SIZE_CUBE_POS, buf.readableBytes() - SIZE_CUBE_POS);
+            int keySize = this.layout.cubeKeySize();
+            ByteBuf buf = CUBE_BUFFERS.allocate();
+            try {
+                //encode position
+                this.layout.writeCubeKey(buf, pos);
 
-            RocksMC.LOGGER.debug("executing single write with 1 cube, totalling {}", RocksMCUtils.formatSize(buf.readableBytes()));
+                //encode nbt
+                NBTSerializerUtils.writeNBT(buf, nbt);
 
-            //write to db
-            this.db.put(this.cfHandleCubes, WRITE_OPTIONS, nioKeyBuffer, nioValueBuffer);
-        } catch (RocksDBException e) {
-            throw new IOException(e); //rethrow
+                //create buffers
+                ByteBuffer nioKeyBuffer = buf.nioBuffer(0, keySize);
+                ByteBuffer nioValueBuffer = buf.nioBuffer(buf.readerIndex() + keySize, buf.readableBytes() - keySize);
+                CUBE_BUFFERS.learn(nioValueBuffer.remaining());
+                this.metrics.writeValue(nioValueBuffer.remaining());
+
+                RocksMC.LOGGER.debug("executing single write with 1 cube, totalling {}", RocksMCUtils.formatSize(buf.readableBytes()));
+
+                WriteVerifier.Writes verification = this.verifier.begin();
+                if (verification != null) {
+                    verification.add(pos, buf.slice(buf.readerIndex() + keySize, buf.readableBytes() - keySize));
+                }
+
+                //write to db
+                if (this.cache != null) {
+                    this.cache.beginWrite(pos);
+                }
+                boolean written = false;
+                try {
+                    this.db.put(this.cubeFamilies.get(this.layout), WRITE_OPTIONS, nioKeyBuffer, nioValueBuffer);
+                    written = true;
+                } finally {
+                    if (this.cache != null) {
+                        this.cache.endWrite(pos, written ? ByteBufUtil.getBytes(buf, buf.readerIndex() + keySize, buf.readableBytes() - keySize) : null);
+                    }
+                    if (!written && verification != null) { //the value was never written, so there's nothing to verify
+                        verification.abort();
+                    }
+                }
+
+                if (verification != null) {
+                    verification.complete();
+                }
+            } catch (RocksDBException e) {
+                throw new IOException(e); //rethrow
+            } finally {
+                CUBE_BUFFERS.recycle(buf);
+            }
         } finally {
-            buf.release();
+            this.metrics.record(StorageMetrics.Operation.WRITE_CUBE, start, pos);
         }
     }
 
     @Override
     public void writeBatch(NBTBatch batch) throws IOException {
-        this.writeBaseBatch(batch.columns, batch.cubes, NBTSerializerUtils::writeNBT);
+        long start = this.metrics.start();
+        try {
+            this.metrics.writeBatch(batch.columns.size() + batch.cubes.size());
+            this.supersedeAsyncWrites(batch.columns.keySet(), batch.cubes.keySet());
+            this.writeBaseBatch(batch.columns, batch.cubes, NBTSerializerUtils::writeNBT);
+        } finally {
+            this.metrics.record(StorageMetrics.Operation.WRITE_BATCH, start, batch);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> writeBatchAsync(@NonNull NBTBatch batch, @NonNull IOPriority priority) {
+        this.checkWritable();
+        this.checkNotClosing();
+        batch.columns.keySet().forEach(pos -> this.asyncWrites.put(pos, batch));
+        batch.cubes.keySet().forEach(pos -> this.asyncWrites.put(pos, batch));
+
+        try {
+            return this.submitAsyncWrite(batch, priority);
+        } catch (Throwable t) { //the write will never be executed
+            this.releaseAsyncWrite(batch);
+            throw t;
+        }
+    }
+
+    protected CompletableFuture<Void> submitAsyncWrite(@NonNull NBTBatch batch, @NonNull IOPriority priority) {
+        return this.submit(priority, () -> {
+            long start = this.metrics.start();
+            this.asyncWriteLock.lock();
+            try {
+                //values which have been overwritten since the batch was submitted are skipped, otherwise they'd be reverted
+                Map<ChunkPos, NBTTagCompound> columns = new Object2ObjectOpenHashMap<>(batch.columns.size());
+                Map<CubePos, NBTTagCompound> cubes = new Object2ObjectOpenHashMap<>(batch.cubes.size());
+                batch.columns.forEach((pos, nbt) -> {
+                    if (this.asyncWrites.get(pos) == batch) {
+                        columns.put(pos, nbt);
+                    }
+                });
+                batch.cubes.forEach((pos, nbt) -> {
+                    if (this.asyncWrites.get(pos) == batch) {
+                        cubes.put(pos, nbt);
+                    }
+                });
+
+                this.metrics.writeBatch(columns.size() + cubes.size());
+                this.writeBaseBatch(columns, cubes, NBTSerializerUtils::writeNBT);
+            } finally {
+                this.releaseAsyncWrite(batch); //the values can be read normally now
+                this.asyncWriteLock.unlock();
+                this.metrics.record(StorageMetrics.Operation.WRITE_BATCH, start, batch);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Removes the positions for which the given batch is the most recently submitted async write from {@link #asyncWrites}.
+     */
+    protected void releaseAsyncWrite(@NonNull NBTBatch batch) {
+        batch.columns.keySet().forEach(pos -> this.asyncWrites.computeIfPresent(pos, (p, write) -> write == batch ? null : write));
+        batch.cubes.keySet().forEach(pos -> this.asyncWrites.computeIfPresent(pos, (p, write) -> write == batch ? null : write));
+    }
+
+    /**
+     * @return the value for the given position in the most recently submitted async write which hasn't been written yet, or {@code null} if there is none
+     */
+    protected NBTTagCompound asyncWrite(@NonNull Object pos) {
+        NBTBatch batch;
+        if (this.asyncWrites.isEmpty() || (batch = this.asyncWrites.get(pos)) == null) {
+            return null;
+        }
+        return pos instanceof ChunkPos ? batch.columns.get(pos) : batch.cubes.get(pos);
+    }
+
+    /**
+     * @return the encoded value for the given position in the most recently submitted async write which hasn't been written yet, or {@code null} if there
+     * is none
+     * @see #asyncWrite(Object)
+     */
+    protected byte[] encodedAsyncWrite(@NonNull Object pos) {
+        NBTTagCompound nbt = this.asyncWrite(pos);
+        if (nbt == null) {
+            return null;
+        }
+
+        ByteBuf buf = Unpooled.buffer();
+        NBTSerializerUtils.writeNBT(buf, nbt);
+        return ByteBufUtil.getBytes(buf);
+    }
+
+    /**
+     * Must be called before synchronously writing the given positions, so that async writes which were submitted earlier won't overwrite them.
+     */
+    protected void supersedeAsyncWrites(@NonNull Collection<?> columns, @NonNull Collection<?> cubes) {
+        if (this.asyncWrites.isEmpty()) {
+            return;
+        }
+
+        //an async write which is currently being executed has already decided which values to write, so we have to wait for it to finish
+        this.asyncWriteLock.lock();
+        try {
+            columns.forEach(this.asyncWrites::remove);
+            cubes.forEach(this.asyncWrites::remove);
+        } finally {
+            this.asyncWriteLock.unlock();
+        }
     }
 
     @Override
     public void writeBinaryBatch(BinaryBatch batch) throws IOException {
-        this.writeBaseBatch(batch.columns, batch.cubes, ByteBuf::writeBytes);
+        long start = this.metrics.start();
+        try {
+            this.metrics.writeBatch(batch.columns.size() + batch.cubes.size());
+            this.supersedeAsyncWrites(batch.columns.keySet(), batch.cubes.keySet());
+            this.writeBaseBatch(batch.columns, batch.cubes, ByteBuf::writeBytes);
+        } finally {
+            this.metrics.record(StorageMetrics.Operation.WRITE_BATCH, start, batch);
+        }
     }
 
     protected <T> void writeBaseBatch(@NonNull Map<ChunkPos, T> columns, @NonNull Map<CubePos, T> cubes, @NonNull BiConsumer<ByteBuf, T> encoder) throws IOException {
+        this.checkWritable();
+        if (this.writeBehind == null) {
+            this.writeDirect(columns, cubes, encoder, true);
+            return;
+        } else if (columns.isEmpty() && cubes.isEmpty()) {
+            //both maps are empty, so nothing needs to be done
+            return;
+        }
+
+        //encode all values and add them to the write-behind queue, it'll write them to the database later
+        Map<Object, byte[]> values = new Object2ObjectOpenHashMap<>(columns.size() + cubes.size());
+        ByteBuf buf = CUBE_BUFFERS.allocate();
+        try {
+            columns.forEach((pos, value) -> {
+                encoder.accept(buf.clear(), value);
+                COLUMN_BUFFERS.learn(buf.readableBytes());
+                this.metrics.writeValue(buf.readableBytes());
+                values.put(pos, ByteBufUtil.getBytes(buf));
+            });
+            cubes.forEach((pos, value) -> {
+                encoder.accept(buf.clear(), value);
+                CUBE_BUFFERS.learn(buf.readableBytes());
+                this.metrics.writeValue(buf.readableBytes());
+                values.put(pos, ByteBufUtil.getBytes(buf));
+            });
+        } finally {
+            CUBE_BUFFERS.recycle(buf);
+        }
+
+        this.writeBehind.put(values); //this will also update the cache
+    }
+
+    /**
+     * Writes multiple columns and cubes to the database at once, bypassing the write-behind queue.
+     *
+     * @param updateCache whether or not the written values should be added to the cache
+     */
+    protected <T> void writeDirect(@NonNull Map<ChunkPos, T> columns, @NonNull Map<CubePos, T> cubes, @NonNull BiConsumer<ByteBuf, T> encoder, boolean updateCache) throws IOException {
         if (columns.isEmpty() && cubes.isEmpty()) {
             //both maps are empty, so nothing needs to be done
             return;
         }
 
-        ByteBuf buf = UnpooledByteBufAllocator.DEFAULT.directBuffer(INITIAL_BUFFER_SIZE);
+        //the data which is written is collected here so that it can be added to the cache once the write is complete
+        List<Object> cachePositions = updateCache && this.cache != null ? new ArrayList<>(columns.size() + cubes.size()) : null;
+        List<byte[]> cacheData = updateCache && this.cache != null ? new ArrayList<>(columns.size() + cubes.size()) : null;
+
+        WriteVerifier.Writes verification = this.verifier.begin();
+
+        Lock lock = this.lockLayout();
+        KeyLayout layout = this.layout;
+        KeyLayout legacy = this.legacyLayout;
+
+        ByteBuf buf = CUBE_BUFFERS.allocate();
+        boolean written = false;
         try (WriteBatch dst = new WriteBatch()) {
             columns.forEach(new BiConsumer<ChunkPos, T>() {
                 @Override
@@ -338,16 +1671,36 @@ public class LocalStorageImpl implements IBinaryCubeStorage {
                     buf.clear();
 
                     //encode position
-                    PositionSerializerUtils.writeColumnPos(buf, pos);
+                    layout.writeColumnKey(buf, pos);
+                    int keySize = buf.writerIndex();
 
                     //encode data
                     encoder.accept(buf, nbt);
 
                     //create buffers
-                    ByteBuffer nioKeyBuffer = buf.nioBuffer(0, SIZE_COLUMN_POS);
-                    ByteBuffer nioValueBuffer = buf.nioBuffer(buf.readerIndex() + SIZE_COLUMN_POS, buf.readableBytes() - SIZE_COLUMN_POS);
-
-                    dst.put(LocalStorageImpl.this.cfHandleColumns, nioKeyBuffer, nioValueBuffer);
+                    ByteBuffer nioKeyBuffer = buf.nioBuffer(0, keySize);
+                    ByteBuffer nioValueBuffer = buf.nioBuffer(buf.readerIndex() + keySize, buf.readableBytes() - keySize);
+                    COLUMN_BUFFERS.learn(nioValueBuffer.remaining());
+                    if (updateCache) { //values flushed from the write-behind queue were already counted when they were queued
+                        LocalStorageImpl.this.metrics.writeValue(nioValueBuffer.remaining());
+                    }
+
+                    dst.put(LocalStorageImpl.this.columnFamilies.get(layout), nioKeyBuffer, nioValueBuffer);
+
+                    if (verification != null) {
+                        verification.add(pos, buf.slice(buf.readerIndex() + keySize, buf.readableBytes() - keySize));
+                    }
+
+                    if (cachePositions != null) {
+                        cachePositions.add(pos);
+                        cacheData.add(ByteBufUtil.getBytes(buf, buf.readerIndex() + keySize, buf.readableBytes() - keySize));
+                    }
+
+                    if (legacy != null) { //delete the value from the legacy layout, so that it won't be migrated later and overwrite this one
+                        buf.clear();
+                        legacy.writeColumnKey(buf, pos);
+                        dst.delete(LocalStorageImpl.this.columnFamilies.get(legacy), ByteBufUtil.getBytes(buf));
+                    }
                 }
             });
             cubes.forEach(new BiConsumer<CubePos, T>() {
@@ -357,86 +1710,537 @@ public class LocalStorageImpl implements IBinaryCubeStorage {
                     buf.clear();
 
                     //encode position
-                    PositionSerializerUtils.writeCubePos(buf, pos);
+                    layout.writeCubeKey(buf, pos);
+                    int keySize = buf.writerIndex();
 
                     //encode data
                     encoder.accept(buf, nbt);
 
                     //create buffers
-                    ByteBuffer nioKeyBuffer = buf.nioBuffer(0, SIZE_CUBE_POS);
-                    ByteBuffer nioValueBuffer = buf.nioBuffer(buf.readerIndex() + SIZE_CUBE_POS, buf.readableBytes() - SIZE_CUBE_POS);
-
-                    dst.put(LocalStorageImpl.this.cfHandleCubes, nioKeyBuffer, nioValueBuffer);
+                    ByteBuffer nioKeyBuffer = buf.nioBuffer(0, keySize);
+                    ByteBuffer nioValueBuffer = buf.nioBuffer(buf.readerIndex() + keySize, buf.readableBytes() - keySize);
+                    CUBE_BUFFERS.learn(nioValueBuffer.remaining());
+                    if (updateCache) { //values flushed from the write-behind queue were already counted when they were queued
+                        LocalStorageImpl.this.metrics.writeValue(nioValueBuffer.remaining());
+                    }
+
+                    dst.put(LocalStorageImpl.this.cubeFamilies.get(layout), nioKeyBuffer, nioValueBuffer);
+
+                    if (verification != null) {
+                        verification.add(pos, buf.slice(buf.readerIndex() + keySize, buf.readableBytes() - keySize));
+                    }
+
+                    if (cachePositions != null) {
+                        cachePositions.add(pos);
+                        cacheData.add(ByteBufUtil.getBytes(buf, buf.readerIndex() + keySize, buf.readableBytes() - keySize));
+                    }
+
+                    if (legacy != null) { //delete the value from the legacy layout, so that it won't be migrated later and overwrite this one
+                        buf.clear();
+                        legacy.writeCubeKey(buf, pos);
+                        dst.delete(LocalStorageImpl.this.cubeFamilies.get(legacy), ByteBufUtil.getBytes(buf));
+                    }
                 }
             });
 
             RocksMC.LOGGER.debug("executing batch write with {} column(s) and {} cube(s), totalling {}", columns.size(), cubes.size(), RocksMCUtils.formatSize(dst.getDataSize()));
 
             //write to db
-            this.db.write(WRITE_OPTIONS, dst);
-
-            for (CubePos p : cubes.keySet()) {
-                checkState(this.cubeExists(p), "failed to write cube: %s", p);
+            if (cachePositions != null) {
+                cachePositions.forEach(this.cache::beginWrite);
+            }
+            try {
+                this.db.write(WRITE_OPTIONS, dst);
+                written = true;
+            } finally {
+                if (cachePositions != null) {
+                    for (int i = 0; i < cachePositions.size(); i++) {
+                        this.cache.endWrite(cachePositions.get(i), written ? cacheData.get(i) : null);
+                    }
+                }
             }
         } catch (RocksDBException e) {
             throw new IOException(e); //rethrow
         } finally {
-            buf.release();
+            unlock(lock);
+            CUBE_BUFFERS.recycle(buf);
+            if (!written && verification != null) { //the values were never written, so there's nothing to verify
+                verification.abort();
+            }
+        }
+
+        if (verification != null) { //this has to be done after releasing the layout lock, as verification needs to read the values back
+            verification.complete();
         }
     }
 
     @Override
     public void forEachColumn(Consumer<ChunkPos> callback) throws IOException {
-        ByteBuf keyBuf = UnpooledByteBufAllocator.DEFAULT.directBuffer(SIZE_COLUMN_POS, SIZE_COLUMN_POS).writerIndex(SIZE_COLUMN_POS);
-        ByteBuffer nioKeyBuffer = keyBuf.nioBuffer();
-        try (RocksIterator itr = this.db.newIterator(this.cfHandleColumns)) {
-            for (itr.seekToFirst(); itr.isValid(); itr.next()) {
-                //copy key into NIO buffer
-                nioKeyBuffer.clear();
-                checkState(itr.key(nioKeyBuffer) == SIZE_COLUMN_POS, "column position too large!");
+        long start = this.metrics.start();
+        try {
+            if (this.writeBehind != null) { //make sure that positions which haven't been written yet are included
+                this.writeBehind.drain();
+            }
 
-                //parse key
-                ChunkPos pos = PositionSerializerUtils.readColumnPos(keyBuf.readerIndex(0));
-                callback.accept(pos);
+            Lock lock = this.lockLayout();
+            try {
+                KeyLayout layout = this.layout;
+                this.forEachKey(layout, this.columnFamilies.get(layout), this.readOptions, layout.columnKeySize(), key -> callback.accept(layout.readColumnKey(key)));
+
+                KeyLayout legacy = this.legacyLayout;
+                if (legacy != null) { //some columns may not have been migrated yet
+                    this.forEachKey(legacy, this.columnFamilies.get(legacy), this.readOptions, legacy.columnKeySize(), key -> callback.accept(legacy.readColumnKey(key)));
+                }
+            } finally {
+                unlock(lock);
             }
         } finally {
-            keyBuf.release();
+            this.metrics.record(StorageMetrics.Operation.FOR_EACH_COLUMN, start, null);
         }
     }
 
     @Override
     public void forEachCube(Consumer<CubePos> callback) throws IOException {
-        ByteBuf keyBuf = UnpooledByteBufAllocator.DEFAULT.directBuffer(SIZE_CUBE_POS, SIZE_CUBE_POS).writerIndex(SIZE_CUBE_POS);
+        long start = this.metrics.start();
+        try {
+            if (this.writeBehind != null) { //make sure that positions which haven't been written yet are included
+                this.writeBehind.drain();
+            }
+
+            Lock lock = this.lockLayout();
+            try {
+                KeyLayout layout = this.layout;
+                this.forEachKey(layout, this.cubeFamilies.get(layout), this.readOptions, layout.cubeKeySize(), key -> callback.accept(layout.readCubeKey(key)));
+
+                KeyLayout legacy = this.legacyLayout;
+                if (legacy != null) { //some cubes may not have been migrated yet
+                    this.forEachKey(legacy, this.cubeFamilies.get(legacy), this.readOptions, legacy.cubeKeySize(), key -> callback.accept(legacy.readCubeKey(key)));
+                }
+            } finally {
+                unlock(lock);
+            }
+        } finally {
+            this.metrics.record(StorageMetrics.Operation.FOR_EACH_CUBE, start, null);
+        }
+    }
+
+    /**
+     * Iterates over all the keys with the given size in the given column family.
+     * <p>
+     * If the key layout stores columns and cubes in the same family, keys of any other size are skipped.
+     */
+    protected void forEachKey(@NonNull KeyLayout layout, @NonNull ColumnFamilyHandle cf, @NonNull ReadOptions options, int keySize, @NonNull Consumer<ByteBuf> callback) {
+        ByteBuf keyBuf = KEY_BUFFERS.allocate(keySize).writerIndex(keySize);
         ByteBuffer nioKeyBuffer = keyBuf.nioBuffer();
-        try (RocksIterator itr = this.db.newIterator(this.cfHandleCubes)) {
+        try (RocksIterator itr = this.db.newIterator(cf, options)) {
             for (itr.seekToFirst(); itr.isValid(); itr.next()) {
                 //copy key into NIO buffer
                 nioKeyBuffer.clear();
-                checkState(itr.key(nioKeyBuffer) == SIZE_CUBE_POS, "cube position too large!");
+                int size = itr.key(nioKeyBuffer);
+                if (size != keySize) {
+                    checkState(layout.sharedFamily(), "position has invalid size %s (expected %s)", size, keySize);
+                    continue;
+                }
 
                 //parse key
-                CubePos pos = PositionSerializerUtils.readCubePos(keyBuf.readerIndex(0));
-                callback.accept(pos);
+                callback.accept(keyBuf.readerIndex(0));
             }
         } finally {
-            keyBuf.release();
+            KEY_BUFFERS.recycle(keyBuf);
         }
     }
 
-    @Override
-    public void flush() throws IOException {
+    /**
+     * @return the total size of all SST files containing column or cube data (in bytes)
+     */
+    public long dataSize() throws IOException {
+        Lock lock = this.lockLayout();
+        try {
+            long size = 0L;
+            for (ColumnFamilyHandle cf : this.cfHandles) {
+                if (cf != this.cfHandleDefault) {
+                    size += this.db.getLongProperty(cf, "rocksdb.total-sst-files-size");
+                }
+            }
+            return size;
+        } catch (RocksDBException e) {
+            throw new IOException(e); //rethrow
+        } finally {
+            unlock(lock);
+        }
+    }
+
+    /**
+     * Gets the approximate amount of native memory used by this database's memtables and table readers.
+     * <p>
+     * Block caches aren't included, as they are shared with other databases. See {@link #totalMemoryUsage(Collection)}.
+     * <p>
+     * If the database is shared by multiple dimensions, this includes the memory used by all of them.
+     *
+     * @return the memory usage by type (in bytes)
+     */
+    public Map<MemoryUsageType, Long> memoryUsage() {
+        Lock lock = this.lockLayout();
         try {
-            this.db.flushWal(true);
+            return MemoryUtil.getApproximateMemoryUsageByType(Collections.singletonList(this.db), Collections.emptySet());
+        } finally {
+            unlock(lock);
+        }
+    }
+
+    /**
+     * Gets the approximate total amount of native memory used by the given databases, including all the block caches they use.
+     * <p>
+     * If memtables are charged to the block cache, their memory usage is already included in {@link MemoryUsageType#kCacheTotal}, and
+     * {@link MemoryUsageType#kMemTableTotal} and {@link MemoryUsageType#kMemTableUnFlushed} will only contain the memtables of databases whose
+     * memtables aren't charged to the cache.
+     *
+     * @param storages the databases
+     * @return the memory usage by type (in bytes)
+     */
+    public static Map<MemoryUsageType, Long> totalMemoryUsage(@NonNull Collection<LocalStorageImpl> storages) {
+        Set<RocksDB> dbs = Collections.newSetFromMap(new IdentityHashMap<>());
+        Set<RocksDB> uncharged = Collections.newSetFromMap(new IdentityHashMap<>());
+        Set<Cache> caches = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (LocalStorageImpl storage : storages) { //shared databases are only counted once
+            dbs.add(storage.db);
+            if (storage.options.writeBufferManager() == null) {
+                uncharged.add(storage.db);
+            }
+            caches.addAll(storage.options.caches());
+        }
+
+        Map<MemoryUsageType, Long> usage = new EnumMap<>(MemoryUsageType.class);
+        usage.putAll(MemoryUtil.getApproximateMemoryUsageByType(new ArrayList<>(dbs), caches));
+        Map<MemoryUsageType, Long> unchargedUsage = MemoryUtil.getApproximateMemoryUsageByType(new ArrayList<>(uncharged), Collections.emptySet());
+        usage.put(MemoryUsageType.kMemTableTotal, unchargedUsage.getOrDefault(MemoryUsageType.kMemTableTotal, 0L));
+        usage.put(MemoryUsageType.kMemTableUnFlushed, unchargedUsage.getOrDefault(MemoryUsageType.kMemTableUnFlushed, 0L));
+        return usage;
+    }
+
+    /**
+     * Rewrites all column and cube data in the database, training new compression dictionaries using the currently configured settings.
+     * <p>
+     * This forces a full compaction of every column and cube family, and may therefore take a very long time. It should be run using
+     * {@link #startBackgroundJob(String, Runnable)}, so that it'll be stopped if the storage is closed.
+     *
+     * @return whether or not all data was rewritten, or {@code false} if the rewrite was stopped because the storage is being closed
+     */
+    public boolean rewriteCompressionDictionaries() throws IOException {
+        this.checkWritable();
+        if (this.writeBehind != null) { //make sure queued writes end up in the rewritten data
+            this.writeBehind.drain();
+        }
+
+        String dictionarySettings = RocksMCConfig.database.compressionDictionarySettings();
+        try (CompactRangeOptions options = new CompactRangeOptions()
+                .setBottommostLevelCompaction(CompactRangeOptions.BottommostLevelCompaction.kForce) //the bottommost level has to be rewritten to train a dictionary
+                .setExclusiveManualCompaction(false)) {
+            for (ColumnFamilyHandle cf : this.cfHandles) {
+                if (this.closing) { //the marker isn't updated, so the rewrite will be suggested again the next time the world is opened
+                    return false;
+                } else if (cf != this.cfHandleDefault) {
+                    this.db.compactRange(cf, null, null, options);
+                }
+            }
+
+            this.db.put(this.cfHandleDefault, WRITE_OPTIONS, KEY_COMPRESSION_DICTIONARY, dictionarySettings.getBytes(StandardCharsets.UTF_8));
+            return true;
         } catch (RocksDBException e) {
+            if (this.closing) { //the compaction was aborted because the database is being closed
+                return false;
+            }
             throw new IOException(e); //rethrow
         }
     }
 
+    /**
+     * Runs a long-running job which accesses the database on a new background thread.
+     * <p>
+     * Once this storage starts being closed, {@link #closing()} will return {@code true} and any manual compaction started by the job will be aborted, so the
+     * job should exit as soon as possible. The database won't be closed until the job has exited.
+     *
+     * @param name the name of the thread
+     * @param job  the job to run
+     * @throws IllegalStateException if this storage has already been closed
+     */
+    public synchronized void startBackgroundJob(@NonNull String name, @NonNull Runnable job) {
+        checkState(!this.closed, "storage %s has already been closed!", this);
+
+        Thread thread = RocksMCExecutors.daemonThreadFactory(name).newThread(() -> {
+            try {
+                job.run();
+            } finally {
+                synchronized (this) {
+                    this.backgroundJobs.remove(Thread.currentThread());
+                }
+            }
+        });
+        this.backgroundJobs.add(thread);
+        thread.start();
+    }
+
+    /**
+     * @return whether or not this storage is being closed, in which case background jobs should stop as soon as possible
+     */
+    public boolean closing() {
+        return this.closing;
+    }
+
+    /**
+     * Stops all background jobs, and waits for them to exit.
+     */
+    protected void stopBackgroundJobs() {
+        List<Thread> jobs;
+        synchronized (this) {
+            jobs = new ArrayList<>(this.backgroundJobs);
+        }
+        if (jobs.isEmpty()) {
+            return;
+        }
+
+        if (this.shared == null) {
+            //abort any manual compactions rather than waiting for them to finish, the database is about to be closed anyway. a shared database may still be
+            //  used by other dimensions, so in that case we have to wait for the current compaction to finish
+            this.db.cancelAllBackgroundWork(false);
+        }
+
+        boolean interrupted = false;
+        for (Thread thread : jobs) {
+            while (thread.isAlive()) {
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (this.secondaryPath != null) { //secondary instances don't write anything
+            return;
+        }
+
+        long start = this.metrics.start();
+        try {
+            if (this.writeBehind != null) {
+                this.writeBehind.drain();
+            }
+
+            try {
+                if (this.shared != null) { //avoid syncing the WAL again for every dimension when the world is saved
+                    this.shared.syncWal();
+                } else {
+                    this.db.flushWal(true);
+                }
+            } catch (RocksDBException e) {
+                throw new IOException(e); //rethrow
+            }
+        } finally {
+            this.metrics.record(StorageMetrics.Operation.FLUSH, start, null);
+        }
+    }
+
+    /**
+     * Creates a checkpoint of the database in the given directory, which mustn't exist yet.
+     * <p>
+     * A checkpoint is a consistent copy of the database at a single point in time. SST files are hard-linked rather than copied, so creating a checkpoint is
+     * fast regardless of the database's size, and doesn't use any additional disk space until the files are deleted from the database by a compaction.
+     * <p>
+     * Writes which are waiting in the write-behind queue are written to the database first, so the checkpoint includes everything written before this
+     * method was called. If the database is shared, the queued writes of every other dimension in it are written as well.
+     *
+     * @param dst the directory to create the checkpoint in
+     * @return whether or not the checkpoint was created, or {@code false} if this storage has already been closed
+     */
+    public boolean createCheckpoint(@NonNull Path dst) throws IOException {
+        if (this.shared != null) {
+            List<LocalStorageImpl> storages;
+            synchronized (RocksMC.STORAGES_BY_WORLD) {
+                storages = new ArrayList<>(RocksMC.STORAGES_BY_WORLD.values());
+            }
+            storages.add(this); //this storage may not be associated with a world
+            for (LocalStorageImpl storage : storages) {
+                if (storage.shared == this.shared) {
+                    storage.drainIfOpen();
+                }
+            }
+            return this.shared.createCheckpoint(dst);
+        }
+
+        synchronized (this) {
+            if (this.closed) {
+                return false;
+            }
+
+            if (this.writeBehind != null) {
+                this.writeBehind.drain();
+            }
+            try (Checkpoint checkpoint = Checkpoint.create(this.db)) {
+                checkpoint.createCheckpoint(dst.toString());
+            } catch (RocksDBException e) {
+                throw new IOException(e); //rethrow
+            }
+            return true;
+        }
+    }
+
+    /**
+     * @return whether or not this storage is a read-only secondary instance
+     * @see #openSecondary(Path)
+     */
+    public boolean secondary() {
+        return this.secondaryPath != null;
+    }
+
+    protected void checkWritable() {
+        if (this.secondaryPath != null) {
+            throw new UnsupportedOperationException(this + " is a read-only secondary instance");
+        }
+    }
+
+    /**
+     * Makes all writes which the primary instance has made so far visible to this secondary instance.
+     * <p>
+     * This is done automatically every {@link RocksMCConfig.Secondary#catchUpInterval} milliseconds.
+     */
+    public void catchUp() throws IOException {
+        checkState(this.secondaryPath != null, "%s isn't a secondary instance!", this);
+
+        synchronized (this) {
+            if (this.closed) { //the automatic catch-up may still run once after the storage is closed
+                return;
+            }
+
+            try {
+                this.db.tryCatchUpWithPrimary();
+
+                //the primary instance may have started or completed a key layout migration since the database was opened. the layout which data was
+                // originally read from can't change, so any other layout in use by the primary instance is treated as the legacy layout. a value is
+                // always moved atomically, so reading from both layouts is sufficient to find it.
+                Lock lock = this.layoutLock.writeLock();
+                lock.lock();
+                try {
+                    KeyLayout legacyLayout = this.readFollowedLegacyLayout();
+                    if (legacyLayout != null && this.columnFamilies.get(legacyLayout) == null && this.views.isEmpty()) {
+                        //the primary instance has started using column families which didn't exist yet when this instance was opened
+                        this.reopenSecondary();
+                        legacyLayout = this.readFollowedLegacyLayout();
+                    }
+
+                    //if the database couldn't be reopened because of open snapshot views, the layout's data isn't visible to this instance anyway. it'll be
+                    // reopened during the next catch-up after they've been closed
+                    this.legacyLayout = legacyLayout != null && this.columnFamilies.get(legacyLayout) != null ? legacyLayout : null;
+                } finally {
+                    lock.unlock();
+                }
+            } catch (RocksDBException e) {
+                throw new IOException(e); //rethrow
+            }
+        }
+    }
+
+    protected KeyLayout readFollowedLegacyLayout() throws RocksDBException {
+        KeyLayout layout = this.readLayoutMarker(KEY_LAYOUT);
+        return layout != null && layout != this.layout ? layout : this.readLayoutMarker(KEY_LEGACY_LAYOUT);
+    }
+
+    /**
+     * Opens a read-only view of this storage's current contents, which will not be affected by any subsequent writes.
+     * <p>
+     * Writes which are waiting in the write-behind queue are written to the database first, so the view includes everything written before this method was
+     * called. The view must be closed once it's no longer needed.
+     *
+     * @return the view
+     * @see SnapshotView
+     */
+    public synchronized SnapshotView openSnapshotView() throws IOException {
+        checkState(!this.closed, "storage %s has already been closed!", this);
+
+        if (this.writeBehind != null) {
+            this.writeBehind.drain();
+        }
+
+        //prevent the migrator from moving any values until the snapshot has been taken, so that the key layouts are consistent with it
+        Lock lock = this.lockLayout();
+        try {
+            SnapshotView view = new SnapshotView(this, this.db.getSnapshot(), this.layout, this.legacyLayout);
+            this.views.add(view);
+            return view;
+        } finally {
+            unlock(lock);
+        }
+    }
+
+    protected synchronized void releaseSnapshotView(@NonNull SnapshotView view) {
+        checkState(this.views.remove(view), "snapshot view %s isn't open!", view);
+        this.db.releaseSnapshot(view.snapshot);
+    }
+
+    protected synchronized void drainIfOpen() throws IOException {
+        if (!this.closed && this.writeBehind != null) {
+            this.writeBehind.drain();
+        }
+    }
+
     @Override
     public void close() throws IOException {
         checkState(this.world == null || RocksMC.STORAGES_BY_WORLD.remove(this.world, this), "unable to remove self from storages map!");
+        this.closing = true;
+        this.readBatcher.flush(); //reads which are waiting for their batching window would otherwise be dispatched after the database is closed
+
+        List<SnapshotView> views;
+        synchronized (this) { //wait for any checkpoints which are currently being created
+            this.awaitTasks(); //queued tasks are still executed, as they may contain writes
+            this.closed = true;
+            views = new ArrayList<>(this.views);
+        }
+        for (SnapshotView view : views) { //snapshots have to be released before the database is closed
+            RocksMC.LOGGER.warn("{} wasn't closed!", view);
+            view.close();
+        }
+        if (this.catchUpTask != null) {
+            this.catchUpTask.cancel(false);
+        }
+
+        try {
+            if (this.writeBehind != null) { //write everything that's still queued before closing the database
+                this.writeBehind.drain();
+            }
+        } finally {
+            if (this.migrator != null) { //stop the migration, it'll be resumed the next time the world is opened
+                this.migrator.cancel();
+            }
+            this.stopBackgroundJobs(); //the jobs might still be using the column families
+            this.statistics.close();
 
-        this.cfHandles.forEach(ColumnFamilyHandle::close); //close column families before db
-        this.db.close();
+            if (this.shared != null) { //the column families are owned by the shared database
+                this.shared.release();
+            } else {
+                this.cfHandles.forEach(ColumnFamilyHandle::close); //close column families before db
+                this.db.close();
+
+                if (this.ownDbOptions != null) {
+                    this.ownDbOptions.close();
+                }
+                if (this.statistics.statistics() != null) {
+                    this.statistics.statistics().close();
+                }
+                if (this.secondaryPath != null) {
+                    RocksMCUtils.deleteRecursive(this.secondaryPath);
+                }
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        String name = this.dimension != null ? this.path + " (" + this.dimension + ')' : this.path.toString();
+        return this.secondaryPath != null ? name + " (secondary)" : name;
     }
 }
@@ -0,0 +1,395 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2021-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package net.daporkchop.rocksmc.storage.local;
+
+import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import net.daporkchop.rocksmc.RocksMC;
+import net.daporkchop.rocksmc.RocksMCConfig;
+import net.daporkchop.rocksmc.util.RocksMCUtils;
+import org.rocksdb.ColumnFamilyHandle;
+import org.rocksdb.CompactRangeOptions;
+import org.rocksdb.RocksDBException;
+import org.rocksdb.SizeApproximationFlag;
+import org.rocksdb.Slice;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A compaction of all data in a {@link LocalStorageImpl}, or only the data in a given region, which is started manually.
+ * <p>
+ * The key range to compact is split into a number of slices which are compacted one after the other, so that progress can be reported and the compaction can be
+ * cancelled in between. The compaction pauses between slices so that its average write rate stays below the configured limit. Other flushes and compactions
+ * aren't affected.
+ * <p>
+ * Compactions should be run using {@link LocalStorageImpl#startBackgroundJob(String, Runnable)}, so that they'll be stopped if the storage is closed.
+ * <p>
+ * Only one manual compaction may run at a time.
+ *
+ * @author DaPorkchop_
+ */
+public final class ManualCompaction {
+    protected static final AtomicReference<ManualCompaction> ACTIVE = new AtomicReference<>();
+
+    protected static final BigInteger KEY_PREFIX_LIMIT = BigInteger.ONE.shiftLeft(Long.SIZE);
+
+    /**
+     * The maximum amount of time to sleep between checks for cancellation while pausing between slices (in milliseconds).
+     */
+    protected static final long PAUSE_CHECK_INTERVAL = 100L;
+
+    /**
+     * @return the manual compaction which is currently running, or {@code null} if none is
+     */
+    public static ManualCompaction active() {
+        return ACTIVE.get();
+    }
+
+    /**
+     * Maps a range of signed coordinates to the ranges of unsigned coordinates which contain exactly the same values.
+     *
+     * @return the unsigned ranges, each as a pair of {@code {min, max}}
+     */
+    protected static int[][] unsignedRanges(int min, int max) {
+        return min < 0 && max >= 0
+                ? new int[][]{ { 0, max }, { min, -1 } } //the range crosses 0, so it's split in two when treated as unsigned
+                : new int[][]{ { min, max } };
+    }
+
+    protected static byte[] prefixKey(@NonNull BigInteger prefix) {
+        byte[] key = new byte[Long.BYTES];
+        long l = prefix.longValue();
+        for (int i = 0; i < Long.BYTES; i++) {
+            key[i] = (byte) (l >>> ((Long.BYTES - 1 - i) << 3));
+        }
+        return key;
+    }
+
+    @Getter
+    @NonNull
+    protected final LocalStorageImpl storage;
+    /**
+     * The minimum corner of the region to compact, or {@code null} if the entire database should be compacted.
+     */
+    @Getter
+    protected final CubePos min;
+    /**
+     * The maximum corner of the region to compact, or {@code null} if the entire database should be compacted.
+     */
+    @Getter
+    protected final CubePos max;
+
+    protected volatile boolean cancelled;
+
+    @Getter
+    protected volatile int totalSlices;
+    @Getter
+    protected volatile int compactedSlices;
+    protected volatile long totalBytes;
+    protected volatile long compactedBytes;
+
+    /**
+     * The size of the compacted column families before the compaction was started.
+     */
+    @Getter
+    protected volatile long sizeBefore = -1L;
+    /**
+     * The size of the compacted column families after the compaction completed, or {@code -1} if it hasn't completed yet.
+     */
+    @Getter
+    protected volatile long sizeAfter = -1L;
+
+    /**
+     * @param storage the storage to compact
+     * @param min     the minimum corner of the region to compact, or {@code null} to compact the entire database
+     * @param max     the maximum corner of the region to compact, or {@code null} to compact the entire database
+     */
+    public ManualCompaction(@NonNull LocalStorageImpl storage, CubePos min, CubePos max) {
+        if ((min == null) != (max == null)) {
+            throw new IllegalArgumentException("min and max must either both be null or both be non-null");
+        }
+
+        this.storage = storage;
+        if (min != null) { //make sure that min is actually the minimum corner
+            this.min = new CubePos(Math.min(min.getX(), max.getX()), Math.min(min.getY(), max.getY()), Math.min(min.getZ(), max.getZ()));
+            this.max = new CubePos(Math.max(min.getX(), max.getX()), Math.max(min.getY(), max.getY()), Math.max(min.getZ(), max.getZ()));
+        } else {
+            this.min = this.max = null;
+        }
+    }
+
+    /**
+     * Runs this compaction, blocking until it's complete or has been cancelled.
+     *
+     * @param progressCallback a function to run after each slice has been compacted
+     * @return whether or not the compaction was completed (i.e. it wasn't cancelled, and the storage isn't being closed)
+     * @throws IllegalStateException if another manual compaction is already running
+     */
+    public boolean run(@NonNull Runnable progressCallback) throws IOException {
+        if (!ACTIVE.compareAndSet(null, this)) {
+            throw new IllegalStateException("another manual compaction is already running");
+        }
+
+        try {
+            this.sizeBefore = this.storage.dataSize();
+
+            List<Part> parts = this.parts();
+            this.totalSlices = parts.size();
+            this.totalBytes = parts.stream().mapToLong(part -> part.size).sum();
+            RocksMC.LOGGER.info("Compacting {} in {} slice(s), totalling approximately {}", this, parts.size(), RocksMCUtils.formatSize(this.totalBytes));
+
+            //automatic compactions may continue running alongside this one. the bottommost level isn't rewritten, as obsolete values are already
+            // removed when they're compacted into it
+            long rateLimit = (long) RocksMCConfig.compaction.rateLimit << 20L;
+            long startTime = System.nanoTime();
+            try (CompactRangeOptions options = new CompactRangeOptions().setExclusiveManualCompaction(false)) {
+                for (Part part : parts) {
+                    if (!this.pause(startTime, rateLimit)) {
+                        RocksMC.LOGGER.info("Cancelled compaction of {} after {}/{} slice(s)", this, this.compactedSlices, this.totalSlices);
+                        return false;
+                    }
+
+                    this.storage.db.compactRange(part.cf, part.begin, part.end, options);
+                    this.compactedBytes += part.size;
+                    this.compactedSlices++;
+                    progressCallback.run();
+                }
+            }
+
+            this.sizeAfter = this.storage.dataSize();
+            RocksMC.LOGGER.info("Compacted {}: {} -> {}", this, RocksMCUtils.formatSize(this.sizeBefore), RocksMCUtils.formatSize(this.sizeAfter));
+            return true;
+        } catch (RocksDBException e) {
+            if (this.storage.closing()) { //the compaction was aborted because the database is being closed
+                RocksMC.LOGGER.info("Stopped compaction of {} after {}/{} slice(s) because the storage is being closed", this, this.compactedSlices, this.totalSlices);
+                return false;
+            }
+            throw new IOException(e); //rethrow
+        } finally {
+            ACTIVE.set(null);
+        }
+    }
+
+    /**
+     * Waits until the average rate at which data has been compacted so far has dropped below the given limit.
+     * <p>
+     * The rate is estimated from the approximate size of the slices which have been compacted, as that's roughly the amount of data which is rewritten.
+     *
+     * @param startTime the value of {@link System#nanoTime()} when the compaction was started
+     * @param rateLimit the maximum rate (in bytes per second), or {@code 0} if the compaction isn't throttled
+     * @return whether or not the compaction should continue, i.e. it wasn't cancelled and the storage isn't being closed
+     */
+    protected boolean pause(long startTime, long rateLimit) {
+        long resumeTime = rateLimit > 0L ? startTime + (long) (this.compactedBytes / (double) rateLimit * TimeUnit.SECONDS.toNanos(1L)) : startTime;
+        while (!this.cancelled && !this.storage.closing()) {
+            long remaining = resumeTime - System.nanoTime();
+            if (remaining <= 0L) {
+                return true;
+            }
+
+            try {
+                Thread.sleep(Math.min(TimeUnit.NANOSECONDS.toMillis(remaining) + 1L, PAUSE_CHECK_INTERVAL));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Splits the key ranges to compact into slices.
+     * <p>
+     * Slices which don't contain any data are skipped.
+     */
+    protected List<Part> parts() throws RocksDBException {
+        //find the ranges of key prefixes to compact in each column family
+        Map<ColumnFamilyHandle, List<long[]>> ranges = new IdentityHashMap<>();
+        if (this.min == null) {
+            for (ColumnFamilyHandle cf : this.storage.cfHandles) {
+                if (cf != this.storage.cfHandleDefault) {
+                    addRange(ranges, cf, 0L, -1L);
+                }
+            }
+        } else {
+            //a region which crosses 0 on any axis is made up of multiple boxes when the coordinates are treated as unsigned
+            for (int[] x : unsignedRanges(this.min.getX(), this.max.getX())) {
+                for (int[] y : unsignedRanges(this.min.getY(), this.max.getY())) {
+                    for (int[] z : unsignedRanges(this.min.getZ(), this.max.getZ())) {
+                        //data may be stored in any layout if a migration is in progress
+                        for (KeyLayout layout : KeyLayout.values()) {
+                            addRange(ranges, this.storage.cubeFamilies.get(layout), layout.cubeKeyPrefix(x[0], y[0], z[0]), layout.cubeKeyPrefix(x[1], y[1], z[1]));
+                        }
+                    }
+                }
+                for (int[] z : unsignedRanges(this.min.getZ(), this.max.getZ())) {
+                    for (KeyLayout layout : KeyLayout.values()) {
+                        addRange(ranges, this.storage.columnFamilies.get(layout), layout.columnKeyPrefix(x[0], z[0]), layout.columnKeyPrefix(x[1], z[1]));
+                    }
+                }
+            }
+        }
+
+        List<Part> parts = new ArrayList<>();
+        for (Map.Entry<ColumnFamilyHandle, List<long[]>> entry : ranges.entrySet()) {
+            ColumnFamilyHandle cf = entry.getKey();
+            List<long[]> cfRanges = mergeRanges(entry.getValue());
+
+            //the configured number of slices is shared between all of the family's ranges
+            int sliceCount = Math.max(RocksMCConfig.compaction.slices / cfRanges.size(), 1);
+            for (long[] range : cfRanges) {
+                BigInteger first = new BigInteger(Long.toUnsignedString(range[0]));
+                BigInteger limit = new BigInteger(Long.toUnsignedString(range[1])).add(BigInteger.ONE);
+                BigInteger span = limit.subtract(first);
+
+                //split the range into slices of equal size in the key space
+                int count = span.compareTo(BigInteger.valueOf(sliceCount)) < 0 ? span.intValueExact() : sliceCount;
+                byte[][] boundaries = new byte[count + 1][];
+                for (int i = 0; i <= count; i++) {
+                    BigInteger boundary = first.add(span.multiply(BigInteger.valueOf(i)).divide(BigInteger.valueOf(count)));
+                    boundaries[i] = boundary.signum() == 0 || boundary.equals(KEY_PREFIX_LIMIT)
+                            ? null //the slice is unbounded on this side
+                            : prefixKey(boundary);
+                }
+
+                long[] sizes = this.approximateSizes(cf, boundaries);
+                for (int i = 0; i < count; i++) {
+                    if (sizes[i] > 0L) {
+                        parts.add(new Part(cf, boundaries[i], boundaries[i + 1], sizes[i]));
+                    }
+                }
+            }
+        }
+        return parts;
+    }
+
+    protected static void addRange(@NonNull Map<ColumnFamilyHandle, List<long[]>> ranges, @NonNull ColumnFamilyHandle cf, long first, long last) {
+        ranges.computeIfAbsent(cf, unused -> new ArrayList<>()).add(new long[]{ first, last });
+    }
+
+    /**
+     * Sorts the given ranges of key prefixes and merges all of the ones which overlap or are adjacent.
+     * <p>
+     * Ranges can overlap if both columns and cubes are stored in the same family, or if multiple layouts share a family.
+     */
+    protected static List<long[]> mergeRanges(@NonNull List<long[]> ranges) {
+        ranges.sort((a, b) -> Long.compareUnsigned(a[0], b[0]));
+
+        List<long[]> merged = new ArrayList<>(ranges.size());
+        long[] current = null;
+        for (long[] range : ranges) {
+            if (current != null && (current[1] == -1L || Long.compareUnsigned(range[0], current[1] + 1L) <= 0)) { //the range overlaps or touches the current one
+                if (Long.compareUnsigned(range[1], current[1]) > 0) {
+                    current[1] = range[1];
+                }
+            } else {
+                merged.add(current = range.clone());
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Gets the approximate amount of data between each pair of consecutive boundaries, including data which is still in memtables.
+     */
+    protected long[] approximateSizes(@NonNull ColumnFamilyHandle cf, @NonNull byte[][] boundaries) {
+        byte[] maxKey = new byte[Long.BYTES * 2];
+        Arrays.fill(maxKey, (byte) 0xFF);
+
+        List<Slice> slices = new ArrayList<>(boundaries.length);
+        try {
+            for (byte[] boundary : boundaries) {
+                slices.add(new Slice(boundary != null ? boundary : slices.isEmpty() ? new byte[0] : maxKey));
+            }
+
+            List<org.rocksdb.Range> ranges = new ArrayList<>(boundaries.length - 1);
+            for (int i = 0; i < boundaries.length - 1; i++) {
+                ranges.add(new org.rocksdb.Range(slices.get(i), slices.get(i + 1)));
+            }
+            return this.storage.db.getApproximateSizes(cf, ranges, SizeApproximationFlag.INCLUDE_MEMTABLES, SizeApproximationFlag.INCLUDE_FILES);
+        } finally {
+            slices.forEach(Slice::close);
+        }
+    }
+
+    /**
+     * Requests that this compaction be cancelled.
+     * <p>
+     * The slice which is currently being compacted will be completed first. Closing the storage stops the compaction without waiting for the current slice,
+     * unless the database is shared.
+     */
+    public void cancel() {
+        this.cancelled = true;
+    }
+
+    /**
+     * @return the approximate fraction of the data which has been compacted so far, between {@code 0.0} and {@code 1.0}
+     */
+    public double progress() {
+        long totalBytes = this.totalBytes;
+        if (totalBytes > 0L) {
+            return Math.min(this.compactedBytes / (double) totalBytes, 1.0d);
+        } else {
+            int totalSlices = this.totalSlices;
+            return totalSlices > 0 ? this.compactedSlices / (double) totalSlices : 0.0d;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return this.min == null
+                ? this.storage.toString()
+                : this.storage + " from " + this.min + " to " + this.max;
+    }
+
+    /**
+     * A single slice of a column family which will be compacted.
+     *
+     * @author DaPorkchop_
+     */
+    @RequiredArgsConstructor
+    protected static final class Part {
+        @NonNull
+        protected final ColumnFamilyHandle cf;
+        /**
+         * The first key in the slice, or {@code null} if the slice starts at the beginning of the column family.
+         */
+        protected final byte[] begin;
+        /**
+         * The first key after the slice, or {@code null} if the slice extends to the end of the column family.
+         */
+        protected final byte[] end;
+        /**
+         * The approximate amount of data in the slice (in bytes).
+         */
+        protected final long size;
+    }
+}
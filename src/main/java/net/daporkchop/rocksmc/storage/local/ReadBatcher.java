@@ -0,0 +1,224 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2021-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package net.daporkchop.rocksmc.storage.local;
+
+import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
+import io.github.opencubicchunks.cubicchunks.api.world.storage.ICubicStorage;
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectOpenHashSet;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import net.daporkchop.rocksmc.RocksMCConfig;
+import net.daporkchop.rocksmc.storage.io.IOPriority;
+import net.daporkchop.rocksmc.util.RocksMCExecutors;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.util.math.ChunkPos;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Combines concurrent single-position reads into batches, which are then executed using {@link ICubicStorage#readBatch(ICubicStorage.PosBatch)}.
+ * <p>
+ * Reads are collected until either the batching window has elapsed, or the maximum batch size has been reached. Concurrent reads of the same position which end up
+ * in the same batch share a single lookup. Reads never join a lookup which has already been dispatched, as it might have started before a write which completed
+ * before the new read was issued. Batches are executed by the {@link RocksMCExecutors#ioScheduler() I/O scheduler}, using the most urgent priority of all the reads in the batch.
+ * <p>
+ * Batches are submitted through {@link LocalStorageImpl#submit(IOPriority, java.util.concurrent.Callable)}, so the storage won't be closed while any of them are still
+ * queued or running.
+ *
+ * @author DaPorkchop_
+ */
+@RequiredArgsConstructor
+public class ReadBatcher {
+    @NonNull
+    protected final LocalStorageImpl storage;
+
+    //all of these are guarded by synchronizing on this instance
+    protected Map<Object, List<CompletableFuture<NBTTagCompound>>> pending = new Object2ObjectOpenHashMap<>();
+    protected IOPriority pendingPriority;
+    protected boolean flushScheduled;
+
+    protected final LongAdder requests = new LongAdder();
+    protected final LongAdder sharedRequests = new LongAdder();
+    protected final LongAdder batches = new LongAdder();
+
+    /**
+     * Asynchronously reads the NBT data for a single column.
+     *
+     * @param pos      the position of the column
+     * @param priority the priority of the read
+     * @return a future which will be completed with the column's NBT data, or with {@code null} if the column couldn't be found
+     */
+    public CompletableFuture<NBTTagCompound> readColumn(@NonNull ChunkPos pos, @NonNull IOPriority priority) {
+        return this.read(pos, priority);
+    }
+
+    /**
+     * Asynchronously reads the NBT data for a single cube.
+     *
+     * @param pos      the position of the cube
+     * @param priority the priority of the read
+     * @return a future which will be completed with the cube's NBT data, or with {@code null} if the cube couldn't be found
+     */
+    public CompletableFuture<NBTTagCompound> readCube(@NonNull CubePos pos, @NonNull IOPriority priority) {
+        return this.read(pos, priority);
+    }
+
+    protected CompletableFuture<NBTTagCompound> read(@NonNull Object pos, @NonNull IOPriority priority) {
+        this.requests.increment();
+
+        CompletableFuture<NBTTagCompound> future = new CompletableFuture<>();
+        Map<Object, List<CompletableFuture<NBTTagCompound>>> batch = null;
+        IOPriority batchPriority = null;
+        synchronized (this) {
+            if (this.pendingPriority == null || priority.ordinal() < this.pendingPriority.ordinal()) {
+                this.pendingPriority = priority;
+            }
+
+            List<CompletableFuture<NBTTagCompound>> waiting = this.pending.get(pos);
+            if (waiting != null) { //there's already a read for this position which is waiting to be dispatched, add this future to it
+                this.sharedRequests.increment();
+                waiting.add(future);
+                return future;
+            }
+
+            waiting = new ArrayList<>(1);
+            waiting.add(future);
+            this.pending.put(pos, waiting);
+
+            if (this.pending.size() >= RocksMCConfig.batching.maxBatchSize) { //the batch is full, dispatch it immediately
+                batchPriority = this.pendingPriority;
+                batch = this.takePending();
+            } else if (!this.flushScheduled) { //this is the first read in a new batch, schedule it to be dispatched once the window has elapsed
+                this.flushScheduled = true;
+                RocksMCExecutors.scheduler().schedule(this::flushScheduled, RocksMCConfig.batching.window, TimeUnit.MICROSECONDS);
+            }
+        }
+
+        if (batch != null) {
+            this.dispatch(batch, batchPriority);
+        }
+        return future;
+    }
+
+    protected void flushScheduled() {
+        synchronized (this) {
+            this.flushScheduled = false;
+        }
+        this.flush();
+    }
+
+    /**
+     * Immediately dispatches all reads which are waiting for the batching window to elapse.
+     */
+    public void flush() {
+        Map<Object, List<CompletableFuture<NBTTagCompound>>> batch;
+        IOPriority priority;
+        synchronized (this) {
+            if (this.pending.isEmpty()) { //the batch was already dispatched
+                return;
+            }
+            priority = this.pendingPriority;
+            batch = this.takePending();
+        }
+        this.dispatch(batch, priority);
+    }
+
+    /**
+     * Takes all pending reads.
+     * <p>
+     * Must be called while holding this instance's lock.
+     */
+    protected Map<Object, List<CompletableFuture<NBTTagCompound>>> takePending() {
+        Map<Object, List<CompletableFuture<NBTTagCompound>>> batch = this.pending;
+        this.pending = new Object2ObjectOpenHashMap<>();
+        this.pendingPriority = null;
+        return batch;
+    }
+
+    protected void dispatch(@NonNull Map<Object, List<CompletableFuture<NBTTagCompound>>> batch, @NonNull IOPriority priority) {
+        this.batches.increment();
+
+        Set<ChunkPos> columns = new ObjectOpenHashSet<>();
+        Set<CubePos> cubes = new ObjectOpenHashSet<>();
+        for (Object pos : batch.keySet()) {
+            if (pos instanceof ChunkPos) {
+                columns.add((ChunkPos) pos);
+            } else {
+                cubes.add((CubePos) pos);
+            }
+        }
+
+        CompletableFuture<ICubicStorage.NBTBatch> future;
+        try {
+            future = this.storage.submit(priority, () -> this.storage.readBatch(new ICubicStorage.PosBatch(columns, cubes)));
+        } catch (Throwable t) { //the storage has already been closed
+            this.complete(batch, null, t);
+            return;
+        }
+        future.whenComplete((result, cause) -> this.complete(batch, result, cause));
+    }
+
+    protected void complete(@NonNull Map<Object, List<CompletableFuture<NBTTagCompound>>> batch, ICubicStorage.NBTBatch result, Throwable cause) {
+        batch.forEach((pos, futures) -> {
+            if (cause != null) {
+                futures.forEach(future -> future.completeExceptionally(cause));
+                return;
+            }
+
+            NBTTagCompound nbt = pos instanceof ChunkPos ? result.columns.get(pos) : result.cubes.get(pos);
+
+            //every future except the last one gets its own copy of the tag, since the callers might modify it
+            int last = futures.size() - 1;
+            for (int i = 0; i < last; i++) {
+                futures.get(i).complete(nbt != null ? nbt.copy() : null);
+            }
+            futures.get(last).complete(nbt);
+        });
+    }
+
+    /**
+     * @return the total number of reads which were requested
+     */
+    public long requests() {
+        return this.requests.sum();
+    }
+
+    /**
+     * @return the number of reads which were served by another read of the same position which was already waiting
+     */
+    public long sharedRequests() {
+        return this.sharedRequests.sum();
+    }
+
+    /**
+     * @return the number of batches which were executed
+     */
+    public long batches() {
+        return this.batches.sum();
+    }
+}
@@ -0,0 +1,387 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2021-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package net.daporkchop.rocksmc.storage.local;
+
+import cubicchunks.regionlib.util.Utils;
+import lombok.Getter;
+import lombok.NonNull;
+import net.daporkchop.rocksmc.RocksMC;
+import net.daporkchop.rocksmc.RocksMCConfig;
+import net.daporkchop.rocksmc.util.RocksOptions;
+import org.rocksdb.Checkpoint;
+import org.rocksdb.ColumnFamilyDescriptor;
+import org.rocksdb.ColumnFamilyHandle;
+import org.rocksdb.ColumnFamilyOptions;
+import org.rocksdb.DBOptions;
+import org.rocksdb.Options;
+import org.rocksdb.RocksDB;
+import org.rocksdb.RocksDBException;
+import org.rocksdb.RocksIterator;
+import org.rocksdb.Statistics;
+import org.rocksdb.WriteBatch;
+import org.rocksdb.WriteOptions;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.*;
+
+/**
+ * A single RocksDB database which stores the data of every dimension in a save, with a separate set of column families for each dimension.
+ * <p>
+ * All dimensions share the same WAL, manifest and background flush and compaction threads, and a WAL sync requested by one dimension also
+ * persists the writes of every other dimension.
+ * <p>
+ * Instances are reference-counted: each {@link LocalStorageImpl} using the database holds a reference, and the database is closed once the last
+ * reference is released.
+ *
+ * @author DaPorkchop_
+ */
+public final class SharedDatabase {
+    /**
+     * The maximum amount of data to copy in a single write batch when importing a standalone database.
+     */
+    protected static final long IMPORT_BATCH_SIZE = 4L << 20L;
+
+    protected static final WriteOptions SYNC_WRITE_OPTIONS = new WriteOptions().setSync(true);
+
+    protected static final Map<Path, SharedDatabase> OPEN_DATABASES = new HashMap<>();
+
+    /**
+     * Gets the shared database in the given directory, opening it if it isn't open yet.
+     * <p>
+     * The returned database must be released using {@link #release()} once it's no longer needed.
+     *
+     * @param path the directory containing the shared database
+     * @return the shared database
+     */
+    public static SharedDatabase acquire(@NonNull Path path) throws IOException {
+        path = path.toAbsolutePath().normalize();
+        synchronized (OPEN_DATABASES) {
+            SharedDatabase database = OPEN_DATABASES.get(path);
+            if (database == null) {
+                OPEN_DATABASES.put(path, database = new SharedDatabase(path));
+            }
+            database.refCnt++;
+            return database;
+        }
+    }
+
+    /**
+     * Gets the name of a column family of a single dimension.
+     *
+     * @param dimension the dimension
+     * @param name      the name of the column family in a standalone database
+     * @return the name of the column family in a shared database
+     */
+    protected static byte[] familyName(@NonNull String dimension, @NonNull byte[] name) {
+        return (dimension + '/' + new String(name, StandardCharsets.UTF_8)).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Gets the key of the marker which is stored in the default column family while a dimension's standalone database is being imported.
+     */
+    protected static byte[] importMarker(@NonNull String dimension) {
+        return ("importing/" + dimension).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Getter
+    protected final Path path;
+    @Getter
+    protected final RocksOptions options;
+    @Getter
+    protected final RocksDB db;
+    /**
+     * The RocksDB statistics of this database, or {@code null} if statistics are disabled.
+     */
+    @Getter
+    protected final Statistics statistics;
+    protected final DBOptions dbOptions;
+
+    protected final Map<String, ColumnFamilyHandle> families = new HashMap<>();
+    protected final List<ColumnFamilyHandle> cfHandles;
+    protected final ColumnFamilyHandle defaultFamily;
+
+    protected int refCnt; //guarded by OPEN_DATABASES
+    protected long syncedSequence = -1L; //guarded by this
+
+    protected SharedDatabase(@NonNull Path path) throws IOException {
+        this.path = path;
+        this.options = RocksMCConfig.database.rocksOptions();
+        this.statistics = StorageStatistics.createStatistics();
+        this.dbOptions = StorageStatistics.dbOptions(this.options.dbOptions(), this.statistics);
+
+        Path currentDir = path.resolve("db");
+        Utils.createDirectories(currentDir);
+
+        try {
+            //every column family which already exists has to be opened
+            List<byte[]> names;
+            if (Files.exists(currentDir.resolve("CURRENT"))) {
+                try (Options options = new Options()) {
+                    names = RocksDB.listColumnFamilies(options, currentDir.toString());
+                }
+            } else {
+                names = new ArrayList<>();
+            }
+            if (names.stream().noneMatch(name -> Arrays.equals(name, RocksDB.DEFAULT_COLUMN_FAMILY))) {
+                names.add(0, RocksDB.DEFAULT_COLUMN_FAMILY);
+            }
+
+            List<ColumnFamilyDescriptor> cfDescriptors = new ArrayList<>(names.size());
+            for (byte[] name : names) {
+                cfDescriptors.add(new ColumnFamilyDescriptor(name, this.familyOptions(name)));
+            }
+            List<ColumnFamilyHandle> cfHandles = new ArrayList<>(names.size());
+
+            this.db = RocksDB.open(this.dbOptions, currentDir.toString(), cfDescriptors, cfHandles);
+            this.cfHandles = cfHandles;
+            for (int i = 0; i < names.size(); i++) {
+                this.families.put(new String(names.get(i), StandardCharsets.UTF_8), cfHandles.get(i));
+            }
+            this.defaultFamily = this.families.get(new String(RocksDB.DEFAULT_COLUMN_FAMILY, StandardCharsets.UTF_8));
+        } catch (RocksDBException e) {
+            throw new IOException(e); //rethrow
+        }
+    }
+
+    /**
+     * Chooses the options for a column family based on the name of its standalone equivalent.
+     */
+    protected ColumnFamilyOptions familyOptions(@NonNull byte[] name) {
+        String suffix = new String(name, StandardCharsets.UTF_8);
+        suffix = suffix.substring(suffix.lastIndexOf('/') + 1);
+
+        //the column-major family is mostly accessed like the cube family, so it uses the same options
+        if (suffix.equals(new String(KeyLayout.MORTON.columnFamily(), StandardCharsets.UTF_8))) {
+            return this.options.columnOptions();
+        } else if (suffix.equals(new String(KeyLayout.MORTON.cubeFamily(), StandardCharsets.UTF_8))
+                   || suffix.equals(new String(KeyLayout.COLUMN_MAJOR.columnFamily(), StandardCharsets.UTF_8))) {
+            return this.options.cubeOptions();
+        } else {
+            return this.options.defaultOptions();
+        }
+    }
+
+    /**
+     * Gets the column families of a single dimension, creating them if they don't exist yet.
+     * <p>
+     * The returned handles are owned by this database, and must not be closed.
+     *
+     * @param dimension     the dimension
+     * @param cfDescriptors the descriptors of the column families in a standalone database
+     * @return the column family handles, in the same order as the descriptors
+     */
+    public synchronized List<ColumnFamilyHandle> families(@NonNull String dimension, @NonNull List<ColumnFamilyDescriptor> cfDescriptors) throws RocksDBException {
+        List<ColumnFamilyHandle> handles = new ArrayList<>(cfDescriptors.size());
+        for (ColumnFamilyDescriptor descriptor : cfDescriptors) {
+            byte[] name = familyName(dimension, descriptor.getName());
+            ColumnFamilyHandle handle = this.families.get(new String(name, StandardCharsets.UTF_8));
+            if (handle == null) {
+                handle = this.db.createColumnFamily(new ColumnFamilyDescriptor(name, this.familyOptions(name)));
+                this.families.put(new String(name, StandardCharsets.UTF_8), handle);
+                this.cfHandles.add(handle);
+            }
+            handles.add(handle);
+        }
+        return handles;
+    }
+
+    /**
+     * Copies all data from a dimension's standalone database into this database, then renames the standalone database so that it won't be imported
+     * again.
+     * <p>
+     * If the import is interrupted, it will simply be repeated the next time the dimension is opened, as the standalone database isn't modified. A marker is
+     * stored in this database while the import is running, so that an interrupted import can be told apart from data which was written to this database by the
+     * dimension itself.
+     * <p>
+     * The import is refused before anything is written if this database already contains data for the dimension, or if the standalone database can't be
+     * renamed afterwards. Otherwise, old standalone data (e.g. from switching storage formats back and forth) would overwrite newer data in this database.
+     *
+     * @param dimension     the dimension
+     * @param localPath     the directory containing the standalone database
+     * @param cfDescriptors the descriptors of the column families in a standalone database
+     */
+    public void importStandalone(@NonNull String dimension, @NonNull Path localPath, @NonNull List<ColumnFamilyDescriptor> cfDescriptors) throws IOException {
+        Path localDbPath = localPath.resolve("db");
+        if (!Files.exists(localDbPath.resolve("CURRENT"))) {
+            return;
+        }
+
+        //the standalone database is kept around in case anything goes wrong, it can be deleted manually
+        Path importedPath = localPath.resolveSibling(localPath.getFileName() + ".imported");
+        if (Files.exists(importedPath)) {
+            throw new IOException(String.format("Unable to import %s into %s, as %s already exists from a previous import. Delete or move one of them manually.",
+                    localPath, this.path, importedPath));
+        }
+
+        byte[] marker = importMarker(dimension);
+        try {
+            if (this.db.get(this.defaultFamily, marker) == null && this.containsData(dimension)) {
+                throw new IOException(String.format("Unable to import %s into %s, as it already contains data for %s. Delete or move %s manually.",
+                        localPath, this.path, dimension, localPath));
+            }
+        } catch (RocksDBException e) {
+            throw new IOException(e); //rethrow
+        }
+
+        RocksMC.LOGGER.info("Importing standalone database {} into {} as {}...", localPath, this.path, dimension);
+        long count = 0L;
+        try (Options listOptions = new Options()) {
+            this.db.put(this.defaultFamily, SYNC_WRITE_OPTIONS, marker, new byte[0]);
+
+            //databases created by older versions may not contain all column families
+            List<byte[]> names = RocksDB.listColumnFamilies(listOptions, localDbPath.toString());
+            List<ColumnFamilyDescriptor> localDescriptors = new ArrayList<>();
+            for (ColumnFamilyDescriptor descriptor : cfDescriptors) {
+                if (names.stream().anyMatch(name -> Arrays.equals(name, descriptor.getName()))) {
+                    localDescriptors.add(descriptor);
+                }
+            }
+
+            List<ColumnFamilyHandle> dstHandles = this.families(dimension, localDescriptors);
+            List<ColumnFamilyHandle> srcHandles = new ArrayList<>(localDescriptors.size());
+            try (RocksDB src = RocksDB.openReadOnly(this.options.dbOptions(), localDbPath.toString(), localDescriptors, srcHandles)) {
+                try {
+                    for (int i = 0; i < srcHandles.size(); i++) {
+                        count += this.copy(src, srcHandles.get(i), dstHandles.get(i));
+                    }
+                } finally {
+                    srcHandles.forEach(ColumnFamilyHandle::close); //close column families before db
+                }
+            }
+            this.db.flushWal(true);
+        } catch (RocksDBException e) {
+            throw new IOException(e); //rethrow
+        }
+
+        Files.move(localPath, importedPath);
+        try {
+            this.db.delete(this.defaultFamily, SYNC_WRITE_OPTIONS, marker);
+        } catch (RocksDBException e) {
+            throw new IOException(e); //rethrow
+        }
+        RocksMC.LOGGER.info("Imported {} entries from {}, the old database has been moved to {}", count, localPath, importedPath);
+    }
+
+    /**
+     * @return whether or not any of the given dimension's column families contain any data
+     */
+    protected synchronized boolean containsData(@NonNull String dimension) {
+        for (Map.Entry<String, ColumnFamilyHandle> entry : this.families.entrySet()) {
+            if (entry.getKey().startsWith(dimension + '/')) {
+                try (RocksIterator itr = this.db.newIterator(entry.getValue())) {
+                    itr.seekToFirst();
+                    if (itr.isValid()) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    protected long copy(@NonNull RocksDB src, @NonNull ColumnFamilyHandle srcFamily, @NonNull ColumnFamilyHandle dstFamily) throws RocksDBException {
+        long count = 0L;
+        try (RocksIterator itr = src.newIterator(srcFamily);
+             WriteBatch batch = new WriteBatch()) {
+            for (itr.seekToFirst(); itr.isValid(); itr.next(), count++) {
+                batch.put(dstFamily, itr.key(), itr.value());
+                if (batch.getDataSize() >= IMPORT_BATCH_SIZE) {
+                    this.db.write(LocalStorageImpl.WRITE_OPTIONS, batch);
+                    batch.clear();
+                }
+            }
+            itr.status();
+            if (batch.count() > 0) {
+                this.db.write(LocalStorageImpl.WRITE_OPTIONS, batch);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Syncs the WAL to disk, unless nothing has been written since the last sync.
+     * <p>
+     * When the world is saved, every dimension requests a sync: only the first one actually has to do anything.
+     */
+    public synchronized void syncWal() throws RocksDBException {
+        long sequence = this.db.getLatestSequenceNumber();
+        if (sequence != this.syncedSequence) {
+            this.db.flushWal(true);
+            this.syncedSequence = sequence;
+        }
+    }
+
+    /**
+     * Creates a checkpoint of this database in the given directory, which mustn't exist yet.
+     *
+     * @param dst the directory to create the checkpoint in
+     * @return whether or not the checkpoint was created, or {@code false} if this database has already been closed
+     * @see LocalStorageImpl#createCheckpoint(Path)
+     */
+    public boolean createCheckpoint(@NonNull Path dst) throws IOException {
+        synchronized (OPEN_DATABASES) { //hold a reference to prevent the database from being closed while the checkpoint is created
+            if (this.refCnt == 0) {
+                return false;
+            }
+            this.refCnt++;
+        }
+
+        try (Checkpoint checkpoint = Checkpoint.create(this.db)) {
+            checkpoint.createCheckpoint(dst.toString());
+            return true;
+        } catch (RocksDBException e) {
+            throw new IOException(e); //rethrow
+        } finally {
+            this.release();
+        }
+    }
+
+    /**
+     * Releases a reference to this database, closing it if it is no longer referenced.
+     */
+    public void release() {
+        synchronized (OPEN_DATABASES) {
+            checkState(this.refCnt > 0, "database %s has already been closed!", this.path);
+            if (--this.refCnt == 0) {
+                OPEN_DATABASES.remove(this.path, this);
+
+                this.cfHandles.forEach(ColumnFamilyHandle::close); //close column families before db
+                this.db.close();
+
+                if (this.dbOptions != this.options.dbOptions()) {
+                    this.dbOptions.close();
+                }
+                if (this.statistics != null) {
+                    this.statistics.close();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,337 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2021-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package net.daporkchop.rocksmc.storage.local;
+
+import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
+import io.netty.buffer.ByteBuf;
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import lombok.Getter;
+import lombok.NonNull;
+import net.daporkchop.rocksmc.storage.IBinaryCubeStorage;
+import net.daporkchop.rocksmc.storage.io.IOPriority;
+import net.daporkchop.rocksmc.util.BufferPool;
+import net.daporkchop.rocksmc.util.IOFunction;
+import net.daporkchop.rocksmc.util.NBTSerializerUtils;
+import net.daporkchop.rocksmc.util.RocksMCExecutors;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.util.math.ChunkPos;
+import org.rocksdb.ReadOptions;
+import org.rocksdb.Snapshot;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+
+import static com.google.common.base.Preconditions.*;
+import static net.daporkchop.rocksmc.storage.local.LocalStorageImpl.*;
+
+/**
+ * A read-only view of a {@link LocalStorageImpl}'s contents at a single point in time.
+ * <p>
+ * Every read made through the view sees the same state of the database, regardless of any writes made to the storage after the view was opened. This allows
+ * external tools such as map renderers to read a world while the server is running, without seeing a mix of old and new cubes.
+ * <p>
+ * The view pins a RocksDB snapshot, which prevents compactions from discarding any of the data it can see. Views should therefore be closed as soon as they're
+ * no longer needed. Any views which are still open when the storage is closed will be closed along with it.
+ *
+ * @author DaPorkchop_
+ * @see LocalStorageImpl#openSnapshotView()
+ */
+public class SnapshotView implements IBinaryCubeStorage {
+    @Getter
+    protected final LocalStorageImpl storage;
+    protected final Snapshot snapshot;
+    protected final ReadOptions readOptions;
+
+    /**
+     * The key layouts which were in use when the snapshot was taken.
+     * <p>
+     * A layout migration moves each value atomically, so every value is in exactly one of these layouts as of the snapshot.
+     */
+    protected final KeyLayout layout;
+    protected final KeyLayout legacyLayout;
+
+    /**
+     * Shared by all reads, and held exclusively while the view is being closed.
+     */
+    protected final ReadWriteLock lock = new ReentrantReadWriteLock();
+    protected boolean closed; //guarded by lock
+
+    protected SnapshotView(@NonNull LocalStorageImpl storage, @NonNull Snapshot snapshot, @NonNull KeyLayout layout, KeyLayout legacyLayout) {
+        this.storage = storage;
+        this.snapshot = snapshot;
+        this.readOptions = new ReadOptions().setSnapshot(snapshot);
+        this.layout = layout;
+        this.legacyLayout = legacyLayout;
+    }
+
+    /**
+     * @return the sequence number of the last write which is visible through this view
+     */
+    public long sequenceNumber() {
+        return this.snapshot.getSequenceNumber();
+    }
+
+    /**
+     * Must be called before accessing any data.
+     * <p>
+     * Once the access is complete, the returned lock must be released.
+     */
+    protected Lock lockOpen() {
+        Lock lock = this.lock.readLock();
+        lock.lock();
+        if (this.closed) {
+            lock.unlock();
+            throw new IllegalStateException("snapshot view of " + this.storage + " has already been closed!");
+        }
+        return lock;
+    }
+
+    protected boolean exists(@NonNull Object pos) throws IOException {
+        Lock lock = this.lockOpen();
+        try {
+            return this.storage.exists(this.readOptions, this.layout, this.legacyLayout, pos);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    protected NBTTagCompound read(@NonNull Object pos, @NonNull BufferPool pool) throws IOException {
+        Lock lock = this.lockOpen();
+        try {
+            ByteBuf value = this.storage.read(this.readOptions, this.layout, this.legacyLayout, pos, pool);
+            if (value == null) {
+                return null;
+            }
+
+            try {
+                return NBTSerializerUtils.readNBT(value);
+            } finally {
+                pool.recycle(value);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean columnExists(ChunkPos pos) throws IOException {
+        return this.exists(pos);
+    }
+
+    @Override
+    public boolean cubeExists(CubePos pos) throws IOException {
+        return this.exists(pos);
+    }
+
+    @Override
+    public NBTTagCompound readColumn(ChunkPos pos) throws IOException {
+        return this.read(pos, COLUMN_BUFFERS);
+    }
+
+    @Override
+    public NBTTagCompound readCube(CubePos pos) throws IOException {
+        return this.read(pos, CUBE_BUFFERS);
+    }
+
+    @Override
+    public CompletableFuture<NBTTagCompound> readColumnAsync(ChunkPos pos, IOPriority priority) {
+        return RocksMCExecutors.ioScheduler().submit(priority, () -> this.readColumn(pos));
+    }
+
+    @Override
+    public CompletableFuture<NBTTagCompound> readCubeAsync(CubePos pos, IOPriority priority) {
+        return RocksMCExecutors.ioScheduler().submit(priority, () -> this.readCube(pos));
+    }
+
+    @Override
+    public CompletableFuture<NBTBatch> readBatchAsync(@NonNull PosBatch positions, @NonNull IOPriority priority) {
+        return RocksMCExecutors.ioScheduler().submit(priority, () -> this.readBatch(positions));
+    }
+
+    @Nonnull
+    @Override
+    public NBTBatch readBatch(PosBatch positions) throws IOException {
+        return this.readBaseBatch(positions, data -> data != null ? NBTSerializerUtils.readNBT(data) : null, true, NBTBatch::new);
+    }
+
+    @Override
+    public BinaryBatch readBinaryBatch(PosBatch positions) throws IOException {
+        return this.readBaseBatch(positions, data -> data, false, BinaryBatch::new);
+    }
+
+    /**
+     * Reads multiple columns and cubes at once.
+     * <p>
+     * The storage's cache and write-behind queue are bypassed, as they reflect the storage's current contents rather than the snapshot's.
+     *
+     * @see LocalStorageImpl#readUncached
+     */
+    protected <T, B> B readBaseBatch(@NonNull PosBatch positions, @NonNull IOFunction<ByteBuf, T> mapper, boolean parallel, @NonNull BiFunction<Map<ChunkPos, T>, Map<CubePos, T>, B> batchCombiner) throws IOException {
+        Map<ChunkPos, T> columnNbt = new Object2ObjectOpenHashMap<>(positions.columns.size());
+        Map<CubePos, T> cubeNbt = new Object2ObjectOpenHashMap<>(positions.cubes.size());
+
+        Lock lock = this.lockOpen();
+        try {
+            this.storage.readUncached(this.readOptions, this.layout, this.legacyLayout, new ArrayList<>(positions.columns), new ArrayList<>(positions.cubes),
+                    mapper, parallel, null, 0L, columnNbt, cubeNbt);
+        } finally {
+            lock.unlock();
+        }
+        return batchCombiner.apply(columnNbt, cubeNbt);
+    }
+
+    @Override
+    public void forEachColumn(Consumer<ChunkPos> callback) throws IOException {
+        Lock lock = this.lockOpen();
+        try {
+            KeyLayout layout = this.layout;
+            this.storage.forEachKey(layout, this.storage.columnFamilies.get(layout), this.readOptions, layout.columnKeySize(), key -> callback.accept(layout.readColumnKey(key)));
+
+            KeyLayout legacy = this.legacyLayout;
+            if (legacy != null) { //some columns hadn't been migrated yet when the snapshot was taken
+                this.storage.forEachKey(legacy, this.storage.columnFamilies.get(legacy), this.readOptions, legacy.columnKeySize(), key -> callback.accept(legacy.readColumnKey(key)));
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void forEachCube(Consumer<CubePos> callback) throws IOException {
+        Lock lock = this.lockOpen();
+        try {
+            KeyLayout layout = this.layout;
+            this.storage.forEachKey(layout, this.storage.cubeFamilies.get(layout), this.readOptions, layout.cubeKeySize(), key -> callback.accept(layout.readCubeKey(key)));
+
+            KeyLayout legacy = this.legacyLayout;
+            if (legacy != null) { //some cubes hadn't been migrated yet when the snapshot was taken
+                this.storage.forEachKey(legacy, this.storage.cubeFamilies.get(legacy), this.readOptions, legacy.cubeKeySize(), key -> callback.accept(legacy.readCubeKey(key)));
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Iterates over every column which contains at least one cube, along with its cubes, using sequential scans of the database.
+     * <p>
+     * Unlike reading the positions from {@link #forEachCube(Consumer)} and then reading each column, this only needs a bounded amount of memory regardless of
+     * the size of the world.
+     *
+     * @param maxBufferedCubes the maximum number of cubes to buffer while grouping them by column, if the key layout doesn't store columns contiguously
+     * @param callback         a callback which will be called with batches containing a single column (whose data is {@code null} if it couldn't be found) and
+     *                         some or all of its cubes. A column's cubes may be spread over multiple batches if the key layout doesn't store columns contiguously
+     * @throws java.io.InterruptedIOException if the current thread is interrupted
+     */
+    public void forEachColumnWithCubes(int maxBufferedCubes, @NonNull Consumer<BinaryBatch> callback) throws IOException {
+        checkArgument(maxBufferedCubes > 0, "maxBufferedCubes (%s) must be positive", maxBufferedCubes);
+
+        Lock lock = this.lockOpen();
+        try {
+            this.storage.forEachColumnWithCubes(this.readOptions, this.layout, this.legacyLayout, maxBufferedCubes, true, callback);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Counts the batches which {@link #forEachColumnWithCubes(int, Consumer)} would pass to its callback, without reading any values.
+     *
+     * @param maxBufferedCubes the same value which will be passed to {@link #forEachColumnWithCubes(int, Consumer)}
+     * @param callback         a callback which will be called once for each batch
+     * @throws java.io.InterruptedIOException if the current thread is interrupted
+     */
+    public void countColumnsWithCubes(int maxBufferedCubes, @NonNull Runnable callback) throws IOException {
+        checkArgument(maxBufferedCubes > 0, "maxBufferedCubes (%s) must be positive", maxBufferedCubes);
+
+        Lock lock = this.lockOpen();
+        try {
+            this.storage.forEachColumnWithCubes(this.readOptions, this.layout, this.legacyLayout, maxBufferedCubes, false, batch -> callback.run());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void writeColumn(ChunkPos pos, NBTTagCompound nbt) throws IOException {
+        throw new UnsupportedOperationException("snapshot views are read-only");
+    }
+
+    @Override
+    public void writeCube(CubePos pos, NBTTagCompound nbt) throws IOException {
+        throw new UnsupportedOperationException("snapshot views are read-only");
+    }
+
+    @Override
+    public void writeBatch(NBTBatch batch) throws IOException {
+        throw new UnsupportedOperationException("snapshot views are read-only");
+    }
+
+    @Override
+    public CompletableFuture<Void> writeBatchAsync(NBTBatch batch, IOPriority priority) {
+        throw new UnsupportedOperationException("snapshot views are read-only");
+    }
+
+    @Override
+    public void writeBinaryBatch(BinaryBatch batch) throws IOException {
+        throw new UnsupportedOperationException("snapshot views are read-only");
+    }
+
+    @Override
+    public void flush() throws IOException {
+        //no-op
+    }
+
+    /**
+     * Closes this view, releasing the snapshot.
+     * <p>
+     * Waits for any reads which are currently in progress to complete. Closing a view which has already been closed has no effect.
+     */
+    @Override
+    public void close() throws IOException {
+        Lock lock = this.lock.writeLock();
+        lock.lock();
+        try {
+            if (this.closed) {
+                return;
+            }
+            this.closed = true;
+
+            this.storage.releaseSnapshotView(this);
+            this.readOptions.close();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "snapshot " + this.sequenceNumber() + " of " + this.storage;
+    }
+}
@@ -0,0 +1,370 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2021-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package net.daporkchop.rocksmc.storage.local;
+
+import io.netty.buffer.Unpooled;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import net.daporkchop.rocksmc.util.NBTSerializerUtils;
+import net.minecraft.nbt.NBTTagCompound;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * An in-memory cache of the serialized data of recently read or written cubes and columns.
+ * <p>
+ * The cache is bounded by the total size of the serialized data, and is split into a number of shards which each use a segmented LRU eviction policy: new entries
+ * are added to a probationary segment, and are only promoted to the protected segment once they are accessed again. This prevents a single large scan from
+ * evicting entries which are accessed frequently.
+ * <p>
+ * Writes to the database must always be bracketed by {@link #beginWrite(Object)} and {@link #endWrite(Object, byte[])}. The written value is only cached if no
+ * other write to the same position overlapped with it, as the order in which overlapping writes reach the database isn't known. Writes whose order is already
+ * known may use {@link #put(Object, byte[])} instead.
+ * <p>
+ * Values which were read from the database are only added to the cache if no write to the same position was running or has completed since the read started
+ * (see {@link #stamp()}). Completed writes are tracked using per-position stamps, which are hashed into a fixed number of slots per shard. This ensures that the
+ * cache can never contain stale data, while writes to other positions almost never prevent values from being cached.
+ *
+ * @author DaPorkchop_
+ */
+public class StorageCache {
+    protected static final int SHARD_COUNT = 16;
+
+    /**
+     * The number of slots for write stamps in each shard.
+     */
+    protected static final int STAMP_SLOTS = 256;
+
+    /**
+     * The fraction of each shard's capacity which may be used by the protected segment.
+     */
+    protected static final double PROTECTED_FRACTION = 0.8d;
+
+    protected final Shard[] shards = new Shard[SHARD_COUNT];
+    @Getter
+    protected final long maxSize;
+
+    protected final AtomicLong stamp = new AtomicLong();
+
+    protected final LongAdder hits = new LongAdder();
+    protected final LongAdder misses = new LongAdder();
+    protected final LongAdder evictions = new LongAdder();
+
+    public StorageCache(long maxSize) {
+        this.maxSize = maxSize;
+        for (int i = 0; i < SHARD_COUNT; i++) {
+            this.shards[i] = new Shard(maxSize / SHARD_COUNT);
+        }
+    }
+
+    protected static int hash(@NonNull Object pos) {
+        int hash = pos.hashCode();
+        return hash ^ (hash >>> 16);
+    }
+
+    protected Shard shard(@NonNull Object pos) {
+        return this.shards[hash(pos) & (SHARD_COUNT - 1)];
+    }
+
+    /**
+     * Gets the cached entry for the given position.
+     *
+     * @param pos the position of the cube or column
+     * @return the cached entry, or {@code null} if the position isn't cached
+     */
+    public Entry get(@NonNull Object pos) {
+        Entry entry = this.shard(pos).get(pos);
+        (entry != null ? this.hits : this.misses).increment();
+        return entry;
+    }
+
+    /**
+     * Checks whether the given position is cached.
+     * <p>
+     * Unlike {@link #get(Object)}, this doesn't count as an access of the entry, and isn't counted as a hit or miss.
+     *
+     * @param pos the position of the cube or column
+     * @return whether or not the position is cached
+     */
+    public boolean contains(@NonNull Object pos) {
+        Shard shard = this.shard(pos);
+        synchronized (shard) {
+            return shard.contains(pos);
+        }
+    }
+
+    /**
+     * @return the current write stamp, which must be obtained before reading a value from the database which will later be passed to {@link #populate(Object, byte[], long)}
+     */
+    public long stamp() {
+        return this.stamp.get();
+    }
+
+    /**
+     * Adds a value which was read from the database to the cache.
+     * <p>
+     * If a write to the same position is running or has completed since the given stamp was obtained, the value will be discarded, as it might be outdated.
+     *
+     * @param pos   the position of the cube or column
+     * @param data  the serialized data
+     * @param stamp the value of {@link #stamp()} from before the value was read
+     */
+    public void populate(@NonNull Object pos, @NonNull byte[] data, long stamp) {
+        Shard shard = this.shard(pos);
+        synchronized (shard) {
+            if (!shard.writing.containsKey(pos) && shard.writeStamps[shard.slot(pos)] <= stamp && !shard.contains(pos)) {
+                shard.insert(pos, new Entry(data));
+            }
+        }
+    }
+
+    /**
+     * Notifies the cache that a value is about to be written to the database.
+     * <p>
+     * The position's cached value is invalidated, and values read from the database won't be cached until the write has ended.
+     *
+     * @param pos the position of the cube or column
+     */
+    public void beginWrite(@NonNull Object pos) {
+        Shard shard = this.shard(pos);
+        synchronized (shard) {
+            Write write = shard.writing.get(pos);
+            if (write == null) {
+                shard.writing.put(pos, new Write());
+            } else { //another write to the same position is running, we can't know which of them will reach the database last
+                write.running++;
+                write.overlapped = true;
+            }
+            shard.remove(pos);
+        }
+    }
+
+    /**
+     * Notifies the cache that a write which was started using {@link #beginWrite(Object)} has ended.
+     *
+     * @param pos  the position of the cube or column
+     * @param data the serialized data which was written, or {@code null} if the write failed
+     */
+    public void endWrite(@NonNull Object pos, byte[] data) {
+        Shard shard = this.shard(pos);
+        synchronized (shard) {
+            Write write = shard.writing.get(pos);
+            shard.writeStamps[shard.slot(pos)] = this.stamp.incrementAndGet();
+            shard.remove(pos);
+            if (data != null && !write.overlapped) {
+                shard.insert(pos, new Entry(data));
+            }
+            if (--write.running == 0) {
+                shard.writing.remove(pos);
+            }
+        }
+    }
+
+    /**
+     * Updates the cache with a value which was just written somewhere readers will find it before the database.
+     * <p>
+     * The caller must ensure that writes to the same position are passed to this method in the same order as they were made.
+     *
+     * @param pos  the position of the cube or column
+     * @param data the serialized data
+     */
+    public void put(@NonNull Object pos, @NonNull byte[] data) {
+        Shard shard = this.shard(pos);
+        synchronized (shard) {
+            shard.writeStamps[shard.slot(pos)] = this.stamp.incrementAndGet();
+            shard.remove(pos);
+            if (!shard.writing.containsKey(pos)) { //if a direct write is running, it'll decide what ends up in the cache
+                shard.insert(pos, new Entry(data));
+            }
+        }
+    }
+
+    /**
+     * @return the number of lookups which were served from the cache
+     */
+    public long hits() {
+        return this.hits.sum();
+    }
+
+    /**
+     * @return the number of lookups which couldn't be served from the cache
+     */
+    public long misses() {
+        return this.misses.sum();
+    }
+
+    /**
+     * @return the fraction of lookups which were served from the cache
+     */
+    public double hitRate() {
+        long hits = this.hits();
+        long total = hits + this.misses();
+        return total != 0L ? hits / (double) total : 0.0d;
+    }
+
+    /**
+     * @return the number of entries which were evicted from the cache
+     */
+    public long evictions() {
+        return this.evictions.sum();
+    }
+
+    /**
+     * @return the total size of the serialized data currently in the cache
+     */
+    public long size() {
+        long size = 0L;
+        for (Shard shard : this.shards) {
+            synchronized (shard) {
+                size += shard.probationSize + shard.protectedSize;
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("hits=%d misses=%d (%.2f%%) evictions=%d size=%d/%d", this.hits(), this.misses(), this.hitRate() * 100.0d, this.evictions(), this.size(), this.maxSize);
+    }
+
+    /**
+     * A single cached value.
+     *
+     * @author DaPorkchop_
+     */
+    @RequiredArgsConstructor
+    public static final class Entry {
+        @NonNull
+        protected final byte[] data;
+
+        /**
+         * @return the serialized data. Must not be modified!
+         */
+        public byte[] data() {
+            return this.data;
+        }
+
+        /**
+         * @return the decoded NBT data
+         */
+        public NBTTagCompound nbt() {
+            //the decoded tag isn't kept, as its size isn't counted towards the cache's capacity and callers would need a copy of it anyway
+            return NBTSerializerUtils.readNBT(Unpooled.wrappedBuffer(this.data));
+        }
+    }
+
+    /**
+     * Tracks the writes to a single position which are currently running.
+     *
+     * @author DaPorkchop_
+     */
+    protected static final class Write {
+        protected int running = 1;
+        protected boolean overlapped;
+    }
+
+    /**
+     * A single shard of the cache. All methods must be called while synchronized on the shard.
+     *
+     * @author DaPorkchop_
+     */
+    protected final class Shard {
+        protected final Map<Object, Entry> probation = new LinkedHashMap<>();
+        protected final Map<Object, Entry> protect = new LinkedHashMap<>(16, 0.75f, true);
+        protected final Map<Object, Write> writing = new HashMap<>();
+        protected final long[] writeStamps = new long[STAMP_SLOTS];
+        protected final long maxSize;
+        protected final long maxProtectedSize;
+        protected long probationSize;
+        protected long protectedSize;
+
+        protected Shard(long maxSize) {
+            this.maxSize = maxSize;
+            this.maxProtectedSize = (long) (maxSize * PROTECTED_FRACTION);
+        }
+
+        protected synchronized Entry get(@NonNull Object pos) {
+            Entry entry = this.protect.get(pos); //this will move the entry to the end of the protected segment
+            if (entry == null && (entry = this.probation.remove(pos)) != null) { //the entry was accessed again while on probation, promote it
+                this.probationSize -= entry.data.length;
+                this.protect.put(pos, entry);
+                this.protectedSize += entry.data.length;
+
+                //demote the least recently used protected entries back to probation if the protected segment is full
+                for (Iterator<Map.Entry<Object, Entry>> itr = this.protect.entrySet().iterator(); this.protectedSize > this.maxProtectedSize && itr.hasNext(); ) {
+                    Map.Entry<Object, Entry> demoted = itr.next();
+                    itr.remove();
+                    this.protectedSize -= demoted.getValue().data.length;
+                    this.probation.put(demoted.getKey(), demoted.getValue());
+                    this.probationSize += demoted.getValue().data.length;
+                }
+            }
+            return entry;
+        }
+
+        protected int slot(@NonNull Object pos) {
+            return (hash(pos) >>> 4) & (STAMP_SLOTS - 1); //the lowest bits were already used to choose the shard
+        }
+
+        protected boolean contains(@NonNull Object pos) {
+            return this.probation.containsKey(pos) || this.protect.containsKey(pos);
+        }
+
+        protected void insert(@NonNull Object pos, @NonNull Entry entry) {
+            if (entry.data.length > this.maxSize) { //the entry would never fit
+                return;
+            }
+
+            this.probation.put(pos, entry);
+            this.probationSize += entry.data.length;
+            this.evict();
+        }
+
+        protected void remove(@NonNull Object pos) {
+            Entry entry = this.probation.remove(pos);
+            if (entry != null) {
+                this.probationSize -= entry.data.length;
+            } else if ((entry = this.protect.remove(pos)) != null) {
+                this.protectedSize -= entry.data.length;
+            }
+        }
+
+        protected void evict() {
+            //evict from the probationary segment first, and only touch the protected segment if that isn't enough
+            for (Iterator<Entry> itr = this.probation.values().iterator(); this.probationSize + this.protectedSize > this.maxSize && itr.hasNext(); ) {
+                this.probationSize -= itr.next().data.length;
+                itr.remove();
+                StorageCache.this.evictions.increment();
+            }
+            for (Iterator<Entry> itr = this.protect.values().iterator(); this.probationSize + this.protectedSize > this.maxSize && itr.hasNext(); ) {
+                this.protectedSize -= itr.next().data.length;
+                itr.remove();
+                StorageCache.this.evictions.increment();
+            }
+        }
+    }
+}
@@ -0,0 +1,322 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2021-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package net.daporkchop.rocksmc.storage.local;
+
+import io.github.opencubicchunks.cubicchunks.api.world.storage.ICubicStorage;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import net.daporkchop.rocksmc.RocksMC;
+import net.daporkchop.rocksmc.RocksMCConfig;
+import net.daporkchop.rocksmc.storage.IBinaryCubeStorage;
+import net.daporkchop.rocksmc.util.Histogram;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures the latency of every operation on a {@link LocalStorageImpl}, as well as the sizes of the values and batches which are read and written.
+ * <p>
+ * Operations which are executed on the server thread and take longer than the configured threshold are recorded as slow calls.
+ *
+ * @author DaPorkchop_
+ */
+public final class StorageMetrics {
+    protected static final int MAX_SLOW_CALLS = 16;
+
+    /**
+     * Describes the position(s) accessed by an operation in a human-readable way.
+     */
+    protected static String describe(Object position) {
+        if (position instanceof ICubicStorage.PosBatch) {
+            ICubicStorage.PosBatch batch = (ICubicStorage.PosBatch) position;
+            return batch.columns.size() + " columns, " + batch.cubes.size() + " cubes";
+        } else if (position instanceof ICubicStorage.NBTBatch) {
+            ICubicStorage.NBTBatch batch = (ICubicStorage.NBTBatch) position;
+            return batch.columns.size() + " columns, " + batch.cubes.size() + " cubes";
+        } else if (position instanceof IBinaryCubeStorage.BinaryBatch) {
+            IBinaryCubeStorage.BinaryBatch batch = (IBinaryCubeStorage.BinaryBatch) position;
+            return batch.columns.size() + " columns, " + batch.cubes.size() + " cubes";
+        } else {
+            return String.valueOf(position);
+        }
+    }
+
+    protected final LocalStorageImpl storage;
+
+    @Getter
+    protected final boolean enabled = RocksMCConfig.metrics.enabled;
+    protected final long slowCallThreshold = TimeUnit.MILLISECONDS.toNanos(RocksMCConfig.metrics.slowCallThreshold);
+    protected final long stackSampleInterval = TimeUnit.SECONDS.toNanos(RocksMCConfig.metrics.stackSampleInterval);
+
+    protected final Histogram[] latencies = new Histogram[Operation.values().length];
+    /**
+     * The sizes of individual column and cube values which were read (in bytes).
+     */
+    @Getter
+    protected final Histogram readValueSizes = new Histogram();
+    /**
+     * The sizes of individual column and cube values which were written (in bytes).
+     */
+    @Getter
+    protected final Histogram writtenValueSizes = new Histogram();
+    /**
+     * The number of positions in each batch read.
+     */
+    @Getter
+    protected final Histogram readBatchSizes = new Histogram();
+    /**
+     * The number of positions in each batch write.
+     */
+    @Getter
+    protected final Histogram writtenBatchSizes = new Histogram();
+
+    protected final LongAdder slowCalls = new LongAdder();
+    protected final Deque<SlowCall> recentSlowCalls = new ArrayDeque<>(MAX_SLOW_CALLS); //guarded by itself
+    protected volatile long lastStackTime;
+
+    public StorageMetrics(@NonNull LocalStorageImpl storage) {
+        this.storage = storage;
+        for (int i = 0; i < this.latencies.length; i++) {
+            this.latencies[i] = new Histogram();
+        }
+    }
+
+    /**
+     * Must be called at the start of an operation.
+     *
+     * @return the start time, to be passed to {@link #record(Operation, long, Object)}
+     */
+    public long start() {
+        return this.enabled ? System.nanoTime() : 0L;
+    }
+
+    /**
+     * Must be called at the end of an operation, even if it failed.
+     *
+     * @param operation the operation
+     * @param start     the operation's start time, as returned by {@link #start()}
+     * @param position  the position(s) which were accessed, or {@code null} if none
+     */
+    public void record(@NonNull Operation operation, long start, Object position) {
+        if (!this.enabled) {
+            return;
+        }
+
+        long duration = System.nanoTime() - start;
+        this.latencies[operation.ordinal()].record(duration);
+
+        if (this.slowCallThreshold > 0L && duration >= this.slowCallThreshold && Thread.currentThread() == RocksMC.SERVER_THREAD) {
+            this.slowCall(operation, duration, position);
+        }
+    }
+
+    protected void slowCall(@NonNull Operation operation, long duration, Object position) {
+        this.slowCalls.increment();
+
+        //capturing a stack trace is expensive, so only a sample of them is taken
+        StackTraceElement[] stackTrace = null;
+        long now = System.nanoTime();
+        long lastStackTime = this.lastStackTime;
+        if (lastStackTime == 0L || now - lastStackTime >= this.stackSampleInterval) {
+            this.lastStackTime = now;
+            stackTrace = Thread.currentThread().getStackTrace();
+        }
+
+        SlowCall call = new SlowCall(operation, describe(position), duration, System.currentTimeMillis(), stackTrace);
+        synchronized (this.recentSlowCalls) {
+            if (this.recentSlowCalls.size() == MAX_SLOW_CALLS) {
+                this.recentSlowCalls.removeFirst();
+            }
+            this.recentSlowCalls.addLast(call);
+        }
+
+        if (stackTrace != null && RocksMCConfig.metrics.logSlowCalls) {
+            StringBuilder builder = new StringBuilder();
+            for (int i = 3; i < stackTrace.length; i++) { //skip getStackTrace(), slowCall() and record()
+                builder.append(System.lineSeparator()).append("\tat ").append(stackTrace[i]);
+            }
+            RocksMC.LOGGER.warn("{} on {} blocked the server thread for {}ms ({}){}",
+                    operation.metricName(), this.storage, duration / 1_000_000L, call.position, builder);
+        }
+    }
+
+    public void readValue(int size) {
+        if (this.enabled) {
+            this.readValueSizes.record(size);
+        }
+    }
+
+    public void writeValue(int size) {
+        if (this.enabled) {
+            this.writtenValueSizes.record(size);
+        }
+    }
+
+    public void readBatch(int size) {
+        if (this.enabled) {
+            this.readBatchSizes.record(size);
+        }
+    }
+
+    public void writeBatch(int size) {
+        if (this.enabled) {
+            this.writtenBatchSizes.record(size);
+        }
+    }
+
+    /**
+     * @return the latency histogram for the given operation (in nanoseconds)
+     */
+    public Histogram latency(@NonNull Operation operation) {
+        return this.latencies[operation.ordinal()];
+    }
+
+    /**
+     * @return the total number of slow calls since the storage was opened
+     */
+    public long slowCalls() {
+        return this.slowCalls.sum();
+    }
+
+    /**
+     * @return the most recent slow calls, oldest first
+     */
+    public List<SlowCall> recentSlowCalls() {
+        synchronized (this.recentSlowCalls) {
+            return new ArrayList<>(this.recentSlowCalls);
+        }
+    }
+
+    /**
+     * Adds the current values of all metrics to the given map.
+     * <p>
+     * If metrics are disabled, nothing will be added.
+     *
+     * @param values the map to add the values to
+     */
+    public void snapshot(@NonNull Map<String, Long> values) {
+        if (!this.enabled) {
+            return;
+        }
+
+        for (Operation operation : Operation.values()) {
+            Histogram histogram = this.latency(operation);
+            String name = operation.metricName();
+            values.put(name + "_count", histogram.count());
+            values.put(name + "_p50_us", histogram.percentile(0.5d) / 1000L);
+            values.put(name + "_p99_us", histogram.percentile(0.99d) / 1000L);
+            values.put(name + "_p999_us", histogram.percentile(0.999d) / 1000L);
+            values.put(name + "_max_us", histogram.max() / 1000L);
+        }
+
+        snapshotSizes(values, "read_value_size", this.readValueSizes);
+        snapshotSizes(values, "written_value_size", this.writtenValueSizes);
+        snapshotSizes(values, "read_batch_size", this.readBatchSizes);
+        snapshotSizes(values, "written_batch_size", this.writtenBatchSizes);
+
+        values.put("slow_calls", this.slowCalls());
+    }
+
+    protected static void snapshotSizes(@NonNull Map<String, Long> values, @NonNull String name, @NonNull Histogram histogram) {
+        values.put(name + "_p50", histogram.percentile(0.5d));
+        values.put(name + "_p99", histogram.percentile(0.99d));
+        values.put(name + "_max", histogram.max());
+    }
+
+    /**
+     * Removes all recorded values.
+     */
+    public void reset() {
+        for (Histogram histogram : this.latencies) {
+            histogram.reset();
+        }
+        this.readValueSizes.reset();
+        this.writtenValueSizes.reset();
+        this.readBatchSizes.reset();
+        this.writtenBatchSizes.reset();
+
+        this.slowCalls.reset();
+        synchronized (this.recentSlowCalls) {
+            this.recentSlowCalls.clear();
+        }
+    }
+
+    /**
+     * The operations whose latency is measured.
+     *
+     * @author DaPorkchop_
+     */
+    public enum Operation {
+        COLUMN_EXISTS,
+        CUBE_EXISTS,
+        READ_COLUMN,
+        READ_CUBE,
+        /**
+         * Batch reads, including the batches which asynchronous reads are combined into.
+         */
+        READ_BATCH,
+        READ_COLUMN_WITH_CUBES,
+        /**
+         * Asynchronous single-position reads, measured from submission until the result is available.
+         */
+        READ_ASYNC,
+        WRITE_COLUMN,
+        WRITE_CUBE,
+        WRITE_BATCH,
+        FOR_EACH_COLUMN,
+        FOR_EACH_CUBE,
+        FLUSH;
+
+        /**
+         * @return the name of this operation in exported statistics
+         */
+        public String metricName() {
+            return this.name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    /**
+     * An operation which blocked the server thread for longer than the configured threshold.
+     *
+     * @author DaPorkchop_
+     */
+    @RequiredArgsConstructor
+    @Getter
+    public static final class SlowCall {
+        @NonNull
+        protected final Operation operation;
+        @NonNull
+        protected final String position;
+        protected final long durationNanos;
+        protected final long time;
+        /**
+         * The stack trace of the server thread at the end of the call, or {@code null} if it wasn't sampled.
+         */
+        protected final StackTraceElement[] stackTrace;
+    }
+}
@@ -0,0 +1,460 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2021-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package net.daporkchop.rocksmc.storage.local;
+
+import lombok.Getter;
+import lombok.NonNull;
+import net.daporkchop.rocksmc.RocksMC;
+import net.daporkchop.rocksmc.RocksMCConfig;
+import net.daporkchop.rocksmc.storage.io.IOPriority;
+import net.daporkchop.rocksmc.util.BufferPool;
+import net.daporkchop.rocksmc.util.RocksMCExecutors;
+import org.rocksdb.ColumnFamilyHandle;
+import org.rocksdb.DBOptions;
+import org.rocksdb.LiveFileMetaData;
+import org.rocksdb.MemoryUsageType;
+import org.rocksdb.MemoryUtil;
+import org.rocksdb.RocksDBException;
+import org.rocksdb.Statistics;
+import org.rocksdb.TickerType;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Collects runtime statistics about a {@link LocalStorageImpl}, periodically exports them to a log file and exposes them as a JMX MBean.
+ * <p>
+ * Statistics are reported as a flat map of named {@code long} values, so that they can be easily charted by external tools. RocksDB tickers are
+ * counted per database: if the database is shared by multiple dimensions, they include the activity of all of them.
+ *
+ * @author DaPorkchop_
+ */
+public final class StorageStatistics implements DynamicMBean {
+    /**
+     * The RocksDB tickers to report. Their names are the lowercase names of the ticker.
+     */
+    protected static final TickerType[] TICKERS = {
+            TickerType.BLOCK_CACHE_HIT,
+            TickerType.BLOCK_CACHE_MISS,
+            TickerType.BLOCK_CACHE_DATA_HIT,
+            TickerType.BLOCK_CACHE_DATA_MISS,
+            TickerType.BLOOM_FILTER_USEFUL,
+            TickerType.MEMTABLE_HIT,
+            TickerType.MEMTABLE_MISS,
+            TickerType.NUMBER_KEYS_READ,
+            TickerType.NUMBER_KEYS_WRITTEN,
+            TickerType.BYTES_READ,
+            TickerType.BYTES_WRITTEN,
+            TickerType.STALL_MICROS,
+            TickerType.COMPACT_READ_BYTES,
+            TickerType.COMPACT_WRITE_BYTES,
+            TickerType.FLUSH_WRITE_BYTES,
+            TickerType.WAL_FILE_SYNCED,
+            TickerType.WAL_FILE_BYTES
+    };
+
+    /**
+     * Properties which are summed over all of a storage's column families.
+     */
+    protected static final String[] FAMILY_PROPERTIES = {
+            "rocksdb.estimate-num-keys",
+            "rocksdb.total-sst-files-size",
+            "rocksdb.estimate-pending-compaction-bytes",
+            "rocksdb.cur-size-all-mem-tables",
+            "rocksdb.num-immutable-mem-table",
+            "rocksdb.estimate-table-readers-mem"
+    };
+
+    /**
+     * Properties which apply to the whole database.
+     */
+    protected static final String[] DB_PROPERTIES = {
+            "rocksdb.num-running-compactions",
+            "rocksdb.num-running-flushes",
+            "rocksdb.actual-delayed-write-rate",
+            "rocksdb.is-write-stopped",
+            "rocksdb.background-errors"
+    };
+
+    /**
+     * The number of levels in the LSM tree. This is RocksDB's default, and isn't configurable.
+     */
+    protected static final int LEVELS = 7;
+
+    /**
+     * The buffer pools to report. These are shared by every storage, so their statistics are the same for all of them.
+     */
+    protected static final BufferPool[] BUFFER_POOLS = {
+            LocalStorageImpl.KEY_BUFFERS,
+            LocalStorageImpl.COLUMN_BUFFERS,
+            LocalStorageImpl.CUBE_BUFFERS
+    };
+
+    /**
+     * Creates a new {@link Statistics} instance for a database, if statistics are enabled.
+     *
+     * @return the {@link Statistics}, or {@code null} if statistics are disabled
+     */
+    public static Statistics createStatistics() {
+        if (!RocksMCConfig.statistics.enabled) {
+            return null;
+        }
+
+        Statistics statistics = new Statistics();
+        statistics.setStatsLevel(RocksMCConfig.statistics.level);
+        return statistics;
+    }
+
+    /**
+     * Gets the options to open a database with, so that statistics are collected using the given {@link Statistics}.
+     *
+     * @param options    the base database options
+     * @param statistics the {@link Statistics}, or {@code null} if statistics are disabled
+     * @return the database options to use. If not the same instance as {@code options}, they must be closed after the database is closed
+     */
+    public static DBOptions dbOptions(@NonNull DBOptions options, Statistics statistics) {
+        //the base options are shared by every database, so they can't be modified
+        return statistics != null ? new DBOptions(options).setStatistics(statistics) : options;
+    }
+
+    protected static String propertyName(@NonNull String property) {
+        return property.substring("rocksdb.".length()).replace('-', '_');
+    }
+
+    protected final LocalStorageImpl storage;
+    /**
+     * The RocksDB statistics of the storage's database, or {@code null} if statistics are disabled.
+     */
+    @Getter
+    protected final Statistics statistics;
+
+    protected final Path exportFile;
+    protected final ScheduledFuture<?> exportTask;
+    protected boolean exportChecked;
+
+    protected final ObjectName objectName;
+    protected final MBeanInfo mBeanInfo;
+
+    protected boolean closed;
+
+    public StorageStatistics(@NonNull LocalStorageImpl storage, Statistics statistics) {
+        this.storage = storage;
+        this.statistics = statistics;
+
+        RocksMCConfig.Stats config = RocksMCConfig.statistics;
+        if (config.exportInterval > 0 && !storage.secondary()) { //the export file belongs to the primary instance
+            this.exportFile = storage.path().resolve((storage.dimension() != null ? "stats-" + storage.dimension() : "stats") + config.exportFormat.extension);
+
+            //the scheduler thread must never block, so the export itself is done by the I/O scheduler
+            this.exportTask = RocksMCExecutors.scheduler().scheduleAtFixedRate(
+                    () -> RocksMCExecutors.ioScheduler().submit(IOPriority.BACKGROUND, () -> {
+                        this.export(config.exportFormat);
+                        return null;
+                    }),
+                    config.exportInterval, config.exportInterval, TimeUnit.SECONDS);
+        } else {
+            this.exportFile = null;
+            this.exportTask = null;
+        }
+
+        MBeanInfo mBeanInfo = null;
+        ObjectName objectName = null;
+        if (config.jmx) {
+            try {
+                List<MBeanAttributeInfo> attributes = new ArrayList<>();
+                for (String name : this.snapshot().keySet()) {
+                    attributes.add(new MBeanAttributeInfo(name, "long", name, true, false, false));
+                }
+                mBeanInfo = new MBeanInfo(StorageStatistics.class.getName(), "RocksMC storage statistics for " + storage,
+                        attributes.toArray(new MBeanAttributeInfo[0]), null, null, null);
+                objectName = new ObjectName("net.daporkchop.rocksmc:type=Storage,name=" + ObjectName.quote(storage.toString()));
+            } catch (IOException | JMException e) {
+                RocksMC.LOGGER.warn("Unable to create JMX MBean for " + storage, e);
+                mBeanInfo = null;
+                objectName = null;
+            }
+        }
+        this.mBeanInfo = mBeanInfo;
+
+        if (objectName != null) { //the MBean info has to be set before registering
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+            } catch (JMException e) {
+                RocksMC.LOGGER.warn("Unable to register JMX MBean for " + storage, e);
+                objectName = null;
+            }
+        }
+        this.objectName = objectName;
+    }
+
+    /**
+     * Gets the current value of every statistic.
+     * <p>
+     * The set of statistics is the same for every call, and is always returned in the same order.
+     *
+     * @return the statistics
+     */
+    public synchronized Map<String, Long> snapshot() throws IOException {
+        if (this.closed) {
+            throw new IOException("storage is closed");
+        }
+
+        Map<String, Long> values = new LinkedHashMap<>();
+        if (this.statistics != null) {
+            for (TickerType ticker : TICKERS) {
+                values.put(ticker.name().toLowerCase(Locale.ROOT), this.statistics.getTickerCount(ticker));
+            }
+        }
+
+        StorageCache cache = this.storage.cache();
+        if (cache != null) {
+            values.put("storage_cache_hits", cache.hits());
+            values.put("storage_cache_misses", cache.misses());
+            values.put("storage_cache_size", cache.size());
+        }
+
+        values.put("block_cache_usage", MemoryUtil.getApproximateMemoryUsageByType(Collections.emptyList(), this.storage.options.caches())
+                .getOrDefault(MemoryUsageType.kCacheTotal, 0L));
+
+        Lock lock = this.storage.lockLayout(); //secondary instances may be reopened concurrently
+        try {
+            Set<String> familyNames = new HashSet<>();
+            for (ColumnFamilyHandle cf : this.storage.cfHandles) {
+                familyNames.add(new String(cf.getName(), StandardCharsets.UTF_8));
+            }
+
+            for (String property : FAMILY_PROPERTIES) {
+                long value = 0L;
+                for (ColumnFamilyHandle cf : this.storage.cfHandles) {
+                    value += this.storage.db.getLongProperty(cf, property);
+                }
+                values.put(propertyName(property), value);
+            }
+            for (String property : DB_PROPERTIES) {
+                values.put(propertyName(property), this.storage.db.getLongProperty(this.storage.cfHandleDefault, property));
+            }
+
+            long[] levelSizes = new long[LEVELS];
+            for (LiveFileMetaData file : this.storage.db.getLiveFilesMetaData()) {
+                if (familyNames.contains(new String(file.columnFamilyName(), StandardCharsets.UTF_8)) && file.level() < LEVELS) {
+                    levelSizes[file.level()] += file.size();
+                }
+            }
+            for (int level = 0; level < LEVELS; level++) {
+                values.put("level_" + level + "_size", levelSizes[level]);
+            }
+        } catch (RocksDBException e) {
+            throw new IOException(e); //rethrow
+        } finally {
+            LocalStorageImpl.unlock(lock);
+        }
+
+        for (BufferPool pool : BUFFER_POOLS) {
+            pool.snapshot(values);
+        }
+        RocksMCExecutors.ioScheduler().snapshot(values);
+
+        this.storage.metrics.snapshot(values);
+        return values;
+    }
+
+    protected synchronized void export(@NonNull Format format) throws IOException {
+        if (this.closed) {
+            return;
+        }
+
+        Map<String, Long> snapshot = this.snapshot();
+        long time = System.currentTimeMillis();
+
+        if (!this.exportChecked) { //the set of statistics may have changed since the file was last written to, in which case it's rotated
+            this.exportChecked = true;
+            String header = format.header(snapshot);
+            if (Files.exists(this.exportFile)) {
+                String firstLine;
+                try (BufferedReader reader = Files.newBufferedReader(this.exportFile, StandardCharsets.UTF_8)) {
+                    firstLine = reader.readLine();
+                }
+                if (header != null && !header.equals(firstLine)) {
+                    Files.move(this.exportFile, this.exportFile.resolveSibling(this.exportFile.getFileName() + ".old"), StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+            if (header != null && !Files.exists(this.exportFile)) {
+                Files.write(this.exportFile, Arrays.asList(header), StandardCharsets.UTF_8);
+            }
+        }
+
+        try (Writer writer = Files.newBufferedWriter(this.exportFile, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            writer.write(format.line(time, snapshot));
+            writer.write(System.lineSeparator());
+        }
+    }
+
+    /**
+     * Stops exporting statistics and unregisters the MBean.
+     * <p>
+     * Must be called before the database is closed.
+     */
+    public synchronized void close() {
+        this.closed = true;
+
+        if (this.exportTask != null) {
+            this.exportTask.cancel(false);
+        }
+
+        if (this.objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(this.objectName);
+            } catch (JMException e) {
+                RocksMC.LOGGER.warn("Unable to unregister JMX MBean for " + this.storage, e);
+            }
+        }
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        Long value;
+        try {
+            value = this.snapshot().get(attribute);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        if (value == null) {
+            throw new AttributeNotFoundException(attribute);
+        }
+        return value;
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        Map<String, Long> snapshot;
+        try {
+            snapshot = this.snapshot();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        AttributeList list = new AttributeList(attributes.length);
+        for (String attribute : attributes) {
+            Long value = snapshot.get(attribute);
+            if (value != null) {
+                list.add(new Attribute(attribute, value));
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("all attributes are read-only");
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList(); //all attributes are read-only
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+        throw new ReflectionException(new NoSuchMethodException(actionName));
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        return this.mBeanInfo;
+    }
+
+    /**
+     * The formats which statistics may be exported in.
+     *
+     * @author DaPorkchop_
+     */
+    public enum Format {
+        CSV(".csv") {
+            @Override
+            protected String header(@NonNull Map<String, Long> snapshot) {
+                return "time," + String.join(",", snapshot.keySet());
+            }
+
+            @Override
+            protected String line(long time, @NonNull Map<String, Long> snapshot) {
+                StringBuilder builder = new StringBuilder().append(time);
+                snapshot.values().forEach(value -> builder.append(',').append(value.longValue()));
+                return builder.toString();
+            }
+        },
+        JSON(".json") {
+            @Override
+            protected String header(@NonNull Map<String, Long> snapshot) {
+                return null; //every line is self-describing
+            }
+
+            @Override
+            protected String line(long time, @NonNull Map<String, Long> snapshot) {
+                StringBuilder builder = new StringBuilder().append("{\"time\":").append(time);
+                snapshot.forEach((name, value) -> builder.append(",\"").append(name).append("\":").append(value.longValue()));
+                return builder.append('}').toString();
+            }
+        };
+
+        protected final String extension;
+
+        Format(@NonNull String extension) {
+            this.extension = extension;
+        }
+
+        /**
+         * @return the line to write at the start of the file, or {@code null} if none
+         */
+        protected abstract String header(@NonNull Map<String, Long> snapshot);
+
+        protected abstract String line(long time, @NonNull Map<String, Long> snapshot);
+    }
+}
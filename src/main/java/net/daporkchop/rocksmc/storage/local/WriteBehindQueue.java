@@ -0,0 +1,329 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2021-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package net.daporkchop.rocksmc.storage.local;
+
+import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
+import io.netty.buffer.ByteBuf;
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import net.daporkchop.rocksmc.RocksMC;
+import net.daporkchop.rocksmc.RocksMCConfig;
+import net.daporkchop.rocksmc.storage.io.IOPriority;
+import net.daporkchop.rocksmc.util.RocksMCExecutors;
+import net.daporkchop.rocksmc.util.RocksMCUtils;
+import net.minecraft.util.math.ChunkPos;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Collects writes to a {@link LocalStorageImpl} in memory, and writes them to the database in large batches.
+ * <p>
+ * Only the most recent write to each position is kept, so a cube which is saved multiple times before the queue is flushed will only be written once. Pending
+ * writes are visible to readers through {@link #get(Object)}. The storage's {@link StorageCache cache} is updated while the queue is locked, so that it always
+ * ends up with the same value as the queue if multiple threads write to the same position at once.
+ * <p>
+ * The queue is flushed in the background once it contains enough data, or once the oldest pending write has been waiting for long enough. If the queue grows too
+ * large, writers will block until it has been flushed.
+ *
+ * @author DaPorkchop_
+ */
+@RequiredArgsConstructor
+public class WriteBehindQueue {
+    @NonNull
+    protected final LocalStorageImpl storage;
+
+    protected final Lock lock = new ReentrantLock();
+    protected final Condition notFull = this.lock.newCondition();
+
+    //all of these are guarded by lock
+    protected Map<Object, byte[]> pending = new Object2ObjectOpenHashMap<>();
+    protected Map<Object, byte[]> flushing = Collections.emptyMap();
+    protected long pendingBytes;
+    protected long flushingBytes;
+    protected CompletableFuture<Void> currentFlush;
+    protected boolean flushRunning;
+    protected ScheduledFuture<?> flushTimer;
+
+    protected long writes;
+    protected long coalesced;
+    protected long flushes;
+    protected long stalls;
+
+    /**
+     * Adds the given encoded values to the queue, replacing any pending values at the same positions, and updates the storage's cache with them.
+     * <p>
+     * If the queue is full, this method will block until enough data has been flushed.
+     *
+     * @param values the values to write, keyed by {@link ChunkPos} or {@link CubePos}
+     */
+    public void put(@NonNull Map<Object, byte[]> values) throws IOException {
+        this.lock.lock();
+        try {
+            long maxBytes = (long) RocksMCConfig.writeBehind.maxPending << 20L;
+            if (this.pendingBytes + this.flushingBytes >= maxBytes) {
+                this.stalls++;
+                do {
+                    CompletableFuture<Void> flush = this.currentFlush;
+                    if (flush == null) {
+                        flush = this.beginFlush(false);
+                    }
+
+                    if (flush != null && !this.flushRunning) {
+                        //the flush hasn't been started yet, so we'll run it ourselves rather than waiting for a free I/O thread (which could be us)
+                        this.lock.unlock();
+                        try {
+                            this.runFlush(flush);
+                        } finally {
+                            this.lock.lock();
+                        }
+                    } else {
+                        this.notFull.await();
+                    }
+                } while (this.pendingBytes + this.flushingBytes >= maxBytes);
+            }
+
+            StorageCache cache = this.storage.cache();
+            values.forEach((pos, data) -> {
+                if (cache != null) {
+                    cache.put(pos, data);
+                }
+
+                byte[] old = this.pending.put(pos, data);
+                this.pendingBytes += data.length;
+                if (old != null) {
+                    this.pendingBytes -= old.length;
+                    this.coalesced++;
+                }
+            });
+            this.writes += values.size();
+
+            if (this.pendingBytes >= (long) RocksMCConfig.writeBehind.batchSize << 10L) {
+                this.beginFlush(true);
+            } else if (this.flushTimer == null && this.currentFlush == null) {
+                this.scheduleFlush();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the encoded value of a pending write.
+     *
+     * @param pos the position, either a {@link ChunkPos} or a {@link CubePos}
+     * @return the value which will be written at the given position, or {@code null} if there is no pending write at the position
+     */
+    public byte[] get(@NonNull Object pos) {
+        this.lock.lock();
+        try {
+            byte[] data = this.pending.get(pos);
+            return data != null ? data : this.flushing.get(pos);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * @return whether or not there are no values waiting to be written
+     */
+    public boolean isEmpty() {
+        this.lock.lock();
+        try {
+            return this.pending.isEmpty() && this.flushing.isEmpty();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Writes all pending values to the database, and waits until they've been written.
+     * <p>
+     * If no flush is currently running, the values will be written from the calling thread.
+     */
+    public void drain() throws IOException {
+        while (true) {
+            CompletableFuture<Void> flush;
+
+            this.lock.lock();
+            try {
+                if ((flush = this.currentFlush) == null) {
+                    flush = this.beginFlush(false);
+                }
+            } finally {
+                this.lock.unlock();
+            }
+
+            if (flush == null) { //the queue is empty
+                return;
+            }
+
+            this.runFlush(flush);
+
+            try {
+                flush.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw e;
+            }
+        }
+    }
+
+    protected void scheduleFlush() {
+        this.flushTimer = RocksMCExecutors.scheduler().schedule(() -> {
+            this.lock.lock();
+            try {
+                this.flushTimer = null;
+                this.beginFlush(true);
+            } finally {
+                this.lock.unlock();
+            }
+        }, RocksMCConfig.writeBehind.flushInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Begins flushing all pending values, unless a flush is already in progress.
+     * <p>
+     * Must be called while holding {@link #lock}.
+     *
+     * @param async whether the flush should be executed in the background. If {@code false}, the caller is responsible for calling {@link #runFlush(CompletableFuture)}
+     * @return the flush's future, or {@code null} if a flush is already in progress or there are no pending values
+     */
+    protected CompletableFuture<Void> beginFlush(boolean async) {
+        if (this.currentFlush != null || this.pending.isEmpty()) {
+            return null;
+        }
+
+        if (this.flushTimer != null) {
+            this.flushTimer.cancel(false);
+            this.flushTimer = null;
+        }
+
+        this.flushing = this.pending;
+        this.flushingBytes = this.pendingBytes;
+        this.pending = new Object2ObjectOpenHashMap<>();
+        this.pendingBytes = 0L;
+
+        CompletableFuture<Void> flush = this.currentFlush = new CompletableFuture<>();
+        if (async) {
+            RocksMCExecutors.ioScheduler().submit(IOPriority.BACKGROUND, () -> {
+                this.runFlush(flush);
+                return null;
+            });
+        }
+        return flush;
+    }
+
+    /**
+     * Writes the values which are currently being flushed to the database.
+     * <p>
+     * Does nothing if the given flush has already been started by another thread.
+     */
+    protected void runFlush(@NonNull CompletableFuture<Void> flush) {
+        Map<Object, byte[]> values;
+        this.lock.lock();
+        try {
+            if (this.currentFlush != flush || this.flushRunning) {
+                return;
+            }
+            this.flushRunning = true;
+            values = this.flushing;
+        } finally {
+            this.lock.unlock();
+        }
+
+        Throwable cause = null;
+        try {
+            Map<ChunkPos, byte[]> columns = new Object2ObjectOpenHashMap<>();
+            Map<CubePos, byte[]> cubes = new Object2ObjectOpenHashMap<>();
+            values.forEach((pos, data) -> {
+                if (pos instanceof ChunkPos) {
+                    columns.put((ChunkPos) pos, data);
+                } else {
+                    cubes.put((CubePos) pos, data);
+                }
+            });
+
+            this.storage.writeDirect(columns, cubes, ByteBuf::writeBytes, false);
+        } catch (Throwable t) {
+            cause = t;
+            RocksMC.LOGGER.error("Unable to flush write-behind queue of " + this.storage + ", will try again later", t);
+        } finally {
+            this.lock.lock();
+            try {
+                if (cause != null) { //put the values back into the queue, unless they've been overwritten in the meantime
+                    values.forEach((pos, data) -> {
+                        if (this.pending.putIfAbsent(pos, data) == null) {
+                            this.pendingBytes += data.length;
+                        }
+                    });
+                } else {
+                    this.flushes++;
+                }
+
+                this.flushing = Collections.emptyMap();
+                this.flushingBytes = 0L;
+                this.currentFlush = null;
+                this.flushRunning = false;
+                this.notFull.signalAll();
+
+                if (!this.pending.isEmpty() && this.flushTimer == null) {
+                    this.scheduleFlush();
+                }
+            } finally {
+                this.lock.unlock();
+            }
+        }
+
+        if (cause != null) {
+            flush.completeExceptionally(cause);
+        } else {
+            flush.complete(null);
+        }
+    }
+
+    @Override
+    public String toString() {
+        this.lock.lock();
+        try {
+            return String.format("writes=%d coalesced=%d flushes=%d stalls=%d pending=%d (%s)",
+                    this.writes, this.coalesced, this.flushes, this.stalls, this.pending.size() + this.flushing.size(),
+                    RocksMCUtils.formatSize(this.pendingBytes + this.flushingBytes));
+        } finally {
+            this.lock.unlock();
+        }
+    }
+}
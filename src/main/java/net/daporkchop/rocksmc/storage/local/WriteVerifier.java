@@ -0,0 +1,290 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2021-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package net.daporkchop.rocksmc.storage.local;
+
+import io.netty.buffer.ByteBuf;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import net.daporkchop.rocksmc.RocksMC;
+import net.daporkchop.rocksmc.RocksMCConfig;
+import net.daporkchop.rocksmc.storage.io.IOPriority;
+import net.daporkchop.rocksmc.util.BufferPool;
+import net.minecraft.util.math.ChunkPos;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+
+/**
+ * Checks that values written to a {@link LocalStorageImpl} can be read back from the database.
+ * <p>
+ * Verification compares a CRC32 checksum of the value which was written with one of the value which is read back, so it detects corrupted values as well as
+ * missing ones. If a position is written again before its verification is complete, the verification is skipped, as the value it would read back could be
+ * the newer one.
+ *
+ * @author DaPorkchop_
+ */
+@RequiredArgsConstructor
+public class WriteVerifier {
+    protected static final Mode[] MODES = Mode.values();
+
+    @NonNull
+    protected final LocalStorageImpl storage;
+
+    /**
+     * The checks which haven't been completed yet, keyed by position.
+     */
+    protected final Map<Object, Check> pending = new ConcurrentHashMap<>();
+
+    protected final LongAdder[] verified = newCounters();
+    protected final LongAdder[] failed = newCounters();
+    protected final LongAdder[] skipped = newCounters();
+
+    protected static LongAdder[] newCounters() {
+        LongAdder[] counters = new LongAdder[MODES.length];
+        for (int i = 0; i < counters.length; i++) {
+            counters[i] = new LongAdder();
+        }
+        return counters;
+    }
+
+    protected static long checksum(@NonNull ByteBuf value) {
+        CRC32 crc = new CRC32();
+        if (value.hasArray()) {
+            crc.update(value.array(), value.arrayOffset() + value.readerIndex(), value.readableBytes());
+        } else {
+            crc.update(value.nioBuffer());
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Begins verifying a write.
+     * <p>
+     * The values which are written must be passed to {@link Writes#add(Object, ByteBuf)} before they're written to the database, and {@link Writes#complete()}
+     * must be called once they have been written. If the write fails, {@link Writes#abort()} must be called instead.
+     *
+     * @return the values to verify, or {@code null} if verification is disabled
+     */
+    public Writes begin() {
+        Mode mode = RocksMCConfig.verification.mode;
+        return mode != Mode.OFF ? new Writes(mode) : null;
+    }
+
+    /**
+     * @return the number of writes which were successfully verified in the given mode
+     */
+    public long verified(@NonNull Mode mode) {
+        return this.verified[mode.ordinal()].sum();
+    }
+
+    /**
+     * @return the number of writes which failed verification in the given mode
+     */
+    public long failed(@NonNull Mode mode) {
+        return this.failed[mode.ordinal()].sum();
+    }
+
+    /**
+     * @return the number of writes whose verification was skipped in the given mode, because they were overwritten first or the storage was closed
+     */
+    public long skipped(@NonNull Mode mode) {
+        return this.skipped[mode.ordinal()].sum();
+    }
+
+    /**
+     * Reads the value of a check's position back from the database and compares it to the expected value.
+     *
+     * @return whether or not the value matched, or {@code true} if the check was skipped
+     */
+    protected boolean verify(@NonNull Check check) throws IOException {
+        BufferPool pool = check.pos instanceof ChunkPos ? LocalStorageImpl.COLUMN_BUFFERS : LocalStorageImpl.CUBE_BUFFERS;
+        ByteBuf value = this.storage.read(check.pos, pool);
+        try {
+            if (!this.pending.remove(check.pos, check)) { //the position was written again in the meantime
+                this.skipped[check.mode.ordinal()].increment();
+                return true;
+            }
+
+            if (value != null && checksum(value) == check.checksum) {
+                this.verified[check.mode.ordinal()].increment();
+                return true;
+            } else {
+                this.failed[check.mode.ordinal()].increment();
+                RocksMC.LOGGER.error("Write verification failed for {} in {}: {}", check.pos, this.storage, value == null ? "value is missing" : "checksum mismatch");
+                return false;
+            }
+        } finally {
+            if (value != null) {
+                pool.recycle(value);
+            }
+        }
+    }
+
+    protected void skip(@NonNull Check check) {
+        if (this.pending.remove(check.pos, check)) {
+            this.skipped[check.mode.ordinal()].increment();
+        }
+    }
+
+    protected void verifyAll(@NonNull List<Check> checks) {
+        try {
+            for (Check check : checks) {
+                if (this.storage.closing()) { //don't delay closing the storage
+                    this.skip(check);
+                } else {
+                    this.verify(check);
+                }
+            }
+        } catch (Exception e) {
+            RocksMC.LOGGER.error("Unable to verify writes to " + this.storage, e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (Mode mode : MODES) {
+            if (mode != Mode.OFF) {
+                if (builder.length() != 0) {
+                    builder.append(' ');
+                }
+                builder.append(mode).append(": verified=").append(this.verified(mode))
+                        .append(" failed=").append(this.failed(mode))
+                        .append(" skipped=").append(this.skipped(mode));
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * The verification modes.
+     *
+     * @author DaPorkchop_
+     */
+    public enum Mode {
+        /**
+         * Writes are not verified.
+         */
+        OFF,
+        /**
+         * A random fraction of writes is verified in the background.
+         */
+        SAMPLED,
+        /**
+         * Every write is verified before the write returns. Failures cause the write to throw an exception.
+         */
+        FULL;
+    }
+
+    /**
+     * A pending verification of a single value.
+     *
+     * @author DaPorkchop_
+     */
+    @RequiredArgsConstructor
+    protected static final class Check {
+        @NonNull
+        protected final Object pos;
+        @NonNull
+        protected final Mode mode;
+        protected final long checksum;
+    }
+
+    /**
+     * The values written by a single write operation.
+     *
+     * @author DaPorkchop_
+     */
+    @RequiredArgsConstructor
+    public final class Writes {
+        @NonNull
+        protected final Mode mode;
+        protected final List<Check> checks = new ArrayList<>();
+
+        /**
+         * Notifies the verifier that the given value is about to be written.
+         *
+         * @param pos   the position, either a {@link ChunkPos} or a {@link io.github.opencubicchunks.cubicchunks.api.util.CubePos}
+         * @param value the encoded value. Its reader index will not be modified
+         */
+        public void add(@NonNull Object pos, @NonNull ByteBuf value) {
+            //replacing or removing any earlier check for the same position causes it to be skipped
+            if (this.mode == Mode.FULL || ThreadLocalRandom.current().nextDouble() < RocksMCConfig.verification.sampleRate) {
+                Check check = new Check(pos, this.mode, checksum(value));
+                this.checks.add(check);
+                WriteVerifier.this.pending.put(pos, check);
+            } else {
+                WriteVerifier.this.pending.remove(pos);
+            }
+        }
+
+        /**
+         * Notifies the verifier that the values have been written.
+         * <p>
+         * In {@link Mode#FULL}, the values are verified immediately. Otherwise, they're verified asynchronously.
+         *
+         * @throws IllegalStateException if the mode is {@link Mode#FULL} and any of the values couldn't be verified
+         */
+        public void complete() throws IOException {
+            if (this.checks.isEmpty()) {
+                return;
+            }
+
+            if (this.mode == Mode.FULL) {
+                for (Check check : this.checks) {
+                    if (!WriteVerifier.this.verify(check)) {
+                        throw new IllegalStateException("failed to write " + check.pos);
+                    }
+                }
+            } else {
+                if (!WriteVerifier.this.storage.closing()) {
+                    try {
+                        WriteVerifier.this.storage.submit(IOPriority.BACKGROUND, () -> {
+                            WriteVerifier.this.verifyAll(this.checks);
+                            return null;
+                        });
+                        return;
+                    } catch (IllegalStateException e) { //the storage was closed in the meantime
+                    }
+                }
+                this.checks.forEach(WriteVerifier.this::skip);
+            }
+        }
+
+        /**
+         * Notifies the verifier that the values couldn't be written.
+         * <p>
+         * The checks for all of the values are discarded, as the values they would compare against were never written.
+         */
+        public void abort() {
+            for (Check check : this.checks) {
+                WriteVerifier.this.pending.remove(check.pos, check);
+            }
+            this.checks.clear();
+        }
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2021-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package net.daporkchop.rocksmc.util;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import lombok.Getter;
+import lombok.NonNull;
+import net.daporkchop.rocksmc.RocksMCConfig;
+
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.lang.Math.*;
+
+/**
+ * A pool of direct {@link ByteBuf}s.
+ * <p>
+ * Cached buffers are shared by all threads, and the number of cached buffers is bounded. This way, no native memory is lost when a thread which used the pool
+ * terminates.
+ * <p>
+ * The pool keeps track of the sizes of the data which is written into its buffers, and uses this information to choose the capacity of newly allocated buffers. This
+ * way, buffers will generally be large enough on the first try and won't have to be grown.
+ * <p>
+ * Buffers obtained from {@link #allocate(int)} must be returned using {@link #recycle(ByteBuf)} rather than being released directly.
+ *
+ * @author DaPorkchop_
+ */
+public final class BufferPool {
+    /**
+     * The number of samples after which the learned size hint will be re-evaluated.
+     */
+    protected static final int SAMPLE_WINDOW = 1024;
+
+    protected static int roundUpToPowerOfTwo(int value) {
+        return value <= 1 ? 1 : Integer.highestOneBit(value - 1) << 1;
+    }
+
+    @Getter
+    protected final String name;
+    protected final int minSize;
+
+    protected final Deque<ByteBuf> cache = new ConcurrentLinkedDeque<>();
+    protected final AtomicInteger cached = new AtomicInteger();
+
+    protected volatile int sizeHint;
+    protected final AtomicInteger windowMax = new AtomicInteger();
+    protected final AtomicInteger windowCount = new AtomicInteger();
+
+    protected final LongAdder hits = new LongAdder();
+    protected final LongAdder misses = new LongAdder();
+    protected final LongAdder resizes = new LongAdder();
+
+    public BufferPool(@NonNull String name, int minSize) {
+        this.name = name;
+        this.minSize = roundUpToPowerOfTwo(minSize);
+        this.sizeHint = this.minSize;
+    }
+
+    /**
+     * @return the capacity which will be used for newly allocated buffers
+     */
+    public int sizeHint() {
+        return this.sizeHint;
+    }
+
+    /**
+     * Gets a buffer from this pool.
+     * <p>
+     * The buffer will be empty, and will be able to hold at least the given number of bytes.
+     *
+     * @param minCapacity the minimum capacity of the buffer
+     * @return a buffer
+     */
+    public ByteBuf allocate(int minCapacity) {
+        ByteBuf buf = this.cache.pollFirst();
+        if (buf != null) { //a cached buffer was available
+            this.cached.decrementAndGet();
+            this.hits.increment();
+            if (buf.clear().capacity() < minCapacity) {
+                this.resizes.increment();
+                buf.capacity(max(minCapacity, this.sizeHint));
+            }
+            return buf;
+        }
+
+        this.misses.increment();
+        return UnpooledByteBufAllocator.DEFAULT.directBuffer(max(minCapacity, this.sizeHint));
+    }
+
+    /**
+     * Gets a buffer from this pool whose capacity is at least the current size hint.
+     *
+     * @return a buffer
+     * @see #allocate(int)
+     */
+    public ByteBuf allocate() {
+        return this.allocate(0);
+    }
+
+    /**
+     * Ensures that the given buffer has at least the given number of writable bytes, counting it as a resize if the buffer has to be grown.
+     *
+     * @param buf         a buffer which was obtained from this pool
+     * @param minWritable the number of bytes which should be writable
+     * @return the buffer
+     */
+    public ByteBuf ensureWritable(@NonNull ByteBuf buf, int minWritable) {
+        if (buf.writableBytes() < minWritable) {
+            this.resizes.increment();
+            buf.ensureWritable(minWritable);
+        }
+        return buf;
+    }
+
+    /**
+     * Notifies this pool of the size of a piece of data which was written into one of its buffers.
+     *
+     * @param size the size of the data (in bytes)
+     */
+    public void learn(int size) {
+        int hint = this.sizeHint;
+        if (size > hint) { //grow immediately if the data didn't fit into a buffer of the default size
+            this.sizeHint = min(roundUpToPowerOfTwo(size), this.maxRetainedCapacity());
+        }
+
+        this.windowMax.accumulateAndGet(size, Math::max);
+        if (this.windowCount.incrementAndGet() == SAMPLE_WINDOW) { //re-evaluate the size hint once every window so that it can shrink again
+            this.sizeHint = min(max(roundUpToPowerOfTwo(this.windowMax.getAndSet(0)), this.minSize), this.maxRetainedCapacity());
+            this.windowCount.set(0);
+        }
+    }
+
+    /**
+     * Returns a buffer to this pool.
+     * <p>
+     * If the buffer is too large to be retained, or if the pool is already full, it will be released.
+     *
+     * @param buf the buffer. If {@code null}, this method does nothing
+     */
+    public void recycle(ByteBuf buf) {
+        if (buf == null) {
+            return;
+        }
+
+        if (buf.refCnt() == 1 && buf.isDirect()
+            && buf.capacity() <= max(this.sizeHint << 2, this.minSize) && buf.capacity() <= this.maxRetainedCapacity()
+            && this.reserveSlot()) {
+            this.cache.addFirst(buf.clear());
+        } else {
+            buf.release();
+        }
+    }
+
+    protected boolean reserveSlot() {
+        int limit = RocksMCConfig.buffers.maxCached;
+        for (int count; (count = this.cached.get()) < limit; ) {
+            if (this.cached.compareAndSet(count, count + 1)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Releases all of the buffers which are currently cached by this pool.
+     */
+    public void clear() {
+        for (ByteBuf buf; (buf = this.cache.pollFirst()) != null; ) {
+            this.cached.decrementAndGet();
+            buf.release();
+        }
+    }
+
+    protected int maxRetainedCapacity() {
+        return max(RocksMCConfig.buffers.maxCachedCapacity << 10, this.minSize);
+    }
+
+    /**
+     * @return the number of buffers which are currently cached
+     */
+    public int cached() {
+        return this.cached.get();
+    }
+
+    /**
+     * @return the number of times that a buffer could be served from the cache
+     */
+    public long hits() {
+        return this.hits.sum();
+    }
+
+    /**
+     * @return the number of times that a new buffer had to be allocated
+     */
+    public long misses() {
+        return this.misses.sum();
+    }
+
+    /**
+     * @return the number of times that a buffer had to be grown because it was too small
+     */
+    public long resizes() {
+        return this.resizes.sum();
+    }
+
+    /**
+     * Adds this pool's statistics to the given map.
+     *
+     * @param values the map to add the statistics to
+     */
+    public void snapshot(@NonNull Map<String, Long> values) {
+        String prefix = "buffers_" + this.name.replace(' ', '_') + '_';
+        values.put(prefix + "hits", this.hits());
+        values.put(prefix + "misses", this.misses());
+        values.put(prefix + "resizes", this.resizes());
+        values.put(prefix + "cached", (long) this.cached());
+        values.put(prefix + "size_hint", (long) this.sizeHint);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: cached=%d hits=%d misses=%d resizes=%d sizeHint=%s", this.name, this.cached(), this.hits(), this.misses(), this.resizes(), RocksMCUtils.formatSize(this.sizeHint));
+    }
+}
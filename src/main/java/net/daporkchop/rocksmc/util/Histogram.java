@@ -0,0 +1,143 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2021-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package net.daporkchop.rocksmc.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.lang.Math.*;
+
+/**
+ * A concurrent histogram of non-negative {@code long} values.
+ * <p>
+ * Values are counted in logarithmic buckets, each of which is split into 8 linear sub-buckets, so that percentiles are accurate to within 12.5%
+ * regardless of the magnitude of the values. Recording a value is lock-free and doesn't allocate.
+ *
+ * @author DaPorkchop_
+ */
+public final class Histogram {
+    protected static final int SUB_BUCKET_BITS = 3;
+    protected static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    protected static final int BUCKETS = (Long.SIZE - SUB_BUCKET_BITS + 1) << SUB_BUCKET_BITS;
+
+    protected static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) Math.max(value, 0L);
+        }
+
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        return ((exponent - SUB_BUCKET_BITS + 1) << SUB_BUCKET_BITS) | (int) ((value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1));
+    }
+
+    /**
+     * @return the largest value which is counted in the given bucket
+     */
+    protected static long bucketMax(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+
+        int shift = (bucket >>> SUB_BUCKET_BITS) - 1;
+        if (shift + SUB_BUCKET_BITS >= 63) { //the bucket's upper bound would overflow
+            return Long.MAX_VALUE;
+        }
+        return ((long) (SUB_BUCKETS | (bucket & (SUB_BUCKETS - 1))) << shift) + (1L << shift) - 1L;
+    }
+
+    protected final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    protected final LongAdder count = new LongAdder();
+    protected final LongAdder sum = new LongAdder();
+    protected final LongAccumulator max = new LongAccumulator(Math::max, 0L);
+
+    /**
+     * Records a single value.
+     *
+     * @param value the value. Negative values are counted as 0
+     */
+    public void record(long value) {
+        this.counts.incrementAndGet(bucket(value));
+        this.count.increment();
+        this.sum.add(Math.max(value, 0L));
+        this.max.accumulate(value);
+    }
+
+    /**
+     * @return the number of recorded values
+     */
+    public long count() {
+        return this.count.sum();
+    }
+
+    /**
+     * @return the largest recorded value, or {@code 0} if no values have been recorded
+     */
+    public long max() {
+        return this.max.get();
+    }
+
+    /**
+     * @return the mean of all recorded values, or {@code 0} if no values have been recorded
+     */
+    public double mean() {
+        long count = this.count.sum();
+        return count != 0L ? this.sum.sum() / (double) count : 0.0d;
+    }
+
+    /**
+     * Gets an upper bound for the given percentile of all recorded values.
+     *
+     * @param percentile the percentile, between {@code 0.0} and {@code 1.0}
+     * @return the percentile, or {@code 0} if no values have been recorded
+     */
+    public long percentile(double percentile) {
+        long[] counts = new long[BUCKETS];
+        long total = 0L;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += counts[i] = this.counts.get(i);
+        }
+        if (total == 0L) {
+            return 0L;
+        }
+
+        long target = Math.max((long) ceil(total * percentile), 1L);
+        for (int i = 0; i < BUCKETS; i++) {
+            if ((target -= counts[i]) <= 0L) {
+                return min(bucketMax(i), this.max()); //the bucket's upper bound may be larger than any value which was actually recorded
+            }
+        }
+        return this.max();
+    }
+
+    /**
+     * Removes all recorded values.
+     * <p>
+     * Values which are recorded concurrently may or may not be removed.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            this.counts.set(i, 0L);
+        }
+        this.count.reset();
+        this.sum.reset();
+        this.max.reset();
+    }
+}
@@ -29,8 +29,7 @@ import io.netty.util.ReferenceCountUtil;
 import lombok.NonNull;
 import lombok.SneakyThrows;
 import lombok.experimental.UtilityClass;
-import net.minecraft.nbt.CompressedStreamTools;
-import net.minecraft.nbt.NBTSizeTracker;
+import net.daporkchop.rocksmc.util.nbt.NBTCodec;
 import net.minecraft.nbt.NBTTagCompound;
 
 import java.io.EOFException;
@@ -98,13 +97,12 @@ public class NBTSerializerUtils {
 
     @SneakyThrows(IOException.class)
     public void writeNBT(@NonNull ByteBuf dst, @NonNull NBTTagCompound nbt) {
-        //this doesn't actually do compression
-        CompressedStreamTools.write(nbt, new ByteBufOutputStream(dst));
+        //the output is identical to CompressedStreamTools.write(nbt, new ByteBufOutputStream(dst))
+        NBTCodec.write(dst, nbt);
     }
 
     @SneakyThrows(IOException.class)
     public NBTTagCompound readNBT(@NonNull ByteBuf src) {
-        //this doesn't actually do decompression
-        return CompressedStreamTools.read(new ByteBufInputStream(src), NBTSizeTracker.INFINITE);
+        return NBTCodec.read(src);
     }
 }
@@ -36,6 +36,11 @@ import static java.lang.Math.*;
  * <p>
  * Coordinates are encoded with their bits interleaved, in big-endian order. This improves overall RocksDB throughput, as cubes/columns that are near to each other will likely be stored
  * close together on disk as well.
+ * <p>
+ * Column positions are encoded as a 64-bit Morton code, where bit {@code 2*i+1} is bit {@code i} of the X coordinate and bit {@code 2*i} is bit {@code i} of the Z
+ * coordinate. Cube positions are encoded as a 96-bit Morton code, where bits {@code 3*i+2}, {@code 3*i+1} and {@code 3*i} are bit {@code i} of the X, Y and Z
+ * coordinates, respectively. As Java has no 96-bit integer type, cube positions are represented as a pair of an {@code int} (the high 32 bits) and a
+ * {@code long} (the low 64 bits).
  *
  * @author DaPorkchop_
  */
@@ -49,6 +54,90 @@ public class PositionSerializerUtils {
         return UnpooledByteBufAllocator.DEFAULT.heapBuffer(maxCapacity, maxCapacity);
     });
 
+    /**
+     * Spreads the 32 bits of the given value out so that there is one empty bit between each of them.
+     */
+    private long spread2(int value) {
+        long l = value & 0xFFFFFFFFL;
+        l = (l | (l << 16L)) & 0x0000FFFF0000FFFFL;
+        l = (l | (l << 8L)) & 0x00FF00FF00FF00FFL;
+        l = (l | (l << 4L)) & 0x0F0F0F0F0F0F0F0FL;
+        l = (l | (l << 2L)) & 0x3333333333333333L;
+        l = (l | (l << 1L)) & 0x5555555555555555L;
+        return l;
+    }
+
+    /**
+     * Inverse of {@link #spread2(int)}, ignoring the bits in between.
+     */
+    private int compact2(long l) {
+        l &= 0x5555555555555555L;
+        l = (l | (l >>> 1L)) & 0x3333333333333333L;
+        l = (l | (l >>> 2L)) & 0x0F0F0F0F0F0F0F0FL;
+        l = (l | (l >>> 4L)) & 0x00FF00FF00FF00FFL;
+        l = (l | (l >>> 8L)) & 0x0000FFFF0000FFFFL;
+        l = (l | (l >>> 16L)) & 0x00000000FFFFFFFFL;
+        return (int) l;
+    }
+
+    /**
+     * Spreads the low 21 bits of the given value out so that there are two empty bits between each of them.
+     */
+    private long spread3(int value) {
+        long l = value & 0x1FFFFFL;
+        l = (l | (l << 32L)) & 0x001F00000000FFFFL;
+        l = (l | (l << 16L)) & 0x001F0000FF0000FFL;
+        l = (l | (l << 8L)) & 0x100F00F00F00F00FL;
+        l = (l | (l << 4L)) & 0x10C30C30C30C30C3L;
+        l = (l | (l << 2L)) & 0x1249249249249249L;
+        return l;
+    }
+
+    /**
+     * Inverse of {@link #spread3(int)}, ignoring the bits in between.
+     */
+    private int compact3(long l) {
+        l &= 0x1249249249249249L;
+        l = (l | (l >>> 2L)) & 0x10C30C30C30C30C3L;
+        l = (l | (l >>> 4L)) & 0x100F00F00F00F00FL;
+        l = (l | (l >>> 8L)) & 0x001F0000FF0000FFL;
+        l = (l | (l >>> 16L)) & 0x001F00000000FFFFL;
+        l = (l | (l >>> 32L)) & 0x00000000001FFFFFL;
+        return (int) l;
+    }
+
+    /**
+     * Interleaves the bits from the given 32-bit values. The low 21 bits of each value are interleaved into the low 63 bits of the returned value.
+     */
+    private long interleave3(int x, int y, int z) {
+        return (spread3(x) << 2L) | (spread3(y) << 1L) | spread3(z);
+    }
+
+    //
+    // columns
+    //
+
+    /**
+     * Encodes the given column position into its 64-bit Morton code.
+     */
+    public long encodeColumn(int x, int z) {
+        return (spread2(x) << 1L) | spread2(z);
+    }
+
+    /**
+     * @return the X coordinate of the column position with the given Morton code
+     */
+    public int decodeColumnX(long key) {
+        return compact2(key >>> 1L);
+    }
+
+    /**
+     * @return the Z coordinate of the column position with the given Morton code
+     */
+    public int decodeColumnZ(long key) {
+        return compact2(key);
+    }
+
     public byte[] columnPosToBytes(@NonNull ChunkPos pos) {
         ByteBuf buf = TEMP_BUFFER_CACHE.get().clear();
         writeColumnPos(buf, pos);
@@ -56,25 +145,57 @@ public class PositionSerializerUtils {
     }
 
     public void writeColumnPos(@NonNull ByteBuf dst, @NonNull ChunkPos pos) {
-        int x = pos.x;
-        int z = pos.z;
-        long l = 0L;
-        for (int i = 0; i < 32; i++) {
-            l |= (long) ((((x >>> i) & 1) << 1) | ((z >>> i) & 1)) << (i << 1);
-        }
-        dst.writeLong(l);
+        dst.writeLong(encodeColumn(pos.x, pos.z));
+    }
+
+    public void writeColumnPos(@NonNull ByteBuf dst, int x, int z) {
+        dst.writeLong(encodeColumn(x, z));
     }
 
     public ChunkPos readColumnPos(@NonNull ByteBuf src) {
-        long l = src.readLong();
-        int x = 0;
-        int z = 0;
-        for (int i = 0; i < 32; i++) {
-            int bits = (int) (l >>> (i << 1)) & 0x3;
-            x |= (bits >> 1) << i;
-            z |= (bits & 1) << i;
-        }
-        return new ChunkPos(x, z);
+        long key = src.readLong();
+        return new ChunkPos(decodeColumnX(key), decodeColumnZ(key));
+    }
+
+    //
+    // cubes
+    //
+
+    /**
+     * Encodes the given cube position into its 96-bit Morton code, and returns the low 64 bits.
+     */
+    public long encodeCubeLow(int x, int y, int z) {
+        //bits 0-62 contain the low 21 bits of each coordinate, bit 63 contains bit 21 of the Z coordinate
+        return interleave3(x, y, z) | (spread3(z >>> 21) << 63L);
+    }
+
+    /**
+     * Encodes the given cube position into its 96-bit Morton code, and returns the high 32 bits.
+     */
+    public int encodeCubeHigh(int x, int y, int z) {
+        //the high 11 bits of each coordinate are interleaved into 33 bits, the lowest of which is stored in the low 64 bits
+        return (int) (interleave3(x >>> 21, y >>> 21, z >>> 21) >>> 1L);
+    }
+
+    /**
+     * @return the X coordinate of the cube position with the given Morton code
+     */
+    public int decodeCubeX(int high, long low) {
+        return compact3(low >>> 2L) | (compact3(((high & 0xFFFFFFFFL) << 1L | (low >>> 63L)) >>> 2L) << 21);
+    }
+
+    /**
+     * @return the Y coordinate of the cube position with the given Morton code
+     */
+    public int decodeCubeY(int high, long low) {
+        return compact3(low >>> 1L) | (compact3(((high & 0xFFFFFFFFL) << 1L | (low >>> 63L)) >>> 1L) << 21);
+    }
+
+    /**
+     * @return the Z coordinate of the cube position with the given Morton code
+     */
+    public int decodeCubeZ(int high, long low) {
+        return compact3(low) | (compact3((high & 0xFFFFFFFFL) << 1L | (low >>> 63L)) << 21);
     }
 
     public byte[] cubePosToBytes(@NonNull CubePos pos) {
@@ -84,43 +205,16 @@ public class PositionSerializerUtils {
     }
 
     public void writeCubePos(@NonNull ByteBuf dst, @NonNull CubePos pos) {
-        int x = pos.getX();
-        int y = pos.getY();
-        int z = pos.getZ();
-        dst.writeInt(0).writeInt(0).writeInt(0);
-        int startIndex = dst.writerIndex() - 1;
-        writeInterleavedIntBits(dst, startIndex, 3, 2, x);
-        writeInterleavedIntBits(dst, startIndex, 3, 1, y);
-        writeInterleavedIntBits(dst, startIndex, 3, 0, z);
+        writeCubePos(dst, pos.getX(), pos.getY(), pos.getZ());
     }
 
-    protected void writeInterleavedIntBits(@NonNull ByteBuf dst, int startIndex, int nValues, int bitOffset, int value) {
-        for (int shift = 0; shift < 32; shift++) {
-            int bit = (value >>> shift) & 1;
-            int targetBitIndex = bitOffset + shift * nValues;
-            int targetByteIndex = startIndex - (targetBitIndex >>> 3);
-            dst.setByte(targetByteIndex, dst.getByte(targetByteIndex) | (bit << (targetBitIndex & 0x7)));
-        }
+    public void writeCubePos(@NonNull ByteBuf dst, int x, int y, int z) {
+        dst.writeInt(encodeCubeHigh(x, y, z)).writeLong(encodeCubeLow(x, y, z));
     }
 
     public CubePos readCubePos(@NonNull ByteBuf src) {
-        src.skipBytes(SIZE_CUBE_POS);
-        int startIndex = src.readerIndex() - 1;
-
-        int x = readInterleavedIntBits(src, startIndex, 3, 2);
-        int y = readInterleavedIntBits(src, startIndex, 3, 1);
-        int z = readInterleavedIntBits(src, startIndex, 3, 0);
-        return new CubePos(x, y, z);
-    }
-
-    protected int readInterleavedIntBits(@NonNull ByteBuf src, int startIndex, int nValues, int bitOffset) {
-        int value = 0;
-        for (int shift = 0; shift < 32; shift++) {
-            int targetBitIndex = bitOffset + shift * nValues;
-            int targetByteIndex = startIndex - (targetBitIndex >>> 3);
-            int bit = (src.getByte(targetByteIndex) >>> (targetBitIndex & 0x7)) & 1;
-            value |= bit << shift;
-        }
-        return value;
+        int high = src.readInt();
+        long low = src.readLong();
+        return new CubePos(decodeCubeX(high, low), decodeCubeY(high, low), decodeCubeZ(high, low));
     }
 }
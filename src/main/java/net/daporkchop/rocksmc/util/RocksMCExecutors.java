@@ -0,0 +1,126 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2021-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package net.daporkchop.rocksmc.util;
+
+import lombok.NonNull;
+import lombok.experimental.UtilityClass;
+import net.daporkchop.rocksmc.RocksMCConfig;
+import net.daporkchop.rocksmc.storage.io.IOScheduler;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Shared thread pools used by RocksMC.
+ * <p>
+ * All pools are created lazily, and use daemon threads which are stopped again after being idle for a while.
+ *
+ * @author DaPorkchop_
+ */
+@UtilityClass
+public class RocksMCExecutors {
+    private ExecutorService DECODE_EXECUTOR;
+    private IOScheduler IO_SCHEDULER;
+    private ScheduledExecutorService SCHEDULER;
+
+    /**
+     * Creates a {@link ThreadFactory} for daemon threads with the given name prefix.
+     *
+     * @param name the name prefix
+     * @return a {@link ThreadFactory}
+     */
+    public ThreadFactory daemonThreadFactory(@NonNull String name) {
+        AtomicInteger counter = new AtomicInteger();
+        return task -> {
+            Thread thread = new Thread(task, name + " #" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Gets the bounded thread pool used for decoding NBT data.
+     * <p>
+     * If the pool's queue is full, tasks will be executed on the submitting thread.
+     *
+     * @return the decode pool
+     */
+    public synchronized ExecutorService decodeExecutor() {
+        ExecutorService executor = DECODE_EXECUTOR;
+        if (executor == null) {
+            int threads = RocksMCConfig.decoding.threads;
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 30L, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(threads << 2), daemonThreadFactory("RocksMC NBT Decode Thread"), new ThreadPoolExecutor.CallerRunsPolicy());
+            pool.allowCoreThreadTimeOut(true);
+            DECODE_EXECUTOR = executor = pool;
+        }
+        return executor;
+    }
+
+    /**
+     * Gets the scheduler used for executing asynchronous storage I/O.
+     *
+     * @return the I/O scheduler
+     */
+    public synchronized IOScheduler ioScheduler() {
+        IOScheduler scheduler = IO_SCHEDULER;
+        if (scheduler == null) {
+            IO_SCHEDULER = scheduler = new IOScheduler(RocksMCConfig.scheduler.threads);
+        }
+        return scheduler;
+    }
+
+    /**
+     * Shuts down the I/O scheduler, if it has been created.
+     * <p>
+     * Requests which have already been submitted will still be executed. A new scheduler will be created the next time {@link #ioScheduler()} is called.
+     */
+    public synchronized void shutdownIoScheduler() {
+        IOScheduler scheduler = IO_SCHEDULER;
+        if (scheduler != null) {
+            IO_SCHEDULER = null;
+            scheduler.shutdown();
+        }
+    }
+
+    /**
+     * Gets the single-threaded executor used for scheduling delayed and periodic tasks.
+     * <p>
+     * Tasks run on this executor must be short, and must never block.
+     *
+     * @return the scheduler
+     */
+    public synchronized ScheduledExecutorService scheduler() {
+        ScheduledExecutorService executor = SCHEDULER;
+        if (executor == null) {
+            ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, daemonThreadFactory("RocksMC Scheduler Thread"));
+            scheduler.setRemoveOnCancelPolicy(true);
+            SCHEDULER = executor = scheduler;
+        }
+        return executor;
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2021-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package net.daporkchop.rocksmc.util;
+
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import org.rocksdb.Cache;
+import org.rocksdb.ColumnFamilyOptions;
+import org.rocksdb.DBOptions;
+import org.rocksdb.WriteBufferManager;
+
+import java.util.Set;
+
+/**
+ * The full set of options used for opening a RocksMC database.
+ * <p>
+ * Each column family gets its own {@link ColumnFamilyOptions}, as columns and cubes have very different access patterns and value sizes.
+ *
+ * @author DaPorkchop_
+ */
+@RequiredArgsConstructor
+@Getter
+public final class RocksOptions {
+    @NonNull
+    protected final DBOptions dbOptions;
+
+    /**
+     * Options for the default column family, which only contains metadata.
+     */
+    @NonNull
+    protected final ColumnFamilyOptions defaultOptions;
+
+    /**
+     * Options for the column family containing column data.
+     */
+    @NonNull
+    protected final ColumnFamilyOptions columnOptions;
+
+    /**
+     * Options for the column family containing cube data.
+     */
+    @NonNull
+    protected final ColumnFamilyOptions cubeOptions;
+
+    /**
+     * The block cache shared by all column families which don't have a dedicated cache.
+     */
+    @NonNull
+    protected final Cache blockCache;
+
+    /**
+     * All block caches used by any column family, including {@link #blockCache}.
+     */
+    @NonNull
+    protected final Set<Cache> caches;
+
+    /**
+     * The {@link WriteBufferManager} which charges the memtables of all databases to {@link #blockCache}, or {@code null} if memtables aren't
+     * charged to the block cache.
+     */
+    protected final WriteBufferManager writeBufferManager;
+}
@@ -36,4 +36,7 @@ public class TranslationKeys {
     public final String ERROR_NOT_ROCKSMC = MODID + ".error.not_rocksmc";
 
     public final String ERROR_CANNOT_PARSE_WORLD = MODID + ".error.cannot_parse_world";
+    public final String ERROR_CANNOT_FIND_WORLD = MODID + ".error.cannot_find_world";
+    public final String ERROR_CANNOT_FIND_SAVE = MODID + ".error.cannot_find_save";
+    public final String ERROR_CANNOT_FIND_SNAPSHOT = MODID + ".error.cannot_find_snapshot";
 }
@@ -0,0 +1,336 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2021-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package net.daporkchop.rocksmc.util.nbt;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import lombok.NonNull;
+import net.minecraft.nbt.NBTBase;
+import net.minecraft.nbt.NBTPrimitive;
+import net.minecraft.nbt.NBTTagByte;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagIntArray;
+import net.minecraft.nbt.NBTTagList;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+
+import static net.daporkchop.rocksmc.util.nbt.NBTCodec.*;
+
+/**
+ * A read-only view of an encoded NBT compound tag, which only decodes the parts of the data that are actually accessed.
+ * <p>
+ * When the view is created, the names, types and offsets of the compound's direct children are indexed in a single pass, without decoding any of their
+ * values. Primitive values are read directly from the buffer, nested compounds are returned as further lazy views, and any other tags are only decoded when
+ * they are requested. The whole compound can be decoded into a regular {@link NBTTagCompound} using {@link #toNBT()}.
+ * <p>
+ * The getters behave the same way as the ones in {@link NBTTagCompound}: missing values or values of the wrong type result in a default value rather than an
+ * exception.
+ * <p>
+ * Views don't retain the buffer they're backed by, so they (and any views obtained from them) may only be used until the buffer is released. The buffer's
+ * indices are never modified.
+ *
+ * @author DaPorkchop_
+ */
+public final class LazyNBTCompound {
+    protected static final NBTPrimitive ZERO = new NBTTagByte((byte) 0);
+    protected static final LazyNBTCompound EMPTY = new LazyNBTCompound(Unpooled.EMPTY_BUFFER, 0, new String[0], new byte[0], new int[0]);
+
+    /**
+     * Creates a view of the unnamed root compound tag which begins at the given buffer's reader index.
+     *
+     * @param buf the buffer containing the encoded NBT data, as written by {@link NBTCodec#write(ByteBuf, NBTTagCompound)}
+     * @return a view of the root compound tag
+     */
+    public static LazyNBTCompound of(@NonNull ByteBuf buf) throws IOException {
+        ByteBuf src = buf.duplicate();
+        try {
+            if (src.readByte() != TAG_COMPOUND) {
+                throw new IOException("Root tag must be a named compound tag");
+            }
+            src.skipBytes(src.readUnsignedShort()); //skip root tag name
+            return index(src, 0);
+        } catch (IndexOutOfBoundsException e) {
+            throw (IOException) new EOFException().initCause(e);
+        }
+    }
+
+    /**
+     * Indexes the compound payload at the given buffer's reader index.
+     */
+    protected static LazyNBTCompound index(@NonNull ByteBuf src, int depth) throws IOException {
+        NBTReader.checkDepth(depth);
+
+        NBTReader reader = new NBTReader(src);
+        String[] names = new String[8];
+        byte[] ids = new byte[8];
+        int[] offsets = new int[8];
+        int size = 0;
+        for (int id; (id = src.readByte()) != TAG_END; size++) {
+            if (size == names.length) {
+                names = Arrays.copyOf(names, size << 1);
+                ids = Arrays.copyOf(ids, size << 1);
+                offsets = Arrays.copyOf(offsets, size << 1);
+            }
+
+            names[size] = reader.readName();
+            ids[size] = (byte) id;
+            offsets[size] = src.readerIndex();
+            reader.skipTag(id, depth + 1);
+        }
+        return new LazyNBTCompound(src, depth, names, ids, offsets);
+    }
+
+    protected final ByteBuf buf;
+    protected final int depth;
+
+    protected final byte[] ids;
+    protected final int[] offsets;
+    protected final Object2IntMap<String> indices;
+
+    protected LazyNBTCompound(@NonNull ByteBuf buf, int depth, @NonNull String[] names, @NonNull byte[] ids, @NonNull int[] offsets) {
+        this.buf = buf;
+        this.depth = depth;
+        this.ids = ids;
+        this.offsets = offsets;
+
+        this.indices = new Object2IntOpenHashMap<>(names.length);
+        this.indices.defaultReturnValue(-1);
+        for (int i = 0; i < names.length && names[i] != null; i++) {
+            this.indices.put(names[i], i); //if a name occurs multiple times, the last one wins (the same as when decoding normally)
+        }
+    }
+
+    /**
+     * @return the number of tags in this compound
+     */
+    public int getSize() {
+        return this.indices.size();
+    }
+
+    /**
+     * @return the names of all the tags in this compound
+     */
+    public Set<String> getKeySet() {
+        return Collections.unmodifiableSet(this.indices.keySet());
+    }
+
+    /**
+     * @return the type ID of the tag with the given name, or {@code 0} if there is no such tag
+     */
+    public byte getTagId(@NonNull String key) {
+        int index = this.indices.getInt(key);
+        return index >= 0 ? this.ids[index] : TAG_END;
+    }
+
+    public boolean hasKey(@NonNull String key) {
+        return this.indices.containsKey(key);
+    }
+
+    /**
+     * @param type the type ID, or {@code 99} to match any numeric type
+     * @see NBTTagCompound#hasKey(String, int)
+     */
+    public boolean hasKey(@NonNull String key, int type) {
+        int id = this.getTagId(key);
+        return id == type || (type == 99 && id >= TAG_BYTE && id <= TAG_DOUBLE);
+    }
+
+    /**
+     * Decodes a single tag.
+     *
+     * @return the decoded tag, or {@code null} if there is no such tag
+     */
+    public NBTBase getTag(@NonNull String key) {
+        int index = this.indices.getInt(key);
+        return index >= 0 ? this.decode(index) : null;
+    }
+
+    public byte getByte(@NonNull String key) {
+        int index = this.indices.getInt(key);
+        if (index < 0) {
+            return 0;
+        }
+        return this.ids[index] == TAG_BYTE ? this.buf.getByte(this.offsets[index]) : this.primitive(index).getByte();
+    }
+
+    public short getShort(@NonNull String key) {
+        int index = this.indices.getInt(key);
+        if (index < 0) {
+            return 0;
+        }
+        return this.ids[index] == TAG_SHORT ? this.buf.getShort(this.offsets[index]) : this.primitive(index).getShort();
+    }
+
+    public int getInteger(@NonNull String key) {
+        int index = this.indices.getInt(key);
+        if (index < 0) {
+            return 0;
+        }
+        return this.ids[index] == TAG_INT ? this.buf.getInt(this.offsets[index]) : this.primitive(index).getInt();
+    }
+
+    public long getLong(@NonNull String key) {
+        int index = this.indices.getInt(key);
+        if (index < 0) {
+            return 0L;
+        }
+        return this.ids[index] == TAG_LONG ? this.buf.getLong(this.offsets[index]) : this.primitive(index).getLong();
+    }
+
+    public float getFloat(@NonNull String key) {
+        int index = this.indices.getInt(key);
+        if (index < 0) {
+            return 0.0f;
+        }
+        return this.ids[index] == TAG_FLOAT ? Float.intBitsToFloat(this.buf.getInt(this.offsets[index])) : this.primitive(index).getFloat();
+    }
+
+    public double getDouble(@NonNull String key) {
+        int index = this.indices.getInt(key);
+        if (index < 0) {
+            return 0.0d;
+        }
+        return this.ids[index] == TAG_DOUBLE ? Double.longBitsToDouble(this.buf.getLong(this.offsets[index])) : this.primitive(index).getDouble();
+    }
+
+    public boolean getBoolean(@NonNull String key) {
+        return this.getByte(key) != 0;
+    }
+
+    public String getString(@NonNull String key) {
+        int index = this.indices.getInt(key);
+        if (index < 0 || this.ids[index] != TAG_STRING) {
+            return "";
+        }
+        try {
+            return this.reader(index).readString();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public byte[] getByteArray(@NonNull String key) {
+        int index = this.indices.getInt(key);
+        if (index < 0 || this.ids[index] != TAG_BYTE_ARRAY) {
+            return new byte[0];
+        }
+        int offset = this.offsets[index];
+        byte[] arr = new byte[this.buf.getInt(offset)];
+        this.buf.getBytes(offset + 4, arr);
+        return arr;
+    }
+
+    public int[] getIntArray(@NonNull String key) {
+        int index = this.indices.getInt(key);
+        if (index < 0 || this.ids[index] != TAG_INT_ARRAY) {
+            return new int[0];
+        }
+        return ((NBTTagIntArray) this.decode(index)).getIntArray();
+    }
+
+    /**
+     * Gets a nested compound tag as another lazy view.
+     *
+     * @return a view of the compound tag, or an empty view if there is no compound tag with the given name
+     */
+    public LazyNBTCompound getCompoundTag(@NonNull String key) {
+        int index = this.indices.getInt(key);
+        if (index < 0 || this.ids[index] != TAG_COMPOUND) {
+            return EMPTY;
+        }
+        try {
+            return index(this.buf.duplicate().readerIndex(this.offsets[index]), this.depth + 1);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Decodes a list tag.
+     *
+     * @see NBTTagCompound#getTagList(String, int)
+     */
+    public NBTTagList getTagList(@NonNull String key, int type) {
+        int index = this.indices.getInt(key);
+        if (index < 0 || this.ids[index] != TAG_LIST) {
+            return new NBTTagList();
+        }
+
+        //check the element type before decoding anything
+        int offset = this.offsets[index];
+        if (this.buf.getInt(offset + 1) != 0 && this.buf.getByte(offset) != type) {
+            return new NBTTagList();
+        }
+        return (NBTTagList) this.decode(index);
+    }
+
+    /**
+     * Gets the number of elements in a list tag, without decoding the list.
+     *
+     * @return the number of elements in the list, or {@code 0} if there is no list tag with the given name
+     */
+    public int getTagListSize(@NonNull String key) {
+        int index = this.indices.getInt(key);
+        return index >= 0 && this.ids[index] == TAG_LIST ? this.buf.getInt(this.offsets[index] + 1) : 0;
+    }
+
+    /**
+     * Decodes this entire compound tag.
+     *
+     * @return the decoded tag
+     */
+    public NBTTagCompound toNBT() {
+        NBTTagCompound nbt = new NBTTagCompound();
+        for (Object2IntMap.Entry<String> entry : this.indices.object2IntEntrySet()) {
+            nbt.setTag(entry.getKey(), this.decode(entry.getIntValue()));
+        }
+        return nbt;
+    }
+
+    protected NBTReader reader(int index) {
+        return new NBTReader(this.buf.duplicate().readerIndex(this.offsets[index]));
+    }
+
+    protected NBTBase decode(int index) {
+        try {
+            return this.reader(index).readTag(this.ids[index], this.depth + 1);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    protected NBTPrimitive primitive(int index) {
+        int id = this.ids[index];
+        return id >= TAG_BYTE && id <= TAG_DOUBLE ? (NBTPrimitive) this.decode(index) : ZERO;
+    }
+
+    @Override
+    public String toString() {
+        return this.toNBT().toString();
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2021-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package net.daporkchop.rocksmc.util.nbt;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import lombok.NonNull;
+import lombok.experimental.UtilityClass;
+import net.minecraft.nbt.NBTBase;
+import net.minecraft.nbt.NBTPrimitive;
+import net.minecraft.nbt.NBTTagByteArray;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagIntArray;
+import net.minecraft.nbt.NBTTagList;
+import net.minecraft.nbt.NBTTagLongArray;
+import net.minecraft.nbt.NBTTagString;
+import net.minecraftforge.fml.relauncher.ReflectionHelper;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UTFDataFormatException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.nio.ByteOrder;
+
+/**
+ * Encodes and decodes NBT data directly to and from {@link ByteBuf}s.
+ * <p>
+ * This produces exactly the same bytes as {@link net.minecraft.nbt.CompressedStreamTools#write(NBTTagCompound, java.io.DataOutput)}, but avoids the overhead
+ * of going through {@link java.io.DataInput}/{@link java.io.DataOutput}, copies primitive arrays in bulk and re-uses decoded tag names (see {@link NameCache}).
+ * <p>
+ * The only observable difference when decoding is that empty lists don't remember their element type, which makes no difference to how they are encoded.
+ *
+ * @author DaPorkchop_
+ */
+@UtilityClass
+public class NBTCodec {
+    public final int TAG_END = 0;
+    public final int TAG_BYTE = 1;
+    public final int TAG_SHORT = 2;
+    public final int TAG_INT = 3;
+    public final int TAG_LONG = 4;
+    public final int TAG_FLOAT = 5;
+    public final int TAG_DOUBLE = 6;
+    public final int TAG_BYTE_ARRAY = 7;
+    public final int TAG_STRING = 8;
+    public final int TAG_LIST = 9;
+    public final int TAG_COMPOUND = 10;
+    public final int TAG_INT_ARRAY = 11;
+    public final int TAG_LONG_ARRAY = 12;
+
+    /**
+     * The maximum nesting depth of compound and list tags, the same as vanilla's.
+     */
+    public final int MAX_DEPTH = 512;
+
+    //NBTTagLongArray doesn't have a getter in 1.12.2
+    protected final MethodHandle LONG_ARRAY_DATA;
+
+    static {
+        try {
+            LONG_ARRAY_DATA = MethodHandles.lookup().unreflectGetter(ReflectionHelper.findField(NBTTagLongArray.class, "data", "field_193587_b"));
+        } catch (IllegalAccessException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Writes an NBT compound tag to the given buffer, as an unnamed root tag.
+     *
+     * @param dst the buffer to write to
+     * @param nbt the tag to write
+     */
+    public void write(@NonNull ByteBuf dst, @NonNull NBTTagCompound nbt) throws IOException {
+        dst.writeByte(TAG_COMPOUND).writeShort(0);
+        writeCompound(dst, nbt);
+    }
+
+    /**
+     * Reads an unnamed root NBT compound tag from the given buffer.
+     *
+     * @param src the buffer to read from
+     * @return the tag
+     */
+    public NBTTagCompound read(@NonNull ByteBuf src) throws IOException {
+        try {
+            if (src.readByte() != TAG_COMPOUND) {
+                throw new IOException("Root tag must be a named compound tag");
+            }
+            src.skipBytes(src.readUnsignedShort()); //skip root tag name
+            return new NBTReader(src).readCompound(0);
+        } catch (IndexOutOfBoundsException e) {
+            throw (IOException) new EOFException().initCause(e);
+        }
+    }
+
+    //
+    // writing
+    //
+
+    void writeCompound(@NonNull ByteBuf dst, @NonNull NBTTagCompound nbt) throws IOException {
+        for (String name : nbt.getKeySet()) {
+            NBTBase tag = nbt.getTag(name);
+            byte id = tag.getId();
+            dst.writeByte(id);
+            if (id != TAG_END) {
+                writeString(dst, name);
+                writeTag(dst, tag, id);
+            }
+        }
+        dst.writeByte(TAG_END);
+    }
+
+    void writeList(@NonNull ByteBuf dst, @NonNull NBTTagList list) throws IOException {
+        int size = list.tagCount();
+        byte id = size != 0 ? list.get(0).getId() : TAG_END; //vanilla always writes TAG_End as the type of empty lists
+        dst.writeByte(id).writeInt(size);
+        for (int i = 0; i < size; i++) {
+            writeTag(dst, list.get(i), id);
+        }
+    }
+
+    void writeTag(@NonNull ByteBuf dst, @NonNull NBTBase tag, int id) throws IOException {
+        switch (id) {
+            case TAG_BYTE:
+                dst.writeByte(((NBTPrimitive) tag).getByte());
+                break;
+            case TAG_SHORT:
+                dst.writeShort(((NBTPrimitive) tag).getShort());
+                break;
+            case TAG_INT:
+                dst.writeInt(((NBTPrimitive) tag).getInt());
+                break;
+            case TAG_LONG:
+                dst.writeLong(((NBTPrimitive) tag).getLong());
+                break;
+            case TAG_FLOAT: //DataOutput canonicalizes NaNs, ByteBuf#writeFloat doesn't
+                dst.writeInt(Float.floatToIntBits(((NBTPrimitive) tag).getFloat()));
+                break;
+            case TAG_DOUBLE:
+                dst.writeLong(Double.doubleToLongBits(((NBTPrimitive) tag).getDouble()));
+                break;
+            case TAG_BYTE_ARRAY: {
+                byte[] arr = ((NBTTagByteArray) tag).getByteArray();
+                dst.writeInt(arr.length).writeBytes(arr);
+                break;
+            }
+            case TAG_STRING:
+                writeString(dst, ((NBTTagString) tag).getString());
+                break;
+            case TAG_LIST:
+                writeList(dst, (NBTTagList) tag);
+                break;
+            case TAG_COMPOUND:
+                writeCompound(dst, (NBTTagCompound) tag);
+                break;
+            case TAG_INT_ARRAY:
+                writeIntArray(dst, ((NBTTagIntArray) tag).getIntArray());
+                break;
+            case TAG_LONG_ARRAY:
+                writeLongArray(dst, longArray((NBTTagLongArray) tag));
+                break;
+            default:
+                throw new IOException("Unknown NBT tag type: " + id);
+        }
+    }
+
+    void writeIntArray(@NonNull ByteBuf dst, @NonNull int[] arr) {
+        int size = arr.length << 2;
+        dst.writeInt(arr.length).ensureWritable(size);
+        if (dst.nioBufferCount() == 1) { //the NIO buffer shares its memory with the ByteBuf, so we can copy the whole array at once
+            dst.nioBuffer(dst.writerIndex(), size).order(ByteOrder.BIG_ENDIAN).asIntBuffer().put(arr);
+            dst.writerIndex(dst.writerIndex() + size);
+        } else {
+            for (int i : arr) {
+                dst.writeInt(i);
+            }
+        }
+    }
+
+    void writeLongArray(@NonNull ByteBuf dst, @NonNull long[] arr) {
+        int size = arr.length << 3;
+        dst.writeInt(arr.length).ensureWritable(size);
+        if (dst.nioBufferCount() == 1) {
+            dst.nioBuffer(dst.writerIndex(), size).order(ByteOrder.BIG_ENDIAN).asLongBuffer().put(arr);
+            dst.writerIndex(dst.writerIndex() + size);
+        } else {
+            for (long l : arr) {
+                dst.writeLong(l);
+            }
+        }
+    }
+
+    /**
+     * Writes a string using Java's modified UTF-8 encoding, prefixed with its encoded length (see {@link java.io.DataOutput#writeUTF(String)}).
+     */
+    void writeString(@NonNull ByteBuf dst, @NonNull String str) throws IOException {
+        int length = str.length();
+        int utfLength = length;
+        for (int i = 0; i < length; i++) {
+            char c = str.charAt(i);
+            if (c == 0 || c >= 0x80) {
+                utfLength += c >= 0x800 ? 2 : 1;
+            }
+        }
+        if (utfLength > 0xFFFF) {
+            throw new UTFDataFormatException("encoded string too long: " + utfLength + " bytes");
+        }
+
+        dst.writeShort(utfLength);
+        if (utfLength == length) { //the string is pure ASCII, which netty can write without checking the bounds for every character
+            ByteBufUtil.writeAscii(dst, str);
+            return;
+        }
+
+        byte[] arr = new byte[utfLength];
+        for (int i = 0, j = 0; i < length; i++) {
+            char c = str.charAt(i);
+            if (c != 0 && c < 0x80) {
+                arr[j++] = (byte) c;
+            } else if (c < 0x800) {
+                arr[j++] = (byte) (0xC0 | (c >> 6));
+                arr[j++] = (byte) (0x80 | (c & 0x3F));
+            } else {
+                arr[j++] = (byte) (0xE0 | (c >> 12));
+                arr[j++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                arr[j++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        dst.writeBytes(arr);
+    }
+
+    long[] longArray(@NonNull NBTTagLongArray tag) {
+        try {
+            return (long[]) LONG_ARRAY_DATA.invokeExact(tag);
+        } catch (Throwable t) {
+            throw new AssertionError(t);
+        }
+    }
+}
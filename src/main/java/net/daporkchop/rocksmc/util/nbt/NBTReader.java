@@ -0,0 +1,298 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2021-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package net.daporkchop.rocksmc.util.nbt;
+
+import io.netty.buffer.ByteBuf;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import net.minecraft.nbt.NBTBase;
+import net.minecraft.nbt.NBTTagByte;
+import net.minecraft.nbt.NBTTagByteArray;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagDouble;
+import net.minecraft.nbt.NBTTagFloat;
+import net.minecraft.nbt.NBTTagInt;
+import net.minecraft.nbt.NBTTagIntArray;
+import net.minecraft.nbt.NBTTagList;
+import net.minecraft.nbt.NBTTagLong;
+import net.minecraft.nbt.NBTTagLongArray;
+import net.minecraft.nbt.NBTTagShort;
+import net.minecraft.nbt.NBTTagString;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UTFDataFormatException;
+import java.nio.ByteOrder;
+
+import static net.daporkchop.rocksmc.util.nbt.NBTCodec.*;
+
+/**
+ * Decodes NBT tags from a single {@link ByteBuf}.
+ * <p>
+ * Strings are copied into a scratch array before they're decoded, which is much faster than decoding them from the buffer one byte at a time.
+ *
+ * @author DaPorkchop_
+ */
+@RequiredArgsConstructor
+final class NBTReader {
+    @NonNull
+    protected final ByteBuf src;
+
+    protected byte[] scratch = new byte[64];
+
+    public NBTTagCompound readCompound(int depth) throws IOException {
+        checkDepth(depth);
+
+        NBTTagCompound nbt = new NBTTagCompound();
+        for (int id; (id = this.src.readByte()) != TAG_END; ) {
+            String name = this.readName();
+            nbt.setTag(name, this.readTag(id, depth + 1));
+        }
+        return nbt;
+    }
+
+    public NBTTagList readList(int depth) throws IOException {
+        checkDepth(depth);
+
+        int id = this.src.readByte();
+        int size = this.src.readInt();
+        if (size < 0) {
+            throw new IOException("Invalid list size: " + size);
+        } else if (id == TAG_END && size > 0) {
+            throw new IOException("Missing type on ListTag");
+        }
+
+        NBTTagList list = new NBTTagList();
+        for (int i = 0; i < size; i++) {
+            list.appendTag(this.readTag(id, depth + 1));
+        }
+        return list;
+    }
+
+    public NBTBase readTag(int id, int depth) throws IOException {
+        ByteBuf src = this.src;
+        switch (id) {
+            case TAG_BYTE:
+                return new NBTTagByte(src.readByte());
+            case TAG_SHORT:
+                return new NBTTagShort(src.readShort());
+            case TAG_INT:
+                return new NBTTagInt(src.readInt());
+            case TAG_LONG:
+                return new NBTTagLong(src.readLong());
+            case TAG_FLOAT:
+                return new NBTTagFloat(Float.intBitsToFloat(src.readInt()));
+            case TAG_DOUBLE:
+                return new NBTTagDouble(Double.longBitsToDouble(src.readLong()));
+            case TAG_BYTE_ARRAY: {
+                byte[] arr = new byte[this.readArrayLength(0)];
+                src.readBytes(arr);
+                return new NBTTagByteArray(arr);
+            }
+            case TAG_STRING:
+                return new NBTTagString(this.readString());
+            case TAG_LIST:
+                return this.readList(depth);
+            case TAG_COMPOUND:
+                return this.readCompound(depth);
+            case TAG_INT_ARRAY: {
+                int[] arr = new int[this.readArrayLength(2)];
+                src.nioBuffer(src.readerIndex(), arr.length << 2).order(ByteOrder.BIG_ENDIAN).asIntBuffer().get(arr);
+                src.skipBytes(arr.length << 2);
+                return new NBTTagIntArray(arr);
+            }
+            case TAG_LONG_ARRAY: {
+                long[] arr = new long[this.readArrayLength(3)];
+                src.nioBuffer(src.readerIndex(), arr.length << 3).order(ByteOrder.BIG_ENDIAN).asLongBuffer().get(arr);
+                src.skipBytes(arr.length << 3);
+                return new NBTTagLongArray(arr);
+            }
+            default:
+                throw new IOException("Unknown NBT tag type: " + id);
+        }
+    }
+
+    /**
+     * Skips over the payload of a tag without decoding it.
+     */
+    public void skipTag(int id, int depth) throws IOException {
+        ByteBuf src = this.src;
+        switch (id) {
+            case TAG_BYTE:
+            case TAG_SHORT:
+            case TAG_INT:
+            case TAG_LONG:
+            case TAG_FLOAT:
+            case TAG_DOUBLE:
+                src.skipBytes(primitiveSize(id));
+                break;
+            case TAG_BYTE_ARRAY:
+                src.skipBytes(this.readArrayLength(0));
+                break;
+            case TAG_STRING:
+                src.skipBytes(src.readUnsignedShort());
+                break;
+            case TAG_LIST: {
+                checkDepth(depth);
+
+                int elementId = src.readByte();
+                int size = src.readInt();
+                if (size < 0) {
+                    throw new IOException("Invalid list size: " + size);
+                } else if (elementId >= TAG_BYTE && elementId <= TAG_DOUBLE) { //all elements have the same size, so we can skip the whole list at once
+                    long bytes = (long) size * primitiveSize(elementId);
+                    if (bytes > src.readableBytes()) {
+                        throw new EOFException();
+                    }
+                    src.skipBytes((int) bytes);
+                } else {
+                    for (int i = 0; i < size; i++) {
+                        this.skipTag(elementId, depth + 1);
+                    }
+                }
+                break;
+            }
+            case TAG_COMPOUND:
+                checkDepth(depth);
+                for (int elementId; (elementId = src.readByte()) != TAG_END; ) {
+                    src.skipBytes(src.readUnsignedShort()); //skip name
+                    this.skipTag(elementId, depth + 1);
+                }
+                break;
+            case TAG_INT_ARRAY:
+                src.skipBytes(this.readArrayLength(2) << 2);
+                break;
+            case TAG_LONG_ARRAY:
+                src.skipBytes(this.readArrayLength(3) << 3);
+                break;
+            default:
+                throw new IOException("Unknown NBT tag type: " + id);
+        }
+    }
+
+    /**
+     * @return the encoded size of a primitive tag with the given type
+     */
+    protected static int primitiveSize(int id) {
+        switch (id) {
+            case TAG_BYTE:
+                return 1;
+            case TAG_SHORT:
+                return 2;
+            case TAG_INT:
+            case TAG_FLOAT:
+                return 4;
+            case TAG_LONG:
+            case TAG_DOUBLE:
+                return 8;
+            default:
+                throw new IllegalArgumentException("not a primitive tag type: " + id);
+        }
+    }
+
+    /**
+     * Reads the length of an array and makes sure that the buffer is large enough to contain it.
+     *
+     * @param shift the base-2 logarithm of the size of an array element
+     */
+    protected int readArrayLength(int shift) throws IOException {
+        int length = this.src.readInt();
+        if (length < 0 || ((long) length << shift) > this.src.readableBytes()) {
+            throw new IOException("Invalid array length: " + length);
+        }
+        return length;
+    }
+
+    /**
+     * Reads a tag name, re-using a cached {@link String} instance if possible.
+     */
+    public String readName() throws IOException {
+        int length = this.readUTFBytes();
+        String name = NameCache.get(this.scratch, length);
+        return name != null ? name : this.decodeUTF(length);
+    }
+
+    /**
+     * Reads a string which is encoded using Java's modified UTF-8 encoding, prefixed with its encoded length (see {@link java.io.DataInput#readUTF()}).
+     */
+    public String readString() throws IOException {
+        return this.decodeUTF(this.readUTFBytes());
+    }
+
+    /**
+     * Copies the bytes of a length-prefixed string into the scratch array.
+     *
+     * @return the encoded length of the string
+     */
+    protected int readUTFBytes() throws IOException {
+        int length = this.src.readUnsignedShort();
+        if (length > this.src.readableBytes()) {
+            throw new EOFException();
+        }
+
+        byte[] scratch = this.scratch;
+        if (scratch.length < length) {
+            this.scratch = scratch = new byte[Math.max(length, scratch.length << 1)];
+        }
+        this.src.readBytes(scratch, 0, length);
+        return length;
+    }
+
+    /**
+     * Decodes a string from the given number of modified UTF-8 bytes at the beginning of the scratch array.
+     */
+    protected String decodeUTF(int length) throws IOException {
+        byte[] bytes = this.scratch;
+        char[] chars = new char[length];
+        int count = 0;
+        for (int i = 0; i < length; ) {
+            int c = bytes[i] & 0xFF;
+            if (c < 0x80) {
+                chars[count++] = (char) c;
+                i++;
+            } else if ((c >> 5) == 0x6) {
+                int c2;
+                if (i + 1 >= length || ((c2 = bytes[i + 1]) & 0xC0) != 0x80) {
+                    throw new UTFDataFormatException("malformed input around byte " + i);
+                }
+                chars[count++] = (char) (((c & 0x1F) << 6) | (c2 & 0x3F));
+                i += 2;
+            } else if ((c >> 4) == 0xE) {
+                int c2;
+                int c3;
+                if (i + 2 >= length || ((c2 = bytes[i + 1]) & 0xC0) != 0x80 || ((c3 = bytes[i + 2]) & 0xC0) != 0x80) {
+                    throw new UTFDataFormatException("malformed input around byte " + i);
+                }
+                chars[count++] = (char) (((c & 0x0F) << 12) | ((c2 & 0x3F) << 6) | (c3 & 0x3F));
+                i += 3;
+            } else {
+                throw new UTFDataFormatException("malformed input around byte " + i);
+            }
+        }
+        return new String(chars, 0, count);
+    }
+
+    protected static void checkDepth(int depth) throws IOException {
+        if (depth > MAX_DEPTH) {
+            throw new IOException("Tried to read NBT tag with too high complexity, depth > " + MAX_DEPTH);
+        }
+    }
+}
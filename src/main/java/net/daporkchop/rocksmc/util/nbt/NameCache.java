@@ -0,0 +1,111 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2021-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package net.daporkchop.rocksmc.util.nbt;
+
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import lombok.experimental.UtilityClass;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A global cache of decoded NBT tag names.
+ * <p>
+ * Cube and column NBT data contains the same few tag names over and over again ("Sections", "Blocks", "Level", ...), so rather than decoding each of them
+ * into a new {@link String}, the most recently decoded name for each hash slot is kept and re-used if the encoded bytes match.
+ * <p>
+ * The cache is accessed without any synchronization: each slot holds an immutable {@link Name}, so a racing reader will either see the old entry, the new one,
+ * or nothing at all.
+ *
+ * @author DaPorkchop_
+ */
+@UtilityClass
+class NameCache {
+    /**
+     * The maximum encoded length of a name which may be cached.
+     */
+    final int MAX_LENGTH = 64;
+
+    final int SLOTS = 1 << 10;
+
+    final Name[] NAMES = new Name[SLOTS];
+
+    /**
+     * Gets the cached name with the given encoding.
+     * <p>
+     * Only names which consist entirely of ASCII characters are cached, as their modified UTF-8 encoding is identical to their ASCII encoding.
+     *
+     * @param bytes  an array containing the encoded name
+     * @param length the encoded length of the name
+     * @return the name, or {@code null} if the name can't be cached
+     */
+    String get(@NonNull byte[] bytes, int length) {
+        if (length > MAX_LENGTH) {
+            return null;
+        }
+
+        int hash = 0;
+        for (int i = 0; i < length; i++) {
+            byte b = bytes[i];
+            if (b <= 0) { //not ASCII (or an unencoded null character, which is technically invalid)
+                return null;
+            }
+            hash = hash * 31 + b;
+        }
+
+        int slot = (hash ^ (hash >>> 16)) & (SLOTS - 1);
+        Name name = NAMES[slot];
+        if (name != null && name.matches(bytes, length)) {
+            return name.string;
+        }
+
+        name = new Name(Arrays.copyOf(bytes, length), new String(bytes, 0, length, StandardCharsets.US_ASCII));
+        NAMES[slot] = name;
+        return name.string;
+    }
+
+    /**
+     * A cached name.
+     *
+     * @author DaPorkchop_
+     */
+    @RequiredArgsConstructor
+    final class Name {
+        @NonNull
+        protected final byte[] bytes;
+        @NonNull
+        protected final String string;
+
+        protected boolean matches(@NonNull byte[] bytes, int length) {
+            byte[] cached = this.bytes;
+            if (cached.length != length) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (cached[i] != bytes[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2021-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+import net.daporkchop.rocksmc.util.Histogram;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static com.google.common.base.Preconditions.*;
+
+/**
+ * @author DaPorkchop_
+ */
+public class TestHistogram {
+    @Test
+    public void testPercentiles() {
+        Random random = new Random(1337L);
+        for (int i = 0; i < 20; i++) {
+            Histogram histogram = new Histogram();
+            long[] values = new long[10000];
+            long bound = 1L << random.nextInt(62);
+            for (int j = 0; j < values.length; j++) {
+                histogram.record(values[j] = (random.nextLong() >>> 1) % bound);
+            }
+            Arrays.sort(values);
+
+            checkState(histogram.count() == values.length);
+            checkState(histogram.max() == values[values.length - 1]);
+            for (double percentile : new double[]{ 0.0d, 0.5d, 0.9d, 0.99d, 0.999d, 1.0d }) {
+                long expected = values[Math.max((int) Math.ceil(values.length * percentile), 1) - 1];
+                long actual = histogram.percentile(percentile);
+
+                //the result is the upper bound of the bucket containing the expected value, which is at most 12.5% larger
+                checkState(actual >= expected && actual - expected <= expected / 8L + 1L, "percentile %s: expected %s, got %s", percentile, expected, actual);
+            }
+        }
+    }
+
+    @Test
+    public void testReset() {
+        Histogram histogram = new Histogram();
+        histogram.record(Long.MAX_VALUE);
+        histogram.record(-1L);
+        checkState(histogram.count() == 2L && histogram.percentile(1.0d) == Long.MAX_VALUE && histogram.percentile(0.5d) == 0L);
+
+        histogram.reset();
+        checkState(histogram.count() == 0L && histogram.max() == 0L && histogram.percentile(0.5d) == 0L);
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2021-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import net.daporkchop.rocksmc.util.nbt.LazyNBTCompound;
+import net.daporkchop.rocksmc.util.nbt.NBTCodec;
+import net.minecraft.nbt.CompressedStreamTools;
+import net.minecraft.nbt.NBTBase;
+import net.minecraft.nbt.NBTSizeTracker;
+import net.minecraft.nbt.NBTTagByte;
+import net.minecraft.nbt.NBTTagByteArray;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagDouble;
+import net.minecraft.nbt.NBTTagFloat;
+import net.minecraft.nbt.NBTTagInt;
+import net.minecraft.nbt.NBTTagIntArray;
+import net.minecraft.nbt.NBTTagList;
+import net.minecraft.nbt.NBTTagLong;
+import net.minecraft.nbt.NBTTagLongArray;
+import net.minecraft.nbt.NBTTagShort;
+import net.minecraft.nbt.NBTTagString;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import static com.google.common.base.Preconditions.*;
+
+/**
+ * @author DaPorkchop_
+ */
+public class TestNBTCodec {
+    @Test
+    public void testMatchesVanilla() throws IOException {
+        Random random = new Random(1337L);
+        for (int i = 0; i < 200; i++) {
+            NBTTagCompound nbt = randomCompound(random, 0);
+            checkEncoding(nbt, UnpooledByteBufAllocator.DEFAULT.heapBuffer());
+            checkEncoding(nbt, UnpooledByteBufAllocator.DEFAULT.directBuffer());
+        }
+    }
+
+    @Test
+    public void testNaN() throws IOException {
+        NBTTagCompound nbt = new NBTTagCompound();
+        nbt.setFloat("f", Float.intBitsToFloat(0x7FC00001));
+        nbt.setDouble("d", Double.longBitsToDouble(0x7FF8000000000001L));
+
+        //NaN is never equal to itself, so only the encoded bytes can be compared
+        ByteBuf reference = UnpooledByteBufAllocator.DEFAULT.heapBuffer();
+        ByteBuf buf = UnpooledByteBufAllocator.DEFAULT.heapBuffer();
+        try {
+            CompressedStreamTools.write(nbt, new ByteBufOutputStream(reference));
+            NBTCodec.write(buf, nbt);
+            checkState(reference.equals(buf), "encoded data differs from vanilla!");
+        } finally {
+            reference.release();
+            buf.release();
+        }
+    }
+
+    @Test
+    public void testLazy() throws IOException {
+        Random random = new Random(1337L);
+        for (int i = 0; i < 200; i++) {
+            NBTTagCompound nbt = randomCompound(random, 0);
+            ByteBuf buf = UnpooledByteBufAllocator.DEFAULT.directBuffer();
+            try {
+                NBTCodec.write(buf, nbt);
+                int readerIndex = buf.readerIndex();
+                LazyNBTCompound lazy = LazyNBTCompound.of(buf);
+                checkState(buf.readerIndex() == readerIndex, "creating a lazy view modified the buffer");
+                checkLazy(nbt, lazy);
+            } finally {
+                buf.release();
+            }
+        }
+    }
+
+    private static void checkLazy(NBTTagCompound nbt, LazyNBTCompound lazy) {
+        checkState(nbt.equals(lazy.toNBT()), "lazily decoded data differs from original!");
+        checkState(nbt.getKeySet().equals(lazy.getKeySet()), "keys differ");
+        for (String key : nbt.getKeySet()) {
+            checkState(nbt.getTagId(key) == lazy.getTagId(key), "type of %s differs", key);
+            checkState(nbt.getTag(key).equals(lazy.getTag(key)), "value of %s differs", key);
+            checkState(nbt.getInteger(key) == lazy.getInteger(key) && nbt.getLong(key) == lazy.getLong(key) && nbt.getByte(key) == lazy.getByte(key)
+                       && Double.compare(nbt.getDouble(key), lazy.getDouble(key)) == 0 && nbt.getString(key).equals(lazy.getString(key))
+                       && Arrays.equals(nbt.getByteArray(key), lazy.getByteArray(key)) && Arrays.equals(nbt.getIntArray(key), lazy.getIntArray(key)),
+                    "primitive value of %s differs", key);
+            for (int type = 1; type <= 12; type++) {
+                checkState(nbt.getTagList(key, type).equals(lazy.getTagList(key, type)), "list %s with type %d differs", key, type);
+            }
+            if (nbt.getTagId(key) == 9) {
+                checkState(((NBTTagList) nbt.getTag(key)).tagCount() == lazy.getTagListSize(key), "size of list %s differs", key);
+            } else if (nbt.getTagId(key) == 10) {
+                checkLazy(nbt.getCompoundTag(key), lazy.getCompoundTag(key));
+            }
+        }
+        checkState(!lazy.hasKey("\0missing") && lazy.getCompoundTag("\0missing").getSize() == 0, "missing key found");
+    }
+
+    @Test(expected = IOException.class)
+    public void testDepthLimit() throws IOException {
+        NBTTagList list = new NBTTagList();
+        for (int i = 0; i < 1000; i++) {
+            NBTTagList parent = new NBTTagList();
+            parent.appendTag(list);
+            list = parent;
+        }
+        NBTTagCompound nbt = new NBTTagCompound();
+        nbt.setTag("list", list);
+
+        ByteBuf buf = UnpooledByteBufAllocator.DEFAULT.heapBuffer();
+        try {
+            NBTCodec.write(buf, nbt);
+            NBTCodec.read(buf);
+        } finally {
+            buf.release();
+        }
+    }
+
+    private static void checkEncoding(NBTTagCompound nbt, ByteBuf buf) throws IOException {
+        ByteBuf reference = UnpooledByteBufAllocator.DEFAULT.heapBuffer();
+        try {
+            CompressedStreamTools.write(nbt, new ByteBufOutputStream(reference));
+            NBTCodec.write(buf, nbt);
+            checkState(reference.equals(buf), "encoded data differs from vanilla!");
+
+            NBTTagCompound decoded = NBTCodec.read(buf);
+            checkState(!buf.isReadable(), "%d bytes left over after decoding", buf.readableBytes());
+            checkState(decoded.equals(CompressedStreamTools.read(new ByteBufInputStream(reference), NBTSizeTracker.INFINITE)), "decoded data differs from vanilla!");
+        } finally {
+            reference.release();
+            buf.release();
+        }
+    }
+
+    private static NBTTagCompound randomCompound(Random random, int depth) {
+        NBTTagCompound nbt = new NBTTagCompound();
+        for (int i = random.nextInt(depth < 4 ? 12 : 3); i > 0; i--) {
+            int id = 1 + random.nextInt(12);
+            nbt.setTag(randomString(random), randomTag(random, id, depth));
+        }
+        return nbt;
+    }
+
+    private static NBTBase randomTag(Random random, int id, int depth) {
+        switch (depth >= 4 && (id == 9 || id == 10) ? 1 : id) {
+            case 1:
+                return new NBTTagByte((byte) random.nextInt());
+            case 2:
+                return new NBTTagShort((short) random.nextInt());
+            case 3:
+                return new NBTTagInt(random.nextInt());
+            case 4:
+                return new NBTTagLong(random.nextLong());
+            case 5:
+                return new NBTTagFloat(random.nextFloat());
+            case 6:
+                return new NBTTagDouble(random.nextGaussian());
+            case 7: {
+                byte[] arr = new byte[random.nextInt(4096)];
+                random.nextBytes(arr);
+                return new NBTTagByteArray(arr);
+            }
+            case 8:
+                return new NBTTagString(randomString(random));
+            case 9: {
+                NBTTagList list = new NBTTagList();
+                int elementId = 1 + random.nextInt(12);
+                for (int i = random.nextInt(8); i > 0; i--) {
+                    list.appendTag(randomTag(random, elementId, depth + 1));
+                }
+                return list;
+            }
+            case 10:
+                return randomCompound(random, depth + 1);
+            case 11:
+                return new NBTTagIntArray(random.ints(random.nextInt(1024)).toArray());
+            case 12:
+                return new NBTTagLongArray(random.longs(random.nextInt(512)).toArray());
+            default:
+                throw new IllegalArgumentException();
+        }
+    }
+
+    private static String randomString(Random random) {
+        //common names, ASCII, and characters which take up 2 or 3 bytes in modified UTF-8 (including '\0' and unpaired surrogates)
+        switch (random.nextInt(4)) {
+            case 0:
+                return new String[]{ "Sections", "Blocks", "Level", "Y", "" }[random.nextInt(5)];
+            case 1:
+                return Integer.toHexString(random.nextInt());
+            default: {
+                char[] chars = new char[random.nextInt(32)];
+                for (int i = 0; i < chars.length; i++) {
+                    chars[i] = random.nextBoolean() ? (char) random.nextInt(0x800) : (char) random.nextInt(0x10000);
+                }
+                return new String(chars);
+            }
+        }
+    }
+}
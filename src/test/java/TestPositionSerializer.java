@@ -69,4 +69,71 @@ public class TestPositionSerializer {
             buf.release();
         }
     }
+
+    @Test
+    public void testColumnsMatchReference() {
+        ByteBuf buf = UnpooledByteBufAllocator.DEFAULT.heapBuffer();
+        try {
+            for (int[] coords : randomCoordinates(2)) {
+                buf.clear();
+                PositionSerializerUtils.writeColumnPos(buf, coords[0], coords[1]);
+                long reference = 0L;
+                for (int i = 0; i < 32; i++) {
+                    reference |= (long) ((((coords[0] >>> i) & 1) << 1) | ((coords[1] >>> i) & 1)) << (i << 1);
+                }
+                checkState(buf.readLong() == reference, "column (%s, %s) was encoded incorrectly!", coords[0], coords[1]);
+
+                long key = PositionSerializerUtils.encodeColumn(coords[0], coords[1]);
+                checkState(PositionSerializerUtils.decodeColumnX(key) == coords[0] && PositionSerializerUtils.decodeColumnZ(key) == coords[1],
+                        "column (%s, %s) was decoded incorrectly!", coords[0], coords[1]);
+            }
+        } finally {
+            buf.release();
+        }
+    }
+
+    @Test
+    public void testCubesMatchReference() {
+        ByteBuf buf = UnpooledByteBufAllocator.DEFAULT.heapBuffer();
+        ByteBuf reference = UnpooledByteBufAllocator.DEFAULT.heapBuffer();
+        try {
+            for (int[] coords : randomCoordinates(3)) {
+                buf.clear();
+                PositionSerializerUtils.writeCubePos(buf, coords[0], coords[1], coords[2]);
+
+                //the original bit-by-bit implementation
+                reference.clear().writeInt(0).writeInt(0).writeInt(0);
+                for (int value = 0; value < 3; value++) {
+                    for (int shift = 0; shift < 32; shift++) {
+                        int bit = (coords[value] >>> shift) & 1;
+                        int targetBitIndex = (2 - value) + shift * 3;
+                        int targetByteIndex = reference.writerIndex() - 1 - (targetBitIndex >>> 3);
+                        reference.setByte(targetByteIndex, reference.getByte(targetByteIndex) | (bit << (targetBitIndex & 0x7)));
+                    }
+                }
+                checkState(buf.equals(reference), "cube (%s, %s, %s) was encoded incorrectly!", coords[0], coords[1], coords[2]);
+
+                int high = PositionSerializerUtils.encodeCubeHigh(coords[0], coords[1], coords[2]);
+                long low = PositionSerializerUtils.encodeCubeLow(coords[0], coords[1], coords[2]);
+                checkState(PositionSerializerUtils.decodeCubeX(high, low) == coords[0]
+                           && PositionSerializerUtils.decodeCubeY(high, low) == coords[1]
+                           && PositionSerializerUtils.decodeCubeZ(high, low) == coords[2],
+                        "cube (%s, %s, %s) was decoded incorrectly!", coords[0], coords[1], coords[2]);
+            }
+        } finally {
+            buf.release();
+            reference.release();
+        }
+    }
+
+    private static int[][] randomCoordinates(int dimensions) {
+        int[] edgeCases = { 0, 1, -1, Integer.MIN_VALUE, Integer.MAX_VALUE, 1 << 21, (1 << 21) - 1, -(1 << 21) };
+        return IntStream.range(0, 10000)
+                .mapToObj(i -> IntStream.range(0, dimensions)
+                        .map(d -> i < edgeCases.length * edgeCases.length
+                                ? edgeCases[d == 0 ? i % edgeCases.length : (i / edgeCases.length + d) % edgeCases.length]
+                                : ThreadLocalRandom.current().nextInt())
+                        .toArray())
+                .toArray(int[][]::new);
+    }
 }